@@ -0,0 +1,232 @@
+package com.itad230.lwtech.livewallpaper;
+
+import java.util.Locale;
+
+import util.LatencyHistogram;
+
+/**
+ * Per-frame timing and GL call statistics for the renderer. The renderer
+ * marks the phase boundaries of each frame and reports its call counts;
+ * everything is aggregated into fixed-size histograms, so profiling a long
+ * session uses no more memory than profiling a short one.
+ *
+ *   update  - animation and transform work before any drawing
+ *   submit  - issuing the GL commands for the frame
+ *   gpu     - GPU time, where the driver supports timer queries
+ *
+ * A frame counts as jank when its CPU time or its GPU time exceeds one
+ * 60 Hz refresh interval, once however many of them do. GPU times arrive
+ * a few frames late, so the renderer numbers its frames and each GPU time
+ * is matched with the CPU verdict of its frame.
+ *
+ * Resume latency (from the wallpaper becoming visible to its first frame
+ * being drawn) is kept separately, split by whether the EGL context
+ * survived the pause.
+ *
+ * Where the renderer caches GL state it also reports, per frame, how many
+ * calls reached the driver and how many were dropped as redundant, and
+ * how many objects were drawn and how many culled as out of view.
+ */
+public class FrameProfiler {
+    public static final long JANK_THRESHOLD_NANOS = 16666667L;
+
+    // frames whose CPU verdict is kept for their GPU time; well over the GPU timer's latency
+    private static final int JANK_HISTORY = 16;
+
+    private final LatencyHistogram updateTimes = new LatencyHistogram();
+    private final LatencyHistogram submitTimes = new LatencyHistogram();
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram gpuTimes = new LatencyHistogram();
+    private final LatencyHistogram resumeTimes = new LatencyHistogram();
+    private final LatencyHistogram recreateResumeTimes = new LatencyHistogram();
+
+    private long frameStartNanos;
+    private long updateEndNanos;
+    private long frame;
+
+    // number and jank verdict of recent frames, by number modulo JANK_HISTORY
+    private final long[] historyFrames = new long[JANK_HISTORY];
+    private final boolean[] historyJank = new boolean[JANK_HISTORY];
+
+    private int frames;
+    private int jankFrames;
+    private long glCalls;
+    private long drawCalls;
+    private int lastGlCalls;
+    private int lastDrawCalls;
+    private int stateFrames;
+    private long issuedCalls;
+    private long elidedCalls;
+    private int lastIssuedCalls;
+    private int lastElidedCalls;
+    private int cullFrames;
+    private long drawnObjects;
+    private long culledObjects;
+    private int lastDrawnObjects;
+    private int lastCulledObjects;
+
+    public FrameProfiler() {
+        clearHistory();
+    }
+
+    /** @param frame the renderer's number for the frame, as passed with its GPU time */
+    public void beginFrame(long nowNanos, long frame) {
+        this.frame = frame;
+        frameStartNanos = nowNanos;
+        updateEndNanos = nowNanos;
+    }
+
+    public void endUpdate(long nowNanos) {
+        updateEndNanos = nowNanos;
+        updateTimes.record(nowNanos - frameStartNanos);
+    }
+
+    public void endFrame(long nowNanos, int frameGlCalls, int frameDrawCalls) {
+        submitTimes.record(nowNanos - updateEndNanos);
+        final long frameNanos = nowNanos - frameStartNanos;
+        frameTimes.record(frameNanos);
+
+        frames++;
+        final boolean jank = frameNanos > JANK_THRESHOLD_NANOS;
+        if (jank) {
+            jankFrames++;
+        }
+        final int slot = (int) (frame % JANK_HISTORY);
+        historyFrames[slot] = frame;
+        historyJank[slot] = jank;
+        glCalls += frameGlCalls;
+        drawCalls += frameDrawCalls;
+        lastGlCalls = frameGlCalls;
+        lastDrawCalls = frameDrawCalls;
+    }
+
+    /** Calls one frame passed to the driver and calls it dropped because they changed nothing. */
+    public void recordStateCache(int frameIssuedCalls, int frameElidedCalls) {
+        stateFrames++;
+        issuedCalls += frameIssuedCalls;
+        elidedCalls += frameElidedCalls;
+        lastIssuedCalls = frameIssuedCalls;
+        lastElidedCalls = frameElidedCalls;
+    }
+
+    /** Objects one frame drew and objects it left out as outside the view volume. */
+    public void recordCulling(int frameDrawnObjects, int frameCulledObjects) {
+        cullFrames++;
+        drawnObjects += frameDrawnObjects;
+        culledObjects += frameCulledObjects;
+        lastDrawnObjects = frameDrawnObjects;
+        lastCulledObjects = frameCulledObjects;
+    }
+
+    /**
+     * GPU time of an earlier frame, delivered whenever the timer query
+     * completes. Makes the frame jank if its CPU time didn't already; a
+     * frame that wasn't profiled, or is too long ago, isn't counted.
+     */
+    public void recordGpuTime(long nanos, long frame) {
+        gpuTimes.record(nanos);
+        final int slot = (int) (frame % JANK_HISTORY);
+        if (nanos > JANK_THRESHOLD_NANOS && historyFrames[slot] == frame && !historyJank[slot]) {
+            historyJank[slot] = true;
+            jankFrames++;
+        }
+    }
+
+    /** Time from a resume to its first frame; contextLost if everything had to be rebuilt. */
+    public void recordResume(long nanos, boolean contextLost) {
+        (contextLost ? recreateResumeTimes : resumeTimes).record(nanos);
+    }
+
+    public int getFrameCount() {
+        return frames;
+    }
+
+    public int getJankFrameCount() {
+        return jankFrames;
+    }
+
+    public int getLastGlCalls() {
+        return lastGlCalls;
+    }
+
+    public int getLastDrawCalls() {
+        return lastDrawCalls;
+    }
+
+    public int getLastIssuedCalls() {
+        return lastIssuedCalls;
+    }
+
+    public int getLastElidedCalls() {
+        return lastElidedCalls;
+    }
+
+    public int getLastDrawnObjects() {
+        return lastDrawnObjects;
+    }
+
+    public int getLastCulledObjects() {
+        return lastCulledObjects;
+    }
+
+    public void reset() {
+        updateTimes.reset();
+        submitTimes.reset();
+        frameTimes.reset();
+        gpuTimes.reset();
+        resumeTimes.reset();
+        recreateResumeTimes.reset();
+        frames = 0;
+        jankFrames = 0;
+        glCalls = 0;
+        drawCalls = 0;
+        stateFrames = 0;
+        issuedCalls = 0;
+        elidedCalls = 0;
+        cullFrames = 0;
+        drawnObjects = 0;
+        culledObjects = 0;
+        clearHistory();
+    }
+
+    private void clearHistory() {
+        for (int i = 0; i < JANK_HISTORY; i++) {
+            historyFrames[i] = -1;
+            historyJank[i] = false;
+        }
+    }
+
+    /** Multi-line summary suitable for logcat. */
+    public String report() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%d frames, %d jank (> %.1f ms)%n",
+                frames, jankFrames, JANK_THRESHOLD_NANOS / 1e6));
+        report.append("  update ").append(updateTimes.summary()).append('\n');
+        report.append("  submit ").append(submitTimes.summary()).append('\n');
+        report.append("  cpu    ").append(frameTimes.summary()).append('\n');
+        if (gpuTimes.getCount() > 0) {
+            report.append("  gpu    ").append(gpuTimes.summary()).append('\n');
+        } else {
+            report.append("  gpu    no timer query support\n");
+        }
+        if (resumeTimes.getCount() > 0) {
+            report.append("  resume, context kept  ").append(resumeTimes.summary()).append('\n');
+        }
+        if (recreateResumeTimes.getCount() > 0) {
+            report.append("  resume, context lost  ").append(recreateResumeTimes.summary()).append('\n');
+        }
+        if (frames > 0) {
+            report.append(String.format(Locale.US, "  %.1f GL calls, %.1f draw calls per frame",
+                    (double) glCalls / frames, (double) drawCalls / frames));
+        }
+        if (stateFrames > 0) {
+            report.append(String.format(Locale.US, "%n  %.1f calls issued, %.1f elided as redundant per frame",
+                    (double) issuedCalls / stateFrames, (double) elidedCalls / stateFrames));
+        }
+        if (cullFrames > 0) {
+            report.append(String.format(Locale.US, "%n  %.1f objects drawn, %.1f culled per frame",
+                    (double) drawnObjects / cullFrames, (double) culledObjects / cullFrames));
+        }
+        return report.toString();
+    }
+}
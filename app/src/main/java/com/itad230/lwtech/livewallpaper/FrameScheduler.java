@@ -0,0 +1,92 @@
+package com.itad230.lwtech.livewallpaper;
+
+/**
+ * Decides which display frames the wallpaper should render. It is fed the
+ * timestamp of every vsync (from a Choreographer callback on device, or any
+ * sequence of times in a test) and answers whether a frame should be drawn,
+ * pacing rendering to a target rate that is usually well below the display
+ * refresh rate.
+ *
+ * Rendering can also be requested explicitly with invalidate(), e.g. when
+ * the home screen is scrolled, and stops completely while the scheduler is
+ * stopped. No Android classes are used here, so the pacing can be checked
+ * with made-up clocks.
+ */
+public class FrameScheduler {
+    public static final int DEFAULT_TARGET_FPS = 30;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private long frameIntervalNanos;
+    private long nextFrameTimeNanos;
+    private boolean running;
+    private boolean dirty;
+
+    public FrameScheduler() {
+        setTargetFps(DEFAULT_TARGET_FPS);
+    }
+
+    /** Sets the rate frames are rendered at while nothing else asks for one. */
+    public void setTargetFps(int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("Target frame rate must be positive: " + fps);
+        }
+        frameIntervalNanos = NANOS_PER_SECOND / fps;
+    }
+
+    public int getTargetFps() {
+        return (int) (NANOS_PER_SECOND / frameIntervalNanos);
+    }
+
+    /** Starts pacing; the first vsync after this renders a frame. */
+    public void start() {
+        running = true;
+        dirty = true;
+    }
+
+    /** Stops rendering altogether, e.g. when the wallpaper is hidden. */
+    public void stop() {
+        running = false;
+        dirty = false;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Asks for a frame on the next vsync, regardless of pacing. Ignored while stopped. */
+    public void invalidate() {
+        if (running) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Called once per vsync.
+     *
+     * @param frameTimeNanos time of the vsync, in nanoseconds on a monotonic clock
+     * @return true if a frame should be rendered for this vsync
+     */
+    public boolean onVsync(long frameTimeNanos) {
+        if (!running) {
+            return false;
+        }
+
+        // Vsyncs rarely line up with the target interval exactly, so accept
+        // one that arrives up to a quarter interval early; otherwise a 30 fps
+        // target on a 60 Hz display would keep missing by a hair and drop to 20.
+        final long tolerance = frameIntervalNanos / 4;
+        if (!dirty && frameTimeNanos < nextFrameTimeNanos - tolerance) {
+            return false;
+        }
+
+        dirty = false;
+        nextFrameTimeNanos += frameIntervalNanos;
+        if (nextFrameTimeNanos <= frameTimeNanos) {
+            // first frame, or we fell behind (e.g. the process was stalled);
+            // don't try to catch up with a burst of frames
+            nextFrameTimeNanos = frameTimeNanos + frameIntervalNanos;
+        }
+        return true;
+    }
+}
@@ -6,6 +6,7 @@ import android.content.pm.ConfigurationInfo;
 import android.opengl.GLSurfaceView;
 import android.os.Build;
 import android.service.wallpaper.WallpaperService;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
 import android.widget.Toast;
 
@@ -24,10 +25,17 @@ public class GLWallpaperService extends WallpaperService {
      * the wallpaper engine via a call to onCreate() and pass this surface in as
      * a SurfaceHolder, which is an abstract interface to the surface.
      */
-    public class GLEngine extends Engine {
+    public class GLEngine extends Engine implements Choreographer.FrameCallback {
         private WallpaperGLSurfaceView glSurfaceView;
+        private LiveWallpaperRenderer renderer;
         private boolean rendererSet;
 
+        // Frames are rendered on demand: every vsync the scheduler decides
+        // whether this one should be drawn, so the wallpaper runs at its
+        // target rate instead of as fast as the display refreshes.
+        private final FrameScheduler frameScheduler = new FrameScheduler();
+        private float lastXOffset = 0.5f;
+
         class WallpaperGLSurfaceView extends GLSurfaceView {
             WallpaperGLSurfaceView(Context context) {
                 super(context);
@@ -63,12 +71,21 @@ public class GLWallpaperService extends WallpaperService {
                             || Build.MODEL.contains("Emulator")
                             || Build.MODEL.contains("Android SDK built for x86")));
 
-            final LiveWallpaperRenderer liveWallPaperRenderer =
-                    new LiveWallpaperRenderer(GLWallpaperService.this);
-
             if (supportsEs2) {
+                // Returns at once; the assets load in the background. Only
+                // made once ES 2 is known to work, as it starts the loading
+                // and the scene update threads.
+                final LiveWallpaperRenderer liveWallPaperRenderer =
+                        new LiveWallpaperRenderer(GLWallpaperService.this);
+
                 glSurfaceView.setEGLContextClientVersion(2);
+                // Keep the context (and the programs and buffers in it)
+                // while the wallpaper is hidden, so showing it again
+                // doesn't mean recompiling and re-uploading everything.
+                glSurfaceView.setPreserveEGLContextOnPause(true);
                 glSurfaceView.setRenderer(liveWallPaperRenderer);
+                glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+                renderer = liveWallPaperRenderer;
                 rendererSet = true;
             } else {
                 Toast.makeText(GLWallpaperService.this,
@@ -87,20 +104,69 @@ public class GLWallpaperService extends WallpaperService {
             super.onVisibilityChanged(visible);
             if(rendererSet) {
                 if (visible) {
+                    renderer.onResuming(System.nanoTime());
                     glSurfaceView.onResume();
+                    startFrames();
                 } else {
+                    stopFrames();
                     glSurfaceView.onPause();
                 }
             }
         }
 
+        /**
+         * Called when the home screen is scrolled. The wallpaper pans with
+         * the horizontal offset, so a frame is only requested when that
+         * offset actually moved.
+         */
+        @Override
+        public void onOffsetsChanged(float xOffset, float yOffset,
+                                     float xOffsetStep, float yOffsetStep,
+                                     int xPixelOffset, int yPixelOffset) {
+            super.onOffsetsChanged(xOffset, yOffset, xOffsetStep, yOffsetStep,
+                    xPixelOffset, yPixelOffset);
+            if (rendererSet && xOffset != lastXOffset) {
+                lastXOffset = xOffset;
+                renderer.setXOffset(xOffset);
+                frameScheduler.invalidate();
+            }
+        }
+
+        /** Choreographer vsync callback, on the main thread. */
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!frameScheduler.isRunning()) {
+                return;
+            }
+            if (frameScheduler.onVsync(frameTimeNanos)) {
+                glSurfaceView.requestRender();
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        private void startFrames() {
+            if (!frameScheduler.isRunning()) {
+                frameScheduler.start();
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        private void stopFrames() {
+            frameScheduler.stop();
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
         /**
          * Called when the live wallpaper is destroyed
          */
         @Override
         public void onDestroy() {
             super.onDestroy();
+            stopFrames();
             glSurfaceView.onWallpaperDestroy();
+            if (rendererSet) {
+                renderer.release();
+            }
         }
     }
 
@@ -13,13 +13,20 @@ import android.widget.Toast;
 
 
 public class LiveWallpaperActivity extends Activity {
+    // survives the recreate() that switches the shape demo on or off
+    private static final String STATE_SHAPE_DEMO = "shapeDemo";
+
     // ...1st, add these two member variables...
     private GLSurfaceView glSurfaceView;
+    private LiveWallpaperRenderer renderer;
     private boolean rendererSet = false;
+    private boolean profiling = false;
+    private boolean shapeDemo = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        shapeDemo = savedInstanceState != null && savedInstanceState.getBoolean(STATE_SHAPE_DEMO);
 
         // ...2nd, add this call...
         glSurfaceView = new GLSurfaceView(this);
@@ -50,9 +57,11 @@ public class LiveWallpaperActivity extends Activity {
             // get an OpenGL ES 2 compatible context
             glSurfaceView.setEGLContextClientVersion(2);
             glSurfaceView.setEGLConfigChooser(8,8,8,8,16,0);
+            glSurfaceView.setPreserveEGLContextOnPause(true);
 
             // Assign a renderer
-            glSurfaceView.setRenderer(new LiveWallpaperRenderer(this));
+            renderer = new LiveWallpaperRenderer(this, shapeDemo);
+            glSurfaceView.setRenderer(renderer);
             rendererSet = true;
         } else {
             Toast.makeText(this, "This device does not support OpenGL ES 2.0.",
@@ -71,6 +80,7 @@ public class LiveWallpaperActivity extends Activity {
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_using_shaders, menu);
+        menu.findItem(R.id.action_shape_demo).setChecked(shapeDemo);
         return true;
     }
 
@@ -84,12 +94,32 @@ public class LiveWallpaperActivity extends Activity {
 
         //noinspection SimplifiableIfStatement
         if (id == R.id.action_settings) {
+            // toggles frame profiling; turning it off logs what was gathered
+            if (rendererSet) {
+                profiling = !profiling;
+                if (!profiling) {
+                    renderer.requestProfileDump();
+                }
+                renderer.setProfilingEnabled(profiling);
+            }
+            return true;
+        }
+        if (id == R.id.action_shape_demo) {
+            // the renderer builds its scene once, so start over with a new one
+            shapeDemo = !shapeDemo;
+            recreate();
             return true;
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_SHAPE_DEMO, shapeDemo);
+    }
+
     // ...7th, add these two lifecycle event handlers so the surface view
     // can pause and resume the background rendering thread, as well as release
     // and renew the OpenGL context
@@ -105,7 +135,16 @@ public class LiveWallpaperActivity extends Activity {
     protected void onResume() {
         super.onResume();
         if (rendererSet) {
+            renderer.onResuming(System.nanoTime());
             glSurfaceView.onResume();
         }
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (rendererSet) {
+            renderer.release();
+        }
+    }
 }
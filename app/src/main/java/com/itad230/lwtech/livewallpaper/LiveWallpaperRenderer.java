@@ -3,26 +3,43 @@ package com.itad230.lwtech.livewallpaper;
 import android.content.Context;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.Matrix;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.Locale;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-import util.FloatResourceReader;
-import util.LoggerConfig;
-import util.ShaderHelper;
-import util.TextResourceReader;
+import com.itad230.lwtech.livewallpaper.scene.FrameTransforms;
+import com.itad230.lwtech.livewallpaper.scene.LevelOfDetail;
+import com.itad230.lwtech.livewallpaper.scene.RenderQueue;
+import com.itad230.lwtech.livewallpaper.scene.Scene;
+import com.itad230.lwtech.livewallpaper.scene.SceneUpdater;
 
-import static android.opengl.GLES20.glClearColor;
-import static android.opengl.GLES20.glEnable;
-import static android.opengl.GLES20.glVertexAttribPointer;
-import static android.opengl.GLES20.glViewport;
+import util.AsyncAssetLoader;
+import util.GpuTimer;
+import util.LoggerConfig;
+import util.RenderTarget;
+import util.ResourceCache;
+import util.ShaderCache;
+import util.ShaderProgram;
+import util.ShaderVariants;
+import util.StagingArena;
+import util.VertexBuffer;
+import util.gl.AndroidGLBackend;
+import util.gl.GLBackend;
+import util.gl.GLResourceManager;
+import util.gl.StateCachingGLBackend;
+import util.math.Mat4;
+import util.mesh.Mesh;
+import util.mesh.MeshFormat;
+import util.mesh.MeshGenerator;
+import util.mesh.MeshPacker;
+import util.mesh.MeshReplicator;
+import util.mesh.VertexAttribute;
 
 /**
  * Created by tomabot on 4/22/15.
@@ -30,88 +47,282 @@ import static android.opengl.GLES20.glViewport;
 public class LiveWallpaperRenderer implements GLSurfaceView.Renderer {
     private static final String USINGSHADERSRENDERER = "LiveWallpaperRenderer";
 
-    private final Context context;
+    // All GL calls go through here, so the renderer can also be run
+    // against a headless backend off-device. It is the state cache, which
+    // drops calls that would leave GL state as it is before they reach the
+    // real backend.
+    private final GLBackend gl;
+    private final StateCachingGLBackend stateCache;
+    private volatile boolean stateCacheEnabled = true;     // applied at the start of each frame
+
+    // Assets are read and decoded on a background thread and picked up by
+    // the GL thread at the start of a frame; until they arrive every frame
+    // is just the clear color.
+    private final AsyncAssetLoader<WallpaperAssets> assetLoader = new AsyncAssetLoader<WallpaperAssets>();
+    private volatile WallpaperAssets assets;    // null until loaded; set and released under the lock
+    private boolean released;
+
+    // Every program, buffer and query the renderer owns, so that after a
+    // context loss each can rebuild itself the next time it is used.
+    private final GLResourceManager resources = new GLResourceManager();
+
+    // Compiles each distinct shader once per context, and keeps linked
+    // program binaries on disk where the device supports it.
+    private final ShaderCache shaderCache;
 
-    private float[] modelMatrix = new float[16];        // model transformation matrix
     private float[] viewMatrix = new float[16];         // view transformation matrix
     private float[] projectionMatrix = new float[16];   // 2D projection matrix
-    private float[] mvpMatrix = new float[16];          // combined model/view/projection matrix
-    private float[] lightModelMatrix = new float[16];   //copy of the model matrix for the light position
+    private static final float NEAR_PLANE = 1.0f;       // distances of the clip planes from the eye
+    private static final float FAR_PLANE = 10.0f;
 
 
     // names for fields in the shaders
-    private static final String A_COLOR = "a_Color";      // constant name for attribute a_Color
+    private static final String A_COLOR = "a_Color";          // constant name for attribute a_Color
     private static final String A_POSITION = "a_Position";    // constant name for attribute a_Position
+    private static final String A_NORMAL = "a_Normal";        // constant name for attribute a_Normal
     private static final String U_MVPMATRIX = "u_MVPMatrix";  // constant name for uniform MVP matrix
-
-    // id's (or handles) for fields in the shaders
+    private static final String U_MVMATRIX = "u_MVMatrix";    // constant name for uniform MV matrix
+    private static final String U_LIGHTPOS = "u_LightPos";    // constant name for uniform light position
+    private static final String U_MVMATRICES = "u_MVMatrices";        // batched model/view matrices
+    private static final String U_PMATRIX = "u_PMatrix";              // batched projection matrix
+    private static final String A_INSTANCEINDEX = "a_InstanceIndex";  // batched instance number
+    private static final String U_TEXSCALE = "u_TexScale";            // part of the offscreen target in use
+    private static final String U_TEXTURE = "u_Texture";              // offscreen color texture
+
+    // Every cube program is a variant of vshader_cube/fshader_cube, picked by
+    // #defining some of these; bit i of a variant's flags defines CUBE_FLAGS[i].
+    private static final String[] CUBE_FLAGS = {
+            "BATCHED", "LIGHTING_PER_VERTEX", "LIGHTING_PER_FRAGMENT", "ATTENUATION",
+            "PRECISION_HIGH", "PRECISION_LOW" };
+    private static final int CUBE_BATCHED = 1;
+    private static final int CUBE_LIGHTING_PER_VERTEX = 1 << 1;
+    private static final int CUBE_LIGHTING_PER_FRAGMENT = 1 << 2;
+    private static final int CUBE_ATTENUATION = 1 << 3;
+    private static final int CUBE_PRECISION_HIGH = 1 << 4;
+    private static final int CUBE_PRECISION_LOW = 1 << 5;
+
+    // the cube shading used at each QualityGovernor tier, low to high
+    private static final int[] TIER_CUBE_FLAGS = {
+            CUBE_LIGHTING_PER_VERTEX | CUBE_ATTENUATION | CUBE_PRECISION_LOW,
+            CUBE_LIGHTING_PER_FRAGMENT | CUBE_ATTENUATION,
+            CUBE_LIGHTING_PER_FRAGMENT | CUBE_ATTENUATION | CUBE_PRECISION_HIGH };
+
+    // id's for fields in the shaders, resolved when a program is picked. Uniform
+    // id's are indexes into the ShaderProgram's uniform table, attribute id's
+    // are GL attribute locations.
     private int mvpMatrixId;    // for passing model/view/projection matrix
     private int mvMatrixId;     // for passing model/view matrix
     private int lightPosId;     // for passing light position
     private int positionId;     // for passing model position information
     private int colorId;        // for passing model color information
     private int normalId;       // for passing model normal information
-
-    // float buffers for cube data
-    private FloatBuffer cubeVertexes;
-    private FloatBuffer cubeColors;
-    private FloatBuffer cubeNormals;
-
-    // sizes and offsets for regions in the float buffers
-    private final int bytesPerFloat = 4;        // no. of bytes per float
-    //private final int strideBytes = 7 * bytesPerFloat;  // no. of elements per row
-    private final int positionOffset = 0;       // offset of the position data
-    private final int positionDataSize = 3;     // no. of position data elements
-    private final int colorOffset = 3;          // offset of the color data
-    private final int colorDataSize = 4;        // size of color data in elements
-    private final int normalDataSize = 3;       // size of normal data in elements
+    private int pointMvpMatrixId;   // MVP matrix of the light point program
+    private int pointPositionId;    // position attribute of the light point program
+
+    // Interleaved position/color/normal data for the cube, kept in a GPU
+    // buffer. Like the batch and the quad below it is built in the staging
+    // arena only when it has to be uploaded, and freed straight after, so
+    // the renderer holds no vertex data off-heap between uploads.
+    private int cubePackFlags;          // MeshPacker flags the cube is drawn with
+    private VertexBuffer cubeBuffer;
+
+    // Every mesh's buffer by mesh id, the cube's included: the generated
+    // shapes are built, packed like the cube and uploaded the same way.
+    private final VertexBuffer[] meshBuffers = new VertexBuffer[MESH_COUNT];
+
+    // Batched drawing: the cube is replicated batchSize times into one buffer
+    // with a per-vertex instance number, and the batch shader picks each
+    // copy's model/view matrix out of a uniform array. That draws batchSize
+    // cubes per draw call instead of one.
+    private static final int MAX_BATCH_SIZE = 32;
+    private volatile boolean batchingEnabled = true;
+    private int batchSize;                  // cubes per draw call, limited by the vertex uniform space
+    private VertexBuffer batchBuffer;
+    private float[] batchMatrices;          // model/view matrices of the batch being drawn
+    private int batchMvMatricesId;
+    private int batchProjectionId;
+    private int batchLightPosId;
+    private int batchPositionId;
+    private int batchColorId;
+    private int batchNormalId;
+    private int batchInstanceId;
+
+    // the objects in the scene: five spinning cubes, and the light orbiting
+    // a pivot in the middle of them. The cube is the one loaded from
+    // resources. The shape demo, if asked for, has a torus, a sphere and a
+    // subdivided cube instead, generated in MeshGenerator.LEVELS levels of
+    // detail with consecutive mesh ids and drawn at the level their size on
+    // screen calls for.
+    private static final int MESH_CUBE = 0;
+    private static final int MESH_LIGHT_POINT = 1;
+    private static final int MESH_TORUS = 2;
+    private static final int MESH_SPHERE = MESH_TORUS + MeshGenerator.LEVELS;
+    private static final int MESH_TILED_CUBE = MESH_SPHERE + MeshGenerator.LEVELS;
+    private static final int MESH_COUNT = MESH_TILED_CUBE + MeshGenerator.LEVELS;
+    private static final float TORUS_MAJOR_RADIUS = 0.8f;
+    private static final float TORUS_MINOR_RADIUS = 0.35f;
+    private static final float SPHERE_RADIUS = 1.0f;
+    private static final float TILED_CUBE_HALF_SIZE = 0.6f;
+    private static final float[] TORUS_COLOR = { 1.0f, 0.5f, 0.0f, 1.0f };     // orange
+    private static final float[] SPHERE_COLOR = { 0.8f, 0.8f, 0.8f, 1.0f };    // light grey
+    // The demo's shapes ride a carousel: SHAPE_ORBIT from a pivot 5.5 in
+    // front of the eye, so each comes as close as 2.5 and goes as far as 8.5
+    // every turn. Their screen sizes (see LevelOfDetail) run from about 0.45
+    // down to 0.12, and every level is used on the way round.
+    private static final float SHAPE_ORBIT = 3.0f;
+    private static final float[] LOD_SWITCH_SIZES = { 0.3f, 0.18f };
+    private static final float DEGREES_PER_SECOND = 36.0f;    // a complete rotation every 10 seconds
+    private final Scene scene = new Scene(8);
+    private final boolean shapeDemo;    // the generated shapes' scene instead of the cubes
+    private int lightId;        // scene id of the light; its world matrix positions the light point
+
+    // The scene is updated and its matrices worked out on threads of their
+    // own, one frame ahead of the GL thread drawing them. A thread is left
+    // for GL and the rest of the system.
+    private static final int MAX_UPDATE_THREADS = 4;
+    private final SceneUpdater sceneUpdater;
+
+    // Every frame the scene's draws are queued with a key of layer, program,
+    // mesh and depth, and drawn in key order: one program and buffer switch
+    // per run of like draws, and the opaque ones nearest first.
+    private static final int LAYER_OPAQUE = 0;
+    private static final int PROGRAM_CUBE = 0;      // the current tier's cube program, batched or not
+    private static final int PROGRAM_LIGHT = 1;
+    private final RenderQueue renderQueue = new RenderQueue(8);
+
+    // Profiling: per-frame CPU/GPU timing and call counts, off by default.
+    // When off the only cost is the counters below.
+    private final FrameProfiler profiler = new FrameProfiler();
+    private final GpuTimer gpuTimer;
+    private volatile boolean profilingEnabled;
+    private volatile boolean profileDumpRequested;
+    private int frameGlCalls;       // GL calls made directly by the renderer this frame
+    private int frameDrawCalls;
+    private long frameNumber;       // pairs a frame's GPU time, which comes later, with the frame
+
+    // Dynamic resolution: below full scale the scene is drawn into an
+    // offscreen target at a fraction of the surface size, then stretched
+    // over the surface with one textured quad. The scale follows the frame
+    // times within these bounds; at full scale the target isn't used at all.
+    private static final float MIN_RENDER_SCALE = 0.5f;
+    private static final float MAX_RENDER_SCALE = 1.0f;
+    private volatile boolean dynamicResolutionEnabled = true;
+    private final ResolutionScaler resolutionScaler = new ResolutionScaler(MIN_RENDER_SCALE, MAX_RENDER_SCALE);
+    // without GPU timer queries, one frame in this many is timed between glFinish() calls
+    private static final int FINISH_SAMPLE_INTERVAL = 4;
+    private int framesToFinishSample = FINISH_SAMPLE_INTERVAL;
+    private final RenderTarget sceneTarget;
+    private VertexBuffer quadBuffer;            // full-screen quad the target is drawn with
+    private ShaderProgram upscaleProgram;
+    private int upscaleTexScaleId;
+    private int upscaleTextureId;
+    private int upscalePositionId;
+    private int surfaceWidth;
+    private int surfaceHeight;
+
+    // Quality tier: which cube variants are drawn with. Chosen by a short
+    // fill-rate test once the assets are in, then lowered if frames keep
+    // running over budget; the new programs are picked up at the next frame.
+    private QualityGovernor qualityGovernor;    // null until the assets are set up
+    private int qualityTier = -1;               // tier the cube programs were picked for
+
+    // Resume latency: when the wallpaper becomes visible again the time is
+    // noted here and the first frame drawn after it reports how long it took.
+    private volatile long resumeStartNanos;    // 0 when no resume is waiting for its first frame
+    private boolean contextLost;               // the context was replaced since the last resume frame
+
+    // horizontal home screen scroll position, 0..1; the eye pans with it
+    private static final float PAN_RANGE = 1.0f;
+    private volatile float xOffset = 0.5f;
 
     // data descriptions of the in-scene light source
     private final float[] lightPosInModelSpace = new float[] {0.0f, 0.0f, 0.0f, 1.0f };
 
-    // current pos of light in world space xformed by model matrix
-    private float[] lightPosInWorldSpace = new float[4];
     // xformed pos of light in eye space after xformed by model/view matrix
     private float[] lightPosInEyeSpace = new float[4];
 
-    // id's (or handles) of shader programs
-    private int cubeProgramId;      // handle to per-fragment cube shading program
-    private int lightProgramId;     // handle to light point program
+    // shader programs
+    private ShaderVariants cubeVariants;    // every cube shading program, compiled as needed
+    private ShaderProgram cubeProgram;      // cube shading program for the current tier
+    private ShaderProgram lightProgram;     // light point program
+    private ShaderProgram batchProgram;     // cube shading program for the current tier, batched
 
+    /** Starts loading the assets in the background and returns straight away. */
     public LiveWallpaperRenderer(Context context)
     {
-        Log.d(USINGSHADERSRENDERER, "LiveWallpaperRenderer");
-        this.context = context;
-
-        float[] cubeVertexData = FloatResourceReader.readFloatFileFromResource(context, R.raw.cube_vertexes);
-        float[] cubeColorData  = FloatResourceReader.readFloatFileFromResource(context, R.raw.cube_colors);
-        float[] cubeNormalData = FloatResourceReader.readFloatFileFromResource(context, R.raw.cube_normals);
+        this(context, false);
+    }  // public LiveWallpaperRenderer(
 
-        // Initialize the float buffers for position, color, and normals
-        cubeVertexes = ByteBuffer.allocateDirect(cubeVertexData.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        cubeVertexes.put(cubeVertexData).position(0);
+    /** As above, drawing the generated shapes' level of detail demo instead of the cubes if shapeDemo is set. */
+    public LiveWallpaperRenderer(final Context context, boolean shapeDemo)
+    {
+        this(new AndroidGLBackend(), new File(context.getCacheDir(), "shaders"), shapeDemo);
+        assetLoader.submit(new AsyncAssetLoader.Loader<WallpaperAssets>() {
+            @Override
+            public WallpaperAssets load() {
+                return WallpaperAssets.load(context);
+            }
+        });
+    }  // public LiveWallpaperRenderer(
 
-        cubeColors = ByteBuffer.allocateDirect(cubeColorData.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        cubeColors.put(cubeColorData).position(0);
+    /** Uses assets that are already loaded, e.g. when running off-device. */
+    public LiveWallpaperRenderer(GLBackend gl, WallpaperAssets assets)
+    {
+        this(gl, assets, false);
+    }  // public LiveWallpaperRenderer(
 
-        cubeNormals = ByteBuffer.allocateDirect(cubeNormalData.length * bytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        cubeNormals.put(cubeNormalData).position(0);
+    public LiveWallpaperRenderer(GLBackend gl, WallpaperAssets assets, boolean shapeDemo)
+    {
+        this(gl, (File) null, shapeDemo);
+        assetLoader.offer(assets);
     }  // public LiveWallpaperRenderer(
 
+    private LiveWallpaperRenderer(GLBackend gl, File shaderBinaryDirectory, boolean shapeDemo)
+    {
+        Log.d(USINGSHADERSRENDERER, "LiveWallpaperRenderer");
+        this.shapeDemo = shapeDemo;
+        stateCache = new StateCachingGLBackend(gl);
+        this.gl = stateCache;
+        shaderCache = resources.track(new ShaderCache(this.gl, shaderBinaryDirectory));
+        gpuTimer = resources.track(new GpuTimer(this.gl));
+        sceneTarget = resources.track(new RenderTarget(this.gl));
+
+        setupScene();
+        final int updateThreads = Math.min(MAX_UPDATE_THREADS, Runtime.getRuntime().availableProcessors() - 1);
+        sceneUpdater = new SceneUpdater(scene, Math.max(1, updateThreads), true);
+        if (shapeDemo) {
+            final LevelOfDetail levelOfDetail = sceneUpdater.getLevelOfDetail();
+            levelOfDetail.setLevels(MESH_TORUS, levelMeshes(MESH_TORUS), LOD_SWITCH_SIZES);
+            levelOfDetail.setLevels(MESH_SPHERE, levelMeshes(MESH_SPHERE), LOD_SWITCH_SIZES);
+            levelOfDetail.setLevels(MESH_TILED_CUBE, levelMeshes(MESH_TILED_CUBE), LOD_SWITCH_SIZES);
+        }
+    }  // private LiveWallpaperRenderer(
+
     /** GLSurfaceView calls this method when the surface is created, like
      * when the application is run for the first time, or after the user
      * switches back to the LiveWallpaperActivity. */
     @Override
     public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
         //Log.d(USINGSHADERSRENDERER, "OnSurfaceCreated");
-        glClearColor(0.0f, 0.0f, 0.25f, 0.0f);
-        glEnable(GLES20.GL_CULL_FACE);
-        glEnable(GLES20.GL_DEPTH_TEST);
+        // GL state belongs to the context, so it is set for every new one,
+        // and nothing the state cache knew about the old one holds.
+        stateCache.invalidate();
+        gl.glClearColor(0.0f, 0.0f, 0.25f, 0.0f);
+        gl.glEnable(GLES20.GL_CULL_FACE);
+        gl.glEnable(GLES20.GL_DEPTH_TEST);
         setupEyePosition();
-        setupShaders();
+
+        // This is only called for a new EGL context. The context is kept
+        // across pauses where the device allows it, so after the first one
+        // this means it really was lost; the programs and buffers made for
+        // it then recreate themselves the first time they are used.
+        if (resources.onContextCreated()) {
+            contextLost = true;
+            if (LoggerConfig.ON) {
+                Log.v(USINGSHADERSRENDERER, "EGL context lost, " + resources.getPendingCount()
+                        + " of " + resources.getResourceCount() + " GL resources to recreate");
+            }
+        }
     }
 
     /** GLSurfaceView calls this after the surface is created and when the
@@ -120,7 +331,13 @@ public class LiveWallpaperRenderer implements GLSurfaceView.Renderer {
     public void onSurfaceChanged(GL10 glUnused, int width, int height) {
         //Log.d(USINGSHADERSRENDERER, "OnSurfaceChanged");
         // Set the viewport to fill the entire surface
-        glViewport(0, 0, width, height);
+        gl.glViewport(0, 0, width, height);
+        surfaceWidth = width;
+        surfaceHeight = height;
+
+        // The offscreen target is sized for the largest scale, so changing
+        // the scale never reallocates it; it is only created once it's used.
+        sceneTarget.setSize((int) Math.ceil(width * MAX_RENDER_SCALE), (int) Math.ceil(height * MAX_RENDER_SCALE));
 
         // Create a new perspective projection matrix. The height will stay the same
         // while the width will vary as per aspect ratio.
@@ -129,155 +346,625 @@ public class LiveWallpaperRenderer implements GLSurfaceView.Renderer {
         final float right = ratio;
         final float bottom = -1.0f;
         final float top = 1.0f;
-        final float near = 1.0f;
-        final float far = 10.0f;
 
-        Matrix.frustumM(projectionMatrix, 0, left, right, bottom, top, near, far);
+        Mat4.setFrustum(projectionMatrix, 0, left, right, bottom, top, NEAR_PLANE, FAR_PLANE);
     }
 
     /* GLSurfaceView calls this to draw a frame. You have to draw something
      * or you get flickering. */
     @Override
     public void onDrawFrame(GL10 glUnused) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        drawFrame(SystemClock.uptimeMillis());
+    }
+
+    /** Updates the scene to the given time (uptime milliseconds) and draws it. */
+    public void drawFrame(long now) {
+        if (!assetsReady()) {
+            // placeholder until the background load finishes
+            gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+            return;
+        }
+
+        stateCache.setEnabled(stateCacheEnabled);
+        if (qualityGovernor.getTier() != qualityTier) {
+            selectCubePrograms(qualityGovernor.getTier());
+        }
+
+        // The resolution scaler and the quality governor go by what a frame
+        // costs the GPU, not the CPU time taken to issue it: GL calls return
+        // long before the GPU is done, and fill is what both of them save.
+        // Where the driver has timer queries they measure it, so the timer
+        // runs while either can still act as well as while profiling, for a
+        // query and a few calls a frame. Without them (all ES 2 devices)
+        // every FINISH_SAMPLE_INTERVAL-th frame is bracketed by glFinish()
+        // and its wall time taken instead: the frame's CPU and GPU work with
+        // nothing else queued. Each glFinish() stalls the pipeline, so only
+        // those frames are sampled, and the controllers' windows span that
+        // many times more frames. (The time between frames is no use: the
+        // scheduler paces them to the target rate whatever they cost.)
+        final boolean profiling = profilingEnabled;
+        final boolean scaling = dynamicResolutionEnabled;
+        final boolean adapting = scaling || qualityGovernor.getTier() > QualityGovernor.TIER_LOW;
+        final boolean timing = profiling || adapting;
+        frameGlCalls = 0;
+        frameDrawCalls = 0;
+        frameNumber++;
+        if (timing) {
+            gpuTimer.begin(frameNumber);
+        }
+        final boolean sampling = adapting && !gpuTimer.isSupported() && --framesToFinishSample <= 0;
+        if (sampling) {
+            framesToFinishSample = FINISH_SAMPLE_INTERVAL;
+            gl.glFinish();
+            frameGlCalls++;
+        }
+        final long frameStart = System.nanoTime();
+        int helperGlCalls = 0;
+        long issuedCalls = 0;
+        long elidedCalls = 0;
+        if (profiling) {
+            profiler.beginFrame(frameStart, frameNumber);
+            helperGlCalls = helperGlCallCount();
+            issuedCalls = stateCache.getIssuedCount();
+            elidedCalls = elidedCallCount();
+        }
 
         // Do a complete rotation every 10 seconds.
-        long time = SystemClock.uptimeMillis() % 10000L;
+        long time = now % 10000L;
         float angleInDegrees = (360.0f / 10000.0f) * ((int) time);
 
-        // Set our per-vertex lighting program.
-        GLES20.glUseProgram(cubeProgramId);
+        setupEyePosition();
+        Mat4.rotate(viewMatrix, 0, angleInDegrees, 0.0f, 0.0f, 1.0f);
 
-        // Set program id's (handles) for cube drawing.
-        mvpMatrixId = GLES20.glGetUniformLocation(cubeProgramId, "u_MVPMatrix");
-        mvMatrixId  = GLES20.glGetUniformLocation(cubeProgramId, "u_MVMatrix");
-        lightPosId  = GLES20.glGetUniformLocation(cubeProgramId, "u_LightPos");
-        positionId  = GLES20.glGetAttribLocation(cubeProgramId,  "a_Position");
-        colorId     = GLES20.glGetAttribLocation(cubeProgramId,  "a_Color");
-        normalId    = GLES20.glGetAttribLocation(cubeProgramId,  "a_Normal");
+        // Start bringing the cube and light transforms up to date for this
+        // time on the update thread, and take the last ones it finished.
+        final FrameTransforms transforms = sceneUpdater.advance(now / 1000.0, viewMatrix, projectionMatrix);
 
-        // Calculate position of the light. Rotate and then push into the distance.
-        Matrix.setIdentityM(lightModelMatrix, 0);
-        Matrix.translateM  (lightModelMatrix, 0, 0.0f, 0.0f, -7.0f);
-        Matrix.rotateM     (lightModelMatrix, 0, angleInDegrees, 0.0f, 1.0f, 0.0f);
-        //Matrix.rotateM     (lightModelMatrix, 0, angleInDegrees, angleInDegrees, 1.0f, 0.0f);
-        Matrix.translateM  (lightModelMatrix, 0, 0.0f, 0.0f, 2.0f);
+        Mat4.multiplyVec4(lightPosInEyeSpace, 0, transforms.getModelViewMatrices(), lightId * 16,
+                lightPosInModelSpace, 0);
 
-        setupEyePosition();
-        Matrix.rotateM(viewMatrix, 0, angleInDegrees, 0.0f, 0.0f, 1.0f);
-
-        Matrix.multiplyMV(lightPosInWorldSpace, 0, lightModelMatrix, 0, lightPosInModelSpace, 0);
-        Matrix.multiplyMV(lightPosInEyeSpace,   0, viewMatrix,       0, lightPosInWorldSpace, 0);
-
-        // Draw some cubes.
-        // right
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.translateM  (modelMatrix, 0, 4.0f, 0.0f, -7.0f);
-        Matrix.rotateM     (modelMatrix, 0, angleInDegrees, 1.0f, 0.0f, 0.0f);
-        drawCube();
-
-        // left
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.translateM  (modelMatrix, 0, -4.0f, 0.0f, -7.0f);
-        Matrix.rotateM     (modelMatrix, 0, -angleInDegrees, 0.0f, 1.0f, 0.0f);
-        drawCube();
-
-        // top
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.translateM  (modelMatrix, 0, 0.0f, 4.0f, -7.0f);
-        Matrix.rotateM     (modelMatrix, 0, angleInDegrees, 0.0f, 0.0f, 1.0f);
-        drawCube();
-
-        // bottom
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.translateM  (modelMatrix, 0, 0.0f, -4.0f, -7.0f);
-        Matrix.rotateM     (modelMatrix, 0, -angleInDegrees, 0.0f, 1.0f, 0.0f); // tom was here
-        drawCube();
-
-        // center
-        Matrix.setIdentityM(modelMatrix, 0);
-        //Matrix.translateM  (modelMatrix, 0, 0.0f, 0.0f, -5.0f);
-        Matrix.translateM  (modelMatrix, 0, 0.0f, 0.0f, -7.0f);
-        Matrix.rotateM     (modelMatrix, 0, angleInDegrees, 0.0f, 1.0f, 1.0f);
-        drawCube();
-
-        // Draw a point to indicate the light.
-        GLES20.glUseProgram(lightProgramId);
-        drawLight();
-    }  // public void onDrawFrame(
-
-    private void drawCube()
-    {
-        // Pass in the position information
-        cubeVertexes.position(0);
-        GLES20.glVertexAttribPointer(positionId, positionDataSize, GLES20.GL_FLOAT, false,
-                0, cubeVertexes);
+        if (profiling) {
+            profiler.endUpdate(System.nanoTime());
+        }
 
-        GLES20.glEnableVertexAttribArray(positionId);
+        // Below full scale, draw into the corner of the offscreen target.
+        final float renderScale = scaling ? resolutionScaler.getScale() : 1.0f;
+        final boolean offscreen = renderScale < 1.0f;
+        int sceneWidth = surfaceWidth;
+        int sceneHeight = surfaceHeight;
+        if (offscreen) {
+            sceneWidth = Math.max(1, Math.round(surfaceWidth * renderScale));
+            sceneHeight = Math.max(1, Math.round(surfaceHeight * renderScale));
+            sceneTarget.bind();
+            gl.glViewport(0, 0, sceneWidth, sceneHeight);
+            frameGlCalls += 2;
+        }
 
-        // Pass in the color information
-        cubeColors.position(0);
-        GLES20.glVertexAttribPointer(colorId, colorDataSize, GLES20.GL_FLOAT, false,
-                0, cubeColors);
+        gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        frameGlCalls++;
 
-        GLES20.glEnableVertexAttribArray(colorId);
+        // Queue the cubes and the light point, and draw them in key order.
+        queueDraws(transforms);
+        renderQueue.sort();
+        drawQueue(transforms);
 
-        // Pass in the normal information
-        cubeNormals.position(0);
-        GLES20.glVertexAttribPointer(normalId, normalDataSize, GLES20.GL_FLOAT, false,
-                0, cubeNormals);
+        if (offscreen) {
+            drawUpscaled(sceneWidth, sceneHeight);
+        }
 
-        GLES20.glEnableVertexAttribArray(normalId);
+        if (timing) {
+            gpuTimer.end();
+        }
+        // the profiler's CPU time stops here, before a sampling glFinish()
+        // waits for the GPU
+        final long submitEnd = System.nanoTime();
+        if (sampling) {
+            gl.glFinish();
+            frameGlCalls++;
+        }
+        final long frameEnd = sampling ? System.nanoTime() : submitEnd;
+        final long gpuNanos = timing ? gpuTimer.poll() : -1;
+        if (profiling) {
+            profiler.endFrame(submitEnd,
+                    frameGlCalls + helperGlCallCount() - helperGlCalls, frameDrawCalls);
+            profiler.recordStateCache((int) (stateCache.getIssuedCount() - issuedCalls),
+                    (int) (elidedCallCount() - elidedCalls));
+            profiler.recordCulling(transforms.getVisibleCount(), transforms.getCulledCount());
+            if (gpuNanos >= 0) {
+                profiler.recordGpuTime(gpuNanos, gpuTimer.getResultFrame());
+            }
+        }
+        // GPU results arrive a few frames late, which doesn't matter for a
+        // decision taken over a window of frames. The resolution gives way
+        // first; the shading only gets cheaper once it can't go any lower.
+        final long frameNanos = gpuNanos >= 0 ? gpuNanos : (sampling ? frameEnd - frameStart : -1);
+        if (frameNanos >= 0) {
+            if (scaling && resolutionScaler.recordFrame(frameNanos) && LoggerConfig.ON) {
+                Log.v(USINGSHADERSRENDERER, String.format(Locale.US, "Render scale now %.3f",
+                        resolutionScaler.getScale()));
+            }
+            if ((!scaling || resolutionScaler.isAtMinimum()) && qualityGovernor.recordFrame(frameNanos)
+                    && LoggerConfig.ON) {
+                Log.v(USINGSHADERSRENDERER, "Frames over budget, quality tier lowered to "
+                        + QualityGovernor.tierName(qualityGovernor.getTier()));
+            }
+        }
+        final long resumeStart = resumeStartNanos;
+        if (resumeStart != 0) {
+            resumeStartNanos = 0;
+            profiler.recordResume(System.nanoTime() - resumeStart, contextLost);
+            contextLost = false;
+        }
 
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMM(mvpMatrix, 0, viewMatrix, 0, modelMatrix, 0);
+        if (profileDumpRequested) {
+            profileDumpRequested = false;
+            Log.i(USINGSHADERSRENDERER, "Frame profile:\n" + profiler.report()
+                    + "\n  quality tier " + QualityGovernor.tierName(qualityTier)
+                    + ", " + qualityGovernor.getDowngradeCount() + " downgrades, "
+                    + cubeVariants.getVariantCount() + " cube variants compiled"
+                    + String.format(Locale.US, "\n  render scale %.3f, %d changes",
+                            resolutionScaler.getScale(), resolutionScaler.getChangeCount())
+                    + "\n  scene update on " + sceneUpdater.getThreadCount() + " threads, "
+                    + sceneUpdater.getReusedFrameCount() + " frames reused the previous transforms, "
+                    + sceneUpdater.getLevelOfDetail().getChangeCount() + " level of detail changes"
+                    + "\n  " + shaderCache.summary()
+                    + "\n  " + StagingArena.shared().summary()
+                    + "\n  " + ResourceCache.shared().summary());
+            profiler.reset();
+        }
+    }  // public void drawFrame(
 
-        // Pass in the modelview matrix.
-        GLES20.glUniformMatrix4fv(mvMatrixId, 1, false, mvpMatrix, 0);
+    // Takes delivery of the assets once the loader has them, and creates the
+    // GL objects that need them. Returns false while they are still loading.
+    private boolean assetsReady() {
+        if (assets != null) {
+            return true;
+        }
+        final WallpaperAssets loaded = assetLoader.poll();
+        if (loaded == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (released) {
+                // release() came in between the poll and here
+                loaded.release();
+                return false;
+            }
+            assets = loaded;
+        }
+        // The scene isn't being updated yet, so it is still safe to change here.
+        final int[] drawOrder = scene.getDrawOrder();
+        for (int i = 0; i < scene.getDrawCount(); i++) {
+            scene.setBoundingRadius(drawOrder[i], boundingRadius(scene.getMesh(drawOrder[i])));
+        }
+        cubePackFlags = cubePackFlags();
+        cubeBuffer = resources.track(new VertexBuffer(gl, new VertexBuffer.MeshSource() {
+            @Override
+            public Mesh build() {
+                final Mesh packed = MeshPacker.pack(assets.cube, cubePackFlags);
+                if (LoggerConfig.ON) {
+                    final boolean halfFloats = (cubePackFlags & MeshPacker.PACK_POSITIONS) != 0;
+                    Log.v(USINGSHADERSRENDERER, "Cube vertex size " + MeshPacker.interleavedVertexSize(packed)
+                            + " bytes" + (halfFloats ? ", half float positions" : ", float positions"));
+                }
+                return packed;
+            }
+        }));
+        meshBuffers[MESH_CUBE] = cubeBuffer;
+        if (shapeDemo) {
+            setupShapes();
+        }
+        quadBuffer = resources.track(new VertexBuffer(gl, new VertexBuffer.MeshSource() {
+            @Override
+            public Mesh build() {
+                return fullScreenQuad();
+            }
+        }));
+        setupBatching();
+        setupShaders();
+        qualityGovernor = new QualityGovernor(measureQualityTier());
+        return true;
+    }  // private boolean assetsReady(
+
+    // Adds every draw of the frame to the render queue. The cubes are opaque
+    // and go nearest first; the light point has a program of its own.
+    private void queueDraws(FrameTransforms transforms) {
+        final float[] modelViews = transforms.getModelViewMatrices();
+        final RenderQueue queue = renderQueue;
+        queue.clear();
+        // only the shapes that survived culling, with the mesh of the level of detail picked for each
+        final int[] visible = transforms.getVisibleIds();
+        final int[] meshes = transforms.getVisibleMeshes();
+        final int visibleCount = transforms.getVisibleCount();
+        for (int i = 0; i < visibleCount; i++) {
+            final int id = visible[i];
+            queue.add(RenderQueue.key(LAYER_OPAQUE, PROGRAM_CUBE, meshes[i],
+                    depthBucket(modelViews, id)), id);
+        }
+        queue.add(RenderQueue.key(LAYER_OPAQUE, PROGRAM_LIGHT, MESH_LIGHT_POINT,
+                depthBucket(modelViews, lightId)), lightId);
+    }  // private void queueDraws(
+
+    // Depth field of an object's sort key, from how far in front of the eye
+    // its origin is: the z of its model/view translation, negated.
+    private static int depthBucket(float[] modelViewMatrices, int id) {
+        return RenderQueue.depthBucket(-modelViewMatrices[id * 16 + 14], NEAR_PLANE, FAR_PLANE);
+    }  // private int depthBucket(
+
+    // Draws the sorted queue. Draws whose keys share a program and mesh form
+    // a run: the program is made current and the buffer bound once per run.
+    private void drawQueue(FrameTransforms transforms) {
+        final RenderQueue queue = renderQueue;
+        final int size = queue.size();
+        int start = 0;
+        while (start < size) {
+            final long key = queue.getKey(start);
+            int end = start + 1;
+            while (end < size && RenderQueue.sameState(key, queue.getKey(end))) {
+                end++;
+            }
+
+            if (RenderQueue.programOf(key) == PROGRAM_LIGHT) {
+                // Draw a point to indicate the light.
+                lightProgram.use();
+                for (int i = start; i < end; i++) {
+                    drawLight(transforms, queue.getItem(i) * 16);
+                }
+            } else if (batchingEnabled && RenderQueue.meshOf(key) == MESH_CUBE) {
+                drawCubesBatched(transforms, queue.getItems(), start, end - start);
+            } else {
+                // Only the loaded cube is batched; replicating the generated
+                // shapes' finer levels batchSize times would take far more
+                // buffer memory than the draw calls are worth. The rest use
+                // the cube program for the current quality tier, with the
+                // position, color and normal attributes pointed into the
+                // mesh's interleaved buffer.
+                final VertexBuffer buffer = meshBuffers[RenderQueue.meshOf(key)];
+                cubeProgram.use();
+                buffer.bind();
+                buffer.setVertexAttribPointer(MeshFormat.SEMANTIC_POSITION, positionId);
+                buffer.setVertexAttribPointer(MeshFormat.SEMANTIC_COLOR,    colorId);
+                buffer.setVertexAttribPointer(MeshFormat.SEMANTIC_NORMAL,   normalId);
+                for (int i = start; i < end; i++) {
+                    drawShape(transforms, buffer, queue.getItem(i) * 16);
+                }
+            }
+            start = end;
+        }
+    }  // private void drawQueue(
 
-        // This multiplies the modelview matrix by the projection matrix, and stores the result in the MVP matrix
-        // (which now contains model * view * projection).
-        Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, mvpMatrix, 0);
+    // Draws one shape; the cube program and the shape's buffer must already be in use.
+    private void drawShape(FrameTransforms transforms, VertexBuffer buffer, int modelOffset)
+    {
+        // Pass in the modelview matrix, worked out by the scene updater.
+        cubeProgram.setUniformMatrix4(mvMatrixId, transforms.getModelViewMatrices(), modelOffset);
 
-        // Pass in the combined matrix.
-        GLES20.glUniformMatrix4fv(mvpMatrixId, 1, false, mvpMatrix, 0);
+        // Pass in the combined model/view/projection matrix.
+        cubeProgram.setUniformMatrix4(mvpMatrixId, transforms.getMvpMatrices(), modelOffset);
 
         // Pass in the light position in eye space.
-        GLES20.glUniform3f(lightPosId, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
+        cubeProgram.setUniform3f(lightPosId, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
 
-        // Draw the cube.
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
-    }  // private void drawCube(
+        // Draw the shape.
+        drawTriangles(buffer, buffer.getElementCount());
+        frameGlCalls++;
+        frameDrawCalls++;
+    }  // private void drawShape(
 
-    private void drawLight()
+    // Draws count cubes, the objects at drawOrder[first] onwards.
+    private void drawCubesBatched(FrameTransforms transforms, int[] drawOrder, int first, int drawCount)
     {
-        final int pointMVPMatrixHandle = GLES20.glGetUniformLocation(lightProgramId, "u_MVPMatrix");
-        final int pointPositionHandle = GLES20.glGetAttribLocation(lightProgramId, "a_Position");
+        batchProgram.use();
+
+        // The projection matrix and light position are shared by every batch.
+        batchProgram.setUniformMatrix4(batchProjectionId, transforms.projectionMatrix, 0);
+        batchProgram.setUniform3f(batchLightPosId, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
+
+        batchBuffer.bind();
+        batchBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_POSITION, batchPositionId);
+        batchBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_COLOR,    batchColorId);
+        batchBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_NORMAL,   batchNormalId);
+        batchBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_INSTANCE, batchInstanceId);
+
+        final int elementsPerCube = assets.cube.getElementCount();     // packing keeps the counts
+        for (int start = 0; start < drawCount; start += batchSize) {
+            final int count = Math.min(batchSize, drawCount - start);
+
+            // model/view matrix of every cube in this batch
+            final float[] modelViews = transforms.getModelViewMatrices();
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(modelViews, drawOrder[first + start + i] * 16, batchMatrices, i * 16, 16);
+            }
+            batchProgram.setUniformMatrix4(batchMvMatricesId, count, batchMatrices, 0);
+
+            drawTriangles(batchBuffer, count * elementsPerCube);
+            frameGlCalls++;
+            frameDrawCalls++;
+        }
+    }  // private void drawCubesBatched(
+
+    // Colors and normals are always packed into bytes; positions into half
+    // floats where the GPU can read them, and elsewhere they stay floats.
+    private int cubePackFlags() {
+        final String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+        final boolean halfFloats = extensions != null && extensions.contains(MeshPacker.HALF_FLOAT_EXTENSION);
+        return MeshPacker.PACK_COLORS | MeshPacker.PACK_NORMALS | (halfFloats ? MeshPacker.PACK_POSITIONS : 0);
+    }  // private int cubePackFlags(
+
+    // Draws the first count vertexes (or indices, for an indexed mesh) of a
+    // bound buffer as triangles.
+    private void drawTriangles(VertexBuffer buffer, int count)
+    {
+        if (buffer.isIndexed()) {
+            gl.glDrawElements(GLES20.GL_TRIANGLES, count, GLES20.GL_UNSIGNED_SHORT, 0);
+        } else {
+            gl.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
+        }
+    }  // private void drawTriangles(
 
+    private void drawLight(FrameTransforms transforms, int modelOffset)
+    {
         // Pass in the position.
-        GLES20.glVertexAttrib3f(pointPositionHandle, lightPosInModelSpace[0], lightPosInModelSpace[1], lightPosInModelSpace[2]);
+        gl.glVertexAttrib3f(pointPositionId, lightPosInModelSpace[0], lightPosInModelSpace[1], lightPosInModelSpace[2]);
 
         // Since we are not using a buffer object, disable vertex arrays for this attribute.
-        GLES20.glDisableVertexAttribArray(pointPositionHandle);
+        gl.glDisableVertexAttribArray(pointPositionId);
 
         // Pass in the transformation matrix.
-        Matrix.multiplyMM(mvpMatrix, 0, viewMatrix, 0, lightModelMatrix, 0);
-        Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, mvpMatrix, 0);
-        GLES20.glUniformMatrix4fv(pointMVPMatrixHandle, 1, false, mvpMatrix, 0);
+        lightProgram.setUniformMatrix4(pointMvpMatrixId, transforms.getMvpMatrices(), modelOffset);
 
         // Draw the point.
-        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, 1);
+        gl.glDrawArrays(GLES20.GL_POINTS, 0, 1);
+        frameGlCalls += 3;      // glVertexAttrib3f, glDisableVertexAttribArray, glDrawArrays
+        frameDrawCalls++;
     }  // private void drawLight(
 
+    // Stretches the offscreen scene, sceneWidth x sceneHeight in the corner
+    // of the target, over the whole surface.
+    private void drawUpscaled(int sceneWidth, int sceneHeight)
+    {
+        sceneTarget.unbind();
+        gl.glViewport(0, 0, surfaceWidth, surfaceHeight);
+
+        // Every pixel is overwritten, but clearing tells a tiled GPU it
+        // needn't load the old contents first.
+        gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        gl.glDisable(GLES20.GL_DEPTH_TEST);
+
+        upscaleProgram.use();
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, sceneTarget.getTextureId());
+        upscaleProgram.setUniform1i(upscaleTextureId, 0);
+        upscaleProgram.setUniform2f(upscaleTexScaleId,
+                (float) sceneWidth / sceneTarget.getWidth(), (float) sceneHeight / sceneTarget.getHeight());
+
+        quadBuffer.bind();
+        quadBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_POSITION, upscalePositionId);
+        gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, quadBuffer.getVertexCount());
+        gl.glEnable(GLES20.GL_DEPTH_TEST);
+        frameGlCalls += 7;      // unbind, glViewport, glClear, glDisable, glBindTexture, glDrawArrays, glEnable
+        frameDrawCalls++;
+    }  // private void drawUpscaled(
+
+    /** Turns frame profiling on or off; takes effect on the next frame. */
+    public void setProfilingEnabled(boolean enabled) {
+        profilingEnabled = enabled;
+    }
+
+    /** Logs the profile gathered so far on the next frame, then starts a new one. */
+    public void requestProfileDump() {
+        profileDumpRequested = true;
+    }
+
+    // GL calls issued so far by the programs and buffers the frame uses
+    private int helperGlCallCount() {
+        return cubeProgram.getGlCallCount() + batchProgram.getGlCallCount()
+                + lightProgram.getGlCallCount() + upscaleProgram.getGlCallCount()
+                + meshBufferGlCallCount() + batchBuffer.getGlCallCount() + quadBuffer.getGlCallCount();
+    }
+
+    private int meshBufferGlCallCount() {
+        int calls = 0;
+        for (VertexBuffer buffer : meshBuffers) {
+            if (buffer != null) {
+                calls += buffer.getGlCallCount();
+            }
+        }
+        return calls;
+    }
+
+    // Calls dropped so far as redundant: state changes by the cache, uniform
+    // uploads by the programs
+    private long elidedCallCount() {
+        return stateCache.getElidedCount() + cubeProgram.getElidedCount() + batchProgram.getElidedCount()
+                + lightProgram.getElidedCount() + upscaleProgram.getElidedCount();
+    }
+
+    /**
+     * Call just before the view is resumed (on any thread), with
+     * System.nanoTime(). The time to the first frame afterwards is
+     * recorded in the frame profile.
+     */
+    public void onResuming(long nowNanos) {
+        resumeStartNanos = nowNanos;
+    }
+
+    /** Pans the view to follow the home screen scroll position (0..1). */
+    public void setXOffset(float xOffset) {
+        this.xOffset = xOffset;
+    }
+
+    /** Switches between batched drawing and one draw call per cube, to compare the two. */
+    public void setBatchingEnabled(boolean enabled) {
+        batchingEnabled = enabled;
+    }
+
+    /**
+     * Turns dynamic resolution on or off. When off the scene is always drawn
+     * straight to the surface at full size.
+     */
+    public void setDynamicResolutionEnabled(boolean enabled) {
+        dynamicResolutionEnabled = enabled;
+    }
+
+    /**
+     * Stops the scene update threads and gives the assets back to the
+     * resource cache. Call when the renderer is done with, on any thread.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        sceneUpdater.shutdown();
+        // Assets that are ready, or still loading, are given back as they
+        // arrive; otherwise their cache references would pin them for good.
+        assetLoader.cancel(new AsyncAssetLoader.Disposer<WallpaperAssets>() {
+            @Override
+            public void dispose(WallpaperAssets late) {
+                late.release();
+            }
+        });
+        if (assets != null) {
+            assets.release();
+        }
+    }
+
+    /**
+     * Turns frustum culling on or off. When off every cube is queued,
+     * on screen or not.
+     */
+    public void setCullingEnabled(boolean enabled) {
+        sceneUpdater.setCullingEnabled(enabled);
+    }
+
+    /**
+     * Turns the GL state cache on or off. When off every call reaches the
+     * driver, to compare call counts and frame times against.
+     */
+    public void setStateCacheEnabled(boolean enabled) {
+        stateCacheEnabled = enabled;
+    }
+
+    private void setupBatching() {
+        // Each mat4 in the batch takes 4 of the vertex shader's uniform
+        // vectors; leave room for the projection matrix and a little slack.
+        final int[] maxVertexUniformVectors = new int[1];
+        gl.glGetIntegerv(GLES20.GL_MAX_VERTEX_UNIFORM_VECTORS, maxVertexUniformVectors, 0);
+        final int size = Math.max(1, Math.min(MAX_BATCH_SIZE, (maxVertexUniformVectors[0] - 8) / 4));
+
+        // The replicated geometry only depends on the batch size, which
+        // doesn't change between contexts on the same device.
+        batchSize = size;
+        batchBuffer = resources.track(new VertexBuffer(gl, new VertexBuffer.MeshSource() {
+            @Override
+            public Mesh build() {
+                final Mesh packed = MeshPacker.pack(assets.cube, cubePackFlags);
+                final Mesh batch = MeshReplicator.replicate(packed, batchSize);
+                packed.release();
+                return batch;
+            }
+        }));
+        batchMatrices = new float[batchSize * 16];
+    }  // private void setupBatching(
+
+    // The generated shapes' buffers, every level of each. Like the cube's,
+    // each is generated and packed in the staging arena when it is uploaded.
+    private void setupShapes() {
+        for (int level = 0; level < MeshGenerator.LEVELS; level++) {
+            final int detail = level;
+            meshBuffers[MESH_TORUS + level] = resources.track(new VertexBuffer(gl, new VertexBuffer.MeshSource() {
+                @Override
+                public Mesh build() {
+                    return packGenerated(MeshGenerator.torus(TORUS_MAJOR_RADIUS, TORUS_MINOR_RADIUS,
+                            detail, TORUS_COLOR));
+                }
+            }));
+            meshBuffers[MESH_SPHERE + level] = resources.track(new VertexBuffer(gl, new VertexBuffer.MeshSource() {
+                @Override
+                public Mesh build() {
+                    return packGenerated(MeshGenerator.sphere(SPHERE_RADIUS, detail, SPHERE_COLOR));
+                }
+            }));
+            meshBuffers[MESH_TILED_CUBE + level] = resources.track(new VertexBuffer(gl, new VertexBuffer.MeshSource() {
+                @Override
+                public Mesh build() {
+                    return packGenerated(MeshGenerator.subdividedCube(TILED_CUBE_HALF_SIZE, detail));
+                }
+            }));
+        }
+    }  // private void setupShapes(
+
+    private Mesh packGenerated(Mesh generated) {
+        final Mesh packed = MeshPacker.pack(generated, cubePackFlags);
+        generated.release();
+        return packed;
+    }  // private Mesh packGenerated(
+
+    // Mesh ids of a generated shape's levels of detail, finest first.
+    private static int[] levelMeshes(int firstMesh) {
+        final int[] meshes = new int[MeshGenerator.LEVELS];
+        for (int level = 0; level < meshes.length; level++) {
+            meshes[level] = firstMesh + level;
+        }
+        return meshes;
+    }  // private static int[] levelMeshes(
+
+    // Radius of the sphere about its origin that holds a model, for culling
+    // and picking its level of detail.
+    private float boundingRadius(int model) {
+        switch (model) {
+            case MESH_TORUS:
+                return TORUS_MAJOR_RADIUS + TORUS_MINOR_RADIUS;
+            case MESH_SPHERE:
+                return SPHERE_RADIUS;
+            case MESH_TILED_CUBE:
+                return TILED_CUBE_HALF_SIZE * (float) Math.sqrt(3.0);
+            default:
+                return assets.cube.getBoundingRadius();
+        }
+    }  // private float boundingRadius(
+
+    private void setupScene() {
+        float centerZ = -7.0f;
+        if (shapeDemo) {
+            // the carousel's pivot, and the torus, sphere and subdivided cube a third of a turn apart
+            centerZ = -6.0f;
+            final int carouselId = scene.addObject(Scene.NO_PARENT, Scene.NO_MESH,
+                    0.0f, 0.0f, centerZ, 0.0f, 1.0f, 0.0f, DEGREES_PER_SECOND);
+            final int[] shapes = { MESH_TORUS, MESH_SPHERE, MESH_TILED_CUBE };
+            for (int i = 0; i < shapes.length; i++) {
+                final double angle = 2.0 * Math.PI * i / shapes.length;
+                scene.addObject(carouselId, shapes[i],
+                        SHAPE_ORBIT * (float) Math.sin(angle), 0.0f, SHAPE_ORBIT * (float) Math.cos(angle),
+                        1.0f, 1.0f, 0.0f, DEGREES_PER_SECOND);
+            }
+        } else {
+            // right, left, top, bottom and center cubes
+            scene.addObject(Scene.NO_PARENT, MESH_CUBE,  4.0f,  0.0f, -7.0f, 1.0f, 0.0f, 0.0f,  DEGREES_PER_SECOND);
+            scene.addObject(Scene.NO_PARENT, MESH_CUBE, -4.0f,  0.0f, -7.0f, 0.0f, 1.0f, 0.0f, -DEGREES_PER_SECOND);
+            scene.addObject(Scene.NO_PARENT, MESH_CUBE,  0.0f,  4.0f, -7.0f, 0.0f, 0.0f, 1.0f,  DEGREES_PER_SECOND);
+            scene.addObject(Scene.NO_PARENT, MESH_CUBE,  0.0f, -4.0f, -7.0f, 0.0f, 1.0f, 0.0f, -DEGREES_PER_SECOND);
+            scene.addObject(Scene.NO_PARENT, MESH_CUBE,  0.0f,  0.0f, -7.0f, 0.0f, 1.0f, 1.0f,  DEGREES_PER_SECOND);
+        }
+
+        // The light is pushed 2 units out from a pivot that spins about Y.
+        final int lightPivotId = scene.addObject(Scene.NO_PARENT, Scene.NO_MESH,
+                0.0f, 0.0f, centerZ, 0.0f, 1.0f, 0.0f, DEGREES_PER_SECOND);
+        lightId = scene.addObject(lightPivotId, Scene.NO_MESH,
+                0.0f, 0.0f, 2.0f, 0.0f, 1.0f, 0.0f, 0.0f);
+    }  // private void setupScene(
+
     private void setupEyePosition() {
+        // Scroll offset, -PAN_RANGE..PAN_RANGE
+        final float pan = (xOffset - 0.5f) * 2.0f * PAN_RANGE;
+
         // Eye position
-        final float eyeX = 0.0f;
+        final float eyeX = pan;
         final float eyeY = 0.0f;
         final float eyeZ = -0.5f;
 
         // Look At vector
-        final float lookX = 0.0f;
+        final float lookX = pan;
         final float lookY = 0.0f;
         final float lookZ = -5.0f;
 
@@ -287,47 +974,121 @@ public class LiveWallpaperRenderer implements GLSurfaceView.Renderer {
         final float upZ = 0.0f;
 
         // Set the view matrix
-        Matrix.setLookAtM(viewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY, lookZ, upX, upY, upZ);
+        Mat4.setLookAt(viewMatrix, 0, eyeX, eyeY, eyeZ, lookX, lookY, lookZ, upX, upY, upZ);
     } // private void setupEyePosition(
 
     private void setupShaders() {
-        // compile and link the cube drawing shader program first
-        String vertexShaderSource =
-                TextResourceReader.readTextFileFromResource(context, R.raw.vshader_perfragmentlighting);
-
-        String fragmentShaderSource =
-                TextResourceReader.readTextFileFromResource(context, R.raw.fshader_perfragmentlighting);
+        // The cube programs are only compiled when a tier first needs them;
+        // the batched ones size their matrix array to the batch.
+        cubeVariants = new ShaderVariants(shaderCache, assets.cubeVertexShader, assets.cubeFragmentShader,
+                CUBE_FLAGS);
+        cubeVariants.setConstant("MAX_INSTANCES", batchSize);
 
-        // compile the shaders
-        int vertexShader = ShaderHelper.compileVertexShader(vertexShaderSource);
-        int fragmentShader = ShaderHelper.compileFragmentShader(fragmentShaderSource);
-
-        // link the shaders
-        cubeProgramId = ShaderHelper.linkProgram(vertexShader, fragmentShader);
+        // compile and link the light drawing shader program
+        lightProgram = shaderCache.getProgram(assets.lightVertexShader, assets.lightFragmentShader);
 
-        // see if the shaders were combined into a valid program
-        if (LoggerConfig.ON) {
-            ShaderHelper.validateProgram(cubeProgramId);
-        }
+        pointMvpMatrixId = lightProgram.uniformIndex(U_MVPMATRIX);
+        pointPositionId  = lightProgram.attributeLocation(A_POSITION);
 
+        // and the one that stretches the offscreen scene over the surface
+        upscaleProgram = shaderCache.getProgram(assets.upscaleVertexShader, assets.upscaleFragmentShader);
 
-        // compile and link the light drawing shader program
-        vertexShaderSource =
-                TextResourceReader.readTextFileFromResource(context, R.raw.vshader_pointlightsrc);
+        upscaleTexScaleId = upscaleProgram.uniformIndex(U_TEXSCALE);
+        upscaleTextureId  = upscaleProgram.uniformIndex(U_TEXTURE);
+        upscalePositionId = upscaleProgram.attributeLocation(A_POSITION);
+    }  // private void setupShaders(
 
-        fragmentShaderSource =
-                TextResourceReader.readTextFileFromResource(context, R.raw.fshader_pointlightsrc);
+    // Two triangles covering clip space, as a strip.
+    private static Mesh fullScreenQuad() {
+        final float[] corners = { -1.0f, -1.0f,   1.0f, -1.0f,   -1.0f, 1.0f,   1.0f, 1.0f };
+        final ByteBuffer payload = StagingArena.shared().allocate(corners.length * 4);
+        for (float corner : corners) {
+            payload.putFloat(corner);
+        }
+        payload.flip();
+        return new Mesh(corners.length / 2, new VertexAttribute[] {
+                new VertexAttribute(MeshFormat.SEMANTIC_POSITION, 2, MeshFormat.GL_FLOAT, false, 0, 8) },
+                payload);
+    }  // private static Mesh fullScreenQuad(
+
+    // Switches the cube programs to the variants for a quality tier.
+    private void selectCubePrograms(int tier) {
+        qualityTier = tier;
+        final int flags = TIER_CUBE_FLAGS[tier];
+
+        // resolve each program's uniforms and attributes once, here,
+        // rather than on every frame
+        cubeProgram = cubeVariants.get(flags);
+        mvpMatrixId = cubeProgram.uniformIndex(U_MVPMATRIX);
+        mvMatrixId  = cubeProgram.uniformIndex(U_MVMATRIX);
+        lightPosId  = cubeProgram.uniformIndex(U_LIGHTPOS);
+        positionId  = cubeProgram.attributeLocation(A_POSITION);
+        colorId     = cubeProgram.attributeLocation(A_COLOR);
+        normalId    = cubeProgram.attributeLocation(A_NORMAL);
+
+        batchProgram = cubeVariants.get(flags | CUBE_BATCHED);
+        batchMvMatricesId = batchProgram.uniformIndex(U_MVMATRICES);
+        batchProjectionId = batchProgram.uniformIndex(U_PMATRIX);
+        batchLightPosId   = batchProgram.uniformIndex(U_LIGHTPOS);
+        batchPositionId   = batchProgram.attributeLocation(A_POSITION);
+        batchColorId      = batchProgram.attributeLocation(A_COLOR);
+        batchNormalId     = batchProgram.attributeLocation(A_NORMAL);
+        batchInstanceId   = batchProgram.attributeLocation(A_INSTANCEINDEX);
 
-        // compile the shaders
-        vertexShader = ShaderHelper.compileVertexShader(vertexShaderSource);
-        fragmentShader = ShaderHelper.compileFragmentShader(fragmentShaderSource);
+        if (LoggerConfig.ON) {
+            Log.v(USINGSHADERSRENDERER, "Quality tier " + QualityGovernor.tierName(tier) + ":\n"
+                    + cubeVariants.defines(flags));
+        }
+    }  // private void selectCubePrograms(
+
+    // Times the high tier's batched program filling the screen a number of
+    // times over, and returns the tier this GPU can start on. The program it
+    // compiles is the one the high tier uses, so on a fast GPU nothing is wasted.
+    private int measureQualityTier() {
+        final int layers = Math.min(8, batchSize);      // full-screen cubes per draw
+        final int passes = 4;
+        final ShaderProgram program = cubeVariants.get(TIER_CUBE_FLAGS[QualityGovernor.TIER_HIGH] | CUBE_BATCHED);
+
+        // An orthographic projection that blows the cube's front face up past
+        // the edges of the screen, and every instance at the origin.
+        final float[] projection = new float[16];
+        Mat4.setIdentity(projection, 0);
+        projection[0] = 4.0f;
+        projection[5] = 4.0f;
+        projection[10] = 0.5f;
+        for (int i = 0; i < layers; i++) {
+            Mat4.setIdentity(batchMatrices, i * 16);
+        }
 
-        // link the shaders
-        lightProgramId = ShaderHelper.linkProgram(vertexShader, fragmentShader);
+        program.use();
+        program.setUniformMatrix4(program.uniformIndex(U_PMATRIX), projection, 0);
+        program.setUniformMatrix4(program.uniformIndex(U_MVMATRICES), layers, batchMatrices, 0);
+        program.setUniform3f(program.uniformIndex(U_LIGHTPOS), 0.0f, 0.0f, 2.0f);
+        batchBuffer.bind();
+        batchBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_POSITION, program.attributeLocation(A_POSITION));
+        batchBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_COLOR,    program.attributeLocation(A_COLOR));
+        batchBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_NORMAL,   program.attributeLocation(A_NORMAL));
+        batchBuffer.setVertexAttribPointer(MeshFormat.SEMANTIC_INSTANCE, program.attributeLocation(A_INSTANCEINDEX));
+
+        // Wait for anything already queued (including the compile) before
+        // starting the clock, and for the last layer before stopping it.
+        gl.glDisable(GLES20.GL_DEPTH_TEST);
+        gl.glFinish();
+        final long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            drawTriangles(batchBuffer, layers * assets.cube.getElementCount());
+        }
+        gl.glFinish();
+        final long elapsed = System.nanoTime() - start;
+        gl.glEnable(GLES20.GL_DEPTH_TEST);
+        gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-        // see if the shaders were combined into a valid program
+        final float millisPerPass = elapsed / 1000000.0f / (passes * layers);
+        final int tier = QualityGovernor.tierForFillCost(millisPerPass);
         if (LoggerConfig.ON) {
-            ShaderHelper.validateProgram(lightProgramId);
+            Log.v(USINGSHADERSRENDERER, String.format(Locale.US, "Full-screen pass %.3f ms, starting at %s quality",
+                    millisPerPass, QualityGovernor.tierName(tier)));
         }
-    }  // private void setupShaders(
+        return tier;
+    }  // private int measureQualityTier(
 }
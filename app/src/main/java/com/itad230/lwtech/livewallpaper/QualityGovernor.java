@@ -0,0 +1,102 @@
+package com.itad230.lwtech.livewallpaper;
+
+/**
+ * Picks how expensive the cube shading may be. The starting tier comes
+ * from a quick fill-rate measurement when the assets are first set up;
+ * after that every measured frame's cost is fed in, and if too many in a
+ * window run over budget the tier drops one step. It never goes back up:
+ * a GPU that struggled once will struggle again, and switching back and
+ * forth would be more visible than staying on the cheaper shading.
+ *
+ * No GL or Android classes are used here, so the decisions can be checked
+ * with made-up frame times.
+ */
+public class QualityGovernor {
+    public static final int TIER_LOW = 0;       // per-vertex lighting, low precision
+    public static final int TIER_MEDIUM = 1;    // per-fragment lighting
+    public static final int TIER_HIGH = 2;      // per-fragment lighting, high precision
+
+    // frames are judged a window at a time; a downgrade starts a new window,
+    // so the cheaper tier gets a full window before it can be judged
+    static final int WINDOW_FRAMES = 60;
+    static final int OVER_BUDGET_FRAMES_TO_DOWNGRADE = 20;
+
+    // milliseconds for one full-screen pass of the most expensive shading
+    // below which a tier can be afforded
+    private static final float HIGH_TIER_FILL_MS = 0.5f;
+    private static final float MEDIUM_TIER_FILL_MS = 2.0f;
+
+    private final long budgetNanos;
+    private int tier;
+    private int windowFrames;
+    private int overBudgetFrames;
+    private int downgrades;
+
+    public QualityGovernor(int tier) {
+        this(tier, FrameProfiler.JANK_THRESHOLD_NANOS);
+    }
+
+    public QualityGovernor(int tier, long budgetNanos) {
+        if (tier < TIER_LOW || tier > TIER_HIGH) {
+            throw new IllegalArgumentException("Unknown quality tier: " + tier);
+        }
+        this.tier = tier;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /** The tier a GPU can start on, given how long one full-screen pass of the high tier took. */
+    public static int tierForFillCost(float millisPerFullScreenPass) {
+        if (millisPerFullScreenPass < HIGH_TIER_FILL_MS) {
+            return TIER_HIGH;
+        }
+        if (millisPerFullScreenPass < MEDIUM_TIER_FILL_MS) {
+            return TIER_MEDIUM;
+        }
+        return TIER_LOW;
+    }
+
+    /**
+     * Counts one frame that took the given time: its GPU time, or its wall
+     * time between two glFinish() calls where the GPU can't be timed. Frames
+     * that weren't measured are left out. Returns true if this changed the
+     * tier.
+     */
+    public boolean recordFrame(long frameNanos) {
+        if (frameNanos > budgetNanos) {
+            overBudgetFrames++;
+        }
+        if (++windowFrames < WINDOW_FRAMES) {
+            return false;
+        }
+
+        final boolean downgrade = overBudgetFrames >= OVER_BUDGET_FRAMES_TO_DOWNGRADE && tier > TIER_LOW;
+        windowFrames = 0;
+        overBudgetFrames = 0;
+        if (downgrade) {
+            tier--;
+            downgrades++;
+        }
+        return downgrade;
+    }
+
+    public int getTier() {
+        return tier;
+    }
+
+    public int getDowngradeCount() {
+        return downgrades;
+    }
+
+    public static String tierName(int tier) {
+        switch (tier) {
+            case TIER_LOW:
+                return "low";
+            case TIER_MEDIUM:
+                return "medium";
+            case TIER_HIGH:
+                return "high";
+            default:
+                return "unknown";
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.itad230.lwtech.livewallpaper;
+
+/**
+ * Decides what fraction of the surface resolution the scene is rendered
+ * at. Frame times are fed in one at a time and judged a short window at a
+ * time: when the average runs over budget the scale drops straight to the
+ * size the budget allows (fill cost goes with the pixel count, i.e. the
+ * square of the scale), and when there is plenty of headroom it creeps back
+ * up a step per window. Dropping fast and recovering slowly keeps a busy
+ * GPU from bouncing between sizes.
+ *
+ * The scale is kept within the bounds given to the constructor and moves
+ * in whole steps, so small changes in load don't change it at all. No GL
+ * or Android classes are used here, so the controller can be checked with
+ * made-up frame times.
+ */
+public class ResolutionScaler {
+    public static final float STEP = 1.0f / 16.0f;
+
+    // frames averaged before each decision
+    static final int WINDOW_FRAMES = 15;
+
+    // what fraction of the budget the scale aims for when it drops, and the
+    // fraction below which it is allowed to go up again
+    private static final float TARGET_LOAD = 0.85f;
+    private static final float HEADROOM_LOAD = 0.6f;
+
+    private final float minScale;
+    private final float maxScale;
+    private final long budgetNanos;
+
+    private float scale;
+    private int windowFrames;
+    private long windowNanos;
+    private int changes;
+
+    public ResolutionScaler(float minScale, float maxScale) {
+        this(minScale, maxScale, FrameProfiler.JANK_THRESHOLD_NANOS);
+    }
+
+    public ResolutionScaler(float minScale, float maxScale, long budgetNanos) {
+        if (minScale <= 0.0f || minScale > maxScale || maxScale > 1.0f) {
+            throw new IllegalArgumentException("Bad scale bounds: " + minScale + ".." + maxScale);
+        }
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.budgetNanos = budgetNanos;
+        scale = maxScale;
+    }
+
+    /**
+     * Counts one frame that took the given time: its GPU time, or its wall
+     * time between two glFinish() calls where the GPU can't be timed. Frames
+     * that weren't measured are left out. Returns true if this changed the
+     * scale.
+     */
+    public boolean recordFrame(long frameNanos) {
+        windowNanos += frameNanos;
+        if (++windowFrames < WINDOW_FRAMES) {
+            return false;
+        }
+        final float load = (float) windowNanos / windowFrames / budgetNanos;
+        windowFrames = 0;
+        windowNanos = 0;
+
+        float newScale = scale;
+        if (load > 1.0f) {
+            newScale = clamp(floorToStep(scale * (float) Math.sqrt(TARGET_LOAD / load)));
+        } else if (load < HEADROOM_LOAD) {
+            newScale = clamp(scale + STEP);
+        }
+        if (newScale == scale) {
+            return false;
+        }
+        scale = newScale;
+        changes++;
+        return true;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    /** True when the scale can't go any lower, so only cheaper shading can save more time. */
+    public boolean isAtMinimum() {
+        return scale <= minScale;
+    }
+
+    public float getMinScale() {
+        return minScale;
+    }
+
+    public float getMaxScale() {
+        return maxScale;
+    }
+
+    public int getChangeCount() {
+        return changes;
+    }
+
+    private float clamp(float s) {
+        return Math.max(minScale, Math.min(maxScale, s));
+    }
+
+    private static float floorToStep(float s) {
+        return (float) Math.floor(s / STEP) * STEP;
+    }
+}
@@ -0,0 +1,114 @@
+package com.itad230.lwtech.livewallpaper;
+
+import android.content.Context;
+
+import util.ResourceCache;
+import util.TextResourceReader;
+import util.mesh.Mesh;
+import util.mesh.MeshResourceReader;
+
+/**
+ * Everything the renderer loads from resources: the cube mesh and the
+ * shader sources. Keeping it apart from the renderer means the renderer
+ * never touches a Context, so it can be driven off-device by handing it
+ * assets read from the source tree and a headless GLBackend.
+ *
+ * load() takes everything from the process-wide ResourceCache, so when
+ * the preview and the home screen engine (or the activity) run at once
+ * only the first reads and parses the resources. Each load() holds its
+ * references until release().
+ */
+public class WallpaperAssets {
+    public final Mesh cube;
+    public final String cubeVertexShader;       // every cube variant; see vshader_cube.glsl for the #defines
+    public final String cubeFragmentShader;
+    public final String lightVertexShader;
+    public final String lightFragmentShader;
+    public final String upscaleVertexShader;    // draws the offscreen scene over the surface
+    public final String upscaleFragmentShader;
+
+    private final String[] cacheKeys;         // references held in the resource cache
+
+    public WallpaperAssets(Mesh cube, String cubeVertexShader, String cubeFragmentShader,
+                           String lightVertexShader, String lightFragmentShader,
+                           String upscaleVertexShader, String upscaleFragmentShader) {
+        this(cube, cubeVertexShader, cubeFragmentShader, lightVertexShader, lightFragmentShader,
+                upscaleVertexShader, upscaleFragmentShader, new String[0]);
+    }
+
+    private WallpaperAssets(Mesh cube, String cubeVertexShader, String cubeFragmentShader,
+                            String lightVertexShader, String lightFragmentShader,
+                            String upscaleVertexShader, String upscaleFragmentShader,
+                            String[] cacheKeys) {
+        this.cube = cube;
+        this.cubeVertexShader = cubeVertexShader;
+        this.cubeFragmentShader = cubeFragmentShader;
+        this.lightVertexShader = lightVertexShader;
+        this.lightFragmentShader = lightFragmentShader;
+        this.upscaleVertexShader = upscaleVertexShader;
+        this.upscaleFragmentShader = upscaleFragmentShader;
+        this.cacheKeys = cacheKeys;
+    }
+
+    public static WallpaperAssets load(final Context context) {
+        // The binary mesh is mapped (or, if compressed, bulk-read into a
+        // direct buffer) and kept as it is; mapped pages cost no native heap
+        // and are shared by every engine. The renderer packs and interleaves
+        // it in the staging arena whenever it uploads it.
+        final ResourceCache cache = ResourceCache.shared();
+        final int[] shaderIds = {
+                R.raw.vshader_cube,
+                R.raw.fshader_cube,
+                R.raw.vshader_pointlightsrc,
+                R.raw.fshader_pointlightsrc,
+                R.raw.vshader_upscale,
+                R.raw.fshader_upscale };
+        final String[] keys = new String[shaderIds.length + 1];
+        final String[] shaders = new String[shaderIds.length];
+        keys[0] = "mesh/" + R.raw.cube;
+
+        // if anything fails to load, give back the references taken before it
+        int acquired = 0;
+        try {
+            final Mesh cube = cache.acquire(keys[0], new ResourceCache.Loader<Mesh>() {
+                @Override
+                public Mesh load() {
+                    return MeshResourceReader.readMeshFromResource(context, R.raw.cube);
+                }
+            });
+            acquired++;
+            for (int i = 0; i < shaderIds.length; i++) {
+                keys[i + 1] = "text/" + shaderIds[i];
+                shaders[i] = acquireText(cache, keys[i + 1], context, shaderIds[i]);
+                acquired++;
+            }
+            return new WallpaperAssets(cube, shaders[0], shaders[1], shaders[2], shaders[3],
+                    shaders[4], shaders[5], keys);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < acquired; i++) {
+                cache.release(keys[i]);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gives the resources back to the cache once the renderer is done with
+     * them. Nothing to do for assets made with the public constructor.
+     */
+    public void release() {
+        for (String key : cacheKeys) {
+            ResourceCache.shared().release(key);
+        }
+    }
+
+    private static String acquireText(ResourceCache cache, String key,
+                                      final Context context, final int resourceId) {
+        return cache.acquire(key, new ResourceCache.Loader<String>() {
+            @Override
+            public String load() {
+                return TextResourceReader.readTextFileFromResource(context, resourceId);
+            }
+        });
+    }
+}
@@ -0,0 +1,230 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+import util.math.Frustum;
+
+/**
+ * A tree of axis-aligned boxes over a set of bounding spheres, for culling
+ * thousands of objects without testing each one: a box wholly outside the
+ * frustum drops everything under it after one test, and a box wholly
+ * inside takes everything under it after one test.
+ *
+ * build() splits the objects in half along the longest axis of their
+ * centers, recursively, down to leaves of at most LEAF_SIZE. Nodes are
+ * stored depth first in flat arrays, so a node's left child comes straight
+ * after it and the objects under any node are one contiguous run of the
+ * object order. Building allocates and sorts; refit() only recomputes the
+ * boxes, bottom up, for spheres that have moved, and keeps the tree's
+ * shape. For objects that spin in place or drift a little that is as good
+ * as a rebuild at a fraction of the cost; rebuild when objects are added,
+ * or have travelled far.
+ *
+ * Spheres are read from a float[] of x, y, z, radius per object id. Not
+ * thread safe.
+ */
+public class BoundingVolumeHierarchy {
+    public static final int LEAF_SIZE = 8;
+
+    private int[] order = new int[0];       // object ids, each node's in one run
+    private int objectCount;
+
+    // per node, depth first
+    private float[] bounds = new float[0];  // min x, y, z, max x, y, z
+    private int[] firsts = new int[0];      // start of the node's run in order
+    private int[] counts = new int[0];      // length of the run
+    private int[] rights = new int[0];      // right child; -1 for a leaf
+    private int nodeCount;
+
+    private int[] stack = new int[64];
+    private int nodeTests;
+
+    /** Builds the tree over the given object ids from their spheres. */
+    public void build(int[] ids, int count, float[] spheres) {
+        if (order.length < count) {
+            order = new int[count];
+        }
+        System.arraycopy(ids, 0, order, 0, count);
+        objectCount = count;
+
+        // a binary tree with leaves of at least LEAF_SIZE / 2 has fewer than this many nodes
+        final int maxNodes = Math.max(1, 2 * ((count + LEAF_SIZE / 2 - 1) / (LEAF_SIZE / 2)));
+        if (firsts.length < maxNodes) {
+            bounds = new float[maxNodes * 6];
+            firsts = new int[maxNodes];
+            counts = new int[maxNodes];
+            rights = new int[maxNodes];
+        }
+        nodeCount = 0;
+        if (count > 0) {
+            split(0, count, spheres);
+        }
+        refit(spheres);
+    }
+
+    /** Recomputes every box from the spheres' current positions. */
+    public void refit(float[] spheres) {
+        // children always come after their parent, so backwards is bottom up
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            final int b = node * 6;
+            if (rights[node] < 0) {
+                float minX = Float.MAX_VALUE;
+                float minY = Float.MAX_VALUE;
+                float minZ = Float.MAX_VALUE;
+                float maxX = -Float.MAX_VALUE;
+                float maxY = -Float.MAX_VALUE;
+                float maxZ = -Float.MAX_VALUE;
+                final int end = firsts[node] + counts[node];
+                for (int i = firsts[node]; i < end; i++) {
+                    final int s = order[i] * 4;
+                    final float r = spheres[s + 3];
+                    minX = Math.min(minX, spheres[s] - r);
+                    minY = Math.min(minY, spheres[s + 1] - r);
+                    minZ = Math.min(minZ, spheres[s + 2] - r);
+                    maxX = Math.max(maxX, spheres[s] + r);
+                    maxY = Math.max(maxY, spheres[s + 1] + r);
+                    maxZ = Math.max(maxZ, spheres[s + 2] + r);
+                }
+                bounds[b] = minX;
+                bounds[b + 1] = minY;
+                bounds[b + 2] = minZ;
+                bounds[b + 3] = maxX;
+                bounds[b + 4] = maxY;
+                bounds[b + 5] = maxZ;
+            } else {
+                final int l = (node + 1) * 6;
+                final int r = rights[node] * 6;
+                for (int k = 0; k < 3; k++) {
+                    bounds[b + k] = Math.min(bounds[l + k], bounds[r + k]);
+                    bounds[b + 3 + k] = Math.max(bounds[l + 3 + k], bounds[r + 3 + k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the ids of the objects that may be inside the frustum to
+     * visible, and returns how many there are.
+     */
+    public int cull(Frustum frustum, float[] spheres, int[] visible) {
+        int visibleCount = 0;
+        if (nodeCount == 0) {
+            return 0;
+        }
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            final int b = node * 6;
+            nodeTests++;
+            final int where = frustum.classifyBox(bounds[b], bounds[b + 1], bounds[b + 2],
+                    bounds[b + 3], bounds[b + 4], bounds[b + 5]);
+            if (where == Frustum.OUTSIDE) {
+                continue;
+            }
+            if (where == Frustum.INSIDE) {
+                System.arraycopy(order, firsts[node], visible, visibleCount, counts[node]);
+                visibleCount += counts[node];
+            } else if (rights[node] < 0) {
+                final int end = firsts[node] + counts[node];
+                for (int i = firsts[node]; i < end; i++) {
+                    final int s = order[i] * 4;
+                    if (frustum.classifySphere(spheres[s], spheres[s + 1], spheres[s + 2],
+                            spheres[s + 3]) != Frustum.OUTSIDE) {
+                        visible[visibleCount++] = order[i];
+                    }
+                }
+            } else {
+                if (top + 2 > stack.length) {
+                    final int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, top);
+                    stack = grown;
+                }
+                stack[top++] = rights[node];
+                stack[top++] = node + 1;
+            }
+        }
+        return visibleCount;
+    }
+
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** Boxes tested by cull() since the tree was made. */
+    public int getNodeTestCount() {
+        return nodeTests;
+    }
+
+    // Makes the node for order[start..end) and, below it, its subtree.
+    private int split(int start, int end, float[] spheres) {
+        final int node = nodeCount++;
+        firsts[node] = start;
+        counts[node] = end - start;
+        if (end - start <= LEAF_SIZE) {
+            rights[node] = -1;
+            return node;
+        }
+
+        // the longest axis of the centers' extent
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        float maxZ = -Float.MAX_VALUE;
+        for (int i = start; i < end; i++) {
+            final int s = order[i] * 4;
+            minX = Math.min(minX, spheres[s]);
+            minY = Math.min(minY, spheres[s + 1]);
+            minZ = Math.min(minZ, spheres[s + 2]);
+            maxX = Math.max(maxX, spheres[s]);
+            maxY = Math.max(maxY, spheres[s + 1]);
+            maxZ = Math.max(maxZ, spheres[s + 2]);
+        }
+        final float extentX = maxX - minX;
+        final float extentY = maxY - minY;
+        final float extentZ = maxZ - minZ;
+        final int axis = extentX >= extentY && extentX >= extentZ ? 0 : (extentY >= extentZ ? 1 : 2);
+
+        final int middle = (start + end) >>> 1;
+        select(start, end - 1, middle, axis, spheres);
+        split(start, middle, spheres);
+        rights[node] = split(middle, end, spheres);
+        return node;
+    }
+
+    // Partially sorts order[low..high] so that order[k] has the k-th
+    // smallest center along axis, smaller ones before it and larger after.
+    private void select(int low, int high, int k, int axis, float[] spheres) {
+        while (low < high) {
+            final float pivot = spheres[order[(low + high) >>> 1] * 4 + axis];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (spheres[order[i] * 4 + axis] < pivot) {
+                    i++;
+                }
+                while (spheres[order[j] * 4 + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    final int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+/**
+ * Everything the GL thread needs to draw the scene at one moment: the
+ * view and projection it was computed for, and for every object its model
+ * (world), model/view and model/view/projection matrix, 16 floats per
+ * object id in flat arrays. SceneUpdater fills one of these while the
+ * renderer draws from another.
+ *
+ * It also lists the drawable objects that survived frustum culling; only
+ * those need drawing, each with the mesh LevelOfDetail picked for it.
+ */
+public class FrameTransforms {
+    public final float[] viewMatrix = new float[16];
+    public final float[] projectionMatrix = new float[16];
+
+    private double time;
+    private int count;
+    private float[] modelMatrices = new float[0];
+    private float[] modelViewMatrices = new float[0];
+    private float[] mvpMatrices = new float[0];
+    private int[] visibleIds = new int[0];
+    private int[] visibleMeshes = new int[0];
+    private int visibleCount;
+    private int drawableCount;
+
+    /** Scene time, in seconds, the matrices are for. */
+    public double getTime() {
+        return time;
+    }
+
+    /** Number of objects; the matrix arrays may be longer. */
+    public int getCount() {
+        return count;
+    }
+
+    public float[] getModelMatrices() {
+        return modelMatrices;
+    }
+
+    public float[] getModelViewMatrices() {
+        return modelViewMatrices;
+    }
+
+    public float[] getMvpMatrices() {
+        return mvpMatrices;
+    }
+
+    /** Ids of the drawable objects that may be on screen, in no particular order. */
+    public int[] getVisibleIds() {
+        return visibleIds;
+    }
+
+    /** Mesh to draw each visible object with, in the same order as getVisibleIds(). */
+    public int[] getVisibleMeshes() {
+        return visibleMeshes;
+    }
+
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    /** Drawable objects left out because they are wholly outside the frustum. */
+    public int getCulledCount() {
+        return drawableCount - visibleCount;
+    }
+
+    void setTime(double time) {
+        this.time = time;
+    }
+
+    // Sets the object count, growing the arrays if they are too short.
+    void setCount(int count) {
+        this.count = count;
+        if (modelMatrices.length < count * 16) {
+            modelMatrices = new float[count * 16];
+            modelViewMatrices = new float[count * 16];
+            mvpMatrices = new float[count * 16];
+        }
+    }
+
+    // Makes room for the visible ids of drawableCount objects.
+    int[] prepareVisible(int drawableCount) {
+        this.drawableCount = drawableCount;
+        if (visibleIds.length < drawableCount) {
+            visibleIds = new int[drawableCount];
+            visibleMeshes = new int[drawableCount];
+        }
+        return visibleIds;
+    }
+
+    void setVisibleCount(int visibleCount) {
+        this.visibleCount = visibleCount;
+    }
+}
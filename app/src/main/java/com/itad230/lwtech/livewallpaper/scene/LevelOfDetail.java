@@ -0,0 +1,99 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+/**
+ * Picks the mesh each visible object is drawn with, from how big it is on
+ * screen. An object's mesh id in the Scene names a model; a model given
+ * levels here is drawn with one of several meshes, finest first, and any
+ * other is drawn with the mesh of the same id.
+ *
+ * Screen size is the fraction of the viewport's height the object's
+ * bounding sphere covers: its radius times the projection's vertical
+ * scale, over its distance in front of the eye. Level i is used down to
+ * switchSizes[i], and the last level below that. So that an object near a
+ * threshold doesn't flip between two levels from frame to frame (popping),
+ * it only moves to a coarser level once it is HYSTERESIS below the
+ * threshold, and back to a finer one once it is HYSTERESIS above it.
+ *
+ * Levels must be set before the scene's first update. Used by SceneUpdater
+ * on whichever thread runs the update.
+ */
+public class LevelOfDetail {
+    /** Fraction of a threshold an object must pass it by to change level. */
+    public static final float HYSTERESIS = 0.15f;
+
+    private static final int MAX_MODELS = RenderQueue.MAX_MESH + 1;
+
+    // per model, null where it has a single mesh
+    private final int[][] levelMeshes = new int[MAX_MODELS][];
+    private final float[][] switchSizes = new float[MAX_MODELS][];
+
+    private int[] objectLevels = new int[0];    // current level per object id
+    private volatile int changes;       // written by the update thread only
+
+    /**
+     * Gives a model levels of detail.
+     *
+     * @param meshes      mesh ids, finest first
+     * @param switchSizes screen size below which each level but the last
+     *                    gives way to the next; descending
+     */
+    public void setLevels(int model, int[] meshes, float[] switchSizes) {
+        if (switchSizes.length != meshes.length - 1) {
+            throw new IllegalArgumentException(meshes.length + " levels need " + (meshes.length - 1)
+                    + " switch sizes, not " + switchSizes.length);
+        }
+        levelMeshes[model] = meshes.clone();
+        this.switchSizes[model] = switchSizes.clone();
+    }
+
+    /** Times any object has changed level. */
+    public int getChangeCount() {
+        return changes;
+    }
+
+    /**
+     * Fills in the mesh of every visible object of transforms, whose
+     * matrices and visible list must be current.
+     */
+    void select(Scene scene, FrameTransforms into) {
+        if (objectLevels.length < scene.getCount()) {
+            final int[] grown = new int[scene.getCount()];
+            System.arraycopy(objectLevels, 0, grown, 0, objectLevels.length);
+            objectLevels = grown;
+        }
+        final int[] visible = into.getVisibleIds();
+        final int visibleCount = into.getVisibleCount();
+        final int[] meshes = into.getVisibleMeshes();
+        final float[] modelViews = into.getModelViewMatrices();
+        final float verticalScale = into.projectionMatrix[5];
+
+        for (int i = 0; i < visibleCount; i++) {
+            final int id = visible[i];
+            final int model = scene.getMesh(id);
+            final int[] levels = levelMeshes[model];
+            if (levels == null) {
+                meshes[i] = model;
+                continue;
+            }
+
+            // negated view space z is the distance in front of the eye
+            final float distance = -modelViews[id * 16 + 14];
+            final float size = distance > 0.0f
+                    ? scene.getBoundingRadius(id) * verticalScale / distance : Float.MAX_VALUE;
+            final float[] switches = switchSizes[model];
+            final int was = Math.min(objectLevels[id], levels.length - 1);
+            int level = was;
+            while (level < levels.length - 1 && size < switches[level] * (1.0f - HYSTERESIS)) {
+                level++;
+            }
+            while (level > 0 && size > switches[level - 1] * (1.0f + HYSTERESIS)) {
+                level--;
+            }
+            if (level != was) {
+                objectLevels[id] = level;
+                changes++;
+            }
+            meshes[i] = levels[level];
+        }
+    }
+}
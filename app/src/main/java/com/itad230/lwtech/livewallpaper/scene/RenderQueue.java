@@ -0,0 +1,200 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+/**
+ * The draws of one frame, each an item (an object id, say) with a 64-bit
+ * sort key. Sorting the keys puts the draws in the order that is cheapest
+ * to submit. From the most significant bits down, a key holds:
+ *
+ *   layer     4 bits   drawn in ascending order, e.g. opaque before overlays
+ *   program   8 bits   so every draw with one program is submitted together
+ *   mesh      8 bits   and, within that, every draw of one vertex buffer
+ *   depth    16 bits   nearest first, so opaque draws hide what's behind
+ *                      them from the fragment shader (early depth rejection)
+ *
+ * The low 28 bits are free. Keys are compared as unsigned numbers, and
+ * draws with equal keys keep the order they were added in.
+ *
+ * sort() is a least significant digit radix sort, a byte per pass; a pass
+ * is skipped when every key has the same byte there, so the unused low
+ * bits cost nothing. The arrays are kept between frames and only grow, so
+ * once they're big enough for the scene nothing is allocated. Not thread
+ * safe; fill and draw it on one thread.
+ */
+public class RenderQueue {
+    public static final int MAX_LAYER = 15;
+    public static final int MAX_PROGRAM = 255;
+    public static final int MAX_MESH = 255;
+    public static final int MAX_DEPTH = 65535;
+
+    private static final int LAYER_SHIFT = 60;
+    private static final int PROGRAM_SHIFT = 52;
+    private static final int MESH_SHIFT = 44;
+    private static final int DEPTH_SHIFT = 28;
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int PASSES = 64 / RADIX_BITS;
+
+    private long[] keys;
+    private int[] items;
+    private long[] scratchKeys;         // where each pass scatters to; swapped with keys after it
+    private int[] scratchItems;
+    private final int[] counts = new int[PASSES * RADIX];
+    private int size;
+
+    public RenderQueue(int initialCapacity) {
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+    /** Packs the sort fields into a key; each field is masked to its width. */
+    public static long key(int layer, int program, int mesh, int depth) {
+        return ((long) (layer & MAX_LAYER) << LAYER_SHIFT)
+                | ((long) (program & MAX_PROGRAM) << PROGRAM_SHIFT)
+                | ((long) (mesh & MAX_MESH) << MESH_SHIFT)
+                | ((long) (depth & MAX_DEPTH) << DEPTH_SHIFT);
+    }
+
+    public static int layerOf(long key) {
+        return (int) (key >>> LAYER_SHIFT) & MAX_LAYER;
+    }
+
+    public static int programOf(long key) {
+        return (int) (key >>> PROGRAM_SHIFT) & MAX_PROGRAM;
+    }
+
+    public static int meshOf(long key) {
+        return (int) (key >>> MESH_SHIFT) & MAX_MESH;
+    }
+
+    public static int depthOf(long key) {
+        return (int) (key >>> DEPTH_SHIFT) & MAX_DEPTH;
+    }
+
+    /**
+     * True if the two keys have the same layer, program and mesh, so their
+     * draws can share the program and buffer bindings (and a batch).
+     */
+    public static boolean sameState(long a, long b) {
+        return (a >>> MESH_SHIFT) == (b >>> MESH_SHIFT);
+    }
+
+    /**
+     * Quantizes a distance in front of the eye to a depth field, 0 at the
+     * near plane and MAX_DEPTH at the far plane; distances outside them are
+     * clamped. For draws that must go back to front, like blended ones,
+     * use MAX_DEPTH minus this.
+     */
+    public static int depthBucket(float distance, float near, float far) {
+        final float t = (distance - near) / (far - near);
+        if (!(t > 0.0f)) {
+            return 0;   // and NaN
+        }
+        if (t >= 1.0f) {
+            return MAX_DEPTH;
+        }
+        return (int) (t * MAX_DEPTH);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(long key, int item) {
+        if (size == keys.length) {
+            grow(size * 2);
+        }
+        keys[size] = key;
+        items[size] = item;
+        size++;
+    }
+
+    public void sort() {
+        final int n = size;
+        if (n < 2) {
+            return;
+        }
+
+        // One read of the keys fills the histograms of every pass.
+        final int[] counts = this.counts;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        final long[] k = keys;
+        for (int i = 0; i < n; i++) {
+            final long key = k[i];
+            for (int pass = 0; pass < PASSES; pass++) {
+                counts[pass * RADIX + (int) ((key >>> (pass * RADIX_BITS)) & (RADIX - 1))]++;
+            }
+        }
+
+        for (int pass = 0; pass < PASSES; pass++) {
+            final int base = pass * RADIX;
+            final int shift = pass * RADIX_BITS;
+
+            // every key has the same digit here, so this pass wouldn't move anything
+            if (counts[base + (int) ((keys[0] >>> shift) & (RADIX - 1))] == n) {
+                continue;
+            }
+
+            // counts become the position each digit's run starts at
+            int start = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                final int count = counts[base + digit];
+                counts[base + digit] = start;
+                start += count;
+            }
+
+            final long[] fromKeys = keys;
+            final int[] fromItems = items;
+            final long[] toKeys = scratchKeys;
+            final int[] toItems = scratchItems;
+            for (int i = 0; i < n; i++) {
+                final long key = fromKeys[i];
+                final int to = counts[base + (int) ((key >>> shift) & (RADIX - 1))]++;
+                toKeys[to] = key;
+                toItems[to] = fromItems[i];
+            }
+
+            keys = toKeys;
+            items = toItems;
+            scratchKeys = fromKeys;
+            scratchItems = fromItems;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    public int getItem(int index) {
+        return items[index];
+    }
+
+    /**
+     * The items in queue order, for passing a run of them on at once. Only
+     * valid until the next add() or sort(), which may replace the array.
+     */
+    public int[] getItems() {
+        return items;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        items = new int[capacity];
+        scratchKeys = new long[capacity];
+        scratchItems = new int[capacity];
+    }
+
+    private void grow(int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldItems = items;
+
+        allocate(capacity);
+        System.arraycopy(oldKeys, 0, keys, 0, size);
+        System.arraycopy(oldItems, 0, items, 0, size);
+    }
+}
@@ -0,0 +1,354 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+import util.WorkerPool;
+import util.math.Mat4;
+
+/**
+ * The objects in the wallpaper, stored as a structure of arrays: every
+ * property lives in a flat primitive array indexed by object id, and world
+ * matrices are packed 16 floats per object into one float[].
+ *
+ * Objects may have a parent. A parent must be added before its children,
+ * so ascending id order is always a valid update order: by the time a child
+ * is reached its parent's world matrix is current. Each object carries a
+ * dirty flag; update() only rebuilds the local matrix of objects that moved
+ * or are animated, and only rebuilds the world matrix of objects whose own
+ * transform or some ancestor's transform changed.
+ *
+ * update() can also be split over a WorkerPool. Local matrices don't
+ * depend on each other, so they are done in one parallel pass over all
+ * objects; world matrices are then done a level of the hierarchy at a
+ * time (roots, then their children, and so on), each level in parallel.
+ *
+ * Nothing is allocated after the arrays have grown to their final size, and
+ * there are no Android dependencies.
+ */
+public class Scene {
+    public static final int NO_PARENT = -1;
+    public static final int NO_MESH = -1;
+
+    // fewest objects worth handing to another thread
+    private static final int MIN_PARALLEL_OBJECTS = 256;
+
+    private int count;
+
+    private int[] parents;
+    private int[] meshes;               // mesh drawn for the object, or NO_MESH for pure transform nodes
+    private float[] positions;          // x, y, z per object
+    private float[] rotationAxes;       // normalized x, y, z per object
+    private float[] angularSpeeds;      // degrees per second
+    private float[] startAngles;        // degrees
+    private float[] boundingRadii;      // of the object's mesh, about its origin
+    private boolean[] dirty;            // local transform must be rebuilt
+    private boolean[] worldChanged;     // world matrix was rebuilt this update
+    private float[] localMatrices;
+    private float[] worldMatrices;
+
+    // ids of objects that have a mesh, in update order
+    private int[] drawOrder;
+    private int drawCount;
+
+    // For the parallel update: object ids sorted by depth in the hierarchy,
+    // and where each depth starts. Rebuilt when objects have been added.
+    private int[] depths;
+    private int[] levelOrder;
+    private int[] levelStarts;
+    private int levelCount;
+    private boolean levelsStale = true;
+
+    // what the tasks below work on during a parallel update
+    private double updateTime;
+    private int levelStart;
+    private final WorkerPool.RangeTask localTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int start, int end) {
+            updateLocal(start, end);
+        }
+    };
+    private final WorkerPool.RangeTask worldTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int start, int end) {
+            updateWorld(levelStart + start, levelStart + end);
+        }
+    };
+
+    public Scene(int initialCapacity) {
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+    /**
+     * Adds an object that sits at (x, y, z) relative to its parent and spins
+     * about the given axis. A speed of zero makes it static, so its matrices
+     * are only rebuilt when it or an ancestor changes.
+     *
+     * @return the object's id
+     */
+    public int addObject(int parent, int mesh,
+                         float x, float y, float z,
+                         float axisX, float axisY, float axisZ,
+                         float degreesPerSecond) {
+        if (parent >= count) {
+            throw new IllegalArgumentException("Parent " + parent + " must be added before its children");
+        }
+        if (count == parents.length) {
+            grow(count * 2);
+        }
+
+        final int id = count++;
+        parents[id] = parent;
+        depths[id] = parent == NO_PARENT ? 0 : depths[parent] + 1;
+        levelsStale = true;
+        meshes[id] = mesh;
+        positions[id * 3] = x;
+        positions[id * 3 + 1] = y;
+        positions[id * 3 + 2] = z;
+
+        final float length = (float) Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+        if (length > 0.0f) {
+            rotationAxes[id * 3] = axisX / length;
+            rotationAxes[id * 3 + 1] = axisY / length;
+            rotationAxes[id * 3 + 2] = axisZ / length;
+        } else {
+            rotationAxes[id * 3 + 1] = 1.0f;
+        }
+        angularSpeeds[id] = degreesPerSecond;
+        startAngles[id] = 0.0f;
+        boundingRadii[id] = 0.0f;
+        dirty[id] = true;
+
+        if (mesh != NO_MESH) {
+            drawOrder[drawCount++] = id;
+        }
+        return id;
+    }
+
+    public void setPosition(int id, float x, float y, float z) {
+        positions[id * 3] = x;
+        positions[id * 3 + 1] = y;
+        positions[id * 3 + 2] = z;
+        dirty[id] = true;
+    }
+
+    /**
+     * Radius of a sphere about the object's origin that holds its mesh,
+     * for culling. Zero (the default) treats the object as a point.
+     */
+    public void setBoundingRadius(int id, float radius) {
+        boundingRadii[id] = radius;
+    }
+
+    public float getBoundingRadius(int id) {
+        return boundingRadii[id];
+    }
+
+    public void setStartAngle(int id, float degrees) {
+        startAngles[id] = degrees;
+        dirty[id] = true;
+    }
+
+    /**
+     * Brings every world matrix up to date for the given time.
+     *
+     * @param timeSeconds animation time; objects are at their start angle at zero
+     */
+    public void update(double timeSeconds) {
+        final float[] local = localMatrices;
+        final float[] world = worldMatrices;
+
+        for (int id = 0; id < count; id++) {
+            final float speed = angularSpeeds[id];
+            final boolean localChanged = dirty[id] || speed != 0.0f;
+            final int parent = parents[id];
+            final boolean parentChanged = parent != NO_PARENT && worldChanged[parent];
+
+            if (localChanged) {
+                final float angle = (float) ((startAngles[id] + speed * timeSeconds) % 360.0);
+                final int v = id * 3;
+                // local = translate(position) * rotate(angle, axis)
+                Mat4.setTranslateRotate(local, id * 16,
+                        positions[v], positions[v + 1], positions[v + 2],
+                        angle, rotationAxes[v], rotationAxes[v + 1], rotationAxes[v + 2]);
+                dirty[id] = false;
+            }
+
+            if (localChanged || parentChanged) {
+                if (parent == NO_PARENT) {
+                    System.arraycopy(local, id * 16, world, id * 16, 16);
+                } else {
+                    Mat4.multiplyAffine(world, id * 16, world, parent * 16, local, id * 16);
+                }
+                worldChanged[id] = true;
+            } else {
+                worldChanged[id] = false;
+            }
+        }
+    }
+
+    /**
+     * Same as update(timeSeconds), with the work split over the pool's
+     * threads. Returns when every matrix is up to date.
+     */
+    public void update(double timeSeconds, WorkerPool pool) {
+        if (pool == null || pool.getThreadCount() == 1 || count < MIN_PARALLEL_OBJECTS) {
+            update(timeSeconds);
+            return;
+        }
+        if (levelsStale) {
+            sortLevels();
+        }
+
+        updateTime = timeSeconds;
+        pool.forEachRange(count, MIN_PARALLEL_OBJECTS, localTask);
+        // a level only reads the world matrices of the one above it
+        for (int level = 0; level < levelCount; level++) {
+            levelStart = levelStarts[level];
+            pool.forEachRange(levelStarts[level + 1] - levelStart, MIN_PARALLEL_OBJECTS, worldTask);
+        }
+    }
+
+    // Rebuilds the local matrices of objects start..end that moved or are
+    // animated, and marks them changed; updateWorld() adds the objects whose
+    // parents changed.
+    private void updateLocal(int start, int end) {
+        final float[] local = localMatrices;
+        final double timeSeconds = updateTime;
+        for (int id = start; id < end; id++) {
+            final float speed = angularSpeeds[id];
+            final boolean localChanged = dirty[id] || speed != 0.0f;
+            if (localChanged) {
+                final float angle = (float) ((startAngles[id] + speed * timeSeconds) % 360.0);
+                final int v = id * 3;
+                Mat4.setTranslateRotate(local, id * 16,
+                        positions[v], positions[v + 1], positions[v + 2],
+                        angle, rotationAxes[v], rotationAxes[v + 1], rotationAxes[v + 2]);
+                dirty[id] = false;
+            }
+            worldChanged[id] = localChanged;
+        }
+    }
+
+    // Rebuilds the world matrices of the objects at levelOrder[start..end),
+    // which are all at one depth.
+    private void updateWorld(int start, int end) {
+        final float[] local = localMatrices;
+        final float[] world = worldMatrices;
+        final int[] order = levelOrder;
+        for (int i = start; i < end; i++) {
+            final int id = order[i];
+            final int parent = parents[id];
+            if (parent == NO_PARENT) {
+                if (worldChanged[id]) {
+                    System.arraycopy(local, id * 16, world, id * 16, 16);
+                }
+            } else if (worldChanged[id] || worldChanged[parent]) {
+                Mat4.multiplyAffine(world, id * 16, world, parent * 16, local, id * 16);
+                worldChanged[id] = true;
+            }
+        }
+    }
+
+    // Counting sort of the ids by depth; ids stay ascending within a level.
+    private void sortLevels() {
+        int maxDepth = 0;
+        for (int id = 0; id < count; id++) {
+            maxDepth = Math.max(maxDepth, depths[id]);
+        }
+        levelCount = maxDepth + 1;
+        if (levelStarts == null || levelStarts.length < levelCount + 1) {
+            levelStarts = new int[levelCount + 1];
+        }
+        if (levelOrder == null || levelOrder.length < count) {
+            levelOrder = new int[parents.length];
+        }
+
+        for (int level = 0; level <= levelCount; level++) {
+            levelStarts[level] = 0;
+        }
+        for (int id = 0; id < count; id++) {
+            levelStarts[depths[id] + 1]++;
+        }
+        for (int level = 0; level < levelCount; level++) {
+            levelStarts[level + 1] += levelStarts[level];
+        }
+        // levelStarts[d + 1] is now where depth d ends; fill each level from its start
+        final int[] next = new int[levelCount];
+        System.arraycopy(levelStarts, 0, next, 0, levelCount);
+        for (int id = 0; id < count; id++) {
+            levelOrder[next[depths[id]]++] = id;
+        }
+        levelsStale = false;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getParent(int id) {
+        return parents[id];
+    }
+
+    public int getMesh(int id) {
+        return meshes[id];
+    }
+
+    /** World matrices, 16 floats per object id. Valid after update(). */
+    public float[] getWorldMatrices() {
+        return worldMatrices;
+    }
+
+    /** Ids of the objects that have a mesh, in the order they should be visited. */
+    public int[] getDrawOrder() {
+        return drawOrder;
+    }
+
+    public int getDrawCount() {
+        return drawCount;
+    }
+
+    private void allocate(int capacity) {
+        parents = new int[capacity];
+        meshes = new int[capacity];
+        positions = new float[capacity * 3];
+        rotationAxes = new float[capacity * 3];
+        angularSpeeds = new float[capacity];
+        startAngles = new float[capacity];
+        boundingRadii = new float[capacity];
+        dirty = new boolean[capacity];
+        worldChanged = new boolean[capacity];
+        localMatrices = new float[capacity * 16];
+        worldMatrices = new float[capacity * 16];
+        drawOrder = new int[capacity];
+        depths = new int[capacity];
+    }
+
+    private void grow(int capacity) {
+        final int[] oldParents = parents;
+        final int[] oldMeshes = meshes;
+        final float[] oldPositions = positions;
+        final float[] oldAxes = rotationAxes;
+        final float[] oldSpeeds = angularSpeeds;
+        final float[] oldStartAngles = startAngles;
+        final float[] oldRadii = boundingRadii;
+        final boolean[] oldDirty = dirty;
+        final boolean[] oldWorldChanged = worldChanged;
+        final float[] oldLocal = localMatrices;
+        final float[] oldWorld = worldMatrices;
+        final int[] oldDrawOrder = drawOrder;
+        final int[] oldDepths = depths;
+
+        allocate(capacity);
+        System.arraycopy(oldParents, 0, parents, 0, count);
+        System.arraycopy(oldMeshes, 0, meshes, 0, count);
+        System.arraycopy(oldPositions, 0, positions, 0, count * 3);
+        System.arraycopy(oldAxes, 0, rotationAxes, 0, count * 3);
+        System.arraycopy(oldSpeeds, 0, angularSpeeds, 0, count);
+        System.arraycopy(oldStartAngles, 0, startAngles, 0, count);
+        System.arraycopy(oldRadii, 0, boundingRadii, 0, count);
+        System.arraycopy(oldDirty, 0, dirty, 0, count);
+        System.arraycopy(oldWorldChanged, 0, worldChanged, 0, count);
+        System.arraycopy(oldLocal, 0, localMatrices, 0, count * 16);
+        System.arraycopy(oldWorld, 0, worldMatrices, 0, count * 16);
+        System.arraycopy(oldDrawOrder, 0, drawOrder, 0, drawCount);
+        System.arraycopy(oldDepths, 0, depths, 0, count);
+    }
+}
@@ -0,0 +1,88 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+import util.math.Frustum;
+import util.math.Mat4;
+
+/**
+ * Works out which of the scene's drawable objects may be on screen. Each
+ * object's bounding sphere is placed in the world by its world matrix
+ * (the scene only rotates and translates, so the radius carries over
+ * unchanged) and tested against the frustum planes of the frame's
+ * projection * view.
+ *
+ * Up to HIERARCHY_MIN_OBJECTS objects every sphere is tested in turn. From
+ * there a BoundingVolumeHierarchy is kept over them: built when the set of
+ * drawable objects changes and refitted every frame after that, so culling
+ * costs about one test per box that straddles a plane instead of one per
+ * object.
+ *
+ * Used by SceneUpdater on whichever thread runs the update.
+ */
+public class SceneCuller {
+    public static final int HIERARCHY_MIN_OBJECTS = 1024;
+
+    private final Scene scene;
+    private final Frustum frustum = new Frustum();
+    private final float[] viewProjection = new float[16];
+    private final BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy();
+    private float[] spheres = new float[0];     // x, y, z, radius per object id, world space
+    private int builtDrawCount = -1;            // draw count the hierarchy was built for
+
+    public SceneCuller(Scene scene) {
+        this.scene = scene;
+    }
+
+    /**
+     * Fills in the visible objects of transforms, whose matrices must be
+     * current. With culling off every drawable object is visible.
+     */
+    public void cull(FrameTransforms into, boolean enabled) {
+        final int[] drawOrder = scene.getDrawOrder();
+        final int drawCount = scene.getDrawCount();
+        final int[] visible = into.prepareVisible(drawCount);
+        if (!enabled) {
+            System.arraycopy(drawOrder, 0, visible, 0, drawCount);
+            into.setVisibleCount(drawCount);
+            return;
+        }
+
+        Mat4.multiply(viewProjection, 0, into.projectionMatrix, 0, into.viewMatrix, 0);
+        frustum.set(viewProjection, 0);
+        placeSpheres(into.getModelMatrices(), drawOrder, drawCount);
+
+        int visibleCount = 0;
+        if (drawCount >= HIERARCHY_MIN_OBJECTS) {
+            if (drawCount != builtDrawCount) {
+                hierarchy.build(drawOrder, drawCount, spheres);
+                builtDrawCount = drawCount;
+            } else {
+                hierarchy.refit(spheres);
+            }
+            visibleCount = hierarchy.cull(frustum, spheres, visible);
+        } else {
+            for (int i = 0; i < drawCount; i++) {
+                final int s = drawOrder[i] * 4;
+                if (frustum.classifySphere(spheres[s], spheres[s + 1], spheres[s + 2],
+                        spheres[s + 3]) != Frustum.OUTSIDE) {
+                    visible[visibleCount++] = drawOrder[i];
+                }
+            }
+        }
+        into.setVisibleCount(visibleCount);
+    }
+
+    // World space bounding spheres of the drawable objects.
+    private void placeSpheres(float[] world, int[] drawOrder, int drawCount) {
+        if (spheres.length < scene.getCount() * 4) {
+            spheres = new float[scene.getCount() * 4];
+        }
+        for (int i = 0; i < drawCount; i++) {
+            final int id = drawOrder[i];
+            final int s = id * 4;
+            spheres[s] = world[id * 16 + 12];
+            spheres[s + 1] = world[id * 16 + 13];
+            spheres[s + 2] = world[id * 16 + 14];
+            spheres[s + 3] = scene.getBoundingRadius(id);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import util.WorkerPool;
+import util.math.Mat4;
+
+/**
+ * Takes the matrix work of a frame off the GL thread. Each frame the
+ * renderer calls advance() with the time and camera; the scene is updated
+ * and every object's model, model/view and MVP matrix computed into one
+ * of two FrameTransforms, while the GL thread draws from the other.
+ *
+ * Pipelined, the update runs on a thread of its own, split over a
+ * WorkerPool, and advance() returns the transforms of the previous call
+ * straight away; the one frame of latency buys an update that overlaps
+ * the GL submission. The handoff is lock-free: a finished buffer is
+ * published through an AtomicReference, and the GL thread hands the one
+ * it has drawn back only when it takes a new one, so the two threads
+ * never touch the same buffer. If the update hasn't finished by the next
+ * frame, that frame draws the same transforms again rather than wait.
+ *
+ * Not pipelined, advance() does the update itself, still split over the
+ * pool, and returns the result; that is how the scaling with thread count
+ * is measured off-device.
+ *
+ * After the matrices, the drawable objects are culled against the frame's
+ * view volume by a SceneCuller, so the GL thread only queues the ones in
+ * view, and LevelOfDetail picks the mesh each of those is drawn with.
+ *
+ * Once updates have started the scene belongs to the updater: only its
+ * structure (draw order, meshes) may be read from other threads.
+ */
+public class SceneUpdater {
+    // fewest objects worth handing to another thread
+    private static final int MIN_PARALLEL_OBJECTS = 256;
+
+    private final Scene scene;
+    private final WorkerPool pool;
+    private final FrameTransforms[] buffers = { new FrameTransforms(), new FrameTransforms() };
+    private final Thread updateThread;      // null when not pipelined
+    private final SceneCuller culler;
+    private final LevelOfDetail levelOfDetail = new LevelOfDetail();
+    private volatile boolean cullingEnabled = true;
+
+    // GL thread only
+    private FrameTransforms front;          // what the renderer is drawing; null before the first frame
+    private int reusedFrames;
+
+    // handoff between the two threads
+    private volatile FrameTransforms requested;                 // waiting for the update thread
+    private final AtomicReference<FrameTransforms> finished = new AtomicReference<FrameTransforms>();
+    private volatile RuntimeException failure;
+    private volatile boolean shutdown;
+
+    // the buffer the matrix task is filling
+    private FrameTransforms target;
+    private final WorkerPool.RangeTask matrixTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int start, int end) {
+            computeMatrices(start, end);
+        }
+    };
+
+    /**
+     * @param threads   threads the update is split over
+     * @param pipelined run updates on their own thread, a frame ahead of drawing
+     */
+    public SceneUpdater(Scene scene, int threads, boolean pipelined) {
+        this.scene = scene;
+        culler = new SceneCuller(scene);
+        pool = new WorkerPool(threads);
+        if (pipelined) {
+            updateThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "SceneUpdate");
+            updateThread.setDaemon(true);
+            updateThread.start();
+        } else {
+            updateThread = null;
+        }
+    }
+
+    /**
+     * Starts the transforms for the given time and camera, and returns the
+     * latest finished ones, which are the renderer's to read until the next
+     * call. The matrices are copied, so the caller may change them after.
+     * GL thread.
+     */
+    public FrameTransforms advance(double timeSeconds, float[] viewMatrix, float[] projectionMatrix) {
+        final RuntimeException e = failure;
+        if (e != null) {
+            failure = null;
+            throw new RuntimeException("Scene update failed: " + e.getMessage(), e);
+        }
+
+        if (updateThread == null || front == null) {
+            // not pipelined, or there is nothing to draw yet: update here
+            final FrameTransforms into = front != null ? front : buffers[0];
+            prepare(into, timeSeconds, viewMatrix, projectionMatrix);
+            compute(into);
+            if (updateThread != null) {
+                request(buffers[1], timeSeconds, viewMatrix, projectionMatrix);
+            }
+            front = into;
+            return front;
+        }
+
+        final FrameTransforms done = finished.getAndSet(null);
+        if (done == null) {
+            reusedFrames++;
+            return front;
+        }
+        request(front, timeSeconds, viewMatrix, projectionMatrix);
+        front = done;
+        return front;
+    }
+
+    /** Frames that drew the previous frame's transforms because the update was late. */
+    public int getReusedFrameCount() {
+        return reusedFrames;
+    }
+
+    /**
+     * Turns frustum culling on or off from the next update; when off every
+     * drawable object is listed as visible. Any thread.
+     */
+    public void setCullingEnabled(boolean enabled) {
+        cullingEnabled = enabled;
+    }
+
+    /** Where models are given their levels of detail; set them before the first advance(). */
+    public LevelOfDetail getLevelOfDetail() {
+        return levelOfDetail;
+    }
+
+    public int getThreadCount() {
+        return pool.getThreadCount();
+    }
+
+    /** Stops the update thread and the pool; advance() must not be called after this. */
+    public void shutdown() {
+        shutdown = true;
+        if (updateThread != null) {
+            LockSupport.unpark(updateThread);
+        }
+        pool.shutdown();
+    }
+
+    private static void prepare(FrameTransforms into, double timeSeconds,
+                                float[] viewMatrix, float[] projectionMatrix) {
+        into.setTime(timeSeconds);
+        System.arraycopy(viewMatrix, 0, into.viewMatrix, 0, 16);
+        System.arraycopy(projectionMatrix, 0, into.projectionMatrix, 0, 16);
+    }
+
+    private void request(FrameTransforms into, double timeSeconds,
+                         float[] viewMatrix, float[] projectionMatrix) {
+        prepare(into, timeSeconds, viewMatrix, projectionMatrix);
+        requested = into;       // publishes the buffer's contents
+        LockSupport.unpark(updateThread);
+    }
+
+    private void work() {
+        while (!shutdown) {
+            final FrameTransforms into = requested;
+            if (into == null) {
+                // an unpark that came in since the check makes this return at once
+                LockSupport.park(this);
+                continue;
+            }
+            requested = null;
+            try {
+                compute(into);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            finished.set(into);
+        }
+    }
+
+    private void compute(FrameTransforms into) {
+        scene.update(into.getTime(), pool);
+        into.setCount(scene.getCount());
+        target = into;
+        pool.forEachRange(scene.getCount(), MIN_PARALLEL_OBJECTS, matrixTask);
+        target = null;
+        culler.cull(into, cullingEnabled);
+        levelOfDetail.select(scene, into);
+    }
+
+    // model = world, model/view = view * model, MVP = projection * model/view
+    private void computeMatrices(int start, int end) {
+        final FrameTransforms into = target;
+        final float[] world = scene.getWorldMatrices();
+        final float[] models = into.getModelMatrices();
+        final float[] modelViews = into.getModelViewMatrices();
+        final float[] mvps = into.getMvpMatrices();
+        final float[] view = into.viewMatrix;
+        final float[] projection = into.projectionMatrix;
+        System.arraycopy(world, start * 16, models, start * 16, (end - start) * 16);
+        for (int o = start * 16; o < end * 16; o += 16) {
+            Mat4.multiplyAffine(modelViews, o, view, 0, world, o);
+            Mat4.multiplyByAffine(mvps, o, projection, 0, modelViews, o);
+        }
+    }
+}
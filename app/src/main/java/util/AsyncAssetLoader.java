@@ -0,0 +1,120 @@
+package util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads assets on a background thread and hands them to the GL thread.
+ *
+ * Loaders run one at a time on a shared background thread, which goes away
+ * when there is nothing left to load. Finished assets are put on a
+ * ConcurrentLinkedQueue and the GL thread picks them up with poll() at the
+ * start of a frame, so neither thread ever waits for the other: the
+ * renderer draws a placeholder until poll() returns something, then
+ * uploads it.
+ *
+ * A loader that fails has its exception rethrown from poll(), on the GL
+ * thread, wrapped in a RuntimeException like the resource readers' errors.
+ *
+ * Once cancel() has been called nothing more is handed out: assets that are
+ * waiting, and any that finish later, go to the Disposer given to it, so
+ * whatever they hold (cache references, say) is given back even when their
+ * renderer is gone before they arrive.
+ */
+public class AsyncAssetLoader<T> {
+    /** Reads and decodes an asset. Runs on the background thread; no GL calls. */
+    public interface Loader<T> {
+        T load();
+    }
+
+    /** Gives back an asset that will never be used. Runs on whichever thread cancels or loads. */
+    public interface Disposer<T> {
+        void dispose(T asset);
+    }
+
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+            0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AssetLoader");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+
+    private final ConcurrentLinkedQueue<T> ready = new ConcurrentLinkedQueue<T>();
+    private volatile RuntimeException failure;
+    private final AtomicInteger pending = new AtomicInteger();     // loaders submitted but not finished
+    private volatile Disposer<T> disposer;                          // set by cancel()
+
+    /** Queues a loader to run in the background. */
+    public void submit(final Loader<T> loader) {
+        pending.incrementAndGet();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deliver(loader.load());
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /** Hands over an asset that is already loaded, e.g. one built off-device. */
+    public void offer(T asset) {
+        deliver(asset);
+    }
+
+    /**
+     * Disposes of the assets that are ready and of every one that finishes
+     * from now on. Any thread. Loaders that haven't started still run.
+     */
+    public void cancel(Disposer<T> disposer) {
+        this.disposer = disposer;
+        drain(disposer);
+    }
+
+    /** Next finished asset, or null if none is ready yet or loading was cancelled. GL thread, never blocks. */
+    public T poll() {
+        final RuntimeException e = failure;
+        if (e != null) {
+            failure = null;
+            throw new RuntimeException("Asset loading failed: " + e.getMessage(), e);
+        }
+        return disposer == null ? ready.poll() : null;
+    }
+
+    /** True while loaders are still running or waiting to run. */
+    public boolean isLoading() {
+        return pending.get() > 0;
+    }
+
+    // Queues an asset, or disposes of it if loading has been cancelled. The
+    // queue hands each asset out once, so whichever of this and cancel()
+    // drains it last gets it; none is missed and none disposed twice.
+    private void deliver(T asset) {
+        ready.offer(asset);
+        final Disposer<T> d = disposer;
+        if (d != null) {
+            drain(d);
+        }
+    }
+
+    private void drain(Disposer<T> d) {
+        T asset;
+        while ((asset = ready.poll()) != null) {
+            d.dispose(asset);
+        }
+    }
+}
@@ -3,52 +3,52 @@ package util;
 import android.content.Context;
 import android.content.res.Resources;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Locale;
-import java.util.Scanner;
+import java.nio.FloatBuffer;
 
 public class FloatResourceReader {
-    public static float[] readFloatFileFromResource( Context context, int resourceId ) {
-        ArrayList<Float> list = new ArrayList<Float>();
-        Scanner scan = null;
+    public static float[] readFloatFileFromResource(Context context, int resourceId) {
+        FloatStreamParser parser = new FloatStreamParser();
+        parseResource(parser, context, resourceId);
+        return parser.toArray();
+    }
 
-        try {
-            InputStream inputStream = context.getResources().openRawResource( resourceId );
-            InputStreamReader inputStreamReader = new InputStreamReader( inputStream );
+    /** Parses a resource straight into a native order direct buffer ready for GL. */
+    public static FloatBuffer readFloatBufferFromResource(Context context, int resourceId) {
+        FloatStreamParser parser = new FloatStreamParser();
+        parseResource(parser, context, resourceId);
+        return parser.toFloatBuffer();
+    }
 
-            scan = new Scanner( inputStreamReader );
-            scan.useLocale(Locale.US);
-            scan.useDelimiter( ",| |\t|\n" );
+    /** Stream versions of the above, for data that doesn't come from a resource. */
+    public static float[] readFloatFile(InputStream inputStream) throws IOException {
+        FloatStreamParser parser = new FloatStreamParser();
+        parser.parse(inputStream);
+        return parser.toArray();
+    }
 
-        } catch( Exception e ) {
-            e.getMessage();
-        }
+    public static FloatBuffer readFloatBuffer(InputStream inputStream) throws IOException {
+        FloatStreamParser parser = new FloatStreamParser();
+        parser.parse(inputStream);
+        return parser.toFloatBuffer();
+    }
 
-        while( scan.hasNext()) {
+    private static void parseResource(FloatStreamParser parser, Context context, int resourceId) {
+        try {
+            InputStream inputStream = context.getResources().openRawResource(resourceId);
             try {
-                if( scan.hasNextFloat( )) {
-                    float f = scan.nextFloat( );
-                    //System.out.print( "<" + f + "> " );
-                    list.add( f );
-                } else {
-                    String str = scan.next( );
-                    if( str.contains( "\n" )) {
-                        scan.nextLine( );
-                    }
-                    if( str.contains( "//" )) {
-                        str = scan.nextLine( );
-                    }
-                }
-            } catch ( Exception e ) {
-                e.getMessage();
+                parser.parse(inputStream);
+            } finally {
+                inputStream.close();
             }
+
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "Could not parse resource: " + resourceId + " (" + e.getMessage() + ")", e);
+
+        } catch (Resources.NotFoundException nfe) {
+            throw new RuntimeException("Resource not found: " + resourceId, nfe);
         }
-        float rtnArray[] = new float[ list.size( )];
-        for( int i = 0; i < list.size( ); i++ ) {
-            rtnArray[ i ] = list.get( i );
-        }
-        return rtnArray;
     }
 }
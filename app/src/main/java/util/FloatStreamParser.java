@@ -0,0 +1,218 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Streaming parser for the .lwtech text format: floats separated by commas
+ * and/or whitespace, with '//' starting a comment that runs to the end of
+ * the line. Input is read in fixed size chunks and numbers are decoded
+ * straight into a growable float[], so a parser that is reused allocates
+ * nothing once its arrays have grown to fit the data.
+ *
+ * Has no Android dependencies, so it can be run and measured on a plain JVM.
+ */
+public class FloatStreamParser {
+    private static final int CHUNK_SIZE = 8192;
+    private static final long MANTISSA_LIMIT = 100000000000000000L;     // 1e17, keeps mantissa * 10 + 9 in a long
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private InputStream input;
+    private int chunkPosition;
+    private int chunkLimit;
+    private int line;
+
+    private float[] values;
+    private int count;
+
+    public FloatStreamParser() {
+        this(256);
+    }
+
+    public FloatStreamParser(int initialCapacity) {
+        values = new float[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Parses the whole stream, replacing whatever a previous call left in
+     * the parser. The stream is not closed.
+     *
+     * @return the number of floats read
+     * @throws IOException if the stream fails or contains something that
+     *         isn't a number, a delimiter or a comment; the message carries
+     *         the line number
+     */
+    public int parse(InputStream inputStream) throws IOException {
+        input = inputStream;
+        chunkPosition = 0;
+        chunkLimit = 0;
+        line = 1;
+        count = 0;
+
+        try {
+            int c = read();
+            while (c != -1) {
+                if (c == '\n') {
+                    line++;
+                    c = read();
+                } else if (isDelimiter(c)) {
+                    c = read();
+                } else if (c == '/') {
+                    if (read() != '/') {
+                        throw error("expected '//' comment");
+                    }
+                    do {
+                        c = read();
+                    } while (c != -1 && c != '\n');
+                } else {
+                    c = parseNumber(c);
+                }
+            }
+        } finally {
+            input = null;
+        }
+        return count;
+    }
+
+    /** Number of floats produced by the last parse. */
+    public int size() {
+        return count;
+    }
+
+    /** The backing array; only the first size() entries are valid. */
+    public float[] values() {
+        return values;
+    }
+
+    public float[] toArray() {
+        float[] result = new float[count];
+        System.arraycopy(values, 0, result, 0, count);
+        return result;
+    }
+
+    /** Copies the parsed floats into a new native order direct buffer, positioned at zero. */
+    public FloatBuffer toFloatBuffer() {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(count * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(values, 0, count).position(0);
+        return buffer;
+    }
+
+    // Decodes one number starting with c and returns the character after it.
+    private int parseNumber(int c) throws IOException {
+        boolean negative = false;
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            c = read();
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        while (c >= '0' && c <= '9') {
+            if (mantissa < MANTISSA_LIMIT) {
+                mantissa = mantissa * 10 + (c - '0');
+            } else {
+                exponent++;
+            }
+            digits++;
+            c = read();
+        }
+        if (c == '.') {
+            c = read();
+            while (c >= '0' && c <= '9') {
+                if (mantissa < MANTISSA_LIMIT) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    exponent--;
+                }
+                digits++;
+                c = read();
+            }
+        }
+        if (digits == 0) {
+            throw error(c == -1 ? "unexpected end of input" : "unexpected character '" + (char) c + "'");
+        }
+
+        if (c == 'e' || c == 'E') {
+            c = read();
+            boolean negativeExponent = false;
+            if (c == '-' || c == '+') {
+                negativeExponent = c == '-';
+                c = read();
+            }
+            int value = 0;
+            int exponentDigits = 0;
+            while (c >= '0' && c <= '9') {
+                if (value < 10000) {
+                    value = value * 10 + (c - '0');
+                }
+                exponentDigits++;
+                c = read();
+            }
+            if (exponentDigits == 0) {
+                throw error("missing exponent digits");
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (c == 'f' || c == 'F') {
+            c = read();
+        }
+        if (c != -1 && c != '\n' && c != '/' && !isDelimiter(c)) {
+            throw error("unexpected character '" + (char) c + "' after number");
+        }
+
+        add(toFloat(negative, mantissa, exponent));
+        return c;
+    }
+
+    private static float toFloat(boolean negative, long mantissa, int exponent) {
+        double value = mantissa;
+        if (mantissa != 0 && exponent != 0) {
+            if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+                value *= POWERS_OF_TEN[exponent];
+            } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                value /= POWERS_OF_TEN[-exponent];
+            } else {
+                value *= Math.pow(10.0, exponent);
+            }
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private void add(float value) {
+        if (count == values.length) {
+            float[] grown = new float[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, count);
+            values = grown;
+        }
+        values[count++] = value;
+    }
+
+    private int read() throws IOException {
+        if (chunkPosition == chunkLimit) {
+            chunkLimit = input.read(chunk, 0, chunk.length);
+            chunkPosition = 0;
+            if (chunkLimit <= 0) {
+                chunkLimit = 0;
+                return -1;
+            }
+        }
+        return chunk[chunkPosition++] & 0xff;
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c == ',' || c == ' ' || c == '\t' || c == '\r';
+    }
+
+    private IOException error(String message) {
+        return new IOException("line " + line + ": " + message);
+    }
+}
@@ -0,0 +1,146 @@
+package util;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import util.gl.GLBackend;
+import util.gl.GLResource;
+
+/**
+ * Measures GPU time per frame with EXT_disjoint_timer_query. Queries are
+ * kept in a small ring and read back a few frames later, once the GPU has
+ * finished with them, so timing never stalls the pipeline.
+ *
+ * This is only available when the backend can issue queries (on Android
+ * they only have Java bindings in GLES30), the context is actually OpenGL
+ * ES 3 (most ES 2 requests get one on newer devices) and the driver lists
+ * the extension. Elsewhere every method is a no-op and poll() reports
+ * nothing.
+ */
+public class GpuTimer implements GLResource {
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    private static final int RING_SIZE = 4;
+
+    private final GLBackend gl;
+    private boolean created;
+    private boolean supported;
+    private final int[] queries = new int[RING_SIZE];
+    private final boolean[] pending = new boolean[RING_SIZE];
+    private final long[] frames = new long[RING_SIZE];          // the caller's number for each query's frame
+    private final int[] result = new int[1];
+    private final int[] disjoint = new int[1];
+    private int current;        // query used by the frame being timed
+    private int oldest;         // oldest query that may still have a result to collect
+    private boolean timing;
+    private long resultFrame = -1;
+
+    /** The queries are created on the GL thread by the first begin(). */
+    public GpuTimer(GLBackend gl) {
+        this.gl = gl;
+    }
+
+    @Override
+    public void create() {
+        supported = detectSupport(gl);
+        if (supported) {
+            gl.glGenQueries(RING_SIZE, queries, 0);
+        }
+        for (int i = 0; i < RING_SIZE; i++) {
+            pending[i] = false;
+        }
+        current = 0;
+        oldest = 0;
+        timing = false;
+        created = true;
+    }
+
+    @Override
+    public boolean isCreated() {
+        return created;
+    }
+
+    @Override
+    public void release() {
+        if (created && supported) {
+            gl.glDeleteQueries(RING_SIZE, queries, 0);
+        }
+        created = false;
+    }
+
+    /** Queries die with their context; results still pending are dropped. */
+    @Override
+    public void onContextLost() {
+        created = false;
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    private static boolean detectSupport(GLBackend gl) {
+        if (!gl.supportsQueries()) {
+            return false;
+        }
+        final String version = gl.glGetString(GLES20.GL_VERSION);
+        final String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+        return version != null && version.startsWith("OpenGL ES 3")
+                && extensions != null && extensions.contains("GL_EXT_disjoint_timer_query");
+    }
+
+    /**
+     * Starts timing the GL commands of a frame. Skipped if all queries are
+     * still in flight.
+     *
+     * @param frame the caller's number for the frame, reported back with its result
+     */
+    public void begin(long frame) {
+        if (!created) {
+            create();
+        }
+        if (!supported || pending[current]) {
+            return;
+        }
+        gl.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[current]);
+        frames[current] = frame;
+        timing = true;
+    }
+
+    public void end() {
+        if (!timing) {
+            return;
+        }
+        gl.glEndQuery(GL_TIME_ELAPSED_EXT);
+        pending[current] = true;
+        current = (current + 1) % RING_SIZE;
+        timing = false;
+    }
+
+    /**
+     * Returns the GPU time of the oldest finished frame in nanoseconds, or
+     * -1 if no result is ready. Results spanning a disjoint event (e.g. a
+     * frequency change) are dropped.
+     */
+    public long poll() {
+        if (!created || !supported || !pending[oldest]) {
+            return -1;
+        }
+        final int query = queries[oldest];
+        gl.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+        if (result[0] == 0) {
+            return -1;
+        }
+        gl.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, result, 0);
+        pending[oldest] = false;
+        resultFrame = frames[oldest];
+        oldest = (oldest + 1) % RING_SIZE;
+
+        gl.glGetIntegerv(GL_GPU_DISJOINT_EXT, disjoint, 0);
+        return disjoint[0] != 0 ? -1 : result[0] & 0xffffffffL;
+    }
+
+    /** The frame passed to begin() for the last result poll() returned, or -1 before any. */
+    public long getResultFrame() {
+        return resultFrame;
+    }
+}
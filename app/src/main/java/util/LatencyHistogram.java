@@ -0,0 +1,79 @@
+package util;
+
+import java.util.Locale;
+
+/**
+ * Fixed-size histogram of durations. Samples are counted in 0.25 ms buckets
+ * up to 100 ms, plus one overflow bucket, so recording is a single array
+ * increment and memory use doesn't grow with the number of samples.
+ * Percentiles are reported as the upper edge of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    private static final long BUCKET_NANOS = 250000L;       // 0.25 ms
+    private static final int BUCKET_COUNT = 400;            // up to 100 ms
+
+    private final int[] buckets = new int[BUCKET_COUNT + 1];    // last one counts everything longer
+    private int count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        final long bucket = nanos / BUCKET_NANOS;
+        buckets[bucket < BUCKET_COUNT ? (int) bucket : BUCKET_COUNT]++;
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMeanMillis() {
+        return count == 0 ? 0.0 : totalNanos / (count * 1e6);
+    }
+
+    public double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * Duration below which the given fraction of samples fall, e.g. 0.95
+     * for p95. Samples past the last bucket report the maximum seen.
+     */
+    public double getPercentileMillis(double fraction) {
+        if (count == 0) {
+            return 0.0;
+        }
+        final long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min((i + 1) * BUCKET_NANOS, maxNanos) / 1e6;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    /** "p50 1.25 p95 2.50 p99 4.00 max 6.12 ms (n=300)" */
+    public String summary() {
+        return String.format(Locale.US, "p50 %.2f p95 %.2f p99 %.2f max %.2f ms (n=%d)",
+                getPercentileMillis(0.50), getPercentileMillis(0.95), getPercentileMillis(0.99),
+                getMaxMillis(), count);
+    }
+}
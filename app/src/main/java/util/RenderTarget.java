@@ -0,0 +1,151 @@
+package util;
+
+import util.gl.GLBackend;
+import util.gl.GLResource;
+
+import static android.opengl.GLES20.GL_CLAMP_TO_EDGE;
+import static android.opengl.GLES20.GL_COLOR_ATTACHMENT0;
+import static android.opengl.GLES20.GL_DEPTH_ATTACHMENT;
+import static android.opengl.GLES20.GL_DEPTH_COMPONENT16;
+import static android.opengl.GLES20.GL_FRAMEBUFFER;
+import static android.opengl.GLES20.GL_FRAMEBUFFER_COMPLETE;
+import static android.opengl.GLES20.GL_LINEAR;
+import static android.opengl.GLES20.GL_RENDERBUFFER;
+import static android.opengl.GLES20.GL_RGB;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT_5_6_5;
+
+/**
+ * An offscreen framebuffer: an RGB565 color texture that can be sampled
+ * afterwards, and a 16 bit depth renderbuffer. The storage is allocated at
+ * a fixed size, and a frame may render into any smaller area of it
+ * starting at the origin, so changing how much of it is used costs nothing.
+ *
+ * Like the other GL resources, the framebuffer is created lazily on the GL
+ * thread by the first bind(), and again after a context loss. Changing the
+ * size releases the old storage; the next bind() allocates the new one.
+ */
+public class RenderTarget implements GLResource {
+    private final GLBackend gl;
+    private int width;
+    private int height;
+
+    private int framebufferId;          // 0 when there is no framebuffer in the current context
+    private int textureId;
+    private int depthBufferId;
+
+    public RenderTarget(GLBackend gl) {
+        this.gl = gl;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Sets the size of the storage. Call on the GL thread. */
+    public void setSize(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        release();
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public boolean isCreated() {
+        return framebufferId != 0;
+    }
+
+    @Override
+    public void create() {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalStateException("Render target size not set");
+        }
+        final int[] ids = new int[1];
+
+        gl.glGenTextures(1, ids, 0);
+        textureId = ids[0];
+        gl.glBindTexture(GL_TEXTURE_2D, textureId);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        gl.glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB, width, height, 0, GL_RGB, GL_UNSIGNED_SHORT_5_6_5, null);
+
+        gl.glGenRenderbuffers(1, ids, 0);
+        depthBufferId = ids[0];
+        gl.glBindRenderbuffer(GL_RENDERBUFFER, depthBufferId);
+        gl.glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT16, width, height);
+
+        gl.glGenFramebuffers(1, ids, 0);
+        framebufferId = ids[0];
+        gl.glBindFramebuffer(GL_FRAMEBUFFER, framebufferId);
+        gl.glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, textureId, 0);
+        gl.glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBufferId);
+
+        final int status = gl.glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        if (status != GL_FRAMEBUFFER_COMPLETE) {
+            gl.glBindFramebuffer(GL_FRAMEBUFFER, 0);
+            release();
+            throw new RuntimeException("Framebuffer incomplete: 0x" + Integer.toHexString(status)
+                    + " (" + width + "x" + height + ")");
+        }
+    }
+
+    /**
+     * Makes this the framebuffer drawn into, creating it first if the
+     * current context has none. The viewport is left to the caller.
+     */
+    public void bind() {
+        if (framebufferId == 0) {
+            create();       // leaves it bound
+        } else {
+            gl.glBindFramebuffer(GL_FRAMEBUFFER, framebufferId);
+        }
+    }
+
+    /** Goes back to drawing into the window surface. */
+    public void unbind() {
+        gl.glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    /** The color texture; only valid while the framebuffer exists. */
+    public int getTextureId() {
+        return textureId;
+    }
+
+    /** Deletes the GL objects. Only meaningful while their context is still current. */
+    @Override
+    public void release() {
+        final int[] ids = new int[1];
+        if (framebufferId != 0) {
+            ids[0] = framebufferId;
+            gl.glDeleteFramebuffers(1, ids, 0);
+        }
+        if (depthBufferId != 0) {
+            ids[0] = depthBufferId;
+            gl.glDeleteRenderbuffers(1, ids, 0);
+        }
+        if (textureId != 0) {
+            ids[0] = textureId;
+            gl.glDeleteTextures(1, ids, 0);
+        }
+        onContextLost();
+    }
+
+    @Override
+    public void onContextLost() {
+        framebufferId = 0;
+        textureId = 0;
+        depthBufferId = 0;
+    }
+}
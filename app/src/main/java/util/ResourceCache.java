@@ -0,0 +1,200 @@
+package util;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import util.mesh.Mesh;
+
+/**
+ * Decoded resources (meshes, shader sources) shared by every renderer in
+ * the process. The wallpaper's preview and home screen engines and the
+ * activity each have a renderer of their own, often at the same time;
+ * with this only the first one reads and parses anything.
+ *
+ * acquire() returns the cached value for a key, loading it on a miss, and
+ * counts a reference; release() gives the reference back. Nothing is
+ * evicted while it is referenced. Once it isn't, it stays in a
+ * least-recently-used list, kept until the list holds more than
+ * maxUnusedBytes, and after that only weakly, so it can still be picked up
+ * again as long as the garbage collector hasn't had it. Values must be
+ * immutable, since every holder gets the same one.
+ *
+ * Sizes are estimates of the decoded data: a mesh's payload (which may be
+ * a mapping of the file rather than heap) and two bytes per char of a
+ * string. All methods are synchronized, but loading is done outside the
+ * lock, so a slow load doesn't hold up other keys; if two threads load
+ * the same key at once, the first one stored wins.
+ */
+public class ResourceCache {
+    /** Reads and decodes one resource. */
+    public interface Loader<T> {
+        T load();
+    }
+
+    public static final int SHARED_MAX_UNUSED_BYTES = 512 * 1024;
+
+    private static ResourceCache shared;
+
+    private static class Entry {
+        final String key;
+        final Object value;
+        final int bytes;
+        int references;
+
+        Entry(String key, Object value, int bytes) {
+            this.key = key;
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int maxUnusedBytes;
+    private final Map<String, Entry> referenced = new HashMap<String, Entry>();
+    // unreferenced entries, least recently released first
+    private final LinkedHashMap<String, Entry> unused = new LinkedHashMap<String, Entry>();
+    // evicted from unused, but maybe not collected yet
+    private final Map<String, WeakReference<Entry>> evicted = new HashMap<String, WeakReference<Entry>>();
+
+    private int referencedBytes;
+    private int unusedBytes;
+    private int hits;
+    private int weakHits;       // hits on entries that had been evicted
+    private int misses;
+    private int evictions;
+
+    public ResourceCache(int maxUnusedBytes) {
+        this.maxUnusedBytes = maxUnusedBytes;
+    }
+
+    /** The process-wide cache. */
+    public static synchronized ResourceCache shared() {
+        if (shared == null) {
+            shared = new ResourceCache(SHARED_MAX_UNUSED_BYTES);
+        }
+        return shared;
+    }
+
+    /** The value for key, loaded with loader if it isn't cached. Counts a reference; release() it when done. */
+    @SuppressWarnings("unchecked")
+    public <T> T acquire(String key, Loader<T> loader) {
+        synchronized (this) {
+            final Entry entry = find(key, true);
+            if (entry != null) {
+                reference(entry);
+                return (T) entry.value;
+            }
+            misses++;
+        }
+
+        final T value = loader.load();
+
+        synchronized (this) {
+            // already counted as a miss, whoever stored it
+            Entry entry = find(key, false);
+            if (entry == null) {
+                entry = new Entry(key, value, sizeOf(value));
+            }
+            reference(entry);
+            return (T) entry.value;
+        }
+    }
+
+    /** Gives back a reference taken by acquire(). */
+    public synchronized void release(String key) {
+        final Entry entry = referenced.get(key);
+        if (entry == null) {
+            return;
+        }
+        if (--entry.references == 0) {
+            referenced.remove(key);
+            referencedBytes -= entry.bytes;
+            unused.put(key, entry);
+            unusedBytes += entry.bytes;
+            trim();
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    /** Estimated bytes of everything that is referenced or strongly cached. */
+    public synchronized int getCachedBytes() {
+        return referencedBytes + unusedBytes;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US,
+                "resources %d hits (%d after eviction), %d misses; %d in use (%.1f KiB), %d unused (%.1f KiB), %d evicted",
+                hits, weakHits, misses, referenced.size(), referencedBytes / 1024.0,
+                unused.size(), unusedBytes / 1024.0, evictions);
+    }
+
+    // The entry for key wherever it is, counting a hit if asked to and there is one.
+    private Entry find(String key, boolean count) {
+        Entry entry = referenced.get(key);
+        if (entry == null) {
+            entry = unused.remove(key);
+            if (entry != null) {
+                unusedBytes -= entry.bytes;
+            } else {
+                final WeakReference<Entry> reference = evicted.remove(key);
+                entry = reference != null ? reference.get() : null;
+                if (entry == null) {
+                    return null;
+                }
+                if (count) {
+                    weakHits++;
+                }
+            }
+        }
+        if (count) {
+            hits++;
+        }
+        return entry;
+    }
+
+    private void reference(Entry entry) {
+        if (entry.references++ == 0) {
+            referenced.put(entry.key, entry);
+            referencedBytes += entry.bytes;
+        }
+    }
+
+    // Moves least recently used entries to the weak map until the rest fit.
+    private void trim() {
+        final Iterator<Entry> oldest = unused.values().iterator();
+        while (unusedBytes > maxUnusedBytes && oldest.hasNext()) {
+            final Entry entry = oldest.next();
+            oldest.remove();
+            unusedBytes -= entry.bytes;
+            evicted.put(entry.key, new WeakReference<Entry>(entry));
+            evictions++;
+        }
+        // forget keys whose values have been collected
+        final Iterator<WeakReference<Entry>> references = evicted.values().iterator();
+        while (references.hasNext()) {
+            if (references.next().get() == null) {
+                references.remove();
+            }
+        }
+    }
+
+    private static int sizeOf(Object value) {
+        if (value instanceof Mesh) {
+            return ((Mesh) value).getPayload().capacity();
+        }
+        if (value instanceof String) {
+            return ((String) value).length() * 2;
+        }
+        return 0;
+    }
+}
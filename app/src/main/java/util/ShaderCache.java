@@ -0,0 +1,427 @@
+package util;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import util.gl.GLBackend;
+import util.gl.GLResource;
+
+import static android.opengl.GLES20.GL_FRAGMENT_SHADER;
+import static android.opengl.GLES20.GL_LINK_STATUS;
+import static android.opengl.GLES20.GL_RENDERER;
+import static android.opengl.GLES20.GL_VERSION;
+import static android.opengl.GLES20.GL_VERTEX_SHADER;
+
+/**
+ * Compiles each distinct shader and links each distinct program only once.
+ *
+ * Sources are preprocessed (comments dropped, whitespace collapsed) and
+ * hashed together with the shader type, so two files that differ only in
+ * formatting share one shader object, and asking twice for the same pair
+ * of sources returns the same ShaderProgram. Shader objects belong to the
+ * current context and are forgotten when it is lost; ShaderPrograms
+ * outlive it and relink through here when next used.
+ *
+ * Where the context can hand out program binaries (OpenGL ES 3.0), linked
+ * programs are also written to a directory on disk, keyed by the sources
+ * and the GL renderer and version, and later loaded from there without
+ * compiling anything. A binary the driver rejects (e.g. after a driver
+ * update) is deleted and the program built from source again. The disk
+ * cache is best effort: any I/O problem just means compiling.
+ */
+public class ShaderCache implements GLResource {
+    private static final String TAG = "ShaderCache";
+    private static final int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+    private static final int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+    private static final int BINARY_FILE_MAGIC = 0x4C575042;       // "LWPB"
+    private static final int BINARY_FILE_HEADER_BYTES = 12;         // magic, format, length
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final GLBackend gl;
+    private final File binaryDirectory;     // null for no disk cache
+
+    // shader objects in the current context, by hash of type and preprocessed source
+    private final Map<Long, CachedShader> shaders = new HashMap<Long, CachedShader>();
+    // programs by hash of both preprocessed sources
+    private final Map<Long, CachedProgram> programs = new HashMap<Long, CachedProgram>();
+    private final List<ShaderProgram> programList = new ArrayList<ShaderProgram>();
+
+    // per context: can program binaries be used, and for which driver
+    private boolean binarySupportChecked;
+    private boolean binariesSupported;
+    private long driverHash;
+
+    private int shaderHits;
+    private int shaderMisses;
+    private int programHits;
+    private int programMisses;
+    private int binaryHits;
+    private int binaryMisses;
+
+    private static class CachedShader {
+        final int type;
+        final String source;        // preprocessed
+        final int shaderId;
+
+        CachedShader(int type, String source, int shaderId) {
+            this.type = type;
+            this.source = source;
+            this.shaderId = shaderId;
+        }
+    }
+
+    private static class CachedProgram {
+        final String vertexSource;      // preprocessed
+        final String fragmentSource;
+        final ShaderProgram program;
+
+        CachedProgram(String vertexSource, String fragmentSource, ShaderProgram program) {
+            this.vertexSource = vertexSource;
+            this.fragmentSource = fragmentSource;
+            this.program = program;
+        }
+    }
+
+    /** @param binaryDirectory where to keep program binaries, or null not to */
+    public ShaderCache(GLBackend gl, File binaryDirectory) {
+        this.gl = gl;
+        this.binaryDirectory = binaryDirectory;
+    }
+
+    /**
+     * The program for a pair of sources, linking it (on the GL thread, with
+     * a context current) the first time it is asked for.
+     */
+    public ShaderProgram getProgram(String vertexShaderSource, String fragmentShaderSource) {
+        final String vertexSource = preprocess(vertexShaderSource);
+        final String fragmentSource = preprocess(fragmentShaderSource);
+        final long key = hash(hash(FNV_OFFSET, vertexSource), fragmentSource);
+
+        CachedProgram cached = programs.get(key);
+        if (cached != null && cached.vertexSource.equals(vertexSource)
+                && cached.fragmentSource.equals(fragmentSource)) {
+            programHits++;
+            return cached.program;
+        }
+
+        programMisses++;
+        ShaderProgram program = new ShaderProgram(gl, this, vertexShaderSource, fragmentShaderSource);
+        programs.put(key, new CachedProgram(vertexSource, fragmentSource, program));
+        programList.add(program);
+        return program;
+    }
+
+    /**
+     * Builds the GL program for a ShaderProgram: from a stored binary when
+     * possible, otherwise from (possibly shared) compiled shaders. Returns
+     * 0 if the program could not be built.
+     */
+    int buildProgram(String vertexShaderSource, String fragmentShaderSource,
+                     String[] attributeNames, int[] attributeLocations) {
+        final String vertexSource = preprocess(vertexShaderSource);
+        final String fragmentSource = preprocess(fragmentShaderSource);
+
+        checkBinarySupport();
+        File binaryFile = null;
+        if (binariesSupported) {
+            final long key = hash(hash(driverHash, vertexSource), fragmentSource);
+            binaryFile = new File(binaryDirectory, String.format(Locale.US, "%016x.bin", key));
+            final int programId = loadBinary(binaryFile);
+            if (programId != 0) {
+                binaryHits++;
+                return programId;
+            }
+            binaryMisses++;
+        }
+
+        final int vertexShader = compileShader(GL_VERTEX_SHADER, vertexShaderSource, vertexSource);
+        final int fragmentShader = compileShader(GL_FRAGMENT_SHADER, fragmentShaderSource, fragmentSource);
+        if (vertexShader == 0 || fragmentShader == 0) {
+            return 0;
+        }
+        final int programId = ShaderHelper.linkProgram(gl, vertexShader, fragmentShader,
+                attributeNames, attributeLocations);
+
+        if (programId != 0 && binaryFile != null) {
+            saveBinary(programId, binaryFile);
+        }
+        return programId;
+    }
+
+    // A compiled shader object for the source, shared by every program that uses it.
+    private int compileShader(int type, String source, String preprocessed) {
+        final long key = hash(hash(FNV_OFFSET, Integer.toString(type)), preprocessed);
+        CachedShader cached = shaders.get(key);
+        if (cached != null && cached.type == type && cached.source.equals(preprocessed)) {
+            shaderHits++;
+            return cached.shaderId;
+        }
+
+        shaderMisses++;
+        final int shaderId = ShaderHelper.compileShader(gl, type, source);
+        if (shaderId != 0) {
+            shaders.put(key, new CachedShader(type, preprocessed, shaderId));
+        }
+        return shaderId;
+    }
+
+    private void checkBinarySupport() {
+        if (binarySupportChecked) {
+            return;
+        }
+        binarySupportChecked = true;
+        binariesSupported = false;
+        if (binaryDirectory == null || !gl.supportsProgramBinaries()) {
+            return;
+        }
+        final String version = gl.glGetString(GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES 3")) {
+            return;
+        }
+        final int[] formats = new int[1];
+        gl.glGetIntegerv(GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        if (formats[0] <= 0 || !(binaryDirectory.isDirectory() || binaryDirectory.mkdirs())) {
+            return;
+        }
+        driverHash = hash(hash(FNV_OFFSET, gl.glGetString(GL_RENDERER)), version);
+        binariesSupported = true;
+    }
+
+    private int loadBinary(File file) {
+        if (!file.isFile()) {
+            return 0;
+        }
+        final int format;
+        final ByteBuffer binary;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readInt() != BINARY_FILE_MAGIC) {
+                    throw new IOException("not a program binary");
+                }
+                format = in.readInt();
+                // a damaged length mustn't become a huge or negative allocation
+                final int length = in.readInt();
+                if (length <= 0 || length > file.length() - BINARY_FILE_HEADER_BYTES) {
+                    throw new IOException("bad binary length " + length);
+                }
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+                binary.put(bytes).flip();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            if (LoggerConfig.ON) {
+                Log.w(TAG, "Could not read " + file + ": " + e.getMessage());
+            }
+            file.delete();
+            return 0;
+        }
+
+        final int programId = gl.glCreateProgram();
+        gl.glProgramBinary(programId, format, binary, binary.remaining());
+        final int[] linkStatus = new int[1];
+        gl.glGetProgramiv(programId, GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] == 0) {
+            // stale (new driver) or damaged; build from source and replace it
+            gl.glDeleteProgram(programId);
+            file.delete();
+            return 0;
+        }
+        return programId;
+    }
+
+    private void saveBinary(int programId, File file) {
+        final int[] length = new int[1];
+        final int[] format = new int[1];
+        gl.glGetProgramiv(programId, GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        final ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        gl.glGetProgramBinary(programId, length[0], length, 0, format, 0, binary);
+        final byte[] bytes = new byte[length[0]];
+        binary.get(bytes);
+
+        // write to a temporary file and rename, so a reader never sees half a binary
+        final File temporary = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary));
+            try {
+                out.writeInt(BINARY_FILE_MAGIC);
+                out.writeInt(format[0]);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            if (LoggerConfig.ON) {
+                Log.w(TAG, "Could not write " + file + ": " + e.getMessage());
+            }
+            temporary.delete();
+        }
+    }
+
+    // ---- GLResource ----
+
+    /** Relinks every program now rather than when each is next used. */
+    @Override
+    public void create() {
+        for (int i = 0; i < programList.size(); i++) {
+            if (!programList.get(i).isCreated()) {
+                programList.get(i).create();
+            }
+        }
+    }
+
+    @Override
+    public boolean isCreated() {
+        return !shaders.isEmpty();
+    }
+
+    @Override
+    public void release() {
+        for (CachedShader shader : shaders.values()) {
+            gl.glDeleteShader(shader.shaderId);
+        }
+        shaders.clear();
+        for (int i = 0; i < programList.size(); i++) {
+            programList.get(i).release();
+        }
+        binarySupportChecked = false;
+    }
+
+    @Override
+    public void onContextLost() {
+        shaders.clear();
+        for (int i = 0; i < programList.size(); i++) {
+            programList.get(i).onContextLost();
+        }
+        binarySupportChecked = false;
+    }
+
+    // ---- statistics ----
+
+    public int getShaderHits() {
+        return shaderHits;
+    }
+
+    public int getShaderMisses() {
+        return shaderMisses;
+    }
+
+    public int getProgramHits() {
+        return programHits;
+    }
+
+    public int getProgramMisses() {
+        return programMisses;
+    }
+
+    public int getBinaryHits() {
+        return binaryHits;
+    }
+
+    public int getBinaryMisses() {
+        return binaryMisses;
+    }
+
+    public String summary() {
+        return String.format(Locale.US,
+                "shaders %d compiled, %d reused; programs %d built, %d reused; binaries %d loaded, %d missed",
+                shaderMisses, shaderHits, programMisses, programHits, binaryHits, binaryMisses);
+    }
+
+    // ---- keys ----
+
+    /**
+     * Drops comments and blank lines and collapses runs of whitespace, so
+     * sources that only differ in formatting come out the same. Line
+     * breaks are kept since preprocessor directives end at them.
+     */
+    static String preprocess(String source) {
+        final StringBuilder out = new StringBuilder(source.length());
+        final StringBuilder line = new StringBuilder();
+        boolean inBlockComment = false;
+
+        final int length = source.length();
+        int i = 0;
+        while (i <= length) {
+            final char c = i < length ? source.charAt(i) : '\n';
+            if (c == '\n') {
+                trimTrailingSpace(line);
+                if (line.length() > 0) {
+                    out.append(line).append('\n');
+                    line.setLength(0);
+                }
+                i++;
+            } else if (inBlockComment) {
+                if (c == '*' && i + 1 < length && source.charAt(i + 1) == '/') {
+                    inBlockComment = false;
+                    i += 2;
+                } else {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                // skip to the end of the line
+                while (i < length && source.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                inBlockComment = true;
+                appendSpace(line);
+                i += 2;
+            } else if (Character.isWhitespace(c)) {
+                appendSpace(line);
+                i++;
+            } else {
+                line.append(c);
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    private static void appendSpace(StringBuilder line) {
+        if (line.length() > 0 && line.charAt(line.length() - 1) != ' ') {
+            line.append(' ');
+        }
+    }
+
+    private static void trimTrailingSpace(StringBuilder line) {
+        if (line.length() > 0 && line.charAt(line.length() - 1) == ' ') {
+            line.setLength(line.length() - 1);
+        }
+    }
+
+    // 64 bit FNV-1a, continuing from h
+    static long hash(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            h = (h ^ (c & 0xff)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return h;
+    }
+}
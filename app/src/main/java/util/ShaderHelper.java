@@ -2,27 +2,14 @@ package util;
 
 import android.util.Log;
 
+import util.gl.GLBackend;
+
 import static android.opengl.GLES20.GL_COMPILE_STATUS;
 import static android.opengl.GLES20.GL_FRAGMENT_SHADER;
 import static android.opengl.GLES20.GL_LINK_STATUS;
 import static android.opengl.GLES20.GL_VALIDATE_STATUS;
 import static android.opengl.GLES20.GL_VERTEX_SHADER;
 
-import static android.opengl.GLES20.glAttachShader;
-import static android.opengl.GLES20.glCompileShader;
-import static android.opengl.GLES20.glCreateProgram;
-import static android.opengl.GLES20.glCreateShader;
-import static android.opengl.GLES20.glDeleteProgram;
-import static android.opengl.GLES20.glDeleteShader;
-import static android.opengl.GLES20.glGetError;
-import static android.opengl.GLES20.glGetProgramInfoLog;
-import static android.opengl.GLES20.glGetProgramiv;
-import static android.opengl.GLES20.glGetShaderInfoLog;
-import static android.opengl.GLES20.glGetShaderiv;
-import static android.opengl.GLES20.glLinkProgram;
-import static android.opengl.GLES20.glShaderSource;
-import static android.opengl.GLES20.glValidateProgram;
-
 /**
  * Created by tomabot on 4/22/15.
  */
@@ -30,62 +17,68 @@ public class ShaderHelper {
     private static final String TAG = "ShaderHelper";
 
 
-    public static int compileVertexShader(String shaderCode) {
-        return compileShader(GL_VERTEX_SHADER, shaderCode);
+    public static int compileVertexShader(GLBackend gl, String shaderCode) {
+        return compileShader(gl, GL_VERTEX_SHADER, shaderCode);
     }
 
-    public static int compileFragmentShader(String shaderCode) {
-        return compileShader(GL_FRAGMENT_SHADER, shaderCode);
+    public static int compileFragmentShader(GLBackend gl, String shaderCode) {
+        return compileShader(gl, GL_FRAGMENT_SHADER, shaderCode);
     }
 
-    private static int compileShader(int type, String shaderCode) {
+    public static int compileShader(GLBackend gl, int type, String shaderCode) {
 
         // Create an object with a call to the open gl function.
         // This will return an integer, which is used to refer to
         // the open gl object just created.
-        final int shaderObjectId = glCreateShader(type);
+        final int shaderObjectId = gl.glCreateShader(type);
 
         // See if the open gl object was created successfully
         if (shaderObjectId == 0) {
             if (LoggerConfig.ON) {
-                Log.w(TAG, "Can't create new shader: " + glGetError());
+                Log.w(TAG, "Can't create new shader: " + gl.glGetError());
             }
         }
 
         // upload the shader source code into the shader object
-        glShaderSource(shaderObjectId, shaderCode);
+        gl.glShaderSource(shaderObjectId, shaderCode);
 
         // compile the shader code
-        glCompileShader(shaderObjectId);
+        gl.glCompileShader(shaderObjectId);
 
         // see if the compilation was successful
         final int[] compileStatus = new int[1];
-        glGetShaderiv(shaderObjectId, GL_COMPILE_STATUS, compileStatus, 0);
-
-        String theBigString = "";
-        if (LoggerConfig.ON) {
-            // display the shader info log to the Android log output
-            theBigString = "Compile status:" + glGetShaderInfoLog(shaderObjectId);
-            Log.v(TAG, "Compile status:" + "\n" + shaderCode + "\n:" + glGetShaderInfoLog(shaderObjectId));
-        }
+        gl.glGetShaderiv(shaderObjectId, GL_COMPILE_STATUS, compileStatus, 0);
 
         if (compileStatus[0] == 0) {
-            // If the compilation failed, delete the shader object
-            glDeleteShader(shaderObjectId);
-
+            // Only a failed compile is worth the source and info log in
+            // the Android log output; they are long.
             if (LoggerConfig.ON) {
-                Log.w(TAG, "Shader compilation failed.");
+                Log.w(TAG, "Shader compilation failed:\n" + shaderCode
+                        + "\n:" + gl.glGetShaderInfoLog(shaderObjectId));
             }
 
+            // If the compilation failed, delete the shader object
+            gl.glDeleteShader(shaderObjectId);
+
             return 0;
         }
 
         return shaderObjectId;
     }
 
-    public static int linkProgram(int vertexShaderId, int fragmentShaderId) {
+    public static int linkProgram(GLBackend gl, int vertexShaderId, int fragmentShaderId) {
+        return linkProgram(gl, vertexShaderId, fragmentShaderId, null, null);
+    }
+
+    /**
+     * Links with the named attributes bound to the given locations, so a
+     * program rebuilt after a context loss keeps the attribute locations
+     * callers already hold.
+     */
+    public static int linkProgram(GLBackend gl, int vertexShaderId, int fragmentShaderId,
+                                  String[] attributeNames, int[] attributeLocations) {
         // create a new program object and store the ID in programObjectId
-        final int programObjectId = glCreateProgram();
+        final int programObjectId = gl.glCreateProgram();
 
         if (programObjectId == 0) {
             if (LoggerConfig.ON) {
@@ -95,26 +88,29 @@ public class ShaderHelper {
         }
 
         // attach the both of the shaders to the program object
-        glAttachShader(programObjectId, vertexShaderId);
-        glAttachShader(programObjectId, fragmentShaderId);
+        gl.glAttachShader(programObjectId, vertexShaderId);
+        gl.glAttachShader(programObjectId, fragmentShaderId);
+
+        // keep attributes where they were, if asked to
+        if (attributeNames != null) {
+            for (int i = 0; i < attributeNames.length; i++) {
+                gl.glBindAttribLocation(programObjectId, attributeLocations[i], attributeNames[i]);
+            }
+        }
 
         // join the shaders together
-        glLinkProgram(programObjectId);
+        gl.glLinkProgram(programObjectId);
 
         // check whether or not the link was successful
         final int[] linkStatus = new int[1];
-        glGetProgramiv(programObjectId, GL_LINK_STATUS, linkStatus, 0);
-
-        if (LoggerConfig.ON) {
-            Log.v(TAG, "Result from linking program:\n" + glGetProgramInfoLog(programObjectId));
-        }
+        gl.glGetProgramiv(programObjectId, GL_LINK_STATUS, linkStatus, 0);
 
         if (linkStatus[0] == 0) {
-            // if the link operation failed, delete the program object
-            glDeleteProgram(programObjectId);
             if (LoggerConfig.ON) {
-                Log.w(TAG, "Program link failed.");
+                Log.w(TAG, "Program link failed:\n" + gl.glGetProgramInfoLog(programObjectId));
             }
+            // if the link operation failed, delete the program object
+            gl.glDeleteProgram(programObjectId);
             return 0;
         }
 
@@ -123,14 +119,14 @@ public class ShaderHelper {
         return programObjectId;
     }
 
-    public static boolean validateProgram(int programObjectId) {
-        glValidateProgram(programObjectId);
+    public static boolean validateProgram(GLBackend gl, int programObjectId) {
+        gl.glValidateProgram(programObjectId);
 
         final int[] validateStatus = new int[1];
-        glGetProgramiv(programObjectId, GL_VALIDATE_STATUS, validateStatus, 0);
+        gl.glGetProgramiv(programObjectId, GL_VALIDATE_STATUS, validateStatus, 0);
 
         Log.v(TAG, "Program validation: " + validateStatus[0]
-            + "\nLog:" + glGetProgramInfoLog(programObjectId));
+            + "\nLog:" + gl.glGetProgramInfoLog(programObjectId));
 
         return validateStatus[0] != 0;
     }
@@ -0,0 +1,389 @@
+package util;
+
+import android.util.Log;
+
+import util.gl.GLBackend;
+import util.gl.GLResource;
+
+import static android.opengl.GLES20.GL_ACTIVE_ATTRIBUTES;
+import static android.opengl.GLES20.GL_ACTIVE_UNIFORMS;
+import static android.opengl.GLES20.GL_FLOAT_MAT2;
+import static android.opengl.GLES20.GL_FLOAT_MAT3;
+import static android.opengl.GLES20.GL_FLOAT_MAT4;
+import static android.opengl.GLES20.GL_FLOAT_VEC2;
+import static android.opengl.GLES20.GL_FLOAT_VEC3;
+import static android.opengl.GLES20.GL_FLOAT_VEC4;
+import static android.opengl.GLES20.GL_INT_VEC2;
+import static android.opengl.GLES20.GL_INT_VEC3;
+import static android.opengl.GLES20.GL_INT_VEC4;
+
+/**
+ * A linked shader program together with a table of its active uniforms and
+ * attributes. All the string lookups happen once, right after linking;
+ * callers resolve names to table indexes during setup and use only the
+ * indexes while drawing.
+ *
+ * The typed setters remember the last value sent for each uniform and skip
+ * the GL call when nothing changed. The remembered values belong to the GL
+ * program object, so they are forgotten whenever it is rebuilt.
+ *
+ * After a context loss the program relinks itself from its sources the
+ * next time it is used. Table indexes stay the same, and attributes are
+ * bound to the locations they had before, so everything callers resolved
+ * during setup stays valid.
+ */
+public class ShaderProgram implements GLResource {
+    private static final String TAG = "ShaderProgram";
+
+    private final GLBackend gl;
+    private final ShaderCache cache;        // builds the GL program when there is one
+    private final String vertexShaderSource;
+    private final String fragmentShaderSource;
+    private int programId;
+    private boolean created;        // false once the context the program lived in is gone
+
+    // active uniforms, indexed by table index; built by the first link
+    private String[] uniformNames;
+    private int[] uniformLocations;
+    private int[] uniformTypes;
+    private int[] valueOffsets;             // where each uniform's last value lives in lastValues
+    private boolean[] valueKnown;           // false until the uniform has been set once
+    private float[] lastValues;
+
+    // active attributes
+    private String[] attributeNames;
+    private int[] attributeLocations;
+
+    private int glCallCount;        // GL calls issued by use() and the setters, for profiling
+    private int elidedCount;        // uniform uploads skipped because the value hadn't changed
+
+    /** Compiles and links straight away, so call on the GL thread with a context current. */
+    public ShaderProgram(GLBackend gl, String vertexShaderSource, String fragmentShaderSource) {
+        this(gl, null, vertexShaderSource, fragmentShaderSource);
+    }
+
+    // for ShaderCache, which shares shader objects and program binaries between programs
+    ShaderProgram(GLBackend gl, ShaderCache cache, String vertexShaderSource, String fragmentShaderSource) {
+        this.gl = gl;
+        this.cache = cache;
+        this.vertexShaderSource = vertexShaderSource;
+        this.fragmentShaderSource = fragmentShaderSource;
+        create();
+    }
+
+    @Override
+    public void create() {
+        // a relink keeps the attribute locations of the first link
+        final String[] boundNames = uniformNames != null ? attributeNames : null;
+        if (cache != null) {
+            programId = cache.buildProgram(vertexShaderSource, fragmentShaderSource,
+                    boundNames, attributeLocations);
+        } else {
+            final int vertexShader = ShaderHelper.compileVertexShader(gl, vertexShaderSource);
+            final int fragmentShader = ShaderHelper.compileFragmentShader(gl, fragmentShaderSource);
+            programId = ShaderHelper.linkProgram(gl, vertexShader, fragmentShader,
+                    boundNames, attributeLocations);
+        }
+        created = true;
+
+        if (LoggerConfig.ON && programId != 0) {
+            ShaderHelper.validateProgram(gl, programId);
+        }
+
+        if (uniformNames == null) {
+            buildTables();
+        } else {
+            // relinked: same uniforms, possibly at new locations. A bare
+            // array name locates the array's first element.
+            for (int i = 0; i < uniformNames.length; i++) {
+                uniformLocations[i] = programId != 0 ? gl.glGetUniformLocation(programId, uniformNames[i]) : -1;
+            }
+            invalidateUniforms();
+        }
+    }
+
+    @Override
+    public boolean isCreated() {
+        return created;
+    }
+
+    @Override
+    public void release() {
+        if (created && programId != 0) {
+            gl.glDeleteProgram(programId);
+        }
+        programId = 0;
+        created = false;
+    }
+
+    @Override
+    public void onContextLost() {
+        programId = 0;
+        created = false;
+    }
+
+    private void buildTables() {
+        final int[] count = new int[1];
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+
+        // uniforms
+        if (programId != 0) {
+            gl.glGetProgramiv(programId, GL_ACTIVE_UNIFORMS, count, 0);
+        }
+        final int uniformCount = programId != 0 ? count[0] : 0;
+        uniformNames = new String[uniformCount];
+        uniformLocations = new int[uniformCount];
+        uniformTypes = new int[uniformCount];
+        valueOffsets = new int[uniformCount];
+        valueKnown = new boolean[uniformCount];
+
+        int valueFloats = 0;
+        for (int i = 0; i < uniformCount; i++) {
+            final String name = gl.glGetActiveUniform(programId, i, size, 0, type, 0);
+            uniformNames[i] = baseName(name);
+            uniformLocations[i] = gl.glGetUniformLocation(programId, name);
+            uniformTypes[i] = type[0];
+            valueOffsets[i] = valueFloats;
+            valueFloats += size[0] * componentCount(type[0]);
+        }
+        lastValues = new float[valueFloats];
+
+        // attributes
+        if (programId != 0) {
+            gl.glGetProgramiv(programId, GL_ACTIVE_ATTRIBUTES, count, 0);
+        }
+        final int attributeCount = programId != 0 ? count[0] : 0;
+        attributeNames = new String[attributeCount];
+        attributeLocations = new int[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            final String name = gl.glGetActiveAttrib(programId, i, size, 0, type, 0);
+            attributeNames[i] = name;
+            attributeLocations[i] = gl.glGetAttribLocation(programId, name);
+        }
+
+        if (LoggerConfig.ON) {
+            Log.v(TAG, "Program " + programId + ": " + uniformCount + " uniforms, "
+                    + attributeCount + " attributes");
+        }
+    }
+
+    public int getProgramId() {
+        return programId;
+    }
+
+    /** False when compiling or linking failed; the log says why. */
+    public boolean isValid() {
+        return !created || programId != 0;
+    }
+
+    public void use() {
+        if (!created) {
+            create();
+        }
+        glCallCount++;
+        gl.glUseProgram(programId);
+    }
+
+    /**
+     * Table index of an active uniform, or -1 if the program has no such
+     * uniform (e.g. the compiler optimised it out). Setup time only.
+     */
+    public int uniformIndex(String name) {
+        for (int i = 0; i < uniformNames.length; i++) {
+            if (uniformNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** GL location of an active attribute, or -1. Setup time only. */
+    public int attributeLocation(String name) {
+        for (int i = 0; i < attributeNames.length; i++) {
+            if (attributeNames[i].equals(name)) {
+                return attributeLocations[i];
+            }
+        }
+        return -1;
+    }
+
+    public int getUniformCount() {
+        return uniformNames.length;
+    }
+
+    public int getUniformLocation(int index) {
+        return uniformLocations[index];
+    }
+
+    public int getUniformType(int index) {
+        return uniformTypes[index];
+    }
+
+    /** Running total of GL calls issued while drawing; compare two readings to count a frame's. */
+    public int getGlCallCount() {
+        return glCallCount;
+    }
+
+    /** Running total of uniform uploads skipped as redundant. */
+    public int getElidedCount() {
+        return elidedCount;
+    }
+
+    /** Forgets every remembered uniform value so the next set of each one is uploaded. */
+    public void invalidateUniforms() {
+        for (int i = 0; i < valueKnown.length; i++) {
+            valueKnown[i] = false;
+        }
+    }
+
+    // The setters below expect this program to be the one in use. An index
+    // of -1 is ignored, the same way GL ignores a location of -1.
+
+    public void setUniform1f(int index, float x) {
+        if (index < 0) {
+            return;
+        }
+        final int o = valueOffsets[index];
+        if (valueKnown[index] && lastValues[o] == x) {
+            elidedCount++;
+            return;
+        }
+        lastValues[o] = x;
+        valueKnown[index] = true;
+        glCallCount++;
+        gl.glUniform1f(uniformLocations[index], x);
+    }
+
+    public void setUniform1i(int index, int x) {
+        if (index < 0) {
+            return;
+        }
+        final int o = valueOffsets[index];
+        if (valueKnown[index] && lastValues[o] == x) {
+            elidedCount++;
+            return;
+        }
+        lastValues[o] = x;
+        valueKnown[index] = true;
+        glCallCount++;
+        gl.glUniform1i(uniformLocations[index], x);
+    }
+
+    public void setUniform2f(int index, float x, float y) {
+        if (index < 0) {
+            return;
+        }
+        final int o = valueOffsets[index];
+        final float[] last = lastValues;
+        if (valueKnown[index] && last[o] == x && last[o + 1] == y) {
+            elidedCount++;
+            return;
+        }
+        last[o] = x;
+        last[o + 1] = y;
+        valueKnown[index] = true;
+        glCallCount++;
+        gl.glUniform2f(uniformLocations[index], x, y);
+    }
+
+    public void setUniform3f(int index, float x, float y, float z) {
+        if (index < 0) {
+            return;
+        }
+        final int o = valueOffsets[index];
+        final float[] last = lastValues;
+        if (valueKnown[index] && last[o] == x && last[o + 1] == y && last[o + 2] == z) {
+            elidedCount++;
+            return;
+        }
+        last[o] = x;
+        last[o + 1] = y;
+        last[o + 2] = z;
+        valueKnown[index] = true;
+        glCallCount++;
+        gl.glUniform3f(uniformLocations[index], x, y, z);
+    }
+
+    public void setUniform4f(int index, float x, float y, float z, float w) {
+        if (index < 0) {
+            return;
+        }
+        final int o = valueOffsets[index];
+        final float[] last = lastValues;
+        if (valueKnown[index] && last[o] == x && last[o + 1] == y && last[o + 2] == z && last[o + 3] == w) {
+            elidedCount++;
+            return;
+        }
+        last[o] = x;
+        last[o + 1] = y;
+        last[o + 2] = z;
+        last[o + 3] = w;
+        valueKnown[index] = true;
+        glCallCount++;
+        gl.glUniform4f(uniformLocations[index], x, y, z, w);
+    }
+
+    public void setUniformMatrix4(int index, float[] matrix, int offset) {
+        setUniformMatrix4(index, 1, matrix, offset);
+    }
+
+    /** Uploads count 4x4 matrices, e.g. the first entries of a mat4 array uniform. */
+    public void setUniformMatrix4(int index, int count, float[] matrices, int offset) {
+        if (index < 0) {
+            return;
+        }
+        final int o = valueOffsets[index];
+        final int floats = count * 16;
+        final float[] last = lastValues;
+        if (valueKnown[index] && count == 1) {
+            boolean same = true;
+            for (int i = 0; i < floats; i++) {
+                if (last[o + i] != matrices[offset + i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                elidedCount++;
+                return;
+            }
+        }
+        // only a single matrix is worth comparing; arrays change every frame
+        if (count == 1) {
+            System.arraycopy(matrices, offset, last, o, floats);
+            valueKnown[index] = true;
+        } else {
+            valueKnown[index] = false;
+        }
+        glCallCount++;
+        gl.glUniformMatrix4fv(uniformLocations[index], count, false, matrices, offset);
+    }
+
+    // "u_Bones[0]" -> "u_Bones"
+    private static String baseName(String name) {
+        final int bracket = name.indexOf('[');
+        return bracket < 0 ? name : name.substring(0, bracket);
+    }
+
+    private static int componentCount(int type) {
+        switch (type) {
+            case GL_FLOAT_VEC2:
+            case GL_INT_VEC2:
+                return 2;
+            case GL_FLOAT_VEC3:
+            case GL_INT_VEC3:
+                return 3;
+            case GL_FLOAT_VEC4:
+            case GL_INT_VEC4:
+            case GL_FLOAT_MAT2:
+                return 4;
+            case GL_FLOAT_MAT3:
+                return 9;
+            case GL_FLOAT_MAT4:
+                return 16;
+            default:
+                return 1;       // float, int, bool, samplers
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Programs built from one pair of shader sources by #defining different
+ * sets of flags in front of them. A variant is identified by a bit mask
+ * over the flag names given to the constructor, and is compiled the first
+ * time it is asked for; after that get() is a table lookup. Linking goes
+ * through a ShaderCache, so variants that come out the same share one
+ * program.
+ *
+ * Constants (e.g. an array size) are defined in front of every variant;
+ * set them before asking for any variant that uses them.
+ */
+public class ShaderVariants {
+    private final ShaderCache cache;
+    private final String vertexShaderSource;
+    private final String fragmentShaderSource;
+    private final String[] flagNames;
+    private final StringBuilder constants = new StringBuilder();
+    private final Map<Integer, ShaderProgram> variants = new HashMap<Integer, ShaderProgram>();
+
+    public ShaderVariants(ShaderCache cache, String vertexShaderSource, String fragmentShaderSource,
+                          String[] flagNames) {
+        if (flagNames.length > 31) {
+            throw new IllegalArgumentException("Too many flags: " + flagNames.length);
+        }
+        this.cache = cache;
+        this.vertexShaderSource = vertexShaderSource;
+        this.fragmentShaderSource = fragmentShaderSource;
+        this.flagNames = flagNames;
+    }
+
+    public void setConstant(String name, int value) {
+        constants.append("#define ").append(name).append(' ').append(value).append('\n');
+    }
+
+    /** The program for a set of flags; compiles it if this is the first time. GL thread only. */
+    public ShaderProgram get(int flags) {
+        ShaderProgram program = variants.get(flags);
+        if (program == null) {
+            final String defines = defines(flags);
+            program = cache.getProgram(defines + vertexShaderSource, defines + fragmentShaderSource);
+            variants.put(flags, program);
+        }
+        return program;
+    }
+
+    public int getVariantCount() {
+        return variants.size();
+    }
+
+    /** The #define lines for a set of flags, e.g. for logging. */
+    public String defines(int flags) {
+        final StringBuilder defines = new StringBuilder(constants);
+        for (int i = 0; i < flagNames.length; i++) {
+            if ((flags & (1 << i)) != 0) {
+                defines.append("#define ").append(flagNames[i]).append('\n');
+            }
+        }
+        return defines.toString();
+    }
+}
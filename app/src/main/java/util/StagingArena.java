@@ -0,0 +1,211 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Off-heap memory for data on its way to the GPU: mesh payloads built at
+ * run time and the interleaved copies VertexBuffer uploads. Rather than a
+ * direct buffer of its own for each, every allocation is a slice of one
+ * large direct buffer, and once the data is in a GL buffer the slice is
+ * freed and its space used again. So however many meshes are built, and
+ * however many renderers build them, the native memory this takes stays
+ * at the arena's size.
+ *
+ * Slices start on ALIGNMENT byte boundaries (relative to the arena) and
+ * are little-endian, like mesh payloads. Free space is kept as a list of
+ * ranges sorted by offset; an allocation takes the first range it fits
+ * in, and freed slices are merged with their neighbours. A request that
+ * doesn't fit gets a direct buffer of its own instead, counted as an
+ * overflow, and free() leaves that one to the garbage collector.
+ *
+ * shared() is the arena everything in the app allocates from. All methods
+ * are synchronized; the asset loader and every GL thread use it.
+ */
+public class StagingArena {
+    public static final int ALIGNMENT = 16;
+    public static final int SHARED_CAPACITY = 256 * 1024;
+
+    private static StagingArena shared;
+
+    private final int capacity;
+    private ByteBuffer arena;               // allocated on first use
+
+    // free ranges, sorted by offset, never adjacent
+    private int[] freeOffsets = new int[8];
+    private int[] freeSizes = new int[8];
+    private int freeCount;
+
+    // slices handed out and not yet freed
+    private ByteBuffer[] liveSlices = new ByteBuffer[8];
+    private int[] liveOffsets = new int[8];
+    private int[] liveSizes = new int[8];
+    private int liveCount;
+
+    private int liveBytes;
+    private int peakBytes;
+    private int overflowCount;
+
+    public StagingArena(int capacity) {
+        this.capacity = align(capacity);
+        freeOffsets[0] = 0;
+        freeSizes[0] = this.capacity;
+        freeCount = 1;
+    }
+
+    /** The process-wide arena. */
+    public static synchronized StagingArena shared() {
+        if (shared == null) {
+            shared = new StagingArena(SHARED_CAPACITY);
+        }
+        return shared;
+    }
+
+    /**
+     * A little-endian buffer of the given size, its contents undefined.
+     * Hand it back with free() once the data is no longer needed.
+     */
+    public synchronized ByteBuffer allocate(int bytes) {
+        final int size = align(Math.max(bytes, 1));
+        for (int i = 0; i < freeCount; i++) {
+            if (freeSizes[i] < size) {
+                continue;
+            }
+            final int offset = freeOffsets[i];
+            if (freeSizes[i] == size) {
+                removeFree(i);
+            } else {
+                freeOffsets[i] += size;
+                freeSizes[i] -= size;
+            }
+
+            if (arena == null) {
+                arena = ByteBuffer.allocateDirect(capacity);
+            }
+            final ByteBuffer view = arena.duplicate();
+            view.limit(offset + bytes);
+            view.position(offset);
+            final ByteBuffer slice = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+            addLive(slice, offset, size);
+            liveBytes += size;
+            peakBytes = Math.max(peakBytes, liveBytes);
+            return slice;
+        }
+
+        overflowCount++;
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns a buffer from allocate() to the arena. Buffers that didn't
+     * come from the arena, and ones already freed, are ignored.
+     */
+    public synchronized void free(ByteBuffer buffer) {
+        int live = -1;
+        for (int i = 0; i < liveCount; i++) {
+            if (liveSlices[i] == buffer) {
+                live = i;
+                break;
+            }
+        }
+        if (live < 0) {
+            return;
+        }
+        final int offset = liveOffsets[live];
+        final int size = liveSizes[live];
+        liveCount--;
+        liveSlices[live] = liveSlices[liveCount];
+        liveOffsets[live] = liveOffsets[liveCount];
+        liveSizes[live] = liveSizes[liveCount];
+        liveSlices[liveCount] = null;
+        liveBytes -= size;
+
+        // insert in offset order, merging with the ranges either side
+        int at = 0;
+        while (at < freeCount && freeOffsets[at] < offset) {
+            at++;
+        }
+        final boolean joinsPrevious = at > 0 && freeOffsets[at - 1] + freeSizes[at - 1] == offset;
+        final boolean joinsNext = at < freeCount && offset + size == freeOffsets[at];
+        if (joinsPrevious && joinsNext) {
+            freeSizes[at - 1] += size + freeSizes[at];
+            removeFree(at);
+        } else if (joinsPrevious) {
+            freeSizes[at - 1] += size;
+        } else if (joinsNext) {
+            freeOffsets[at] = offset;
+            freeSizes[at] += size;
+        } else {
+            insertFree(at, offset, size);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Bytes in slices not yet freed, alignment padding included. */
+    public synchronized int getLiveBytes() {
+        return liveBytes;
+    }
+
+    /** Most bytes ever live at once. */
+    public synchronized int getPeakBytes() {
+        return peakBytes;
+    }
+
+    /** Allocations that didn't fit and got a direct buffer of their own. */
+    public synchronized int getOverflowCount() {
+        return overflowCount;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "staging arena %.1f KiB live, %.1f KiB peak of %d KiB, %d overflows",
+                liveBytes / 1024.0, peakBytes / 1024.0, capacity / 1024, overflowCount);
+    }
+
+    private void addLive(ByteBuffer slice, int offset, int size) {
+        if (liveCount == liveSlices.length) {
+            final int grown = liveCount * 2;
+            final ByteBuffer[] slices = new ByteBuffer[grown];
+            System.arraycopy(liveSlices, 0, slices, 0, liveCount);
+            liveSlices = slices;
+            liveOffsets = copyOf(liveOffsets, grown);
+            liveSizes = copyOf(liveSizes, grown);
+        }
+        liveSlices[liveCount] = slice;
+        liveOffsets[liveCount] = offset;
+        liveSizes[liveCount] = size;
+        liveCount++;
+    }
+
+    private void insertFree(int at, int offset, int size) {
+        if (freeCount == freeOffsets.length) {
+            freeOffsets = copyOf(freeOffsets, freeCount * 2);
+            freeSizes = copyOf(freeSizes, freeCount * 2);
+        }
+        System.arraycopy(freeOffsets, at, freeOffsets, at + 1, freeCount - at);
+        System.arraycopy(freeSizes, at, freeSizes, at + 1, freeCount - at);
+        freeOffsets[at] = offset;
+        freeSizes[at] = size;
+        freeCount++;
+    }
+
+    private void removeFree(int at) {
+        System.arraycopy(freeOffsets, at + 1, freeOffsets, at, freeCount - at - 1);
+        System.arraycopy(freeSizes, at + 1, freeSizes, at, freeCount - at - 1);
+        freeCount--;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        final int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static int align(int bytes) {
+        return (bytes + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+}
@@ -13,18 +13,12 @@ import java.io.InputStreamReader;
  */
 public class TextResourceReader {
     public static String readTextFileFromResource(Context context, int resourceId) {
-        StringBuilder body = new StringBuilder();
-
         try {
             InputStream inputStream = context.getResources().openRawResource(resourceId);
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-
-            String nextLine;
-
-            while(( nextLine = bufferedReader.readLine()) != null) {
-                body.append(nextLine);
-                body.append('\n');
+            try {
+                return readTextFile(inputStream);
+            } finally {
+                inputStream.close();
             }
 
         } catch(IOException e) {
@@ -34,8 +28,22 @@ public class TextResourceReader {
         } catch (Resources.NotFoundException nfe) {
             throw new RuntimeException("Resource not found: " + resourceId, nfe);
         }
+    }
 
-        return body.toString();
+    /** Reads a whole stream as text, normalising line endings to '\n'. */
+    public static String readTextFile(InputStream inputStream) throws IOException {
+        StringBuilder body = new StringBuilder();
+
+        InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
+        BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
+
+        String nextLine;
 
+        while(( nextLine = bufferedReader.readLine()) != null) {
+            body.append(nextLine);
+            body.append('\n');
+        }
+
+        return body.toString();
     }
 }
@@ -0,0 +1,245 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+import util.gl.GLBackend;
+import util.gl.GLResource;
+import util.mesh.Mesh;
+import util.mesh.VertexAttribute;
+
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_ELEMENT_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_STATIC_DRAW;
+
+/**
+ * A mesh interleaved into a single GL_ARRAY_BUFFER. The attributes of each
+ * vertex are laid out one after the other, each padded to a 4 byte
+ * boundary, so a draw only has to bind one buffer and point every
+ * attribute at its offset within the stride. An indexed mesh gets a
+ * GL_ELEMENT_ARRAY_BUFFER for its indices as well, bound along with it.
+ *
+ * The GL buffer is created lazily on the GL thread, the first time the
+ * buffer is bound. When the context is lost, onContextLost() forgets the
+ * buffer id (it died with that context) and the next bind() uploads the
+ * mesh again. The interleaved copy only exists while uploading, in the
+ * StagingArena; it is rebuilt from the mesh when needed.
+ *
+ * Given a MeshSource instead of a mesh, the buffer doesn't keep the mesh
+ * either: it is built from the source when it has to be uploaded (the
+ * first bind, and again after a context loss) and released straight after.
+ * Then the vertex data only takes up CPU-side memory while it is on its way
+ * to the GPU. Nothing is built before that, so the layout and counts are
+ * taken from the first mesh built and aren't known until the first bind.
+ */
+public class VertexBuffer implements GLResource {
+    /** Builds the mesh each time a VertexBuffer has to upload it. GL thread. */
+    public interface MeshSource {
+        Mesh build();
+    }
+
+    private final GLBackend gl;
+    private final MeshSource source;            // null when the mesh is kept
+    private Mesh mesh;                          // null between uploads when there is a source
+    // attribute positions inside one interleaved vertex, and the mesh's
+    // counts; null and 0 for a source that hasn't been built yet
+    private VertexAttribute[] layout;
+    private int stride;
+    private int vertexCount;
+    private int indexCount;
+
+    private int bufferId;                       // 0 when there is no buffer in the current context
+    private int indexBufferId;                  // 0 as well for an unindexed mesh
+    private int glCallCount;                    // GL calls issued uploading and drawing, for profiling
+
+    public VertexBuffer(GLBackend gl, Mesh mesh) {
+        this.gl = gl;
+        this.mesh = mesh;
+        this.source = null;
+        setLayout(mesh);
+    }
+
+    /**
+     * Builds nothing until the buffer is first bound, so the counts and the
+     * stride read 0 until then. A buffer that is never bound, such as a
+     * level of detail nothing is drawn at, costs no building at all.
+     */
+    public VertexBuffer(GLBackend gl, MeshSource source) {
+        this.gl = gl;
+        this.source = source;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public boolean isIndexed() {
+        return indexCount > 0;
+    }
+
+    /** What a draw of the whole mesh passes as its count: indices if it has them, else vertexes. */
+    public int getElementCount() {
+        return indexCount > 0 ? indexCount : vertexCount;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /** Running total of GL calls issued by upload(), bind() and setVertexAttribPointer(). */
+    public int getGlCallCount() {
+        return glCallCount;
+    }
+
+    @Override
+    public boolean isCreated() {
+        return bufferId != 0;
+    }
+
+    @Override
+    public void create() {
+        upload();
+    }
+
+    @Override
+    public void onContextLost() {
+        bufferId = 0;
+        indexBufferId = 0;
+    }
+
+    /**
+     * Creates the GL buffer and fills it. Call on the GL thread after
+     * onSurfaceCreated(); a buffer belonging to a previous (lost) context is
+     * not deleted, since its id means nothing in the new one.
+     */
+    public void upload() {
+        final Mesh data = mesh != null ? mesh : source.build();
+        if (layout == null) {
+            setLayout(data);
+        }
+        final int[] ids = new int[2];
+        glCallCount++;
+        gl.glGenBuffers(data.isIndexed() ? 2 : 1, ids, 0);
+        bufferId = ids[0];
+        indexBufferId = ids[1];
+
+        // glBufferData copies the data before returning, so the staging
+        // copies can go straight back
+        ByteBuffer interleaved = interleave(data);
+        glCallCount += 2;
+        gl.glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+        gl.glBufferData(GL_ARRAY_BUFFER, interleaved.capacity(), interleaved, GL_STATIC_DRAW);
+        StagingArena.shared().free(interleaved);
+
+        if (indexBufferId != 0) {
+            glCallCount += 2;
+            gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+            gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, data.getIndexCount() * 2, data.getIndexBuffer(),
+                    GL_STATIC_DRAW);
+        }
+
+        if (source != null) {
+            data.release();
+            mesh = null;
+        }
+    }
+
+    /** Binds the buffer (and index buffer), uploading them first if the current context has none. */
+    public void bind() {
+        if (bufferId == 0) {
+            upload();
+        } else {
+            glCallCount++;
+            gl.glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+            if (indexBufferId != 0) {
+                glCallCount++;
+                gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+            }
+        }
+    }
+
+    /**
+     * Points a shader attribute at one of the mesh attributes. The buffer
+     * must be bound. Locations of -1 (attribute optimised out of the shader)
+     * are ignored.
+     */
+    public void setVertexAttribPointer(int semantic, int location) {
+        if (location < 0) {
+            return;
+        }
+        VertexAttribute attribute = findLayout(semantic);
+        glCallCount += 2;
+        gl.glVertexAttribPointer(location, attribute.components, attribute.type,
+                attribute.normalized, stride, attribute.offset);
+        gl.glEnableVertexAttribArray(location);
+    }
+
+    /** Deletes the GL buffer. Only meaningful while its context is still current. */
+    @Override
+    public void release() {
+        if (bufferId != 0) {
+            gl.glDeleteBuffers(indexBufferId != 0 ? 2 : 1, new int[] {bufferId, indexBufferId}, 0);
+            bufferId = 0;
+            indexBufferId = 0;
+        }
+    }
+
+    // Lays the mesh's attributes out one after the other in a vertex.
+    private void setLayout(Mesh mesh) {
+        vertexCount = mesh.getVertexCount();
+        indexCount = mesh.getIndexCount();
+
+        layout = new VertexAttribute[mesh.getAttributeCount()];
+        int offset = 0;
+        for (int i = 0; i < layout.length; i++) {
+            VertexAttribute attribute = mesh.getAttribute(i);
+            layout[i] = new VertexAttribute(attribute.semantic, attribute.components, attribute.type,
+                    attribute.normalized, offset, 0);
+            offset += align4(attribute.sizeInBytes());
+        }
+        stride = offset;
+    }
+
+    private VertexAttribute findLayout(int semantic) {
+        for (VertexAttribute attribute : layout) {
+            if (attribute.semantic == semantic) {
+                return attribute;
+            }
+        }
+        throw new IllegalArgumentException("Mesh has no attribute with semantic " + semantic);
+    }
+
+    // Copies every attribute of every vertex into its slot in the stride.
+    private ByteBuffer interleave(Mesh mesh) {
+        // same (little-endian) order as the payload, so whole words are copied as is
+        ByteBuffer interleaved = StagingArena.shared().allocate(vertexCount * stride);
+        ByteBuffer payload = mesh.getPayload();
+
+        for (int i = 0; i < layout.length; i++) {
+            VertexAttribute source = mesh.getAttribute(i);
+            final int size = source.sizeInBytes();
+            final int sourceStride = source.stride != 0 ? source.stride : size;
+            int from = source.offset;
+            int to = layout[i].offset;
+
+            if (size % 4 == 0) {
+                for (int v = 0; v < vertexCount; v++, from += sourceStride, to += stride) {
+                    for (int b = 0; b < size; b += 4) {
+                        interleaved.putInt(to + b, payload.getInt(from + b));
+                    }
+                }
+            } else {
+                for (int v = 0; v < vertexCount; v++, from += sourceStride, to += stride) {
+                    for (int b = 0; b < size; b++) {
+                        interleaved.put(to + b, payload.get(from + b));
+                    }
+                }
+            }
+        }
+        interleaved.position(0);
+        return interleaved;
+    }
+
+    private static int align4(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+}
@@ -0,0 +1,149 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed set of threads for splitting a loop over a range of indexes,
+ * fork-join style: forEachRange() cuts the range into chunks, the workers
+ * and the calling thread take chunks until there are none left, and the
+ * call returns once every chunk has run.
+ *
+ * Chunks are handed out from one atomic counter, so a fast thread simply
+ * takes more of them. Idle workers are parked, and nothing is allocated
+ * per call. A pool of one thread has no workers and runs everything on
+ * the caller, as does a range too small to be worth splitting.
+ *
+ * One thread at a time may call forEachRange(). An exception thrown by
+ * a chunk on a worker is rethrown by forEachRange(), wrapped in a
+ * RuntimeException, once the rest of the chunks have run.
+ */
+public class WorkerPool {
+    /** Runs part of a loop: indexes start (inclusive) to end (exclusive). */
+    public interface RangeTask {
+        void run(int start, int end);
+    }
+
+    private final Thread[] workers;
+
+    // The job: generation in the high 32 bits and the number of chunks not
+    // yet taken in the low 32. A finished job has none left whatever the
+    // fields below say, and bumping the generation for a new job means a
+    // worker still looking at the old one can't take a chunk of the new one.
+    private final AtomicLong job = new AtomicLong();
+    private final AtomicInteger pendingChunks = new AtomicInteger();
+    private volatile RangeTask task;
+    private volatile int end;
+    private volatile int chunkSize;
+    private volatile int chunkCount;
+    private volatile Throwable failure;
+    private volatile boolean shutdown;
+
+    /**
+     * @param threads threads that work on each range, the caller included;
+     *                threads - 1 workers are started
+     */
+    public WorkerPool(int threads) {
+        workers = new Thread[Math.max(0, threads - 1)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "Worker-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /** Threads working on each range, the caller included. */
+    public int getThreadCount() {
+        return workers.length + 1;
+    }
+
+    /**
+     * Runs task over 0..count, split into chunks of at least minChunk
+     * indexes, and returns when all of it has run.
+     */
+    public void forEachRange(int count, int minChunk, RangeTask task) {
+        if (count <= 0) {
+            return;
+        }
+        final int threads = workers.length + 1;
+        // a few chunks per thread evens out threads that are slow to start
+        final int size = Math.max(Math.max(minChunk, 1), (count + threads * 4 - 1) / (threads * 4));
+        final int chunks = (count + size - 1) / size;
+        if (chunks <= 1 || workers.length == 0 || shutdown) {
+            task.run(0, count);
+            return;
+        }
+
+        this.task = task;
+        this.end = count;
+        this.chunkSize = size;
+        this.chunkCount = chunks;
+        pendingChunks.set(chunks);
+        final long generation = (job.get() >>> 32) + 1;
+        job.set((generation << 32) | chunks);       // publishes the fields above
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+
+        while (runChunk()) {
+            // the caller works too
+        }
+        // The remaining chunks are already running; they are short, so
+        // spinning beats parking.
+        while (pendingChunks.get() != 0) {
+            Thread.yield();
+        }
+
+        this.task = null;
+        final Throwable thrown = failure;
+        if (thrown != null) {
+            failure = null;
+            throw new RuntimeException("Worker failed: " + thrown.getMessage(), thrown);
+        }
+    }
+
+    /** Stops the workers once they are idle. Later ranges run on the caller. */
+    public void shutdown() {
+        shutdown = true;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void work() {
+        while (!shutdown) {
+            if (!runChunk()) {
+                // an unpark that came in since the check makes this return at once
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    // Takes and runs the next chunk of the current job. False when there was none left.
+    private boolean runChunk() {
+        final long current = job.get();
+        final int remaining = (int) current;
+        if (remaining == 0) {
+            return false;
+        }
+        if (!job.compareAndSet(current, current - 1)) {
+            return true;    // another thread took it; try the next one
+        }
+        // Until this chunk is done the job can't be replaced, so these are its fields.
+        try {
+            final int start = (chunkCount - remaining) * chunkSize;
+            task.run(start, Math.min(end, start + chunkSize));
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            pendingChunks.decrementAndGet();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+package util.gl;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES 2.0 entry points the renderer uses, as an interface rather
+ * than GLES20's static methods. Production code runs on AndroidGLBackend;
+ * RecordingGLBackend stands in for a GPU on a plain JVM, so frames can be
+ * run, counted and replayed off-device.
+ *
+ * Methods mirror android.opengl.GLES20 one for one. The query methods come
+ * from EXT_disjoint_timer_query and are only valid when supportsQueries()
+ * says so; the program binary methods are OpenGL ES 3.0 (or
+ * OES_get_program_binary) and need supportsProgramBinaries().
+ */
+public interface GLBackend {
+    // frame and state
+    void glClear(int mask);
+    void glFinish();
+    void glClearColor(float red, float green, float blue, float alpha);
+    void glEnable(int cap);
+    void glDisable(int cap);
+    void glViewport(int x, int y, int width, int height);
+    int glGetError();
+    void glGetIntegerv(int pname, int[] params, int offset);
+    String glGetString(int name);
+
+    // shaders and programs
+    int glCreateShader(int type);
+    void glShaderSource(int shader, String source);
+    void glCompileShader(int shader);
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+    String glGetShaderInfoLog(int shader);
+    void glDeleteShader(int shader);
+    int glCreateProgram();
+    void glAttachShader(int program, int shader);
+    void glBindAttribLocation(int program, int index, String name);
+    void glLinkProgram(int program);
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+    String glGetProgramInfoLog(int program);
+    void glValidateProgram(int program);
+    void glDeleteProgram(int program);
+    void glUseProgram(int program);
+    String glGetActiveAttrib(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset);
+    String glGetActiveUniform(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset);
+    int glGetAttribLocation(int program, String name);
+    int glGetUniformLocation(int program, String name);
+
+    // uniforms
+    void glUniform1f(int location, float x);
+    void glUniform1i(int location, int x);
+    void glUniform2f(int location, float x, float y);
+    void glUniform3f(int location, float x, float y, float z);
+    void glUniform4f(int location, float x, float y, float z, float w);
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    // vertex data
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+    void glBindBuffer(int target, int buffer);
+    void glBufferData(int target, int size, Buffer data, int usage);
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer pointer);
+    void glEnableVertexAttribArray(int index);
+    void glDisableVertexAttribArray(int index);
+    void glVertexAttrib3f(int index, float x, float y, float z);
+
+    // drawing
+    void glDrawArrays(int mode, int first, int count);
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    // textures and render targets
+    void glActiveTexture(int texture);
+    void glGenTextures(int n, int[] textures, int offset);
+    void glDeleteTextures(int n, int[] textures, int offset);
+    void glBindTexture(int target, int texture);
+    void glTexParameteri(int target, int pname, int param);
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                      int format, int type, Buffer pixels);
+    void glGenFramebuffers(int n, int[] framebuffers, int offset);
+    void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+    void glBindFramebuffer(int target, int framebuffer);
+    void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+    void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer);
+    int glCheckFramebufferStatus(int target);
+    void glGenRenderbuffers(int n, int[] renderbuffers, int offset);
+    void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset);
+    void glBindRenderbuffer(int target, int renderbuffer);
+    void glRenderbufferStorage(int target, int internalformat, int width, int height);
+
+    // timer queries
+    boolean supportsQueries();
+    void glGenQueries(int n, int[] ids, int offset);
+    void glDeleteQueries(int n, int[] ids, int offset);
+    void glBeginQuery(int target, int id);
+    void glEndQuery(int target);
+    void glGetQueryObjectuiv(int id, int pname, int[] params, int offset);
+
+    // program binaries
+    boolean supportsProgramBinaries();
+    void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                            int[] binaryFormat, int binaryFormatOffset, Buffer binary);
+    void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+}
@@ -0,0 +1,24 @@
+package util.gl;
+
+/**
+ * Something that owns GL objects (a program, a buffer, a texture, ...) and
+ * can build them again from data it keeps on the Java side. Resources are
+ * tracked by a GLResourceManager, which tells them when their context has
+ * gone; they then recreate their GL objects the next time they are used.
+ */
+public interface GLResource {
+    /** Creates the GL objects in the current context, replacing any lost ones. */
+    void create();
+
+    /** True when the GL objects exist in the current context. */
+    boolean isCreated();
+
+    /** Deletes the GL objects. The context they were created in must be current. */
+    void release();
+
+    /**
+     * The context the GL objects lived in has been destroyed, and they with
+     * it. Forget their names without calling GL; there is nothing to delete.
+     */
+    void onContextLost();
+}
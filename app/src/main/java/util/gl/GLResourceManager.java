@@ -0,0 +1,83 @@
+package util.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of every GLResource a renderer owns so that a lost EGL
+ * context costs only what was actually lost.
+ *
+ * GLSurfaceView only calls onSurfaceCreated() when it has had to create a
+ * new context, and with setPreserveEGLContextOnPause(true) that no longer
+ * happens on every pause/resume, only when the device really took the
+ * context away (or never allows more than one). The renderer reports each
+ * new context here; tracked resources are then told their GL objects are
+ * gone and rebuild themselves lazily, on first use, so resources that are
+ * not needed straight away (say the unbatched program while batching is
+ * on) cost nothing until they are.
+ */
+public class GLResourceManager {
+    private final List<GLResource> resources = new ArrayList<GLResource>();
+    private int contextCount;           // contexts seen, including the first
+    private int lostResourceCount;      // resources invalidated by context loss, in total
+
+    public <T extends GLResource> T track(T resource) {
+        resources.add(resource);
+        return resource;
+    }
+
+    public void untrack(GLResource resource) {
+        resources.remove(resource);
+    }
+
+    /**
+     * Call from onSurfaceCreated(). Returns true if this replaces an
+     * earlier context, in which case every tracked resource that had been
+     * created is now marked lost.
+     */
+    public boolean onContextCreated() {
+        contextCount++;
+        if (contextCount == 1) {
+            return false;
+        }
+        for (int i = 0; i < resources.size(); i++) {
+            GLResource resource = resources.get(i);
+            if (resource.isCreated()) {
+                lostResourceCount++;
+            }
+            resource.onContextLost();
+        }
+        return true;
+    }
+
+    /** Releases every tracked resource. The current context must be the one they live in. */
+    public void releaseAll() {
+        for (int i = 0; i < resources.size(); i++) {
+            resources.get(i).release();
+        }
+    }
+
+    public int getResourceCount() {
+        return resources.size();
+    }
+
+    /** Number of contexts that were lost and had to be replaced. */
+    public int getContextLossCount() {
+        return Math.max(0, contextCount - 1);
+    }
+
+    public int getLostResourceCount() {
+        return lostResourceCount;
+    }
+
+    /** Resources currently waiting to be recreated. */
+    public int getPendingCount() {
+        int pending = 0;
+        for (int i = 0; i < resources.size(); i++) {
+            if (!resources.get(i).isCreated()) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+}
@@ -0,0 +1,1175 @@
+package util.gl;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A headless GLBackend: nothing is rendered, but every call is counted and
+ * recorded, arguments included, into a fixed-size ring of ints. Run frames
+ * of the renderer against it on a plain JVM to check exactly which GL calls
+ * a frame makes, or replay() the recorded stream into another backend (for
+ * instance a real one) as a regression benchmark.
+ *
+ * Each record is one header word, (opcode << 16) | argument word count,
+ * followed by the arguments; floats are stored as their raw bits and
+ * strings as indexes into a string table. When the ring is full the oldest
+ * records are dropped. A call too big for the whole ring is counted but not
+ * recorded, and clears what was recorded before it, so a replay never has
+ * a call missing from the middle. Buffer contents are not recorded, only
+ * their sizes, so replayed glBufferData calls upload uninitialised storage.
+ *
+ * Enough of a driver is simulated for the renderer to set itself up:
+ * object names are handed out sequentially, compiles, links and
+ * framebuffer checks succeed, and the active uniforms and attributes of a
+ * program are found by scanning its shader sources for declarations.
+ */
+public class RecordingGLBackend implements GLBackend {
+    public static final int OP_CLEAR = 1;
+    public static final int OP_CLEAR_COLOR = 2;
+    public static final int OP_ENABLE = 3;
+    public static final int OP_DISABLE = 4;
+    public static final int OP_VIEWPORT = 5;
+    public static final int OP_GET_ERROR = 6;
+    public static final int OP_GET_INTEGERV = 7;
+    public static final int OP_GET_STRING = 8;
+    public static final int OP_CREATE_SHADER = 9;
+    public static final int OP_SHADER_SOURCE = 10;
+    public static final int OP_COMPILE_SHADER = 11;
+    public static final int OP_GET_SHADERIV = 12;
+    public static final int OP_GET_SHADER_INFO_LOG = 13;
+    public static final int OP_DELETE_SHADER = 14;
+    public static final int OP_CREATE_PROGRAM = 15;
+    public static final int OP_ATTACH_SHADER = 16;
+    public static final int OP_LINK_PROGRAM = 17;
+    public static final int OP_GET_PROGRAMIV = 18;
+    public static final int OP_GET_PROGRAM_INFO_LOG = 19;
+    public static final int OP_VALIDATE_PROGRAM = 20;
+    public static final int OP_DELETE_PROGRAM = 21;
+    public static final int OP_USE_PROGRAM = 22;
+    public static final int OP_GET_ACTIVE_ATTRIB = 23;
+    public static final int OP_GET_ACTIVE_UNIFORM = 24;
+    public static final int OP_GET_ATTRIB_LOCATION = 25;
+    public static final int OP_GET_UNIFORM_LOCATION = 26;
+    public static final int OP_UNIFORM_1F = 27;
+    public static final int OP_UNIFORM_1I = 28;
+    public static final int OP_UNIFORM_3F = 29;
+    public static final int OP_UNIFORM_4F = 30;
+    public static final int OP_UNIFORM_MATRIX_4FV = 31;
+    public static final int OP_GEN_BUFFERS = 32;
+    public static final int OP_DELETE_BUFFERS = 33;
+    public static final int OP_BIND_BUFFER = 34;
+    public static final int OP_BUFFER_DATA = 35;
+    public static final int OP_BUFFER_SUB_DATA = 36;
+    public static final int OP_VERTEX_ATTRIB_POINTER = 37;
+    public static final int OP_VERTEX_ATTRIB_POINTER_CLIENT = 38;
+    public static final int OP_ENABLE_VERTEX_ATTRIB_ARRAY = 39;
+    public static final int OP_DISABLE_VERTEX_ATTRIB_ARRAY = 40;
+    public static final int OP_VERTEX_ATTRIB_3F = 41;
+    public static final int OP_DRAW_ARRAYS = 42;
+    public static final int OP_DRAW_ELEMENTS = 43;
+    public static final int OP_GEN_QUERIES = 44;
+    public static final int OP_DELETE_QUERIES = 45;
+    public static final int OP_BEGIN_QUERY = 46;
+    public static final int OP_END_QUERY = 47;
+    public static final int OP_GET_QUERY_OBJECTUIV = 48;
+    public static final int OP_BIND_ATTRIB_LOCATION = 49;
+    public static final int OP_GET_PROGRAM_BINARY = 50;
+    public static final int OP_PROGRAM_BINARY = 51;
+    public static final int OP_FINISH = 52;
+    public static final int OP_UNIFORM_2F = 53;
+    public static final int OP_ACTIVE_TEXTURE = 54;
+    public static final int OP_GEN_TEXTURES = 55;
+    public static final int OP_DELETE_TEXTURES = 56;
+    public static final int OP_BIND_TEXTURE = 57;
+    public static final int OP_TEX_PARAMETERI = 58;
+    public static final int OP_TEX_IMAGE_2D = 59;
+    public static final int OP_GEN_FRAMEBUFFERS = 60;
+    public static final int OP_DELETE_FRAMEBUFFERS = 61;
+    public static final int OP_BIND_FRAMEBUFFER = 62;
+    public static final int OP_FRAMEBUFFER_TEXTURE_2D = 63;
+    public static final int OP_FRAMEBUFFER_RENDERBUFFER = 64;
+    public static final int OP_CHECK_FRAMEBUFFER_STATUS = 65;
+    public static final int OP_GEN_RENDERBUFFERS = 66;
+    public static final int OP_DELETE_RENDERBUFFERS = 67;
+    public static final int OP_BIND_RENDERBUFFER = 68;
+    public static final int OP_RENDERBUFFER_STORAGE = 69;
+    private static final int OPCODE_COUNT = 70;
+
+    // the few GL enums the simulation has to understand
+    private static final int GL_COMPILE_STATUS = 0x8B81;
+    private static final int GL_LINK_STATUS = 0x8B82;
+    private static final int GL_VALIDATE_STATUS = 0x8B83;
+    private static final int GL_ACTIVE_UNIFORMS = 0x8B86;
+    private static final int GL_ACTIVE_ATTRIBUTES = 0x8B89;
+    private static final int GL_MAX_VERTEX_UNIFORM_VECTORS = 0x8DFB;
+    private static final int GL_VENDOR = 0x1F00;
+    private static final int GL_RENDERER = 0x1F01;
+    private static final int GL_VERSION = 0x1F02;
+    private static final int GL_EXTENSIONS = 0x1F03;
+    private static final int GL_QUERY_RESULT_AVAILABLE = 0x8867;
+    private static final int GL_FRAMEBUFFER_COMPLETE = 0x8CD5;
+
+    private static final Pattern DECLARATION = Pattern.compile(
+            "\\b(uniform|attribute)\\s+(?:(?:lowp|mediump|highp)\\s+)?(\\w+)\\s+(\\w+)\\s*(?:\\[\\s*(\\w+)\\s*\\])?\\s*;");
+    private static final Pattern EXPRESSION_TOKEN = Pattern.compile("\\w+|&&|\\|\\||[!()]");
+
+    // the recorded command stream
+    private final int[] ring;
+    private final int mask;
+    private long readPosition;
+    private long writePosition;
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+    // call counters since the last resetCounts()
+    private final int[] callCounts = new int[OPCODE_COUNT];
+    private int totalCalls;
+    private int maxVertexUniformVectors = 256;
+    private String extensions = "";
+
+    // simulated driver objects
+    private int nextName = 1;
+    private final Map<Integer, String> shaderSources = new HashMap<Integer, String>();
+    private final Map<Integer, List<Integer>> programShaders = new HashMap<Integer, List<Integer>>();
+    private final Map<Integer, ProgramInterface> programInterfaces = new HashMap<Integer, ProgramInterface>();
+    private final Map<Integer, Map<String, Integer>> attributeBindings = new HashMap<Integer, Map<String, Integer>>();
+
+    /** Active uniforms and attributes of a simulated program; the index is also the location. */
+    private static class ProgramInterface {
+        final List<String> uniformNames = new ArrayList<String>();
+        final List<int[]> uniformTypes = new ArrayList<int[]>();     // {type, size}
+        final List<String> attributeNames = new ArrayList<String>();
+        final List<int[]> attributeTypes = new ArrayList<int[]>();
+    }
+
+    /** @param capacityWords ring size in ints; rounded up to a power of two */
+    public RecordingGLBackend(int capacityWords) {
+        int capacity = Integer.highestOneBit(Math.max(capacityWords, 1024) - 1) << 1;
+        ring = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public RecordingGLBackend() {
+        this(1 << 16);
+    }
+
+    /** Value reported for GL_MAX_VERTEX_UNIFORM_VECTORS; 128 is the ES 2.0 minimum. */
+    public void setMaxVertexUniformVectors(int vectors) {
+        maxVertexUniformVectors = vectors;
+    }
+
+    /** Extension string reported for GL_EXTENSIONS, e.g. to exercise an optional code path. */
+    public void setExtensions(String extensions) {
+        this.extensions = extensions;
+    }
+
+    // ---- inspection ----
+
+    public int getCallCount() {
+        return totalCalls;
+    }
+
+    public int getCallCount(int opcode) {
+        return callCounts[opcode];
+    }
+
+    public int getDrawCallCount() {
+        return callCounts[OP_DRAW_ARRAYS] + callCounts[OP_DRAW_ELEMENTS];
+    }
+
+    /** Zeroes the call counters, e.g. at the start of the frame to be measured. */
+    public void resetCounts() {
+        for (int i = 0; i < callCounts.length; i++) {
+            callCounts[i] = 0;
+        }
+        totalCalls = 0;
+    }
+
+    /** Forgets the recorded stream. Counters and simulated objects are kept. */
+    public void clearRecording() {
+        readPosition = writePosition;
+    }
+
+    /** Number of ints currently held in the ring. */
+    public int getRecordedWords() {
+        return (int) (writePosition - readPosition);
+    }
+
+    /**
+     * Replays the recorded stream into another backend. Object names and
+     * uniform/attribute locations the target hands out are mapped onto the
+     * recorded ones, so the replay is self-consistent even though the
+     * target numbers things differently. Queries are only replayed when
+     * their results are needed for that mapping.
+     */
+    public void replay(GLBackend target) {
+        final Map<Integer, Integer> names = new HashMap<Integer, Integer>();
+        final Map<Long, Integer> uniformLocations = new HashMap<Long, Integer>();
+        final Map<Long, Integer> attributeLocations = new HashMap<Long, Integer>();
+        final int[] scratch = new int[1];
+        int recordedProgram = 0;
+
+        long position = readPosition;
+        while (position < writePosition) {
+            final int header = ring[(int) (position & mask)];
+            final int opcode = header >>> 16;
+            final int words = header & 0xffff;
+            final long a = position + 1;
+            position = a + words;
+
+            switch (opcode) {
+                case OP_CLEAR:
+                    target.glClear(word(a));
+                    break;
+                case OP_FINISH:
+                    target.glFinish();
+                    break;
+                case OP_CLEAR_COLOR:
+                    target.glClearColor(floatWord(a), floatWord(a + 1), floatWord(a + 2), floatWord(a + 3));
+                    break;
+                case OP_ENABLE:
+                    target.glEnable(word(a));
+                    break;
+                case OP_DISABLE:
+                    target.glDisable(word(a));
+                    break;
+                case OP_VIEWPORT:
+                    target.glViewport(word(a), word(a + 1), word(a + 2), word(a + 3));
+                    break;
+                case OP_CREATE_SHADER:
+                    names.put(word(a + 1), target.glCreateShader(word(a)));
+                    break;
+                case OP_SHADER_SOURCE:
+                    target.glShaderSource(mapped(names, word(a)), strings.get(word(a + 1)));
+                    break;
+                case OP_COMPILE_SHADER:
+                    target.glCompileShader(mapped(names, word(a)));
+                    break;
+                case OP_DELETE_SHADER:
+                    target.glDeleteShader(mapped(names, word(a)));
+                    break;
+                case OP_CREATE_PROGRAM:
+                    names.put(word(a), target.glCreateProgram());
+                    break;
+                case OP_ATTACH_SHADER:
+                    target.glAttachShader(mapped(names, word(a)), mapped(names, word(a + 1)));
+                    break;
+                case OP_BIND_ATTRIB_LOCATION:
+                    target.glBindAttribLocation(mapped(names, word(a)), word(a + 1), strings.get(word(a + 2)));
+                    break;
+                case OP_LINK_PROGRAM:
+                    target.glLinkProgram(mapped(names, word(a)));
+                    break;
+                case OP_VALIDATE_PROGRAM:
+                    target.glValidateProgram(mapped(names, word(a)));
+                    break;
+                case OP_DELETE_PROGRAM:
+                    target.glDeleteProgram(mapped(names, word(a)));
+                    break;
+                case OP_USE_PROGRAM:
+                    recordedProgram = word(a);
+                    target.glUseProgram(mapped(names, recordedProgram));
+                    break;
+                case OP_GET_UNIFORM_LOCATION: {
+                    final int program = word(a);
+                    final int location = target.glGetUniformLocation(mapped(names, program), strings.get(word(a + 1)));
+                    uniformLocations.put(((long) program << 32) | (word(a + 2) & 0xffffffffL), location);
+                    break;
+                }
+                case OP_GET_ATTRIB_LOCATION: {
+                    final int program = word(a);
+                    final int location = target.glGetAttribLocation(mapped(names, program), strings.get(word(a + 1)));
+                    attributeLocations.put(((long) program << 32) | (word(a + 2) & 0xffffffffL), location);
+                    break;
+                }
+                case OP_UNIFORM_1F:
+                    target.glUniform1f(location(uniformLocations, recordedProgram, word(a)), floatWord(a + 1));
+                    break;
+                case OP_UNIFORM_1I:
+                    target.glUniform1i(location(uniformLocations, recordedProgram, word(a)), word(a + 1));
+                    break;
+                case OP_UNIFORM_2F:
+                    target.glUniform2f(location(uniformLocations, recordedProgram, word(a)),
+                            floatWord(a + 1), floatWord(a + 2));
+                    break;
+                case OP_UNIFORM_3F:
+                    target.glUniform3f(location(uniformLocations, recordedProgram, word(a)),
+                            floatWord(a + 1), floatWord(a + 2), floatWord(a + 3));
+                    break;
+                case OP_UNIFORM_4F:
+                    target.glUniform4f(location(uniformLocations, recordedProgram, word(a)),
+                            floatWord(a + 1), floatWord(a + 2), floatWord(a + 3), floatWord(a + 4));
+                    break;
+                case OP_UNIFORM_MATRIX_4FV: {
+                    final int count = word(a + 1);
+                    final float[] values = new float[count * 16];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = floatWord(a + 3 + i);
+                    }
+                    target.glUniformMatrix4fv(location(uniformLocations, recordedProgram, word(a)),
+                            count, word(a + 2) != 0, values, 0);
+                    break;
+                }
+                case OP_GEN_BUFFERS: {
+                    final int n = word(a);
+                    for (int i = 0; i < n; i++) {
+                        target.glGenBuffers(1, scratch, 0);
+                        names.put(word(a + 1 + i), scratch[0]);
+                    }
+                    break;
+                }
+                case OP_DELETE_BUFFERS: {
+                    final int n = word(a);
+                    for (int i = 0; i < n; i++) {
+                        scratch[0] = mapped(names, word(a + 1 + i));
+                        target.glDeleteBuffers(1, scratch, 0);
+                    }
+                    break;
+                }
+                case OP_BIND_BUFFER:
+                    target.glBindBuffer(word(a), mapped(names, word(a + 1)));
+                    break;
+                case OP_BUFFER_DATA:
+                    target.glBufferData(word(a), word(a + 1), null, word(a + 2));
+                    break;
+                case OP_VERTEX_ATTRIB_POINTER:
+                    target.glVertexAttribPointer(location(attributeLocations, recordedProgram, word(a)), word(a + 1), word(a + 2), word(a + 3) != 0,
+                            word(a + 4), word(a + 5));
+                    break;
+                case OP_ENABLE_VERTEX_ATTRIB_ARRAY:
+                    target.glEnableVertexAttribArray(location(attributeLocations, recordedProgram, word(a)));
+                    break;
+                case OP_DISABLE_VERTEX_ATTRIB_ARRAY:
+                    target.glDisableVertexAttribArray(location(attributeLocations, recordedProgram, word(a)));
+                    break;
+                case OP_VERTEX_ATTRIB_3F:
+                    target.glVertexAttrib3f(location(attributeLocations, recordedProgram, word(a)), floatWord(a + 1), floatWord(a + 2), floatWord(a + 3));
+                    break;
+                case OP_DRAW_ARRAYS:
+                    target.glDrawArrays(word(a), word(a + 1), word(a + 2));
+                    break;
+                case OP_DRAW_ELEMENTS:
+                    target.glDrawElements(word(a), word(a + 1), word(a + 2), word(a + 3));
+                    break;
+                case OP_ACTIVE_TEXTURE:
+                    target.glActiveTexture(word(a));
+                    break;
+                case OP_GEN_TEXTURES:
+                case OP_GEN_FRAMEBUFFERS:
+                case OP_GEN_RENDERBUFFERS: {
+                    final int n = word(a);
+                    for (int i = 0; i < n; i++) {
+                        if (opcode == OP_GEN_TEXTURES) {
+                            target.glGenTextures(1, scratch, 0);
+                        } else if (opcode == OP_GEN_FRAMEBUFFERS) {
+                            target.glGenFramebuffers(1, scratch, 0);
+                        } else {
+                            target.glGenRenderbuffers(1, scratch, 0);
+                        }
+                        names.put(word(a + 1 + i), scratch[0]);
+                    }
+                    break;
+                }
+                case OP_DELETE_TEXTURES:
+                case OP_DELETE_FRAMEBUFFERS:
+                case OP_DELETE_RENDERBUFFERS: {
+                    final int n = word(a);
+                    for (int i = 0; i < n; i++) {
+                        scratch[0] = mapped(names, word(a + 1 + i));
+                        if (opcode == OP_DELETE_TEXTURES) {
+                            target.glDeleteTextures(1, scratch, 0);
+                        } else if (opcode == OP_DELETE_FRAMEBUFFERS) {
+                            target.glDeleteFramebuffers(1, scratch, 0);
+                        } else {
+                            target.glDeleteRenderbuffers(1, scratch, 0);
+                        }
+                    }
+                    break;
+                }
+                case OP_BIND_TEXTURE:
+                    target.glBindTexture(word(a), mapped(names, word(a + 1)));
+                    break;
+                case OP_TEX_PARAMETERI:
+                    target.glTexParameteri(word(a), word(a + 1), word(a + 2));
+                    break;
+                case OP_TEX_IMAGE_2D:
+                    target.glTexImage2D(word(a), word(a + 1), word(a + 2), word(a + 3), word(a + 4),
+                            word(a + 5), word(a + 6), word(a + 7), null);
+                    break;
+                case OP_BIND_FRAMEBUFFER:
+                    target.glBindFramebuffer(word(a), mapped(names, word(a + 1)));
+                    break;
+                case OP_FRAMEBUFFER_TEXTURE_2D:
+                    target.glFramebufferTexture2D(word(a), word(a + 1), word(a + 2),
+                            mapped(names, word(a + 3)), word(a + 4));
+                    break;
+                case OP_FRAMEBUFFER_RENDERBUFFER:
+                    target.glFramebufferRenderbuffer(word(a), word(a + 1), word(a + 2), mapped(names, word(a + 3)));
+                    break;
+                case OP_BIND_RENDERBUFFER:
+                    target.glBindRenderbuffer(word(a), mapped(names, word(a + 1)));
+                    break;
+                case OP_RENDERBUFFER_STORAGE:
+                    target.glRenderbufferStorage(word(a), word(a + 1), word(a + 2), word(a + 3));
+                    break;
+                default:
+                    // getters, client-side pointers (their memory is gone) and
+                    // timer queries have nothing to replay
+                    break;
+            }
+        }
+    }
+
+    // ---- GLBackend ----
+
+    @Override
+    public void glClear(int mask) {
+        record(OP_CLEAR, mask);
+    }
+
+    @Override
+    public void glFinish() {
+        record(OP_FINISH);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        record(OP_CLEAR_COLOR, bits(red), bits(green), bits(blue), bits(alpha));
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        record(OP_ENABLE, cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        record(OP_DISABLE, cap);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        record(OP_VIEWPORT, x, y, width, height);
+    }
+
+    @Override
+    public int glGetError() {
+        record(OP_GET_ERROR);
+        return 0;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        params[offset] = pname == GL_MAX_VERTEX_UNIFORM_VECTORS ? maxVertexUniformVectors : 0;
+        record(OP_GET_INTEGERV, pname, params[offset]);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        record(OP_GET_STRING, name);
+        switch (name) {
+            case GL_VENDOR:
+                return "headless";
+            case GL_RENDERER:
+                return "RecordingGLBackend";
+            case GL_VERSION:
+                return "OpenGL ES 2.0 (recording)";
+            case GL_EXTENSIONS:
+                return extensions;
+            default:
+                return "";
+        }
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        final int shader = nextName++;
+        record(OP_CREATE_SHADER, type, shader);
+        return shader;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        shaderSources.put(shader, source);
+        record(OP_SHADER_SOURCE, shader, stringIndex(source));
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        record(OP_COMPILE_SHADER, shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        params[offset] = pname == GL_COMPILE_STATUS ? 1 : 0;
+        record(OP_GET_SHADERIV, shader, pname, params[offset]);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        record(OP_GET_SHADER_INFO_LOG, shader);
+        return "";
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        record(OP_DELETE_SHADER, shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        final int program = nextName++;
+        programShaders.put(program, new ArrayList<Integer>());
+        record(OP_CREATE_PROGRAM, program);
+        return program;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        List<Integer> shaders = programShaders.get(program);
+        if (shaders != null) {
+            shaders.add(shader);
+        }
+        record(OP_ATTACH_SHADER, program, shader);
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        Map<String, Integer> bindings = attributeBindings.get(program);
+        if (bindings == null) {
+            bindings = new HashMap<String, Integer>();
+            attributeBindings.put(program, bindings);
+        }
+        bindings.put(name, index);
+        record(OP_BIND_ATTRIB_LOCATION, program, index, stringIndex(name));
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        ProgramInterface programInterface = new ProgramInterface();
+        List<Integer> shaders = programShaders.get(program);
+        if (shaders != null) {
+            for (Integer shader : shaders) {
+                scanDeclarations(shaderSources.get(shader), programInterface);
+            }
+        }
+        programInterfaces.put(program, programInterface);
+        record(OP_LINK_PROGRAM, program);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        ProgramInterface programInterface = programInterfaces.get(program);
+        switch (pname) {
+            case GL_LINK_STATUS:
+            case GL_VALIDATE_STATUS:
+                params[offset] = programInterface != null ? 1 : 0;
+                break;
+            case GL_ACTIVE_UNIFORMS:
+                params[offset] = programInterface != null ? programInterface.uniformNames.size() : 0;
+                break;
+            case GL_ACTIVE_ATTRIBUTES:
+                params[offset] = programInterface != null ? programInterface.attributeNames.size() : 0;
+                break;
+            default:
+                params[offset] = 0;
+        }
+        record(OP_GET_PROGRAMIV, program, pname, params[offset]);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        record(OP_GET_PROGRAM_INFO_LOG, program);
+        return "";
+    }
+
+    @Override
+    public void glValidateProgram(int program) {
+        record(OP_VALIDATE_PROGRAM, program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        programShaders.remove(program);
+        programInterfaces.remove(program);
+        attributeBindings.remove(program);
+        record(OP_DELETE_PROGRAM, program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        record(OP_USE_PROGRAM, program);
+    }
+
+    @Override
+    public String glGetActiveAttrib(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset) {
+        record(OP_GET_ACTIVE_ATTRIB, program, index);
+        ProgramInterface programInterface = programInterfaces.get(program);
+        final int[] typeAndSize = programInterface.attributeTypes.get(index);
+        type[typeOffset] = typeAndSize[0];
+        size[sizeOffset] = typeAndSize[1];
+        return programInterface.attributeNames.get(index);
+    }
+
+    @Override
+    public String glGetActiveUniform(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset) {
+        record(OP_GET_ACTIVE_UNIFORM, program, index);
+        ProgramInterface programInterface = programInterfaces.get(program);
+        final int[] typeAndSize = programInterface.uniformTypes.get(index);
+        type[typeOffset] = typeAndSize[0];
+        size[sizeOffset] = typeAndSize[1];
+        final String name = programInterface.uniformNames.get(index);
+        return typeAndSize[1] > 1 ? name + "[0]" : name;
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        ProgramInterface programInterface = programInterfaces.get(program);
+        int location = programInterface != null ? programInterface.attributeNames.indexOf(name) : -1;
+        Map<String, Integer> bindings = attributeBindings.get(program);
+        if (location >= 0 && bindings != null && bindings.containsKey(name)) {
+            location = bindings.get(name);
+        }
+        record(OP_GET_ATTRIB_LOCATION, program, stringIndex(name), location);
+        return location;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        ProgramInterface programInterface = programInterfaces.get(program);
+        final int bracket = name.indexOf('[');
+        final String baseName = bracket < 0 ? name : name.substring(0, bracket);
+        final int location = programInterface != null ? programInterface.uniformNames.indexOf(baseName) : -1;
+        record(OP_GET_UNIFORM_LOCATION, program, stringIndex(name), location);
+        return location;
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        record(OP_UNIFORM_1F, location, bits(x));
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        record(OP_UNIFORM_1I, location, x);
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y) {
+        record(OP_UNIFORM_2F, location, bits(x), bits(y));
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        record(OP_UNIFORM_3F, location, bits(x), bits(y), bits(z));
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        record(OP_UNIFORM_4F, location, bits(x), bits(y), bits(z), bits(w));
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        final int floats = count * 16;
+        if (!beginRecord(OP_UNIFORM_MATRIX_4FV, 3 + floats)) {
+            return;
+        }
+        put(location);
+        put(count);
+        put(transpose ? 1 : 0);
+        for (int i = 0; i < floats; i++) {
+            put(bits(value[offset + i]));
+        }
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = nextName++;
+        }
+        recordNames(OP_GEN_BUFFERS, n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        recordNames(OP_DELETE_BUFFERS, n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record(OP_BIND_BUFFER, target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        record(OP_BUFFER_DATA, target, size, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        record(OP_BUFFER_SUB_DATA, target, offset, size);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        record(OP_VERTEX_ATTRIB_POINTER, index, size, type, normalized ? 1 : 0, stride, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer pointer) {
+        record(OP_VERTEX_ATTRIB_POINTER_CLIENT, index, size, type, normalized ? 1 : 0, stride,
+                pointer != null ? pointer.remaining() : 0);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record(OP_ENABLE_VERTEX_ATTRIB_ARRAY, index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record(OP_DISABLE_VERTEX_ATTRIB_ARRAY, index);
+    }
+
+    @Override
+    public void glVertexAttrib3f(int index, float x, float y, float z) {
+        record(OP_VERTEX_ATTRIB_3F, index, bits(x), bits(y), bits(z));
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        record(OP_DRAW_ARRAYS, mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        record(OP_DRAW_ELEMENTS, mode, count, type, offset);
+    }
+
+    @Override
+    public boolean supportsQueries() {
+        return true;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        record(OP_ACTIVE_TEXTURE, texture);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        for (int i = 0; i < n; i++) {
+            textures[offset + i] = nextName++;
+        }
+        recordNames(OP_GEN_TEXTURES, n, textures, offset);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        recordNames(OP_DELETE_TEXTURES, n, textures, offset);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        record(OP_BIND_TEXTURE, target, texture);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        record(OP_TEX_PARAMETERI, target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                             int format, int type, Buffer pixels) {
+        beginRecord(OP_TEX_IMAGE_2D, 8);
+        put(target);
+        put(level);
+        put(internalformat);
+        put(width);
+        put(height);
+        put(border);
+        put(format);
+        put(type);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            framebuffers[offset + i] = nextName++;
+        }
+        recordNames(OP_GEN_FRAMEBUFFERS, n, framebuffers, offset);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        recordNames(OP_DELETE_FRAMEBUFFERS, n, framebuffers, offset);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        record(OP_BIND_FRAMEBUFFER, target, framebuffer);
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        record(OP_FRAMEBUFFER_TEXTURE_2D, target, attachment, textarget, texture, level);
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer) {
+        record(OP_FRAMEBUFFER_RENDERBUFFER, target, attachment, renderbuffertarget, renderbuffer);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        record(OP_CHECK_FRAMEBUFFER_STATUS, target);
+        return GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            renderbuffers[offset + i] = nextName++;
+        }
+        recordNames(OP_GEN_RENDERBUFFERS, n, renderbuffers, offset);
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+        recordNames(OP_DELETE_RENDERBUFFERS, n, renderbuffers, offset);
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+        record(OP_BIND_RENDERBUFFER, target, renderbuffer);
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+        record(OP_RENDERBUFFER_STORAGE, target, internalformat, width, height);
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        for (int i = 0; i < n; i++) {
+            ids[offset + i] = nextName++;
+        }
+        recordNames(OP_GEN_QUERIES, n, ids, offset);
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        recordNames(OP_DELETE_QUERIES, n, ids, offset);
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        record(OP_BEGIN_QUERY, target, id);
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        record(OP_END_QUERY, target);
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        // results are always available and always zero: a headless GPU takes no time
+        params[offset] = pname == GL_QUERY_RESULT_AVAILABLE ? 1 : 0;
+        record(OP_GET_QUERY_OBJECTUIV, id, pname, params[offset]);
+    }
+
+    /** There is no driver to produce binaries, so programs are always compiled. */
+    @Override
+    public boolean supportsProgramBinaries() {
+        return false;
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                   int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        length[lengthOffset] = 0;
+        binaryFormat[binaryFormatOffset] = 0;
+        record(OP_GET_PROGRAM_BINARY, program, bufSize);
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        record(OP_PROGRAM_BINARY, program, binaryFormat, length);
+    }
+
+    // ---- recording ----
+
+    private void record(int opcode) {
+        beginRecord(opcode, 0);
+    }
+
+    private void record(int opcode, int a) {
+        beginRecord(opcode, 1);
+        put(a);
+    }
+
+    private void record(int opcode, int a, int b) {
+        beginRecord(opcode, 2);
+        put(a);
+        put(b);
+    }
+
+    private void record(int opcode, int a, int b, int c) {
+        beginRecord(opcode, 3);
+        put(a);
+        put(b);
+        put(c);
+    }
+
+    private void record(int opcode, int a, int b, int c, int d) {
+        beginRecord(opcode, 4);
+        put(a);
+        put(b);
+        put(c);
+        put(d);
+    }
+
+    private void record(int opcode, int a, int b, int c, int d, int e) {
+        beginRecord(opcode, 5);
+        put(a);
+        put(b);
+        put(c);
+        put(d);
+        put(e);
+    }
+
+    private void record(int opcode, int a, int b, int c, int d, int e, int f) {
+        beginRecord(opcode, 6);
+        put(a);
+        put(b);
+        put(c);
+        put(d);
+        put(e);
+        put(f);
+    }
+
+    private void recordNames(int opcode, int n, int[] names, int offset) {
+        if (!beginRecord(opcode, 1 + n)) {
+            return;
+        }
+        put(n);
+        for (int i = 0; i < n; i++) {
+            put(names[offset + i]);
+        }
+    }
+
+    // Counts the call and makes room for a record of the given size,
+    // dropping the oldest records if the ring is full. Returns false if
+    // the record can't be kept at all; the caller must then put nothing.
+    private boolean beginRecord(int opcode, int words) {
+        callCounts[opcode]++;
+        totalCalls++;
+
+        final int needed = 1 + words;
+        if (needed > ring.length || words > 0xffff) {
+            // too big to ever fit (or to describe in a header); count it but
+            // don't record it, and drop the rest too so the stream has no gap
+            readPosition = writePosition;
+            return false;
+        }
+        while (writePosition - readPosition + needed > ring.length) {
+            readPosition += 1 + (ring[(int) (readPosition & mask)] & 0xffff);
+        }
+        put((opcode << 16) | words);
+        return true;
+    }
+
+    private void put(int word) {
+        ring[(int) (writePosition & mask)] = word;
+        writePosition++;
+    }
+
+    private int word(long position) {
+        return ring[(int) (position & mask)];
+    }
+
+    private float floatWord(long position) {
+        return Float.intBitsToFloat(word(position));
+    }
+
+    private static int bits(float value) {
+        return Float.floatToRawIntBits(value);
+    }
+
+    private int stringIndex(String value) {
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    private static int mapped(Map<Integer, Integer> names, int recorded) {
+        Integer name = names.get(recorded);
+        return name != null ? name : recorded;
+    }
+
+    private static int location(Map<Long, Integer> locations, int program, int recorded) {
+        Integer location = locations.get(((long) program << 32) | (recorded & 0xffffffffL));
+        return location != null ? location : recorded;
+    }
+
+    // Adds the uniform and attribute declarations of a shader to a program's interface.
+    private static void scanDeclarations(String source, ProgramInterface programInterface) {
+        if (source == null) {
+            return;
+        }
+        Map<String, String> defines = new HashMap<String, String>();
+        Matcher declaration = DECLARATION.matcher(preprocess(source, defines));
+        while (declaration.find()) {
+            final boolean uniform = declaration.group(1).equals("uniform");
+            final String name = declaration.group(3);
+            int size = 1;
+            String arraySize = declaration.group(4);
+            if (arraySize != null) {
+                if (defines.containsKey(arraySize)) {
+                    arraySize = defines.get(arraySize);
+                }
+                size = Integer.parseInt(arraySize);
+            }
+            final int[] typeAndSize = {glType(declaration.group(2)), size};
+
+            if (uniform && !programInterface.uniformNames.contains(name)) {
+                programInterface.uniformNames.add(name);
+                programInterface.uniformTypes.add(typeAndSize);
+            } else if (!uniform && !programInterface.attributeNames.contains(name)) {
+                programInterface.attributeNames.add(name);
+                programInterface.attributeTypes.add(typeAndSize);
+            }
+        }
+    }
+
+    // The lines of a shader that survive its #if/#ifdef blocks, with every
+    // #define seen along the way added to defines. Expressions may use
+    // defined(), !, &&, || and parentheses, which is all the shaders here need.
+    private static String preprocess(String source, Map<String, String> defines) {
+        final StringBuilder active = new StringBuilder(source.length());
+        // one entry per open #if: bit 0 set while its lines are live,
+        // bit 1 once one of its branches has been taken
+        final ArrayList<Integer> conditions = new ArrayList<Integer>();
+        boolean live = true;
+        for (String line : source.split("\n")) {
+            final String trimmed = line.trim();
+            if (!trimmed.startsWith("#")) {
+                if (live) {
+                    active.append(line).append('\n');
+                }
+                continue;
+            }
+            final String[] directive = trimmed.substring(1).trim().split("\\s+", 2);
+            final String argument = directive.length > 1 ? stripComment(directive[1]) : "";
+            if (directive[0].equals("ifdef") || directive[0].equals("ifndef") || directive[0].equals("if")) {
+                final boolean taken = live && (directive[0].equals("if")
+                        ? evaluate(argument, defines)
+                        : defines.containsKey(argument) == directive[0].equals("ifdef"));
+                conditions.add((live ? 4 : 0) | (taken ? 3 : 0));
+            } else if (directive[0].equals("elif") || directive[0].equals("else")) {
+                final int last = conditions.size() - 1;
+                final int condition = conditions.get(last);
+                final boolean taken = (condition & 4) != 0 && (condition & 2) == 0
+                        && (directive[0].equals("else") || evaluate(argument, defines));
+                conditions.set(last, (condition & 6) | (taken ? 3 : 0));
+            } else if (directive[0].equals("endif")) {
+                conditions.remove(conditions.size() - 1);
+            } else if (directive[0].equals("define") && live) {
+                final String[] definition = argument.split("\\s+", 2);
+                defines.put(definition[0], definition.length > 1 ? definition[1] : "");
+            }
+            live = conditions.isEmpty() || (conditions.get(conditions.size() - 1) & 1) != 0;
+        }
+        return active.toString();
+    }
+
+    private static String stripComment(String text) {
+        final int comment = text.indexOf("//");
+        return (comment >= 0 ? text.substring(0, comment) : text).trim();
+    }
+
+    private static boolean evaluate(String expression, Map<String, String> defines) {
+        final Matcher token = EXPRESSION_TOKEN.matcher(expression);
+        final ArrayList<String> tokens = new ArrayList<String>();
+        while (token.find()) {
+            tokens.add(token.group());
+        }
+        final int[] position = {0};
+        return evaluateOr(tokens, position, defines);
+    }
+
+    private static boolean evaluateOr(List<String> tokens, int[] position, Map<String, String> defines) {
+        boolean value = evaluateAnd(tokens, position, defines);
+        while (position[0] < tokens.size() && tokens.get(position[0]).equals("||")) {
+            position[0]++;
+            value |= evaluateAnd(tokens, position, defines);
+        }
+        return value;
+    }
+
+    private static boolean evaluateAnd(List<String> tokens, int[] position, Map<String, String> defines) {
+        boolean value = evaluateUnary(tokens, position, defines);
+        while (position[0] < tokens.size() && tokens.get(position[0]).equals("&&")) {
+            position[0]++;
+            value &= evaluateUnary(tokens, position, defines);
+        }
+        return value;
+    }
+
+    private static boolean evaluateUnary(List<String> tokens, int[] position, Map<String, String> defines) {
+        final String token = tokens.get(position[0]++);
+        if (token.equals("!")) {
+            return !evaluateUnary(tokens, position, defines);
+        }
+        if (token.equals("(")) {
+            final boolean value = evaluateOr(tokens, position, defines);
+            position[0]++;      // ')'
+            return value;
+        }
+        if (token.equals("defined")) {
+            final boolean parenthesized = tokens.get(position[0]).equals("(");
+            if (parenthesized) {
+                position[0]++;
+            }
+            final boolean value = defines.containsKey(tokens.get(position[0]++));
+            if (parenthesized) {
+                position[0]++;
+            }
+            return value;
+        }
+        // a number, or a macro that expands to one; anything else is 0
+        final String value = defines.containsKey(token) ? defines.get(token) : token;
+        try {
+            return Integer.parseInt(value.trim()) != 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int glType(String glslType) {
+        if (glslType.equals("float")) return 0x1406;
+        if (glslType.equals("vec2")) return 0x8B50;
+        if (glslType.equals("vec3")) return 0x8B51;
+        if (glslType.equals("vec4")) return 0x8B52;
+        if (glslType.equals("int")) return 0x1404;
+        if (glslType.equals("bool")) return 0x8B56;
+        if (glslType.equals("mat2")) return 0x8B5A;
+        if (glslType.equals("mat3")) return 0x8B5B;
+        if (glslType.equals("mat4")) return 0x8B5C;
+        if (glslType.equals("sampler2D")) return 0x8B5E;
+        if (glslType.equals("samplerCube")) return 0x8B60;
+        return 0;
+    }
+}
@@ -0,0 +1,730 @@
+package util.gl;
+
+import java.nio.Buffer;
+
+/**
+ * A GLBackend that sits in front of another one and drops calls that
+ * would leave GL state as it already is: binding the program, buffer,
+ * texture, framebuffer or renderbuffer that is already bound, enabling a
+ * capability or vertex attribute array that is already enabled, setting the
+ * viewport, clear color or an attribute pointer to what it already is.
+ * Everything else is passed straight through.
+ *
+ * The cache only knows what went through it, so call invalidate() whenever
+ * the context is new or something else may have touched its state. After
+ * that each piece of state is unknown, and the first call that sets it is
+ * always issued. Deleting a bound object counts as unbinding it, as it
+ * does in GL.
+ *
+ * Uniform values aren't cached here; they belong to a program, and
+ * ShaderProgram already skips uploads of values it knows.
+ *
+ * getIssuedCount() and getElidedCount() keep running totals; take
+ * differences between frames for per-frame numbers. Like the context
+ * itself, an instance belongs to the GL thread.
+ */
+public class StateCachingGLBackend implements GLBackend {
+    private static final int GL_TEXTURE_2D = 0x0DE1;
+    private static final int GL_TEXTURE0 = 0x84C0;
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+
+    // capabilities are tracked by their position in this list
+    private static final int[] CAPABILITIES = {
+            0x0BE2,     // GL_BLEND
+            0x0B44,     // GL_CULL_FACE
+            0x0B71,     // GL_DEPTH_TEST
+            0x0BD0,     // GL_DITHER
+            0x8037,     // GL_POLYGON_OFFSET_FILL
+            0x809E,     // GL_SAMPLE_ALPHA_TO_COVERAGE
+            0x80A0,     // GL_SAMPLE_COVERAGE
+            0x0C11,     // GL_SCISSOR_TEST
+            0x0B90,     // GL_STENCIL_TEST
+    };
+
+    // GL guarantees at least 8 of each; indexes past these are passed through untracked
+    private static final int MAX_TRACKED_ATTRIBUTES = 16;
+    private static final int MAX_TRACKED_TEXTURE_UNITS = 8;
+
+    // names are never negative, so UNKNOWN never matches a real binding
+    private static final int UNKNOWN = -1;
+
+    private final GLBackend gl;
+    private boolean enabled = true;
+
+    private long issued;
+    private long elided;
+
+    private int currentProgram;
+    private int arrayBuffer;
+    private int elementArrayBuffer;
+    private int framebuffer;
+    private int renderbuffer;
+    private int activeTexture;
+    private final int[] boundTextures = new int[MAX_TRACKED_TEXTURE_UNITS];
+
+    // one bit per entry of CAPABILITIES, or per attribute index
+    private int capabilities;
+    private int capabilitiesKnown;
+    private int attributeArrays;
+    private int attributeArraysKnown;
+
+    private final int[] viewport = new int[4];
+    private boolean viewportKnown;
+    private final float[] clearColor = new float[4];
+    private boolean clearColorKnown;
+
+    private final boolean[] pointerKnown = new boolean[MAX_TRACKED_ATTRIBUTES];
+    private final int[] pointerBuffers = new int[MAX_TRACKED_ATTRIBUTES];
+    private final int[] pointerSizes = new int[MAX_TRACKED_ATTRIBUTES];
+    private final int[] pointerTypes = new int[MAX_TRACKED_ATTRIBUTES];
+    private final boolean[] pointerNormalized = new boolean[MAX_TRACKED_ATTRIBUTES];
+    private final int[] pointerStrides = new int[MAX_TRACKED_ATTRIBUTES];
+    private final int[] pointerOffsets = new int[MAX_TRACKED_ATTRIBUTES];
+
+    public StateCachingGLBackend(GLBackend gl) {
+        this.gl = gl;
+        invalidate();
+    }
+
+    /** Forgets everything the cache knows, so the next call for each piece of state is issued. */
+    public void invalidate() {
+        currentProgram = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        framebuffer = UNKNOWN;
+        renderbuffer = UNKNOWN;
+        activeTexture = UNKNOWN;
+        for (int unit = 0; unit < MAX_TRACKED_TEXTURE_UNITS; unit++) {
+            boundTextures[unit] = UNKNOWN;
+        }
+        capabilitiesKnown = 0;
+        attributeArraysKnown = 0;
+        viewportKnown = false;
+        clearColorKnown = false;
+        for (int index = 0; index < MAX_TRACKED_ATTRIBUTES; index++) {
+            pointerKnown[index] = false;
+        }
+    }
+
+    /**
+     * With the cache disabled every call is issued, though state is still
+     * tracked, so it can be switched back on at any time. For comparing
+     * call counts and frame times with and without it.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Calls passed on to the wrapped backend so far. */
+    public long getIssuedCount() {
+        return issued;
+    }
+
+    /** Calls dropped so far because they wouldn't have changed anything. */
+    public long getElidedCount() {
+        return elided;
+    }
+
+    public GLBackend getTarget() {
+        return gl;
+    }
+
+    private static int capabilitySlot(int cap) {
+        for (int slot = 0; slot < CAPABILITIES.length; slot++) {
+            if (CAPABILITIES[slot] == cap) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void glClear(int mask) {
+        issued++;
+        gl.glClear(mask);
+    }
+
+    @Override
+    public void glFinish() {
+        issued++;
+        gl.glFinish();
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        if (enabled && clearColorKnown && red == clearColor[0] && green == clearColor[1]
+                && blue == clearColor[2] && alpha == clearColor[3]) {
+            elided++;
+            return;
+        }
+        clearColor[0] = red;
+        clearColor[1] = green;
+        clearColor[2] = blue;
+        clearColor[3] = alpha;
+        clearColorKnown = true;
+        issued++;
+        gl.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        final int slot = capabilitySlot(cap);
+        if (slot >= 0) {
+            if (enabled && (capabilitiesKnown & (1 << slot)) != 0 && (capabilities & (1 << slot)) != 0) {
+                elided++;
+                return;
+            }
+            capabilitiesKnown |= 1 << slot;
+            capabilities |= 1 << slot;
+        }
+        issued++;
+        gl.glEnable(cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        final int slot = capabilitySlot(cap);
+        if (slot >= 0) {
+            if (enabled && (capabilitiesKnown & (1 << slot)) != 0 && (capabilities & (1 << slot)) == 0) {
+                elided++;
+                return;
+            }
+            capabilitiesKnown |= 1 << slot;
+            capabilities &= ~(1 << slot);
+        }
+        issued++;
+        gl.glDisable(cap);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        if (enabled && viewportKnown && x == viewport[0] && y == viewport[1]
+                && width == viewport[2] && height == viewport[3]) {
+            elided++;
+            return;
+        }
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+        viewportKnown = true;
+        issued++;
+        gl.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public int glGetError() {
+        issued++;
+        return gl.glGetError();
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        issued++;
+        gl.glGetIntegerv(pname, params, offset);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        issued++;
+        return gl.glGetString(name);
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        issued++;
+        return gl.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        issued++;
+        gl.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        issued++;
+        gl.glCompileShader(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        issued++;
+        gl.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        issued++;
+        return gl.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        issued++;
+        gl.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        issued++;
+        return gl.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        issued++;
+        gl.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        issued++;
+        gl.glBindAttribLocation(program, index, name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        issued++;
+        gl.glLinkProgram(program);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        issued++;
+        gl.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        issued++;
+        return gl.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void glValidateProgram(int program) {
+        issued++;
+        gl.glValidateProgram(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        // the name may come back for a new program, which would then look bound
+        if (program == currentProgram) {
+            currentProgram = UNKNOWN;
+        }
+        issued++;
+        gl.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (enabled && program == currentProgram) {
+            elided++;
+            return;
+        }
+        currentProgram = program;
+        issued++;
+        gl.glUseProgram(program);
+    }
+
+    @Override
+    public String glGetActiveAttrib(int program, int index, int[] size, int sizeOffset,
+                                    int[] type, int typeOffset) {
+        issued++;
+        return gl.glGetActiveAttrib(program, index, size, sizeOffset, type, typeOffset);
+    }
+
+    @Override
+    public String glGetActiveUniform(int program, int index, int[] size, int sizeOffset,
+                                     int[] type, int typeOffset) {
+        issued++;
+        return gl.glGetActiveUniform(program, index, size, sizeOffset, type, typeOffset);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        issued++;
+        return gl.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        issued++;
+        return gl.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        issued++;
+        gl.glUniform1f(location, x);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        issued++;
+        gl.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y) {
+        issued++;
+        gl.glUniform2f(location, x, y);
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        issued++;
+        gl.glUniform3f(location, x, y, z);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        issued++;
+        gl.glUniform4f(location, x, y, z, w);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        issued++;
+        gl.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        issued++;
+        gl.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            final int buffer = buffers[offset + i];
+            if (buffer == arrayBuffer) {
+                arrayBuffer = 0;
+            }
+            if (buffer == elementArrayBuffer) {
+                elementArrayBuffer = 0;
+            }
+            // attributes still pointing into it go back to unknown
+            for (int index = 0; index < MAX_TRACKED_ATTRIBUTES; index++) {
+                if (pointerBuffers[index] == buffer) {
+                    pointerKnown[index] = false;
+                }
+            }
+        }
+        issued++;
+        gl.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (target == GL_ARRAY_BUFFER) {
+            if (enabled && buffer == arrayBuffer) {
+                elided++;
+                return;
+            }
+            arrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            if (enabled && buffer == elementArrayBuffer) {
+                elided++;
+                return;
+            }
+            elementArrayBuffer = buffer;
+        }
+        issued++;
+        gl.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        issued++;
+        gl.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        issued++;
+        gl.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, int offset) {
+        if (index < MAX_TRACKED_ATTRIBUTES) {
+            // the pointer captures whichever buffer is bound now
+            if (enabled && pointerKnown[index] && pointerBuffers[index] == arrayBuffer
+                    && pointerSizes[index] == size && pointerTypes[index] == type
+                    && pointerNormalized[index] == normalized && pointerStrides[index] == stride
+                    && pointerOffsets[index] == offset && arrayBuffer >= 0) {
+                elided++;
+                return;
+            }
+            pointerKnown[index] = arrayBuffer >= 0;
+            pointerBuffers[index] = arrayBuffer;
+            pointerSizes[index] = size;
+            pointerTypes[index] = type;
+            pointerNormalized[index] = normalized;
+            pointerStrides[index] = stride;
+            pointerOffsets[index] = offset;
+        }
+        issued++;
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer pointer) {
+        // client memory can change under the same pointer, so this is never skipped
+        if (index < MAX_TRACKED_ATTRIBUTES) {
+            pointerKnown[index] = false;
+        }
+        issued++;
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        if (index < MAX_TRACKED_ATTRIBUTES) {
+            final int bit = 1 << index;
+            if (enabled && (attributeArraysKnown & bit) != 0 && (attributeArrays & bit) != 0) {
+                elided++;
+                return;
+            }
+            attributeArraysKnown |= bit;
+            attributeArrays |= bit;
+        }
+        issued++;
+        gl.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        if (index < MAX_TRACKED_ATTRIBUTES) {
+            final int bit = 1 << index;
+            if (enabled && (attributeArraysKnown & bit) != 0 && (attributeArrays & bit) == 0) {
+                elided++;
+                return;
+            }
+            attributeArraysKnown |= bit;
+            attributeArrays &= ~bit;
+        }
+        issued++;
+        gl.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttrib3f(int index, float x, float y, float z) {
+        issued++;
+        gl.glVertexAttrib3f(index, x, y, z);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        issued++;
+        gl.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        issued++;
+        gl.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        if (enabled && texture == activeTexture) {
+            elided++;
+            return;
+        }
+        activeTexture = texture;
+        issued++;
+        gl.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        issued++;
+        gl.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        for (int i = 0; i < n; i++) {
+            for (int unit = 0; unit < MAX_TRACKED_TEXTURE_UNITS; unit++) {
+                if (boundTextures[unit] == textures[offset + i]) {
+                    boundTextures[unit] = 0;
+                }
+            }
+        }
+        issued++;
+        gl.glDeleteTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        final int unit = activeTexture - GL_TEXTURE0;
+        if (target == GL_TEXTURE_2D && unit >= 0 && unit < MAX_TRACKED_TEXTURE_UNITS) {
+            if (enabled && texture == boundTextures[unit]) {
+                elided++;
+                return;
+            }
+            boundTextures[unit] = texture;
+        }
+        issued++;
+        gl.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        issued++;
+        gl.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                             int border, int format, int type, Buffer pixels) {
+        issued++;
+        gl.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        issued++;
+        gl.glGenFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            if (framebuffers[offset + i] == framebuffer) {
+                framebuffer = 0;
+            }
+        }
+        issued++;
+        gl.glDeleteFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        if (enabled && framebuffer == this.framebuffer) {
+            elided++;
+            return;
+        }
+        this.framebuffer = framebuffer;
+        issued++;
+        gl.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        issued++;
+        gl.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget,
+                                          int renderbuffer) {
+        issued++;
+        gl.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        issued++;
+        return gl.glCheckFramebufferStatus(target);
+    }
+
+    @Override
+    public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+        issued++;
+        gl.glGenRenderbuffers(n, renderbuffers, offset);
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            if (renderbuffers[offset + i] == renderbuffer) {
+                renderbuffer = 0;
+            }
+        }
+        issued++;
+        gl.glDeleteRenderbuffers(n, renderbuffers, offset);
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+        if (enabled && renderbuffer == this.renderbuffer) {
+            elided++;
+            return;
+        }
+        this.renderbuffer = renderbuffer;
+        issued++;
+        gl.glBindRenderbuffer(target, renderbuffer);
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+        issued++;
+        gl.glRenderbufferStorage(target, internalformat, width, height);
+    }
+
+    @Override
+    public boolean supportsQueries() {
+        return gl.supportsQueries();
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        issued++;
+        gl.glGenQueries(n, ids, offset);
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        issued++;
+        gl.glDeleteQueries(n, ids, offset);
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        issued++;
+        gl.glBeginQuery(target, id);
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        issued++;
+        gl.glEndQuery(target);
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        issued++;
+        gl.glGetQueryObjectuiv(id, pname, params, offset);
+    }
+
+    @Override
+    public boolean supportsProgramBinaries() {
+        return gl.supportsProgramBinaries();
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                   int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        issued++;
+        gl.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        issued++;
+        gl.glProgramBinary(program, binaryFormat, binary, length);
+    }
+}
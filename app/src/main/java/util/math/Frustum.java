@@ -0,0 +1,84 @@
+package util.math;
+
+/**
+ * The six clip planes of a view volume, extracted from a column-major
+ * view/projection matrix (Gribb and Hartmann): every plane is a row
+ * combination of the matrix, with its normal pointing into the volume and
+ * scaled to unit length, so plane(p) is the signed distance of p from it.
+ * Extracting from projection * view gives the planes in world space.
+ *
+ * Tests are conservative: a sphere or box reported OUTSIDE is certainly
+ * outside, but one that straddles two planes just beyond a corner may be
+ * reported INTERSECTING. That only costs a draw the GPU clips away.
+ *
+ * Pure Java, so it runs (and can be benchmarked) on a plain JVM.
+ */
+public final class Frustum {
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTING = 1;
+    public static final int INSIDE = 2;
+
+    private static final int PLANES = 6;
+
+    // a, b, c, d per plane: left, right, bottom, top, near, far
+    private final float[] planes = new float[PLANES * 4];
+
+    /** Extracts the planes from the view/projection matrix at m[offset]. */
+    public void set(float[] m, int offset) {
+        for (int i = 0; i < PLANES; i++) {
+            // plane i is row 3 plus or minus row i / 2
+            final int row = i >> 1;
+            final float sign = (i & 1) == 0 ? 1.0f : -1.0f;
+            final float a = m[offset + 3]  + sign * m[offset + row];
+            final float b = m[offset + 7]  + sign * m[offset + 4 + row];
+            final float c = m[offset + 11] + sign * m[offset + 8 + row];
+            final float d = m[offset + 15] + sign * m[offset + 12 + row];
+            final float length = (float) Math.sqrt(a * a + b * b + c * c);
+            final float inverse = length > 0.0f ? 1.0f / length : 0.0f;
+            planes[i * 4] = a * inverse;
+            planes[i * 4 + 1] = b * inverse;
+            planes[i * 4 + 2] = c * inverse;
+            planes[i * 4 + 3] = d * inverse;
+        }
+    }
+
+    /** Where the sphere at (x, y, z) of the given radius lies. */
+    public int classifySphere(float x, float y, float z, float radius) {
+        final float[] p = planes;
+        int result = INSIDE;
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            final float distance = p[i] * x + p[i + 1] * y + p[i + 2] * z + p[i + 3];
+            if (distance < -radius) {
+                return OUTSIDE;
+            }
+            if (distance < radius) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+
+    /** Where the axis-aligned box with the given corners lies. */
+    public int classifyBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        final float[] p = planes;
+        int result = INSIDE;
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            final float a = p[i];
+            final float b = p[i + 1];
+            final float c = p[i + 2];
+            final float d = p[i + 3];
+            // the corner furthest along the normal, and the one furthest against it
+            final float far = a * (a >= 0.0f ? maxX : minX) + b * (b >= 0.0f ? maxY : minY)
+                    + c * (c >= 0.0f ? maxZ : minZ) + d;
+            if (far < 0.0f) {
+                return OUTSIDE;
+            }
+            final float near = a * (a >= 0.0f ? minX : maxX) + b * (b >= 0.0f ? minY : maxY)
+                    + c * (c >= 0.0f ? minZ : maxZ) + d;
+            if (near < 0.0f) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,353 @@
+package util.math;
+
+/**
+ * 4x4 matrix operations on caller-owned float[] storage, column-major with
+ * an offset, the same layout android.opengl.Matrix and glUniformMatrix4fv
+ * use. Nothing here allocates.
+ *
+ * The multiply methods load both operands into locals before writing, so
+ * the result may alias either operand. "Affine" methods assume the bottom
+ * row of the affected matrices is (0, 0, 0, 1), which holds for every
+ * model and view matrix built from translations and rotations, and skip the
+ * work that row would cost.
+ *
+ * Pure Java, so it runs (and can be benchmarked) on a plain JVM.
+ */
+public final class Mat4 {
+    private static final float DEGREES_TO_RADIANS = (float) (Math.PI / 180.0);
+
+    private Mat4() {
+    }
+
+    public static void setIdentity(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = 0.0f;
+        }
+        m[offset] = 1.0f;
+        m[offset + 5] = 1.0f;
+        m[offset + 10] = 1.0f;
+        m[offset + 15] = 1.0f;
+    }
+
+    /**
+     * m = translate(tx, ty, tz) * rotate(angle, x, y, z), written directly.
+     * The axis must already be normalized.
+     */
+    public static void setTranslateRotate(float[] m, int offset,
+                                          float tx, float ty, float tz,
+                                          float angleInDegrees, float x, float y, float z) {
+        final float radians = angleInDegrees * DEGREES_TO_RADIANS;
+        final float s = (float) Math.sin(radians);
+        final float c = (float) Math.cos(radians);
+        final float nc = 1.0f - c;
+        final float xy = x * y * nc;
+        final float yz = y * z * nc;
+        final float zx = z * x * nc;
+        final float xs = x * s;
+        final float ys = y * s;
+        final float zs = z * s;
+
+        m[offset]      = x * x * nc + c;
+        m[offset + 1]  = xy + zs;
+        m[offset + 2]  = zx - ys;
+        m[offset + 3]  = 0.0f;
+        m[offset + 4]  = xy - zs;
+        m[offset + 5]  = y * y * nc + c;
+        m[offset + 6]  = yz + xs;
+        m[offset + 7]  = 0.0f;
+        m[offset + 8]  = zx + ys;
+        m[offset + 9]  = yz - xs;
+        m[offset + 10] = z * z * nc + c;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = tx;
+        m[offset + 13] = ty;
+        m[offset + 14] = tz;
+        m[offset + 15] = 1.0f;
+    }
+
+    /** m = translate(tx, ty, tz) * rotation of the unit quaternion q (x, y, z, w). */
+    public static void setTranslateRotate(float[] m, int offset,
+                                          float tx, float ty, float tz,
+                                          float[] q, int qOffset) {
+        final float x = q[qOffset];
+        final float y = q[qOffset + 1];
+        final float z = q[qOffset + 2];
+        final float w = q[qOffset + 3];
+        final float x2 = x + x;
+        final float y2 = y + y;
+        final float z2 = z + z;
+        final float xx = x * x2;
+        final float yy = y * y2;
+        final float zz = z * z2;
+        final float xy = x * y2;
+        final float yz = y * z2;
+        final float zx = z * x2;
+        final float wx = w * x2;
+        final float wy = w * y2;
+        final float wz = w * z2;
+
+        m[offset]      = 1.0f - yy - zz;
+        m[offset + 1]  = xy + wz;
+        m[offset + 2]  = zx - wy;
+        m[offset + 3]  = 0.0f;
+        m[offset + 4]  = xy - wz;
+        m[offset + 5]  = 1.0f - xx - zz;
+        m[offset + 6]  = yz + wx;
+        m[offset + 7]  = 0.0f;
+        m[offset + 8]  = zx + wy;
+        m[offset + 9]  = yz - wx;
+        m[offset + 10] = 1.0f - xx - yy;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = tx;
+        m[offset + 13] = ty;
+        m[offset + 14] = tz;
+        m[offset + 15] = 1.0f;
+    }
+
+    /** m = m * rotate(angle, x, y, z), in place. The axis doesn't need to be normalized. */
+    public static void rotate(float[] m, int offset, float angleInDegrees, float x, float y, float z) {
+        final float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length == 0.0f) {
+            return;
+        }
+        if (length != 1.0f) {
+            x /= length;
+            y /= length;
+            z /= length;
+        }
+        final float radians = angleInDegrees * DEGREES_TO_RADIANS;
+        final float s = (float) Math.sin(radians);
+        final float c = (float) Math.cos(radians);
+        final float nc = 1.0f - c;
+        final float r00 = x * x * nc + c,     r01 = x * y * nc - z * s, r02 = x * z * nc + y * s;
+        final float r10 = y * x * nc + z * s, r11 = y * y * nc + c,     r12 = y * z * nc - x * s;
+        final float r20 = x * z * nc - y * s, r21 = y * z * nc + x * s, r22 = z * z * nc + c;
+
+        // only the first three columns change; do one row at a time
+        for (int i = 0; i < 4; i++) {
+            final float m0 = m[offset + i];
+            final float m1 = m[offset + 4 + i];
+            final float m2 = m[offset + 8 + i];
+            m[offset + i]     = m0 * r00 + m1 * r10 + m2 * r20;
+            m[offset + 4 + i] = m0 * r01 + m1 * r11 + m2 * r21;
+            m[offset + 8 + i] = m0 * r02 + m1 * r12 + m2 * r22;
+        }
+    }
+
+    /** m = m * translate(x, y, z), in place. */
+    public static void translate(float[] m, int offset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[offset + 12 + i] += m[offset + i] * x + m[offset + 4 + i] * y + m[offset + 8 + i] * z;
+        }
+    }
+
+    /** r = a * b for general matrices. */
+    public static void multiply(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+        final float a00 = a[ao],     a10 = a[ao + 1],  a20 = a[ao + 2],  a30 = a[ao + 3];
+        final float a01 = a[ao + 4], a11 = a[ao + 5],  a21 = a[ao + 6],  a31 = a[ao + 7];
+        final float a02 = a[ao + 8], a12 = a[ao + 9],  a22 = a[ao + 10], a32 = a[ao + 11];
+        final float a03 = a[ao + 12], a13 = a[ao + 13], a23 = a[ao + 14], a33 = a[ao + 15];
+
+        for (int c = 0; c < 16; c += 4) {
+            final float b0 = b[bo + c];
+            final float b1 = b[bo + c + 1];
+            final float b2 = b[bo + c + 2];
+            final float b3 = b[bo + c + 3];
+            r[ro + c]     = a00 * b0 + a01 * b1 + a02 * b2 + a03 * b3;
+            r[ro + c + 1] = a10 * b0 + a11 * b1 + a12 * b2 + a13 * b3;
+            r[ro + c + 2] = a20 * b0 + a21 * b1 + a22 * b2 + a23 * b3;
+            r[ro + c + 3] = a30 * b0 + a31 * b1 + a32 * b2 + a33 * b3;
+        }
+    }
+
+    /** r = a * b where both a and b are affine: 36 multiplies instead of 64. */
+    public static void multiplyAffine(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+        final float a00 = a[ao],      a10 = a[ao + 1],  a20 = a[ao + 2];
+        final float a01 = a[ao + 4],  a11 = a[ao + 5],  a21 = a[ao + 6];
+        final float a02 = a[ao + 8],  a12 = a[ao + 9],  a22 = a[ao + 10];
+        final float a03 = a[ao + 12], a13 = a[ao + 13], a23 = a[ao + 14];
+
+        final float b00 = b[bo],      b10 = b[bo + 1],  b20 = b[bo + 2];
+        final float b01 = b[bo + 4],  b11 = b[bo + 5],  b21 = b[bo + 6];
+        final float b02 = b[bo + 8],  b12 = b[bo + 9],  b22 = b[bo + 10];
+        final float b03 = b[bo + 12], b13 = b[bo + 13], b23 = b[bo + 14];
+
+        r[ro]      = a00 * b00 + a01 * b10 + a02 * b20;
+        r[ro + 1]  = a10 * b00 + a11 * b10 + a12 * b20;
+        r[ro + 2]  = a20 * b00 + a21 * b10 + a22 * b20;
+        r[ro + 3]  = 0.0f;
+        r[ro + 4]  = a00 * b01 + a01 * b11 + a02 * b21;
+        r[ro + 5]  = a10 * b01 + a11 * b11 + a12 * b21;
+        r[ro + 6]  = a20 * b01 + a21 * b11 + a22 * b21;
+        r[ro + 7]  = 0.0f;
+        r[ro + 8]  = a00 * b02 + a01 * b12 + a02 * b22;
+        r[ro + 9]  = a10 * b02 + a11 * b12 + a12 * b22;
+        r[ro + 10] = a20 * b02 + a21 * b12 + a22 * b22;
+        r[ro + 11] = 0.0f;
+        r[ro + 12] = a00 * b03 + a01 * b13 + a02 * b23 + a03;
+        r[ro + 13] = a10 * b03 + a11 * b13 + a12 * b23 + a13;
+        r[ro + 14] = a20 * b03 + a21 * b13 + a22 * b23 + a23;
+        r[ro + 15] = 1.0f;
+    }
+
+    /**
+     * r = a * b where a is general (e.g. a projection) and b is affine
+     * (e.g. a model/view matrix): 48 multiplies instead of 64.
+     */
+    public static void multiplyByAffine(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+        final float a00 = a[ao],      a10 = a[ao + 1],  a20 = a[ao + 2],  a30 = a[ao + 3];
+        final float a01 = a[ao + 4],  a11 = a[ao + 5],  a21 = a[ao + 6],  a31 = a[ao + 7];
+        final float a02 = a[ao + 8],  a12 = a[ao + 9],  a22 = a[ao + 10], a32 = a[ao + 11];
+        final float a03 = a[ao + 12], a13 = a[ao + 13], a23 = a[ao + 14], a33 = a[ao + 15];
+
+        for (int c = 0; c < 12; c += 4) {
+            final float b0 = b[bo + c];
+            final float b1 = b[bo + c + 1];
+            final float b2 = b[bo + c + 2];
+            r[ro + c]     = a00 * b0 + a01 * b1 + a02 * b2;
+            r[ro + c + 1] = a10 * b0 + a11 * b1 + a12 * b2;
+            r[ro + c + 2] = a20 * b0 + a21 * b1 + a22 * b2;
+            r[ro + c + 3] = a30 * b0 + a31 * b1 + a32 * b2;
+        }
+        final float b0 = b[bo + 12];
+        final float b1 = b[bo + 13];
+        final float b2 = b[bo + 14];
+        r[ro + 12] = a00 * b0 + a01 * b1 + a02 * b2 + a03;
+        r[ro + 13] = a10 * b0 + a11 * b1 + a12 * b2 + a13;
+        r[ro + 14] = a20 * b0 + a21 * b1 + a22 * b2 + a23;
+        r[ro + 15] = a30 * b0 + a31 * b1 + a32 * b2 + a33;
+    }
+
+    /**
+     * Batch form of multiplyAffine: for i in [0, count),
+     * r[ro + 16 i] = a * b[16 indices[start + i]]. Used to turn a list of
+     * world matrices into model/view matrices in one pass.
+     */
+    public static void multiplyAffineBatch(float[] r, int ro, float[] a, int ao,
+                                           float[] b, int[] indices, int start, int count) {
+        final float a00 = a[ao],      a10 = a[ao + 1],  a20 = a[ao + 2];
+        final float a01 = a[ao + 4],  a11 = a[ao + 5],  a21 = a[ao + 6];
+        final float a02 = a[ao + 8],  a12 = a[ao + 9],  a22 = a[ao + 10];
+        final float a03 = a[ao + 12], a13 = a[ao + 13], a23 = a[ao + 14];
+
+        for (int i = 0; i < count; i++, ro += 16) {
+            final int bo = indices[start + i] * 16;
+            final float b00 = b[bo],      b10 = b[bo + 1],  b20 = b[bo + 2];
+            final float b01 = b[bo + 4],  b11 = b[bo + 5],  b21 = b[bo + 6];
+            final float b02 = b[bo + 8],  b12 = b[bo + 9],  b22 = b[bo + 10];
+            final float b03 = b[bo + 12], b13 = b[bo + 13], b23 = b[bo + 14];
+
+            r[ro]      = a00 * b00 + a01 * b10 + a02 * b20;
+            r[ro + 1]  = a10 * b00 + a11 * b10 + a12 * b20;
+            r[ro + 2]  = a20 * b00 + a21 * b10 + a22 * b20;
+            r[ro + 3]  = 0.0f;
+            r[ro + 4]  = a00 * b01 + a01 * b11 + a02 * b21;
+            r[ro + 5]  = a10 * b01 + a11 * b11 + a12 * b21;
+            r[ro + 6]  = a20 * b01 + a21 * b11 + a22 * b21;
+            r[ro + 7]  = 0.0f;
+            r[ro + 8]  = a00 * b02 + a01 * b12 + a02 * b22;
+            r[ro + 9]  = a10 * b02 + a11 * b12 + a12 * b22;
+            r[ro + 10] = a20 * b02 + a21 * b12 + a22 * b22;
+            r[ro + 11] = 0.0f;
+            r[ro + 12] = a00 * b03 + a01 * b13 + a02 * b23 + a03;
+            r[ro + 13] = a10 * b03 + a11 * b13 + a12 * b23 + a13;
+            r[ro + 14] = a20 * b03 + a21 * b13 + a22 * b23 + a23;
+            r[ro + 15] = 1.0f;
+        }
+    }
+
+    /**
+     * Batch form of multiplyByAffine over contiguous matrices: for i in
+     * [0, count), r[ro + 16 i] = a * b[bo + 16 i]. Used to turn model/view
+     * matrices into model/view/projection matrices in one pass.
+     */
+    public static void multiplyByAffineBatch(float[] r, int ro, float[] a, int ao,
+                                             float[] b, int bo, int count) {
+        for (int i = 0; i < count; i++, ro += 16, bo += 16) {
+            multiplyByAffine(r, ro, a, ao, b, bo);
+        }
+    }
+
+    /** r = m * v for a 4 component vector. */
+    public static void multiplyVec4(float[] r, int ro, float[] m, int mo, float[] v, int vo) {
+        final float x = v[vo];
+        final float y = v[vo + 1];
+        final float z = v[vo + 2];
+        final float w = v[vo + 3];
+        r[ro]     = m[mo]     * x + m[mo + 4] * y + m[mo + 8]  * z + m[mo + 12] * w;
+        r[ro + 1] = m[mo + 1] * x + m[mo + 5] * y + m[mo + 9]  * z + m[mo + 13] * w;
+        r[ro + 2] = m[mo + 2] * x + m[mo + 6] * y + m[mo + 10] * z + m[mo + 14] * w;
+        r[ro + 3] = m[mo + 3] * x + m[mo + 7] * y + m[mo + 11] * z + m[mo + 15] * w;
+    }
+
+    /** r = m * (x, y, z, 1) for an affine m; writes 3 components. */
+    public static void transformPoint(float[] r, int ro, float[] m, int mo, float x, float y, float z) {
+        r[ro]     = m[mo]     * x + m[mo + 4] * y + m[mo + 8]  * z + m[mo + 12];
+        r[ro + 1] = m[mo + 1] * x + m[mo + 5] * y + m[mo + 9]  * z + m[mo + 13];
+        r[ro + 2] = m[mo + 2] * x + m[mo + 6] * y + m[mo + 10] * z + m[mo + 14];
+    }
+
+    /** Same result as android.opengl.Matrix.frustumM. */
+    public static void setFrustum(float[] m, int offset,
+                                  float left, float right, float bottom, float top,
+                                  float near, float far) {
+        final float width = 1.0f / (right - left);
+        final float height = 1.0f / (top - bottom);
+        final float depth = 1.0f / (near - far);
+
+        setIdentity(m, offset);
+        m[offset]      = 2.0f * near * width;
+        m[offset + 5]  = 2.0f * near * height;
+        m[offset + 8]  = (right + left) * width;
+        m[offset + 9]  = (top + bottom) * height;
+        m[offset + 10] = (far + near) * depth;
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = 2.0f * far * near * depth;
+        m[offset + 15] = 0.0f;
+    }
+
+    /** Same result as android.opengl.Matrix.setLookAtM. */
+    public static void setLookAt(float[] m, int offset,
+                                 float eyeX, float eyeY, float eyeZ,
+                                 float centerX, float centerY, float centerZ,
+                                 float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        final float inverseF = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= inverseF;
+        fy *= inverseF;
+        fz *= inverseF;
+
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        final float inverseS = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= inverseS;
+        sy *= inverseS;
+        sz *= inverseS;
+
+        // u = s x f
+        final float ux = sy * fz - sz * fy;
+        final float uy = sz * fx - sx * fz;
+        final float uz = sx * fy - sy * fx;
+
+        m[offset]      = sx;
+        m[offset + 1]  = ux;
+        m[offset + 2]  = -fx;
+        m[offset + 3]  = 0.0f;
+        m[offset + 4]  = sy;
+        m[offset + 5]  = uy;
+        m[offset + 6]  = -fy;
+        m[offset + 7]  = 0.0f;
+        m[offset + 8]  = sz;
+        m[offset + 9]  = uz;
+        m[offset + 10] = -fz;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = -(sx * eyeX + sy * eyeY + sz * eyeZ);
+        m[offset + 13] = -(ux * eyeX + uy * eyeY + uz * eyeZ);
+        m[offset + 14] = fx * eyeX + fy * eyeY + fz * eyeZ;
+        m[offset + 15] = 1.0f;
+    }
+}
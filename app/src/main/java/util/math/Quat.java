@@ -0,0 +1,82 @@
+package util.math;
+
+/**
+ * Unit quaternion operations on float[] storage with an offset, stored as
+ * (x, y, z, w). Results may alias the inputs. Convert to a matrix with
+ * Mat4.setTranslateRotate(m, offset, tx, ty, tz, q, qOffset).
+ */
+public final class Quat {
+    private static final float DEGREES_TO_RADIANS = (float) (Math.PI / 180.0);
+
+    private Quat() {
+    }
+
+    public static void setIdentity(float[] q, int offset) {
+        q[offset] = 0.0f;
+        q[offset + 1] = 0.0f;
+        q[offset + 2] = 0.0f;
+        q[offset + 3] = 1.0f;
+    }
+
+    /** Rotation of angle degrees about a normalized axis. */
+    public static void setAxisAngle(float[] q, int offset, float angleInDegrees, float x, float y, float z) {
+        final float half = angleInDegrees * DEGREES_TO_RADIANS * 0.5f;
+        final float s = (float) Math.sin(half);
+        q[offset] = x * s;
+        q[offset + 1] = y * s;
+        q[offset + 2] = z * s;
+        q[offset + 3] = (float) Math.cos(half);
+    }
+
+    /** r = a * b, i.e. rotate by b first, then by a. */
+    public static void multiply(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+        final float ax = a[ao], ay = a[ao + 1], az = a[ao + 2], aw = a[ao + 3];
+        final float bx = b[bo], by = b[bo + 1], bz = b[bo + 2], bw = b[bo + 3];
+        r[ro]     = aw * bx + ax * bw + ay * bz - az * by;
+        r[ro + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        r[ro + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        r[ro + 3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    public static void normalize(float[] q, int offset) {
+        final float x = q[offset], y = q[offset + 1], z = q[offset + 2], w = q[offset + 3];
+        final float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        if (length > 0.0f) {
+            final float inverse = 1.0f / length;
+            q[offset] = x * inverse;
+            q[offset + 1] = y * inverse;
+            q[offset + 2] = z * inverse;
+            q[offset + 3] = w * inverse;
+        }
+    }
+
+    /**
+     * Normalized linear interpolation along the shorter arc. Cheaper than
+     * slerp and close enough for the small steps of frame to frame animation.
+     */
+    public static void nlerp(float[] r, int ro, float[] a, int ao, float[] b, int bo, float t) {
+        final float sign = a[ao] * b[bo] + a[ao + 1] * b[bo + 1]
+                + a[ao + 2] * b[bo + 2] + a[ao + 3] * b[bo + 3] < 0.0f ? -1.0f : 1.0f;
+        final float ta = 1.0f - t;
+        final float tb = t * sign;
+        r[ro]     = a[ao] * ta     + b[bo] * tb;
+        r[ro + 1] = a[ao + 1] * ta + b[bo + 1] * tb;
+        r[ro + 2] = a[ao + 2] * ta + b[bo + 2] * tb;
+        r[ro + 3] = a[ao + 3] * ta + b[bo + 3] * tb;
+        normalize(r, ro);
+    }
+
+    /** Rotates the vector v by q: r = q v q^-1. */
+    public static void rotateVec3(float[] r, int ro, float[] q, int qo, float[] v, int vo) {
+        final float qx = q[qo], qy = q[qo + 1], qz = q[qo + 2], qw = q[qo + 3];
+        final float vx = v[vo], vy = v[vo + 1], vz = v[vo + 2];
+        // t = 2 (q.xyz x v)
+        final float tx = 2.0f * (qy * vz - qz * vy);
+        final float ty = 2.0f * (qz * vx - qx * vz);
+        final float tz = 2.0f * (qx * vy - qy * vx);
+        // r = v + w t + q.xyz x t
+        r[ro]     = vx + qw * tx + (qy * tz - qz * ty);
+        r[ro + 1] = vy + qw * ty + (qz * tx - qx * tz);
+        r[ro + 2] = vz + qw * tz + (qx * ty - qy * tx);
+    }
+}
@@ -0,0 +1,58 @@
+package util.math;
+
+/**
+ * 3 component vector operations on float[] storage with an offset.
+ * Results may alias the inputs.
+ */
+public final class Vec3 {
+    private Vec3() {
+    }
+
+    public static void set(float[] v, int offset, float x, float y, float z) {
+        v[offset] = x;
+        v[offset + 1] = y;
+        v[offset + 2] = z;
+    }
+
+    public static float dot(float[] a, int ao, float[] b, int bo) {
+        return a[ao] * b[bo] + a[ao + 1] * b[bo + 1] + a[ao + 2] * b[bo + 2];
+    }
+
+    public static float length(float[] v, int offset) {
+        return (float) Math.sqrt(dot(v, offset, v, offset));
+    }
+
+    /** Scales v to unit length in place; a zero vector is left alone. */
+    public static void normalize(float[] v, int offset) {
+        final float length = length(v, offset);
+        if (length > 0.0f) {
+            final float inverse = 1.0f / length;
+            v[offset] *= inverse;
+            v[offset + 1] *= inverse;
+            v[offset + 2] *= inverse;
+        }
+    }
+
+    /** r = a x b */
+    public static void cross(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+        final float ax = a[ao], ay = a[ao + 1], az = a[ao + 2];
+        final float bx = b[bo], by = b[bo + 1], bz = b[bo + 2];
+        r[ro]     = ay * bz - az * by;
+        r[ro + 1] = az * bx - ax * bz;
+        r[ro + 2] = ax * by - ay * bx;
+    }
+
+    /** r = a + b * scale */
+    public static void addScaled(float[] r, int ro, float[] a, int ao, float[] b, int bo, float scale) {
+        r[ro]     = a[ao]     + b[bo]     * scale;
+        r[ro + 1] = a[ao + 1] + b[bo + 1] * scale;
+        r[ro + 2] = a[ao + 2] + b[bo + 2] * scale;
+    }
+
+    public static float distanceSquared(float[] a, int ao, float[] b, int bo) {
+        final float dx = a[ao] - b[bo];
+        final float dy = a[ao + 1] - b[bo + 1];
+        final float dz = a[ao + 2] - b[bo + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
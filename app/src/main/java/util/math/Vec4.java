@@ -0,0 +1,30 @@
+package util.math;
+
+/**
+ * 4 component vector operations on float[] storage with an offset.
+ * Use Mat4.multiplyVec4 to transform one.
+ */
+public final class Vec4 {
+    private Vec4() {
+    }
+
+    public static void set(float[] v, int offset, float x, float y, float z, float w) {
+        v[offset] = x;
+        v[offset + 1] = y;
+        v[offset + 2] = z;
+        v[offset + 3] = w;
+    }
+
+    public static float dot(float[] a, int ao, float[] b, int bo) {
+        return a[ao] * b[bo] + a[ao + 1] * b[bo + 1] + a[ao + 2] * b[bo + 2] + a[ao + 3] * b[bo + 3];
+    }
+
+    /** Divides x, y and z by w in place, e.g. clip space to normalized device coordinates. */
+    public static void perspectiveDivide(float[] v, int offset) {
+        final float inverseW = 1.0f / v[offset + 3];
+        v[offset] *= inverseW;
+        v[offset + 1] *= inverseW;
+        v[offset + 2] *= inverseW;
+        v[offset + 3] = 1.0f;
+    }
+}
@@ -0,0 +1,165 @@
+package util.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import util.StagingArena;
+
+/**
+ * Vertex data decoded from a binary mesh file. The payload is kept in the
+ * direct (or memory mapped) buffer it was loaded into; the accessors only
+ * hand out views of it, so nothing is copied after loading.
+ *
+ * An indexed mesh also carries a block of 16-bit triangle indices at the
+ * end of the payload; it is drawn with glDrawElements instead of
+ * glDrawArrays. See MeshOptimizer.
+ *
+ * Meshes built at run time (MeshPacker, MeshReplicator) keep their payload
+ * in the shared StagingArena; release() gives it back once the mesh has
+ * been uploaded and isn't needed any more.
+ */
+public class Mesh {
+    private final int vertexCount;
+    private final VertexAttribute[] attributes;
+    private final ByteBuffer payload;
+    private final ByteBuffer storage;   // the buffer passed in, which is what the arena knows
+    private final int indexOffset;      // byte offset of the index block in the payload
+    private final int indexCount;       // 0 for an unindexed mesh
+
+    public Mesh(int vertexCount, VertexAttribute[] attributes, ByteBuffer payload) {
+        this(vertexCount, attributes, payload, 0, 0);
+    }
+
+    public Mesh(int vertexCount, VertexAttribute[] attributes, ByteBuffer payload,
+                int indexOffset, int indexCount) {
+        if (indexCount > 0 && vertexCount > MeshFormat.MAX_INDEXED_VERTEXES) {
+            throw new IllegalArgumentException("Too many vertexes for 16-bit indices: " + vertexCount);
+        }
+        this.vertexCount = vertexCount;
+        this.attributes = attributes;
+        // own little-endian view, so index reads don't depend on the caller's byte order
+        this.payload = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.storage = payload;
+        this.indexOffset = indexOffset;
+        this.indexCount = indexCount;
+    }
+
+    /**
+     * Returns the payload to the StagingArena if it came from there; the
+     * mesh must not be used afterwards. Does nothing for a loaded mesh.
+     */
+    public void release() {
+        StagingArena.shared().free(storage);
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public boolean isIndexed() {
+        return indexCount > 0;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public int getIndexOffset() {
+        return indexOffset;
+    }
+
+    /** Number of vertexes a draw of the whole mesh processes: its indices, or its vertexes. */
+    public int getElementCount() {
+        return indexCount > 0 ? indexCount : vertexCount;
+    }
+
+    /** A view of the index block; read values with & 0xffff. Only valid for an indexed mesh. */
+    public ShortBuffer getIndexBuffer() {
+        ByteBuffer view = getPayload();
+        view.position(indexOffset);
+        view.limit(indexOffset + indexCount * 2);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    /**
+     * The vertex drawn as element i: the i'th index of an indexed mesh, or
+     * just i for an unindexed one.
+     */
+    public int getVertexIndex(int element) {
+        return indexCount > 0 ? payload.getShort(indexOffset + element * 2) & 0xffff : element;
+    }
+
+    public int getAttributeCount() {
+        return attributes.length;
+    }
+
+    public VertexAttribute getAttribute(int index) {
+        return attributes[index];
+    }
+
+    /** Returns the attribute carrying the given semantic, or null if the mesh has none. */
+    public VertexAttribute findAttribute(int semantic) {
+        for (VertexAttribute attribute : attributes) {
+            if (attribute.semantic == semantic) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    /** The whole payload, positioned at zero, in little-endian order. */
+    public ByteBuffer getPayload() {
+        ByteBuffer view = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(0);
+        return view;
+    }
+
+    /** A view of the payload positioned at the first element of the attribute. */
+    public ByteBuffer getAttributeData(VertexAttribute attribute) {
+        ByteBuffer view = getPayload();
+        view.position(attribute.offset);
+        return view;
+    }
+
+    /**
+     * A float view starting at the first element of a GL_FLOAT attribute,
+     * suitable for handing straight to glVertexAttribPointer together with
+     * the attribute's stride.
+     */
+    public FloatBuffer getFloatBuffer(int semantic) {
+        VertexAttribute attribute = findAttribute(semantic);
+        if (attribute == null) {
+            throw new IllegalArgumentException("Mesh has no attribute with semantic " + semantic);
+        }
+        if (attribute.type != MeshFormat.GL_FLOAT) {
+            throw new IllegalArgumentException("Attribute " + semantic + " is not stored as floats");
+        }
+        ByteBuffer view = getAttributeData(attribute).slice().order(ByteOrder.LITTLE_ENDIAN);
+        view.limit(vertexCount == 0 ? 0 : (vertexCount - 1) * attribute.stride + attribute.sizeInBytes());
+        return view.asFloatBuffer();
+    }
+
+    /**
+     * Distance from the origin to the furthest vertex: the radius of a
+     * bounding sphere about the origin. Positions must be floats.
+     */
+    public float getBoundingRadius() {
+        final VertexAttribute position = findAttribute(MeshFormat.SEMANTIC_POSITION);
+        if (position == null || position.type != MeshFormat.GL_FLOAT) {
+            throw new IllegalArgumentException("Mesh positions are not stored as floats");
+        }
+        final ByteBuffer data = getPayload();
+        final int stride = position.stride != 0 ? position.stride : position.sizeInBytes();
+        float maxSquared = 0.0f;
+        for (int v = 0; v < vertexCount; v++) {
+            final int p = position.offset + v * stride;
+            final float x = data.getFloat(p);
+            final float y = data.getFloat(p + 4);
+            final float z = position.components > 2 ? data.getFloat(p + 8) : 0.0f;
+            maxSquared = Math.max(maxSquared, x * x + y * y + z * z);
+        }
+        return (float) Math.sqrt(maxSquared);
+    }
+}
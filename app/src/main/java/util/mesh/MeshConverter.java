@@ -0,0 +1,97 @@
+package util.mesh;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import util.FloatStreamParser;
+
+/**
+ * Command line converter from the text .lwtech attribute files to the
+ * binary .lwmesh container. Runs on a plain JVM:
+ *
+ *   java util.mesh.MeshConverter cube.lwmesh \
+ *        cube_vertexes.lwtech cube_colors.lwtech cube_normals.lwtech
+ *
+ * The attributes are written one after the other (position, color, normal),
+ * each block tightly packed. The mesh is welded, indexed and ordered for
+ * the vertex caches by MeshOptimizer on the way; the gain is printed.
+ */
+public class MeshConverter {
+    private static final int POSITION_SIZE = 3;
+    private static final int COLOR_SIZE = 4;
+    private static final int NORMAL_SIZE = 3;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("usage: MeshConverter <out.lwmesh> <positions.lwtech> <colors.lwtech> <normals.lwtech>");
+            System.exit(1);
+        }
+
+        float[] positions = readFloatFile(args[1]);
+        float[] colors = readFloatFile(args[2]);
+        float[] normals = readFloatFile(args[3]);
+
+        Mesh triangles = planarMesh(
+                new int[] {MeshFormat.SEMANTIC_POSITION, MeshFormat.SEMANTIC_COLOR, MeshFormat.SEMANTIC_NORMAL},
+                new int[] {POSITION_SIZE, COLOR_SIZE, NORMAL_SIZE},
+                new float[][] {positions, colors, normals});
+        Mesh mesh = MeshOptimizer.optimize(triangles);
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(args[0]));
+        try {
+            MeshFormat.write(mesh, out);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + mesh.getVertexCount() + " vertexes, " + mesh.getIndexCount()
+                + " indices to " + args[0]);
+        System.out.println(MeshOptimizer.report(triangles, mesh));
+    }
+
+    /**
+     * Packs float attribute arrays into a mesh with one tightly packed block
+     * per attribute. Every array must describe the same number of vertexes.
+     */
+    public static Mesh planarMesh(int[] semantics, int[] components, float[][] data) {
+        final int vertexCount = data[0].length / components[0];
+        int payloadFloats = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i].length != vertexCount * components[i]) {
+                throw new IllegalArgumentException("Attribute " + semantics[i] + " has "
+                        + data[i].length + " floats, expected " + vertexCount * components[i]);
+            }
+            payloadFloats += data[i].length;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocateDirect(payloadFloats * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        VertexAttribute[] attributes = new VertexAttribute[data.length];
+        for (int i = 0; i < data.length; i++) {
+            attributes[i] = new VertexAttribute(semantics[i], components[i], MeshFormat.GL_FLOAT,
+                    false, payload.position(), components[i] * 4);
+            payload.asFloatBuffer().put(data[i]);
+            payload.position(payload.position() + data[i].length * 4);
+        }
+        payload.flip();
+        return new Mesh(vertexCount, attributes, payload);
+    }
+
+    private static float[] readFloatFile(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        try {
+            FloatStreamParser parser = new FloatStreamParser();
+            parser.parse(in);
+            return parser.toArray();
+        } catch (IOException e) {
+            throw new IOException(path + ": " + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+}
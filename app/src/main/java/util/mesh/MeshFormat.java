@@ -0,0 +1,204 @@
+package util.mesh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the binary mesh container (.lwmesh). Everything is little-endian
+ * so the payload can be mapped or bulk-read straight into a direct buffer
+ * and handed to GL without touching individual values.
+ *
+ *   header      16 bytes
+ *     int   magic           'L' 'W' 'M' 'S'
+ *     short version
+ *     short attributeCount
+ *     int   vertexCount
+ *     int   payloadBytes
+ *   descriptors 12 bytes each
+ *     byte  semantic
+ *     byte  components
+ *     byte  normalized (0/1)
+ *     byte  reserved
+ *     short type            GL component type
+ *     short stride          bytes between consecutive vertexes
+ *     int   offset          byte offset of the first element, relative to the payload
+ *   payload     payloadBytes bytes, starting on a 4 byte boundary
+ *
+ * Version 2 adds indexed meshes. Their index block is described by one
+ * more descriptor, with semantic SEMANTIC_INDEX and type GL_UNSIGNED_SHORT;
+ * it is always the last thing in the payload, so its length gives the
+ * index count. Version 1 files are still read.
+ */
+public class MeshFormat {
+    public static final int MAGIC = 0x534D574C;     // "LWMS" read as a little-endian int
+    public static final int VERSION = 2;
+    private static final int OLDEST_READABLE_VERSION = 1;
+
+    public static final int HEADER_SIZE = 16;
+    public static final int DESCRIPTOR_SIZE = 12;
+
+    // attribute semantics
+    public static final int SEMANTIC_POSITION = 0;
+    public static final int SEMANTIC_COLOR = 1;
+    public static final int SEMANTIC_NORMAL = 2;
+    public static final int SEMANTIC_TEXCOORD = 3;
+    public static final int SEMANTIC_INSTANCE = 4;      // index of the copy within a batch, see MeshReplicator
+    public static final int SEMANTIC_INDEX = 15;        // not an attribute: the triangle index block
+
+    // 16-bit indices can address this many vertexes
+    public static final int MAX_INDEXED_VERTEXES = 65536;
+
+    // GL component types, mirrored here so the format can be used off-device
+    public static final int GL_BYTE = 0x1400;
+    public static final int GL_UNSIGNED_BYTE = 0x1401;
+    public static final int GL_SHORT = 0x1402;
+    public static final int GL_UNSIGNED_SHORT = 0x1403;
+    public static final int GL_FLOAT = 0x1406;
+    public static final int GL_HALF_FLOAT_OES = 0x8D61;
+
+    public static int bytesPerComponent(int type) {
+        switch (type) {
+            case GL_BYTE:
+            case GL_UNSIGNED_BYTE:
+                return 1;
+            case GL_SHORT:
+            case GL_UNSIGNED_SHORT:
+            case GL_HALF_FLOAT_OES:
+                return 2;
+            case GL_FLOAT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Unsupported component type: " + type);
+        }
+    }
+
+    /** Total size of header plus descriptors, i.e. where the payload starts. */
+    public static int payloadStart(int attributeCount) {
+        return HEADER_SIZE + attributeCount * DESCRIPTOR_SIZE;
+    }
+
+    /**
+     * Reads the attribute count out of a header without consuming it, so a
+     * streaming reader knows how many descriptor bytes follow.
+     */
+    public static int readAttributeCount(ByteBuffer header) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        checkMagic(header);
+        return header.getShort(6) & 0xffff;
+    }
+
+    /** Reads the payload size out of a header without consuming it. */
+    public static int readPayloadBytes(ByteBuffer header) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        checkMagic(header);
+        return header.getInt(12);
+    }
+
+    /**
+     * Decodes a complete mesh file. The returned mesh shares the buffer's
+     * memory: the payload is a slice of it, not a copy.
+     */
+    public static Mesh read(ByteBuffer file) {
+        ByteBuffer in = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        checkMagic(in);
+
+        final int version = in.getShort(4) & 0xffff;
+        if (version < OLDEST_READABLE_VERSION || version > VERSION) {
+            throw new RuntimeException("Unsupported mesh version: " + version);
+        }
+        final int attributeCount = in.getShort(6) & 0xffff;
+        final int vertexCount = in.getInt(8);
+        final int payloadBytes = in.getInt(12);
+        final int payloadStart = payloadStart(attributeCount);
+
+        if (in.limit() < payloadStart + payloadBytes) {
+            throw new RuntimeException("Truncated mesh: expected "
+                    + (payloadStart + payloadBytes) + " bytes, got " + in.limit());
+        }
+
+        VertexAttribute[] attributes = new VertexAttribute[attributeCount];
+        int vertexAttributeCount = 0;
+        int indexOffset = 0;
+        int indexCount = 0;
+        for (int i = 0; i < attributeCount; i++) {
+            final int base = HEADER_SIZE + i * DESCRIPTOR_SIZE;
+            if (in.get(base) == SEMANTIC_INDEX) {
+                indexOffset = in.getInt(base + 8);
+                indexCount = (payloadBytes - indexOffset) / 2;
+                continue;
+            }
+            attributes[vertexAttributeCount++] = new VertexAttribute(
+                    in.get(base),
+                    in.get(base + 1),
+                    in.getShort(base + 4) & 0xffff,
+                    in.get(base + 2) != 0,
+                    in.getInt(base + 8),
+                    in.getShort(base + 6) & 0xffff);
+        }
+        if (vertexAttributeCount < attributeCount) {
+            VertexAttribute[] vertexAttributes = new VertexAttribute[vertexAttributeCount];
+            System.arraycopy(attributes, 0, vertexAttributes, 0, vertexAttributeCount);
+            attributes = vertexAttributes;
+        }
+
+        in.position(payloadStart);
+        in.limit(payloadStart + payloadBytes);
+        ByteBuffer payload = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+        return new Mesh(vertexCount, attributes, payload, indexOffset, indexCount);
+    }
+
+    /** Writes a mesh in the binary container format. */
+    public static void write(Mesh mesh, OutputStream out) throws IOException {
+        final int vertexAttributeCount = mesh.getAttributeCount();
+        final int attributeCount = vertexAttributeCount + (mesh.isIndexed() ? 1 : 0);
+        final ByteBuffer payload = mesh.getPayload();
+        if (mesh.isIndexed()) {
+            // the index block has to be last, its length is the index count
+            payload.limit(mesh.getIndexOffset() + mesh.getIndexCount() * 2);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(payloadStart(attributeCount))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) attributeCount);
+        header.putInt(mesh.getVertexCount());
+        header.putInt(payload.remaining());
+
+        for (int i = 0; i < vertexAttributeCount; i++) {
+            VertexAttribute attribute = mesh.getAttribute(i);
+            header.put((byte) attribute.semantic);
+            header.put((byte) attribute.components);
+            header.put((byte) (attribute.normalized ? 1 : 0));
+            header.put((byte) 0);
+            header.putShort((short) attribute.type);
+            header.putShort((short) attribute.stride);
+            header.putInt(attribute.offset);
+        }
+        if (mesh.isIndexed()) {
+            header.put((byte) SEMANTIC_INDEX);
+            header.put((byte) 1);
+            header.put((byte) 0);
+            header.put((byte) 0);
+            header.putShort((short) GL_UNSIGNED_SHORT);
+            header.putShort((short) 2);
+            header.putInt(mesh.getIndexOffset());
+        }
+        out.write(header.array());
+
+        byte[] chunk = new byte[8192];
+        while (payload.hasRemaining()) {
+            final int count = Math.min(chunk.length, payload.remaining());
+            payload.get(chunk, 0, count);
+            out.write(chunk, 0, count);
+        }
+    }
+
+    private static void checkMagic(ByteBuffer in) {
+        if (in.limit() < HEADER_SIZE || in.getInt(0) != MAGIC) {
+            throw new RuntimeException("Not a mesh file");
+        }
+    }
+}
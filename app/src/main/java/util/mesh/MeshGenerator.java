@@ -0,0 +1,222 @@
+package util.mesh;
+
+import java.nio.ByteBuffer;
+
+import util.StagingArena;
+
+/**
+ * Builds meshes procedurally, in the layout the wallpaper's cube is stored
+ * in: float positions (3), colors (4) and normals (3), one tightly packed
+ * block per attribute, followed by 16-bit triangle indices. The result can
+ * go through MeshPacker and into a VertexBuffer like the loaded cube, and
+ * is drawn with the same shaders.
+ *
+ * Every shape comes in LEVELS levels of detail, 0 the finest. Each level
+ * has about a quarter of the triangles of the one before, so a level can
+ * be picked for an object by how big it is on screen (see the scene's
+ * LevelOfDetail). Triangles wind counterclockwise seen from outside, like
+ * the cube's.
+ *
+ * The payload is allocated in the StagingArena; release() the mesh once it
+ * has been packed or uploaded. Runs on any thread.
+ */
+public class MeshGenerator {
+    public static final int LEVELS = 3;
+
+    // segments around the axis, at level 0, of the round shapes; halved at every level
+    private static final int SPHERE_SEGMENTS = 32;
+    private static final int TORUS_SEGMENTS = 48;
+    private static final int TORUS_SIDES = 24;
+    private static final int[] CUBE_DIVISIONS = { 4, 2, 1 };
+
+    // the loaded cube's face colors: front, right, back, left, top, bottom
+    private static final float[][] CUBE_FACE_COLORS = {
+            { 1.0f, 0.0f, 0.0f, 1.0f }, { 0.0f, 1.0f, 0.0f, 1.0f }, { 0.0f, 0.0f, 1.0f, 1.0f },
+            { 1.0f, 1.0f, 0.0f, 1.0f }, { 0.0f, 1.0f, 1.0f, 1.0f }, { 1.0f, 0.0f, 1.0f, 1.0f } };
+
+    // each face's normal, and the axes its grid runs along (u x v = normal)
+    private static final float[][] CUBE_FACE_AXES = {
+            { 0, 0, 1,    1, 0, 0,    0, 1, 0 },
+            { 1, 0, 0,    0, 0, -1,   0, 1, 0 },
+            { 0, 0, -1,   -1, 0, 0,   0, 1, 0 },
+            { -1, 0, 0,   0, 0, 1,    0, 1, 0 },
+            { 0, 1, 0,    1, 0, 0,    0, 0, -1 },
+            { 0, -1, 0,   1, 0, 0,    0, 0, 1 } };
+
+    /**
+     * A UV sphere about the origin, of one color: 32 segments around and 16
+     * rings from pole to pole at level 0.
+     */
+    public static Mesh sphere(float radius, int level, float[] color) {
+        final int segments = Math.max(SPHERE_SEGMENTS >> checkLevel(level), 4);
+        final int rings = segments / 2;
+        // the quads touching the poles are single triangles
+        final Builder builder = new Builder((segments + 1) * (rings + 1), segments * (rings - 1) * 6);
+        for (int ring = 0; ring <= rings; ring++) {
+            final double theta = Math.PI * ring / rings;         // from the -y pole up
+            final float y = -(float) Math.cos(theta);
+            final float across = (float) Math.sin(theta);
+            for (int segment = 0; segment <= segments; segment++) {
+                final double phi = 2.0 * Math.PI * segment / segments;
+                final float x = across * (float) Math.sin(phi);
+                final float z = across * (float) Math.cos(phi);
+                builder.vertex(x * radius, y * radius, z * radius, color, x, y, z);
+            }
+        }
+        for (int ring = 0; ring < rings; ring++) {
+            for (int segment = 0; segment < segments; segment++) {
+                final int a = ring * (segments + 1) + segment;
+                final int c = a + segments + 1;
+                if (ring > 0) {
+                    builder.triangle(a, a + 1, c + 1);
+                }
+                if (ring < rings - 1) {
+                    builder.triangle(a, c + 1, c);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * A torus about the y axis, of one color: the tube's center is
+     * majorRadius from the axis, and the tube minorRadius thick. 48 segments
+     * around the axis and 24 around the tube at level 0.
+     */
+    public static Mesh torus(float majorRadius, float minorRadius, int level, float[] color) {
+        checkLevel(level);
+        final int segments = Math.max(TORUS_SEGMENTS >> level, 6);
+        final int sides = Math.max(TORUS_SIDES >> level, 4);
+        final Builder builder = new Builder((segments + 1) * (sides + 1), segments * sides * 6);
+        for (int side = 0; side <= sides; side++) {
+            final double psi = 2.0 * Math.PI * side / sides;    // around the tube, from the outside up
+            final float out = (float) Math.cos(psi);
+            final float up = (float) Math.sin(psi);
+            for (int segment = 0; segment <= segments; segment++) {
+                final double phi = 2.0 * Math.PI * segment / segments;
+                final float sin = (float) Math.sin(phi);
+                final float cos = (float) Math.cos(phi);
+                final float distance = majorRadius + minorRadius * out;
+                builder.vertex(distance * sin, minorRadius * up, distance * cos, color,
+                        out * sin, up, out * cos);
+            }
+        }
+        builder.grid(segments, sides);
+        return builder.build();
+    }
+
+    /**
+     * A cube from -halfSize to halfSize on every axis, colored like the
+     * loaded one, each face a grid of 4 x 4 quads at level 0 and a single
+     * quad at the coarsest level. The extra vertexes give per-vertex
+     * lighting something to interpolate across a face.
+     */
+    public static Mesh subdividedCube(float halfSize, int level) {
+        final int divisions = CUBE_DIVISIONS[checkLevel(level)];
+        final int faceVertexes = (divisions + 1) * (divisions + 1);
+        final Builder builder = new Builder(6 * faceVertexes, 6 * divisions * divisions * 6);
+        for (int face = 0; face < 6; face++) {
+            final float[] axes = CUBE_FACE_AXES[face];
+            final int first = builder.vertexCount;
+            for (int row = 0; row <= divisions; row++) {
+                final float v = halfSize * (2.0f * row / divisions - 1.0f);
+                for (int column = 0; column <= divisions; column++) {
+                    final float u = halfSize * (2.0f * column / divisions - 1.0f);
+                    builder.vertex(
+                            axes[0] * halfSize + axes[3] * u + axes[6] * v,
+                            axes[1] * halfSize + axes[4] * u + axes[7] * v,
+                            axes[2] * halfSize + axes[5] * u + axes[8] * v,
+                            CUBE_FACE_COLORS[face], axes[0], axes[1], axes[2]);
+                }
+            }
+            builder.grid(first, divisions, divisions);
+        }
+        return builder.build();
+    }
+
+    private static int checkLevel(int level) {
+        if (level < 0 || level >= LEVELS) {
+            throw new IllegalArgumentException("No level of detail " + level);
+        }
+        return level;
+    }
+
+    // Collects vertexes and indices, and writes them out as a mesh.
+    private static class Builder {
+        final float[] positions;
+        final float[] colors;
+        final float[] normals;
+        final int[] indices;
+        int vertexCount;
+        int indexCount;
+
+        Builder(int vertexes, int indexes) {
+            if (vertexes > MeshFormat.MAX_INDEXED_VERTEXES) {
+                throw new IllegalArgumentException("Too many vertexes for 16-bit indices: " + vertexes);
+            }
+            positions = new float[vertexes * 3];
+            colors = new float[vertexes * 4];
+            normals = new float[vertexes * 3];
+            indices = new int[indexes];
+        }
+
+        void vertex(float x, float y, float z, float[] color, float nx, float ny, float nz) {
+            positions[vertexCount * 3] = x;
+            positions[vertexCount * 3 + 1] = y;
+            positions[vertexCount * 3 + 2] = z;
+            System.arraycopy(color, 0, colors, vertexCount * 4, 4);
+            normals[vertexCount * 3] = nx;
+            normals[vertexCount * 3 + 1] = ny;
+            normals[vertexCount * 3 + 2] = nz;
+            vertexCount++;
+        }
+
+        void triangle(int a, int b, int c) {
+            indices[indexCount++] = a;
+            indices[indexCount++] = b;
+            indices[indexCount++] = c;
+        }
+
+        void grid(int columns, int rows) {
+            grid(0, columns, rows);
+        }
+
+        // Two triangles for every quad of a grid of (columns + 1) x (rows + 1)
+        // vertexes, row by row from vertex first.
+        void grid(int first, int columns, int rows) {
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    final int a = first + row * (columns + 1) + column;
+                    final int c = a + columns + 1;
+                    triangle(a, a + 1, c + 1);
+                    triangle(a, c + 1, c);
+                }
+            }
+        }
+
+        Mesh build() {
+            final int positionBytes = vertexCount * 12;
+            final int colorBytes = vertexCount * 16;
+            final int normalBytes = vertexCount * 12;
+            final int indexOffset = positionBytes + colorBytes + normalBytes;
+            final ByteBuffer payload = StagingArena.shared().allocate(indexOffset + indexCount * 2);
+            final VertexAttribute[] attributes = {
+                    new VertexAttribute(MeshFormat.SEMANTIC_POSITION, 3, MeshFormat.GL_FLOAT, false, 0, 12),
+                    new VertexAttribute(MeshFormat.SEMANTIC_COLOR, 4, MeshFormat.GL_FLOAT, false,
+                            positionBytes, 16),
+                    new VertexAttribute(MeshFormat.SEMANTIC_NORMAL, 3, MeshFormat.GL_FLOAT, false,
+                            positionBytes + colorBytes, 12) };
+            for (int i = 0; i < vertexCount * 3; i++) {
+                payload.putFloat(i * 4, positions[i]);
+                payload.putFloat(positionBytes + colorBytes + i * 4, normals[i]);
+            }
+            for (int i = 0; i < vertexCount * 4; i++) {
+                payload.putFloat(positionBytes + i * 4, colors[i]);
+            }
+            for (int i = 0; i < indexCount; i++) {
+                payload.putShort(indexOffset + i * 2, (short) indices[i]);
+            }
+            return new Mesh(vertexCount, attributes, payload, indexOffset, indexCount);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package util.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Turns a triangle list into an indexed mesh laid out for the GPU's vertex
+ * caches. Runs on a plain JVM, normally from MeshConverter at build time.
+ *
+ *   1. Weld: vertexes whose attributes are identical byte for byte become
+ *      one vertex, so each is transformed once however many triangles use it.
+ *   2. Triangle order: triangles are reordered with Tom Forsyth's linear-speed
+ *      vertex cache optimisation, so a vertex tends to be reused while it is
+ *      still in the post-transform cache.
+ *   3. Vertex order: vertexes are renumbered in the order the triangles
+ *      first use them, so fetching them walks memory forwards.
+ *
+ * The result has one tightly packed block per attribute followed by 16-bit
+ * indices, so it can have at most 65536 vertexes. averageCacheMissRatio()
+ * measures what it achieved.
+ */
+public class MeshOptimizer {
+    // FIFO cache size the reports are simulated with; older and low-end
+    // mobile GPUs have caches about this small
+    public static final int REPORT_CACHE_SIZE = 16;
+
+    // Forsyth's scoring: the LRU cache size modelled, how fast the score
+    // falls off with cache position, the score of the last triangle's
+    // vertexes (low, so a strip doesn't double back on itself), and the
+    // bonus for vertexes with few triangles left, so they get finished off
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+    private static final int VALENCE_TABLE_SIZE = 32;
+
+    private static final float[] CACHE_POSITION_SCORES = new float[CACHE_SIZE];
+    private static final float[] VALENCE_SCORES = new float[VALENCE_TABLE_SIZE];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            CACHE_POSITION_SCORES[i] = i < 3 ? LAST_TRIANGLE_SCORE
+                    : (float) Math.pow(1.0f - (float) (i - 3) / (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+        }
+        for (int i = 1; i < VALENCE_TABLE_SIZE; i++) {
+            VALENCE_SCORES[i] = valenceScore(i);
+        }
+    }
+
+    /** Welds, reorders and indexes a triangle list mesh (indexed or not). */
+    public static Mesh optimize(Mesh mesh) {
+        final int elementCount = mesh.getElementCount();
+        if (elementCount % 3 != 0) {
+            throw new IllegalArgumentException("Not a triangle list: " + elementCount + " vertexes");
+        }
+
+        // 1. one id per distinct vertex, and a source vertex for each id
+        final int[] representatives = new int[mesh.getVertexCount()];
+        final int[] ids = weld(mesh, representatives);
+        final int[] indices = new int[elementCount];
+        int uniqueCount = 0;
+        for (int i = 0; i < elementCount; i++) {
+            indices[i] = ids[mesh.getVertexIndex(i)];
+            uniqueCount = Math.max(uniqueCount, indices[i] + 1);
+        }
+
+        // 2. triangles in cache order
+        final int[] ordered = reorderTriangles(indices, uniqueCount);
+
+        // 3. vertexes in order of first use; any left unused are dropped
+        final int[] newIds = new int[uniqueCount];
+        final int[] sourceVertexes = new int[uniqueCount];
+        for (int i = 0; i < uniqueCount; i++) {
+            newIds[i] = -1;
+        }
+        int vertexCount = 0;
+        for (int i = 0; i < ordered.length; i++) {
+            final int id = ordered[i];
+            if (newIds[id] < 0) {
+                newIds[id] = vertexCount;
+                sourceVertexes[vertexCount++] = representatives[id];
+            }
+            ordered[i] = newIds[id];
+        }
+        if (vertexCount > MeshFormat.MAX_INDEXED_VERTEXES) {
+            throw new IllegalArgumentException("Too many vertexes for 16-bit indices: " + vertexCount);
+        }
+
+        return build(mesh, sourceVertexes, vertexCount, ordered);
+    }
+
+    /**
+     * Average cache miss ratio: vertexes transformed per triangle when the
+     * mesh is drawn through a FIFO post-transform cache of the given size.
+     * 3.0 means nothing is reused (an unindexed mesh); 0.5 is the best a
+     * large regular grid can get.
+     */
+    public static float averageCacheMissRatio(Mesh mesh, int cacheSize) {
+        final int elementCount = mesh.getElementCount();
+        if (elementCount < 3) {
+            return 0.0f;
+        }
+        if (!mesh.isIndexed()) {
+            return 3.0f;    // no index means no reuse, whatever the cache
+        }
+        final int[] fifo = new int[cacheSize];
+        int cached = 0;
+        int next = 0;
+        int misses = 0;
+        for (int i = 0; i < elementCount; i++) {
+            final int vertex = mesh.getVertexIndex(i);
+            boolean hit = false;
+            for (int c = 0; c < cached; c++) {
+                if (fifo[c] == vertex) {
+                    hit = true;
+                    break;
+                }
+            }
+            if (!hit) {
+                misses++;
+                fifo[next] = vertex;
+                next = (next + 1) % cacheSize;
+                cached = Math.min(cached + 1, cacheSize);
+            }
+        }
+        return (float) misses / (elementCount / 3);
+    }
+
+    /** One line comparing a mesh before and after optimize(). */
+    public static String report(Mesh before, Mesh after) {
+        return String.format(Locale.US, "%d -> %d vertexes, ACMR %.3f -> %.3f (FIFO %d)",
+                before.getVertexCount(), after.getVertexCount(),
+                averageCacheMissRatio(before, REPORT_CACHE_SIZE),
+                averageCacheMissRatio(after, REPORT_CACHE_SIZE), REPORT_CACHE_SIZE);
+    }
+
+    // Gives every vertex the id of the first vertex identical to it, numbering
+    // the distinct ones from 0, and stores a source vertex for each id.
+    private static int[] weld(Mesh mesh, int[] representatives) {
+        final int vertexCount = mesh.getVertexCount();
+        final ByteBuffer payload = mesh.getPayload();
+        final int[] ids = new int[vertexCount];
+
+        // open addressing on a hash of the vertex bytes; entries are id + 1
+        final int tableSize = Integer.highestOneBit(Math.max(vertexCount, 1) * 2 - 1) << 1;
+        final int[] table = new int[tableSize];
+        int uniqueCount = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            int slot = vertexHash(mesh, payload, v) & (tableSize - 1);
+            while (true) {
+                final int entry = table[slot];
+                if (entry == 0) {
+                    table[slot] = uniqueCount + 1;
+                    representatives[uniqueCount] = v;
+                    ids[v] = uniqueCount++;
+                    break;
+                }
+                if (sameVertex(mesh, payload, representatives[entry - 1], v)) {
+                    ids[v] = entry - 1;
+                    break;
+                }
+                slot = (slot + 1) & (tableSize - 1);
+            }
+        }
+        return ids;
+    }
+
+    private static int vertexHash(Mesh mesh, ByteBuffer payload, int vertex) {
+        int hash = 0x811c9dc5;
+        for (int a = 0; a < mesh.getAttributeCount(); a++) {
+            final VertexAttribute attribute = mesh.getAttribute(a);
+            final int size = attribute.sizeInBytes();
+            final int start = attribute.offset + vertex * stride(attribute);
+            for (int b = 0; b < size; b++) {
+                hash = (hash ^ payload.get(start + b)) * 0x01000193;
+            }
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sameVertex(Mesh mesh, ByteBuffer payload, int first, int second) {
+        for (int a = 0; a < mesh.getAttributeCount(); a++) {
+            final VertexAttribute attribute = mesh.getAttribute(a);
+            final int size = attribute.sizeInBytes();
+            final int from = attribute.offset + first * stride(attribute);
+            final int to = attribute.offset + second * stride(attribute);
+            for (int b = 0; b < size; b++) {
+                if (payload.get(from + b) != payload.get(to + b)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forsyth's greedy ordering: always emit the unemitted triangle with the
+     * highest score, where a triangle scores the sum of its vertexes' scores
+     * and a vertex scores higher the more recently it was used and the fewer
+     * triangles it has left. Only triangles touching the modelled cache are
+     * rescored after each step, which keeps the whole thing linear apart
+     * from a full search whenever the cache has nothing left to offer.
+     */
+    static int[] reorderTriangles(int[] indices, int vertexCount) {
+        final int triangleCount = indices.length / 3;
+
+        // the triangles using each vertex, as ranges of one array
+        final int[] remaining = new int[vertexCount];       // triangles not yet emitted, per vertex
+        for (int index : indices) {
+            remaining[index]++;
+        }
+        final int[] adjacencyStart = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            adjacencyStart[v + 1] = adjacencyStart[v] + remaining[v];
+        }
+        final int[] adjacency = new int[indices.length];
+        final int[] fill = new int[vertexCount];
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                final int v = indices[t * 3 + k];
+                adjacency[adjacencyStart[v] + fill[v]++] = t;
+            }
+        }
+
+        final int[] cachePositions = new int[vertexCount];
+        final float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            cachePositions[v] = -1;
+            vertexScores[v] = vertexScore(-1, remaining[v]);
+        }
+        final float[] triangleScores = new float[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+                    + vertexScores[indices[t * 3 + 2]];
+        }
+        final boolean[] emitted = new boolean[triangleCount];
+
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        final int[] output = new int[indices.length];
+        int best = -1;
+
+        for (int n = 0; n < triangleCount; n++) {
+            if (best < 0) {
+                best = bestTriangle(triangleScores, emitted);
+            }
+            emitted[best] = true;
+            final int a = indices[best * 3];
+            final int b = indices[best * 3 + 1];
+            final int c = indices[best * 3 + 2];
+            output[n * 3] = a;
+            output[n * 3 + 1] = b;
+            output[n * 3 + 2] = c;
+            remaining[a]--;
+            remaining[b]--;
+            remaining[c]--;
+
+            // the triangle's vertexes go to the front of the cache, and
+            // anything pushed past its end drops out
+            int newCount = 0;
+            newCache[newCount++] = a;
+            newCache[newCount++] = b;
+            newCache[newCount++] = c;
+            for (int i = 0; i < cacheCount; i++) {
+                final int v = cache[i];
+                if (v != a && v != b && v != c) {
+                    newCache[newCount++] = v;
+                }
+            }
+            for (int i = 0; i < newCount; i++) {
+                final int v = newCache[i];
+                cachePositions[v] = i < CACHE_SIZE ? i : -1;
+                vertexScores[v] = vertexScore(cachePositions[v], remaining[v]);
+            }
+
+            // rescore the triangles around every vertex whose score changed,
+            // and pick the best of those still in the cache for next time
+            best = -1;
+            float bestScore = -1.0f;
+            for (int i = 0; i < newCount; i++) {
+                final int v = newCache[i];
+                for (int j = adjacencyStart[v]; j < adjacencyStart[v + 1]; j++) {
+                    final int t = adjacency[j];
+                    if (emitted[t]) {
+                        continue;
+                    }
+                    final float score = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+                            + vertexScores[indices[t * 3 + 2]];
+                    triangleScores[t] = score;
+                    if (i < CACHE_SIZE && score > bestScore) {
+                        bestScore = score;
+                        best = t;
+                    }
+                }
+            }
+
+            final int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheCount = Math.min(newCount, CACHE_SIZE);
+        }
+        return output;
+    }
+
+    private static int bestTriangle(float[] triangleScores, boolean[] emitted) {
+        int best = -1;
+        float bestScore = -Float.MAX_VALUE;
+        for (int t = 0; t < triangleScores.length; t++) {
+            if (!emitted[t] && triangleScores[t] > bestScore) {
+                bestScore = triangleScores[t];
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    private static float vertexScore(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) {
+            return -1.0f;       // nothing left to draw with it
+        }
+        final float score = cachePosition >= 0 ? CACHE_POSITION_SCORES[cachePosition] : 0.0f;
+        return score + (remainingTriangles < VALENCE_TABLE_SIZE
+                ? VALENCE_SCORES[remainingTriangles] : valenceScore(remainingTriangles));
+    }
+
+    private static float valenceScore(int remainingTriangles) {
+        return VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+    }
+
+    // One tightly packed block per attribute, holding the given source
+    // vertexes in order, followed by the indices.
+    private static Mesh build(Mesh source, int[] sourceVertexes, int vertexCount, int[] indices) {
+        final int attributeCount = source.getAttributeCount();
+        final VertexAttribute[] attributes = new VertexAttribute[attributeCount];
+        int offset = 0;
+        for (int a = 0; a < attributeCount; a++) {
+            final VertexAttribute attribute = source.getAttribute(a);
+            final int size = attribute.sizeInBytes();
+            attributes[a] = new VertexAttribute(attribute.semantic, attribute.components, attribute.type,
+                    attribute.normalized, offset, size);
+            offset += align4(size * vertexCount);
+        }
+        final int indexOffset = offset;
+
+        final ByteBuffer from = source.getPayload();
+        final ByteBuffer payload = ByteBuffer.allocateDirect(indexOffset + indices.length * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int a = 0; a < attributeCount; a++) {
+            final VertexAttribute attribute = source.getAttribute(a);
+            final int size = attribute.sizeInBytes();
+            final int sourceStride = stride(attribute);
+            int to = attributes[a].offset;
+            for (int v = 0; v < vertexCount; v++, to += size) {
+                final int start = attribute.offset + sourceVertexes[v] * sourceStride;
+                for (int b = 0; b < size; b++) {
+                    payload.put(to + b, from.get(start + b));
+                }
+            }
+        }
+        for (int i = 0; i < indices.length; i++) {
+            payload.putShort(indexOffset + i * 2, (short) indices[i]);
+        }
+        return new Mesh(vertexCount, attributes, payload, indexOffset, indices.length);
+    }
+
+    private static int stride(VertexAttribute attribute) {
+        return attribute.stride != 0 ? attribute.stride : attribute.sizeInBytes();
+    }
+
+    private static int align4(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+}
@@ -0,0 +1,170 @@
+package util.mesh;
+
+import java.nio.ByteBuffer;
+
+import util.StagingArena;
+
+/**
+ * Converts float vertex attributes to smaller GL types, so a mesh takes
+ * less memory and less bandwidth to fetch:
+ *
+ *   PACK_COLORS     colors to 4 normalized unsigned bytes        16 -> 4 bytes
+ *   PACK_NORMALS    normals to 3 normalized signed bytes         12 -> 4 bytes
+ *                   (padded to 4 when interleaved)
+ *   PACK_POSITIONS  positions to half floats, where the GPU has  12 -> 8 bytes
+ *                   OES_vertex_half_float (padded to 8)
+ *
+ * Colors and normals use core OpenGL ES 2.0 types and can always be packed.
+ * Half-float positions need the extension; without it they stay floats.
+ * Attributes that aren't floats, or aren't asked for, are copied as they
+ * are, and so are the indices. The output has one tightly packed block per
+ * attribute, like MeshOptimizer's, in the StagingArena; release() the
+ * mesh once it has been uploaded. Runs on any thread.
+ */
+public class MeshPacker {
+    public static final int PACK_COLORS = 1;
+    public static final int PACK_NORMALS = 1 << 1;
+    public static final int PACK_POSITIONS = 1 << 2;
+
+    /** Name of the extension half-float positions need; look for it in GL_EXTENSIONS. */
+    public static final String HALF_FLOAT_EXTENSION = "GL_OES_vertex_half_float";
+
+    public static Mesh pack(Mesh mesh, int flags) {
+        final int vertexCount = mesh.getVertexCount();
+        final int attributeCount = mesh.getAttributeCount();
+        final VertexAttribute[] attributes = new VertexAttribute[attributeCount];
+        final int[] packedTypes = new int[attributeCount];
+
+        int offset = 0;
+        for (int a = 0; a < attributeCount; a++) {
+            final VertexAttribute attribute = mesh.getAttribute(a);
+            final int type = packedType(attribute, flags);
+            packedTypes[a] = type;
+            final boolean normalized = type != attribute.type
+                    ? type != MeshFormat.GL_HALF_FLOAT_OES : attribute.normalized;
+            final int size = attribute.components * MeshFormat.bytesPerComponent(type);
+            attributes[a] = new VertexAttribute(attribute.semantic, attribute.components, type,
+                    normalized, offset, size);
+            offset += align4(size * vertexCount);
+        }
+        final int indexOffset = offset;
+        final int indexCount = mesh.getIndexCount();
+
+        final ByteBuffer from = mesh.getPayload();
+        final ByteBuffer payload = StagingArena.shared().allocate(indexOffset + indexCount * 2);
+        for (int a = 0; a < attributeCount; a++) {
+            final VertexAttribute source = mesh.getAttribute(a);
+            final int sourceSize = source.sizeInBytes();
+            final int sourceStride = source.stride != 0 ? source.stride : sourceSize;
+            final int packedSize = attributes[a].sizeInBytes();
+            final int type = packedTypes[a];
+            int read = source.offset;
+            int write = attributes[a].offset;
+            for (int v = 0; v < vertexCount; v++, read += sourceStride, write += packedSize) {
+                if (type == source.type) {
+                    for (int b = 0; b < sourceSize; b++) {
+                        payload.put(write + b, from.get(read + b));
+                    }
+                    continue;
+                }
+                for (int c = 0; c < source.components; c++) {
+                    final float value = from.getFloat(read + c * 4);
+                    switch (type) {
+                        case MeshFormat.GL_UNSIGNED_BYTE:
+                            payload.put(write + c, toUnsignedByte(value));
+                            break;
+                        case MeshFormat.GL_BYTE:
+                            payload.put(write + c, toSignedByte(value));
+                            break;
+                        default:
+                            payload.putShort(write + c * 2, toHalf(value));
+                            break;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < indexCount; i++) {
+            payload.putShort(indexOffset + i * 2, (short) mesh.getVertexIndex(i));
+        }
+        return new Mesh(vertexCount, attributes, payload, indexOffset, indexCount);
+    }
+
+    /** Bytes one vertex takes once interleaved (see VertexBuffer), for comparing formats. */
+    public static int interleavedVertexSize(Mesh mesh) {
+        int size = 0;
+        for (int a = 0; a < mesh.getAttributeCount(); a++) {
+            size += align4(mesh.getAttribute(a).sizeInBytes());
+        }
+        return size;
+    }
+
+    private static int packedType(VertexAttribute attribute, int flags) {
+        if (attribute.type != MeshFormat.GL_FLOAT) {
+            return attribute.type;
+        }
+        switch (attribute.semantic) {
+            case MeshFormat.SEMANTIC_COLOR:
+                return (flags & PACK_COLORS) != 0 ? MeshFormat.GL_UNSIGNED_BYTE : MeshFormat.GL_FLOAT;
+            case MeshFormat.SEMANTIC_NORMAL:
+                return (flags & PACK_NORMALS) != 0 ? MeshFormat.GL_BYTE : MeshFormat.GL_FLOAT;
+            case MeshFormat.SEMANTIC_POSITION:
+                return (flags & PACK_POSITIONS) != 0 ? MeshFormat.GL_HALF_FLOAT_OES : MeshFormat.GL_FLOAT;
+            default:
+                return MeshFormat.GL_FLOAT;
+        }
+    }
+
+    // 0..1 to 0..255
+    static byte toUnsignedByte(float value) {
+        return (byte) Math.round(Math.max(0.0f, Math.min(1.0f, value)) * 255.0f);
+    }
+
+    // -1..1 to -127..127. ES 2.0 maps c back to (2c + 1) / 255 and ES 3.0 to
+    // c / 127; the two differ by less than half a step, and the shaders
+    // normalize normals anyway.
+    static byte toSignedByte(float value) {
+        return (byte) Math.round(Math.max(-1.0f, Math.min(1.0f, value)) * 127.0f);
+    }
+
+    /** IEEE 754 half precision bits of a float, rounded to nearest even; out of range values become infinity. */
+    static short toHalf(float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+
+        if (exponent == 0xff) {
+            // infinity stays infinity, NaN stays NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        if (halfExponent <= 0) {
+            if (halfExponent < -10) {
+                return (short) sign;    // too small even for a subnormal
+            }
+            // subnormal: shift the mantissa, with its implicit 1, into place
+            mantissa |= 0x800000;
+            final int shift = 14 - halfExponent;
+            int half = mantissa >> shift;
+            final int remainder = mantissa & ((1 << shift) - 1);
+            final int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (halfExponent << 10) | (mantissa >> 13);
+        final int remainder = mantissa & 0x1fff;
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            half++;     // may carry into the exponent, which is still correct
+        }
+        return (short) (sign | half);
+    }
+
+    private static int align4(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+}
@@ -0,0 +1,82 @@
+package util.mesh;
+
+import java.nio.ByteBuffer;
+
+import util.StagingArena;
+
+/**
+ * Builds batch meshes for OpenGL ES 2.0, which has no instanced drawing:
+ * the source mesh is repeated a number of times and every vertex gets an
+ * extra float attribute (SEMANTIC_INSTANCE) holding the number of the copy
+ * it belongs to. A vertex shader uses that number to pick the copy's matrix
+ * out of a uniform array, so up to `copies` objects are drawn with a single
+ * glDrawArrays call. The indices of an indexed mesh are repeated too, each
+ * copy's offset to its own vertexes, so the batch is one glDrawElements.
+ * The batch's payload is in the StagingArena; release() it once uploaded.
+ */
+public class MeshReplicator {
+    public static Mesh replicate(Mesh mesh, int copies) {
+        final int vertexCount = mesh.getVertexCount();
+        final int attributeCount = mesh.getAttributeCount();
+        final int totalVertexes = vertexCount * copies;
+
+        final int indexCount = mesh.getIndexCount() * copies;
+        if (indexCount > 0 && totalVertexes > MeshFormat.MAX_INDEXED_VERTEXES) {
+            throw new IllegalArgumentException("Batch of " + copies + " has too many vertexes for 16-bit indices");
+        }
+
+        int payloadBytes = totalVertexes * 4 + indexCount * 2;      // instance indexes and indices
+        for (int i = 0; i < attributeCount; i++) {
+            payloadBytes += totalVertexes * align4(mesh.getAttribute(i).sizeInBytes());
+        }
+
+        ByteBuffer payload = StagingArena.shared().allocate(payloadBytes);
+        ByteBuffer source = mesh.getPayload();
+        VertexAttribute[] attributes = new VertexAttribute[attributeCount + 1];
+
+        // each source attribute becomes one tightly packed block of all the copies
+        int offset = 0;
+        for (int i = 0; i < attributeCount; i++) {
+            VertexAttribute attribute = mesh.getAttribute(i);
+            final int size = attribute.sizeInBytes();
+            final int sourceStride = attribute.stride != 0 ? attribute.stride : size;
+            final int stride = align4(size);
+            attributes[i] = new VertexAttribute(attribute.semantic, attribute.components,
+                    attribute.type, attribute.normalized, offset, stride);
+
+            int to = offset;
+            for (int copy = 0; copy < copies; copy++) {
+                int from = attribute.offset;
+                for (int v = 0; v < vertexCount; v++, from += sourceStride, to += stride) {
+                    for (int b = 0; b < size; b++) {
+                        payload.put(to + b, source.get(from + b));
+                    }
+                }
+            }
+            offset = to;
+        }
+
+        attributes[attributeCount] = new VertexAttribute(MeshFormat.SEMANTIC_INSTANCE, 1,
+                MeshFormat.GL_FLOAT, false, offset, 4);
+        for (int copy = 0; copy < copies; copy++) {
+            for (int v = 0; v < vertexCount; v++, offset += 4) {
+                payload.putFloat(offset, copy);
+            }
+        }
+
+        final int indexOffset = offset;
+        final int sourceIndexCount = mesh.getIndexCount();
+        for (int copy = 0; copy < copies; copy++) {
+            final int base = copy * vertexCount;
+            for (int i = 0; i < sourceIndexCount; i++, offset += 2) {
+                payload.putShort(offset, (short) (base + mesh.getVertexIndex(i)));
+            }
+        }
+
+        return new Mesh(totalVertexes, attributes, payload, indexOffset, indexCount);
+    }
+
+    private static int align4(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+}
@@ -0,0 +1,114 @@
+package util.mesh;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import util.LoggerConfig;
+
+/**
+ * Loads .lwmesh raw resources. When the resource is stored uncompressed in
+ * the APK (see aaptOptions in build.gradle) the file is memory mapped and
+ * the payload is used in place; otherwise it is bulk-read into a single
+ * direct buffer. Either way no per-value work is done on the Java side.
+ *
+ * The payload is little-endian, which matches every Android ABI, so the
+ * buffers can be given to GL as they are.
+ */
+public class MeshResourceReader {
+    private static final String TAG = "MeshResourceReader";
+
+    public static Mesh readMeshFromResource(Context context, int resourceId) {
+        try {
+            Mesh mesh = mapMesh(context.getResources(), resourceId);
+            if (mesh != null) {
+                return mesh;
+            }
+
+            InputStream inputStream = context.getResources().openRawResource(resourceId);
+            try {
+                return readMesh(inputStream);
+            } finally {
+                inputStream.close();
+            }
+
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "Could not open resource: " + resourceId, e);
+
+        } catch (Resources.NotFoundException nfe) {
+            throw new RuntimeException("Resource not found: " + resourceId, nfe);
+        }
+    }
+
+    /**
+     * Bulk-reads a mesh from a stream into one direct buffer: the header is
+     * read first to learn the total size, then everything else lands in the
+     * buffer with a single channel read loop.
+     */
+    public static Mesh readMesh(InputStream inputStream) throws IOException {
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+
+        ByteBuffer header = ByteBuffer.allocate(MeshFormat.HEADER_SIZE);
+        readFully(channel, header);
+        final int attributeCount = MeshFormat.readAttributeCount(header);
+        final int payloadBytes = MeshFormat.readPayloadBytes(header);
+
+        ByteBuffer file = ByteBuffer
+                .allocateDirect(MeshFormat.payloadStart(attributeCount) + payloadBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.flip();
+        file.put(header);
+        readFully(channel, file);
+        file.flip();
+
+        return MeshFormat.read(file);
+    }
+
+    // Returns null when the resource is compressed and can't be mapped.
+    private static Mesh mapMesh(Resources resources, int resourceId) throws IOException {
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = resources.openRawResourceFd(resourceId);
+        } catch (Resources.NotFoundException e) {
+            // thrown for compressed entries as well as missing ones; the
+            // stream path will tell the two apart
+            descriptor = null;
+        }
+        if (descriptor == null) {
+            if (LoggerConfig.ON) {
+                Log.w(TAG, "Mesh resource " + resourceId + " is compressed, reading it instead of mapping");
+            }
+            return null;
+        }
+
+        FileInputStream fileInputStream = descriptor.createInputStream();
+        try {
+            FileChannel channel = fileInputStream.getChannel();
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength());
+            return MeshFormat.read(file);
+        } finally {
+            fileInputStream.close();
+            descriptor.close();
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of mesh data");
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package util.mesh;
+
+/**
+ * Describes where one vertex attribute lives inside a mesh payload: which
+ * semantic it carries, how many components it has, the GL component type,
+ * and the byte offset/stride used to walk it.
+ */
+public final class VertexAttribute {
+    public final int semantic;      // one of the MeshFormat.SEMANTIC_* constants
+    public final int components;    // 1..4 components per vertex
+    public final int type;          // GL component type, e.g. GL_FLOAT
+    public final boolean normalized;
+    public final int offset;        // byte offset of the first element in the payload
+    public final int stride;        // byte distance between consecutive vertexes
+
+    public VertexAttribute(int semantic, int components, int type, boolean normalized,
+                           int offset, int stride) {
+        this.semantic = semantic;
+        this.components = components;
+        this.type = type;
+        this.normalized = normalized;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    /** Size in bytes of one element of this attribute. */
+    public int sizeInBytes() {
+        return components * MeshFormat.bytesPerComponent(type);
+    }
+}
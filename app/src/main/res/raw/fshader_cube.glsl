@@ -0,0 +1,37 @@
+// See vshader_cube.glsl for the variant defines. PRECISION_HIGH and
+// PRECISION_LOW choose the float precision, where the GPU has it.
+#if defined(PRECISION_HIGH) && defined(GL_FRAGMENT_PRECISION_HIGH)
+precision highp float;
+#elif defined(PRECISION_LOW)
+precision lowp float;
+#else
+precision mediump float;
+#endif
+
+varying vec4 v_Color;          // color from the vertex shader interpolated to fragment
+
+#ifdef LIGHTING_PER_FRAGMENT
+uniform vec3 u_LightPos;       // light position transformed to view space
+varying vec3 v_Position;       // interpolated position for this fragment.
+varying vec3 v_Normal;         // interpolated normal for this fragment.
+
+float diffuse(vec3 position, vec3 normal) {
+    vec3 toLight = u_LightPos - position;
+    // dot product of the light vector and vertex normal. Max illumination when
+    // they are both pointing in the same direction
+    float diffuse = max(dot(normal, normalize(toLight)), 0.1);
+#ifdef ATTENUATION
+    float distance = length(toLight);
+    diffuse = diffuse * (1.0 / (1.0 + (0.25 * distance * distance)));
+#endif
+    return diffuse;
+}
+#endif
+
+void main() {
+#ifdef LIGHTING_PER_FRAGMENT
+    gl_FragColor = v_Color * diffuse(v_Position, v_Normal);
+#else
+    gl_FragColor = v_Color;
+#endif
+}
@@ -0,0 +1,8 @@
+precision mediump float;
+
+uniform sampler2D u_Texture;   // the offscreen color buffer, linearly filtered
+varying vec2 v_TexCoord;
+
+void main() {
+    gl_FragColor = texture2D(u_Texture, v_TexCoord);
+}
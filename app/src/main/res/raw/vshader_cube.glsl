@@ -0,0 +1,59 @@
+// Every cube shader is built from this source and fshader_cube.glsl; the
+// renderer picks a variant by defining some of:
+//   BATCHED                model/view matrices come from u_MVMatrices,
+//                          MAX_INSTANCES of them, picked by a_InstanceIndex
+//   LIGHTING_PER_VERTEX    light each vertex here
+//   LIGHTING_PER_FRAGMENT  pass position and normal on to light each fragment
+//                          (with neither, the cubes are unlit)
+//   ATTENUATION            light falls off with distance
+#ifdef BATCHED
+uniform mat4 u_MVMatrices[MAX_INSTANCES];  // model/view matrix of every instance in the batch
+uniform mat4 u_PMatrix;                    // projection matrix
+attribute float a_InstanceIndex;           // which entry of u_MVMatrices this vertex uses
+#else
+uniform mat4 u_MVPMatrix;
+uniform mat4 u_MVMatrix;
+#endif
+attribute vec4 a_Position;
+attribute vec4 a_Color;
+attribute vec3 a_Normal;           // may be packed into bytes, so only roughly unit length
+varying vec4 v_Color;
+
+#if defined(LIGHTING_PER_FRAGMENT)
+varying vec3 v_Position;
+varying vec3 v_Normal;
+#elif defined(LIGHTING_PER_VERTEX)
+uniform vec3 u_LightPos;       // light position transformed to view space
+
+float diffuse(vec3 position, vec3 normal) {
+    vec3 toLight = u_LightPos - position;
+    float diffuse = max(dot(normal, normalize(toLight)), 0.1);
+#ifdef ATTENUATION
+    float distance = length(toLight);
+    diffuse = diffuse * (1.0 / (1.0 + (0.25 * distance * distance)));
+#endif
+    return diffuse;
+}
+#endif
+
+void main() {
+#ifdef BATCHED
+    mat4 mvMatrix = u_MVMatrices[int(a_InstanceIndex)];
+    vec3 position = vec3(mvMatrix * a_Position);
+    gl_Position = u_PMatrix * vec4(position, 1.0);
+#else
+    mat4 mvMatrix = u_MVMatrix;
+    vec3 position = vec3(mvMatrix * a_Position);
+    gl_Position = u_MVPMatrix * a_Position;
+#endif
+
+#if defined(LIGHTING_PER_FRAGMENT)
+    v_Position = position;
+    v_Normal = normalize(vec3(mvMatrix * vec4(a_Normal, 0.0)));
+    v_Color = a_Color;
+#elif defined(LIGHTING_PER_VERTEX)
+    v_Color = a_Color * diffuse(position, normalize(vec3(mvMatrix * vec4(a_Normal, 0.0))));
+#else
+    v_Color = a_Color;
+#endif
+}
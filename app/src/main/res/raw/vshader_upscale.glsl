@@ -0,0 +1,11 @@
+// Draws the scene, rendered offscreen at a reduced size, over the whole
+// surface. a_Position is a full-screen quad in clip space; u_TexScale is the
+// part of the offscreen texture the scene filled.
+uniform vec2 u_TexScale;
+attribute vec4 a_Position;
+varying vec2 v_TexCoord;
+
+void main() {
+    v_TexCoord = (a_Position.xy * 0.5 + 0.5) * u_TexScale;
+    gl_Position = a_Position;
+}
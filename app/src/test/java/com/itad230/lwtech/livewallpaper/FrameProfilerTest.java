@@ -0,0 +1,60 @@
+package com.itad230.lwtech.livewallpaper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameProfilerTest {
+    private static final long FAST = 5000000L;
+    private static final long SLOW = 30000000L;
+
+    private FrameProfiler profiler;
+    private long clock;
+
+    @Before
+    public void setUp() {
+        profiler = new FrameProfiler();
+        clock = 1000000000L;
+    }
+
+    @Test
+    public void frameSlowOnBothCountsOnce() {
+        frame(1, SLOW);
+        profiler.recordGpuTime(SLOW, 1);
+        assertEquals(1, profiler.getJankFrameCount());
+    }
+
+    @Test
+    public void lateGpuTimeFindsItsFrame() {
+        frame(1, SLOW);
+        frame(2, FAST);
+        frame(3, FAST);
+        // frame 1 is already jank; frame 2 becomes jank on its GPU time alone
+        profiler.recordGpuTime(SLOW, 1);
+        profiler.recordGpuTime(SLOW, 2);
+        profiler.recordGpuTime(FAST, 3);
+        assertEquals(3, profiler.getFrameCount());
+        assertEquals(2, profiler.getJankFrameCount());
+    }
+
+    @Test
+    public void gpuTimeOfAnUnprofiledFrameIsNotJank() {
+        frame(20, FAST);
+        profiler.recordGpuTime(SLOW, 4);         // same slot, another frame
+        profiler.recordGpuTime(SLOW, 21);        // not profiled
+        assertEquals(0, profiler.getJankFrameCount());
+
+        profiler.reset();
+        profiler.recordGpuTime(SLOW, 20);
+        assertEquals(0, profiler.getJankFrameCount());
+    }
+
+    private void frame(long number, long cpuNanos) {
+        profiler.beginFrame(clock, number);
+        profiler.endUpdate(clock + cpuNanos / 2);
+        clock += cpuNanos;
+        profiler.endFrame(clock, 10, 1);
+        clock += 33000000L;
+    }
+}
@@ -0,0 +1,100 @@
+package com.itad230.lwtech.livewallpaper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSchedulerTest {
+    private static final long VSYNC_60HZ = 16666667L;
+
+    private FrameScheduler scheduler;
+    private long clock;                 // made-up vsync clock, starting well away from 0
+
+    @Before
+    public void setUp() {
+        scheduler = new FrameScheduler();
+        clock = 5000000000L;
+    }
+
+    @Test
+    public void rendersNothingUntilStarted() {
+        assertEquals(0, framesOver(60, VSYNC_60HZ));
+    }
+
+    @Test
+    public void pacesAt60HzDisplayToTheTarget() {
+        scheduler.start();
+        assertEquals(30, framesOver(60, VSYNC_60HZ));
+    }
+
+    @Test
+    public void toleratesVsyncJitter() {
+        scheduler.start();
+        int frames = 0;
+        for (int i = 0; i < 60; i++) {
+            // each vsync up to 1 ms off the ideal time
+            clock += VSYNC_60HZ + (i % 2 == 0 ? 1000000L : -1000000L);
+            if (scheduler.onVsync(clock)) {
+                frames++;
+            }
+        }
+        assertEquals(30, frames);
+    }
+
+    @Test
+    public void followsTheTargetRate() {
+        scheduler.setTargetFps(20);
+        scheduler.start();
+        assertEquals(20, framesOver(60, VSYNC_60HZ));
+        assertEquals(20, scheduler.getTargetFps());
+    }
+
+    @Test
+    public void doesNotBurstAfterAStall() {
+        scheduler.start();
+        framesOver(10, VSYNC_60HZ);
+        clock += 1000000000L;                       // the process was stalled for a second
+        assertTrue(scheduler.onVsync(clock));
+        assertFalse(scheduler.onVsync(clock += VSYNC_60HZ));
+        assertTrue(scheduler.onVsync(clock += VSYNC_60HZ));
+    }
+
+    @Test
+    public void invalidateRendersTheNextVsync() {
+        scheduler.start();
+        assertTrue(scheduler.onVsync(clock += VSYNC_60HZ));
+        assertFalse(scheduler.onVsync(clock += 1000000L));
+        scheduler.invalidate();
+        assertTrue(scheduler.onVsync(clock += 1000000L));
+        assertFalse(scheduler.onVsync(clock += 1000000L));
+    }
+
+    @Test
+    public void stopDropsPendingFrames() {
+        scheduler.start();
+        scheduler.stop();
+        scheduler.invalidate();
+        assertFalse(scheduler.isRunning());
+        assertEquals(0, framesOver(60, VSYNC_60HZ));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveTarget() {
+        scheduler.setTargetFps(0);
+    }
+
+    // Feeds count vsyncs interval apart and returns how many rendered.
+    private int framesOver(int count, long interval) {
+        int frames = 0;
+        for (int i = 0; i < count; i++) {
+            clock += interval;
+            if (scheduler.onVsync(clock)) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+}
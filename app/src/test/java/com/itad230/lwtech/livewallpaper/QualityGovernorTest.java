@@ -0,0 +1,78 @@
+package com.itad230.lwtech.livewallpaper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QualityGovernorTest {
+    private static final long BUDGET = 10000000L;
+    private static final long FAST = 5000000L;
+    private static final long SLOW = 20000000L;
+
+    @Test
+    public void startingTierFollowsFillCost() {
+        assertEquals(QualityGovernor.TIER_HIGH, QualityGovernor.tierForFillCost(0.4f));
+        assertEquals(QualityGovernor.TIER_MEDIUM, QualityGovernor.tierForFillCost(0.5f));
+        assertEquals(QualityGovernor.TIER_MEDIUM, QualityGovernor.tierForFillCost(1.9f));
+        assertEquals(QualityGovernor.TIER_LOW, QualityGovernor.tierForFillCost(2.0f));
+    }
+
+    @Test
+    public void keepsTheTierWithTooFewSlowFrames() {
+        final QualityGovernor governor = new QualityGovernor(QualityGovernor.TIER_HIGH, BUDGET);
+        assertFalse(window(governor, QualityGovernor.OVER_BUDGET_FRAMES_TO_DOWNGRADE - 1));
+        assertEquals(QualityGovernor.TIER_HIGH, governor.getTier());
+    }
+
+    @Test
+    public void dropsOneTierAtTheEndOfASlowWindow() {
+        final QualityGovernor governor = new QualityGovernor(QualityGovernor.TIER_HIGH, BUDGET);
+        // every slow frame comes first, but nothing changes before the window is over
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES - 1; i++) {
+            assertFalse(governor.recordFrame(i < QualityGovernor.OVER_BUDGET_FRAMES_TO_DOWNGRADE ? SLOW : FAST));
+        }
+        assertTrue(governor.recordFrame(FAST));
+        assertEquals(QualityGovernor.TIER_MEDIUM, governor.getTier());
+        assertEquals(1, governor.getDowngradeCount());
+    }
+
+    @Test
+    public void frameExactlyOnBudgetIsNotSlow() {
+        final QualityGovernor governor = new QualityGovernor(QualityGovernor.TIER_HIGH, BUDGET);
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES; i++) {
+            governor.recordFrame(BUDGET);
+        }
+        assertEquals(QualityGovernor.TIER_HIGH, governor.getTier());
+    }
+
+    @Test
+    public void stopsAtTheLowTierAndNeverGoesBackUp() {
+        final QualityGovernor governor = new QualityGovernor(QualityGovernor.TIER_HIGH, BUDGET);
+        for (int w = 0; w < 4; w++) {
+            window(governor, QualityGovernor.WINDOW_FRAMES);
+        }
+        assertEquals(QualityGovernor.TIER_LOW, governor.getTier());
+        assertEquals(2, governor.getDowngradeCount());
+
+        for (int w = 0; w < 4; w++) {
+            window(governor, 0);
+        }
+        assertEquals(QualityGovernor.TIER_LOW, governor.getTier());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownTier() {
+        new QualityGovernor(QualityGovernor.TIER_HIGH + 1, BUDGET);
+    }
+
+    // Records one window with the given number of slow frames; returns whether the tier changed.
+    private static boolean window(QualityGovernor governor, int slowFrames) {
+        boolean changed = false;
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES; i++) {
+            changed |= governor.recordFrame(i < slowFrames ? SLOW : FAST);
+        }
+        return changed;
+    }
+}
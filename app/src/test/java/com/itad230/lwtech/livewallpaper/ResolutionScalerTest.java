@@ -0,0 +1,89 @@
+package com.itad230.lwtech.livewallpaper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionScalerTest {
+    private static final long BUDGET = 10000000L;
+    private static final float EPSILON = 1e-6f;
+
+    private ResolutionScaler scaler;
+
+    @Before
+    public void setUp() {
+        scaler = new ResolutionScaler(0.5f, 1.0f, BUDGET);
+    }
+
+    @Test
+    public void startsAtTheMaximum() {
+        assertEquals(1.0f, scaler.getScale(), EPSILON);
+        assertFalse(scaler.isAtMinimum());
+    }
+
+    @Test
+    public void dropsStraightToWhatTheBudgetAllows() {
+        for (int i = 0; i < ResolutionScaler.WINDOW_FRAMES - 1; i++) {
+            assertFalse(scaler.recordFrame(2 * BUDGET));
+        }
+        assertTrue(scaler.recordFrame(2 * BUDGET));
+        // twice the budget: sqrt(0.85 / 2) = 0.65 of the pixels, floored to a step
+        assertEquals(10 * ResolutionScaler.STEP, scaler.getScale(), EPSILON);
+        assertEquals(1, scaler.getChangeCount());
+    }
+
+    @Test
+    public void neverDropsBelowTheMinimum() {
+        window(10 * BUDGET);
+        assertEquals(0.5f, scaler.getScale(), EPSILON);
+        assertTrue(scaler.isAtMinimum());
+    }
+
+    @Test
+    public void holdsBetweenHeadroomAndBudget() {
+        window(2 * BUDGET);
+        final float dropped = scaler.getScale();
+        for (int w = 0; w < 10; w++) {
+            assertFalse(window(8 * BUDGET / 10));
+            assertFalse(window(BUDGET));
+        }
+        assertEquals(dropped, scaler.getScale(), EPSILON);
+    }
+
+    @Test
+    public void recoversOneStepPerWindow() {
+        window(10 * BUDGET);
+        for (int w = 1; w <= 8; w++) {
+            assertTrue(window(BUDGET / 2));
+            assertEquals(0.5f + w * ResolutionScaler.STEP, scaler.getScale(), EPSILON);
+        }
+        assertFalse(window(BUDGET / 2));
+        assertEquals(1.0f, scaler.getScale(), EPSILON);
+    }
+
+    @Test
+    public void judgesTheWindowAverage() {
+        // a single very slow frame in an otherwise quick window is absorbed
+        scaler.recordFrame(5 * BUDGET);
+        for (int i = 1; i < ResolutionScaler.WINDOW_FRAMES; i++) {
+            scaler.recordFrame(BUDGET / 2);
+        }
+        assertEquals(1.0f, scaler.getScale(), EPSILON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMinimumAboveTheMaximum() {
+        new ResolutionScaler(0.8f, 0.5f, BUDGET);
+    }
+
+    private boolean window(long frameNanos) {
+        boolean changed = false;
+        for (int i = 0; i < ResolutionScaler.WINDOW_FRAMES; i++) {
+            changed |= scaler.recordFrame(frameNanos);
+        }
+        return changed;
+    }
+}
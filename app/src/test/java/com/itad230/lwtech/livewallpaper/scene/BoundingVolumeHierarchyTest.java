@@ -0,0 +1,85 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import util.math.Frustum;
+import util.math.Mat4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BoundingVolumeHierarchyTest {
+    private static final int OBJECTS = 2000;
+
+    private final Random random = new Random(31);
+
+    @Test
+    public void cullsLikeTestingEverySphere() {
+        // ids in a shuffled order, spheres scattered around the view volume
+        final int[] ids = new int[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            ids[i] = i;
+        }
+        for (int i = OBJECTS - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int swap = ids[i];
+            ids[i] = ids[j];
+            ids[j] = swap;
+        }
+        final float[] spheres = new float[OBJECTS * 4];
+        scatter(spheres);
+        final Frustum frustum = frustum();
+
+        final BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy();
+        hierarchy.build(ids, OBJECTS, spheres);
+        assertArrayEquals(bruteForce(frustum, spheres), cull(hierarchy, frustum, spheres));
+        // whole boxes in or out save most of the tests
+        assertTrue(hierarchy.getNodeTestCount() < OBJECTS / 4);
+
+        // objects move; the refitted tree still agrees
+        scatter(spheres);
+        hierarchy.refit(spheres);
+        assertArrayEquals(bruteForce(frustum, spheres), cull(hierarchy, frustum, spheres));
+    }
+
+    private void scatter(float[] spheres) {
+        for (int i = 0; i < OBJECTS; i++) {
+            spheres[i * 4] = (random.nextFloat() - 0.5f) * 40.0f;
+            spheres[i * 4 + 1] = (random.nextFloat() - 0.5f) * 40.0f;
+            spheres[i * 4 + 2] = -random.nextFloat() * 40.0f;
+            spheres[i * 4 + 3] = random.nextFloat() * 0.5f;
+        }
+    }
+
+    private static Frustum frustum() {
+        final float[] projection = new float[16];
+        Mat4.setFrustum(projection, 0, -0.5f, 0.5f, -0.5f, 0.5f, 1.0f, 30.0f);
+        final Frustum frustum = new Frustum();
+        frustum.set(projection, 0);
+        return frustum;
+    }
+
+    private static int[] bruteForce(Frustum frustum, float[] spheres) {
+        final int[] visible = new int[OBJECTS];
+        int count = 0;
+        for (int id = 0; id < OBJECTS; id++) {
+            final int s = id * 4;
+            if (frustum.classifySphere(spheres[s], spheres[s + 1], spheres[s + 2], spheres[s + 3])
+                    != Frustum.OUTSIDE) {
+                visible[count++] = id;
+            }
+        }
+        return Arrays.copyOf(visible, count);
+    }
+
+    private static int[] cull(BoundingVolumeHierarchy hierarchy, Frustum frustum, float[] spheres) {
+        final int[] visible = new int[OBJECTS];
+        final int count = hierarchy.cull(frustum, spheres, visible);
+        final int[] sorted = Arrays.copyOf(visible, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,95 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LevelOfDetailTest {
+    private static final int MODEL = 0;
+    private static final int[] MESHES = { 10, 11, 12 };
+    private static final float[] SWITCH_SIZES = { 0.3f, 0.18f };
+    private static final float STEP = 0.01f;
+
+    private final LevelOfDetail levelOfDetail = new LevelOfDetail();
+    private final Scene scene = new Scene(2);
+    private final FrameTransforms transforms = new FrameTransforms();
+
+    @Before
+    public void setUp() {
+        levelOfDetail.setLevels(MODEL, MESHES, SWITCH_SIZES);
+        scene.addObject(Scene.NO_PARENT, MODEL, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f);
+        // a plain model keeps its own mesh
+        scene.addObject(Scene.NO_PARENT, 3, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f);
+        scene.setBoundingRadius(0, 1.0f);
+        scene.setBoundingRadius(1, 1.0f);
+        // with a vertical scale of 1, a unit sphere's screen size is 1 / distance
+        transforms.projectionMatrix[5] = 1.0f;
+        transforms.setCount(2);
+        final int[] visible = transforms.prepareVisible(2);
+        visible[0] = 0;
+        visible[1] = 1;
+        transforms.setVisibleCount(2);
+    }
+
+    @Test
+    public void movingAwaySwitchesOnlyPastTheHysteresis() {
+        // where each level gives way: its switch size less the hysteresis
+        final float toLevel1 = 1.0f / (SWITCH_SIZES[0] * (1.0f - LevelOfDetail.HYSTERESIS));
+        final float toLevel2 = 1.0f / (SWITCH_SIZES[1] * (1.0f - LevelOfDetail.HYSTERESIS));
+
+        for (float distance = 2.0f; distance < 10.0f; distance += STEP) {
+            final int expected = distance <= toLevel1 ? 0 : (distance <= toLevel2 ? 1 : 2);
+            assertEquals("at " + distance, MESHES[expected], meshAt(distance));
+        }
+        assertEquals(2, levelOfDetail.getChangeCount());
+        assertEquals(3, transforms.getVisibleMeshes()[1]);
+    }
+
+    @Test
+    public void comingBackSwitchesOnlyPastTheHysteresis() {
+        meshAt(10.0f);
+        final float toLevel1 = 1.0f / (SWITCH_SIZES[1] * (1.0f + LevelOfDetail.HYSTERESIS));
+        final float toLevel0 = 1.0f / (SWITCH_SIZES[0] * (1.0f + LevelOfDetail.HYSTERESIS));
+
+        for (float distance = 10.0f; distance > 2.0f; distance -= STEP) {
+            final int expected = distance >= toLevel1 ? 2 : (distance >= toLevel0 ? 1 : 0);
+            assertEquals("at " + distance, MESHES[expected], meshAt(distance));
+        }
+    }
+
+    @Test
+    public void doesNotFlipNearAThreshold() {
+        // straddling the plain threshold, 1 / 0.3, from the finest level
+        final float threshold = 1.0f / SWITCH_SIZES[0];
+        meshAt(2.0f);
+        final int changes = levelOfDetail.getChangeCount();
+        for (int frame = 0; frame < 100; frame++) {
+            final float distance = threshold + (frame % 2 == 0 ? 0.3f : -0.3f);
+            assertEquals(MESHES[0], meshAt(distance));
+        }
+        assertEquals(changes, levelOfDetail.getChangeCount());
+
+        // and the same once it has gone to the coarser level
+        meshAt(5.0f);
+        assertTrue(levelOfDetail.getChangeCount() > changes);
+        for (int frame = 0; frame < 100; frame++) {
+            final float distance = threshold + (frame % 2 == 0 ? 0.3f : -0.3f);
+            assertEquals(MESHES[1], meshAt(distance));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsOneSwitchSizeBetweenEachPairOfLevels() {
+        levelOfDetail.setLevels(1, MESHES, new float[] { 0.3f });
+    }
+
+    // Puts both objects at the given distance in front of the eye and returns the first's mesh.
+    private int meshAt(float distance) {
+        transforms.getModelViewMatrices()[14] = -distance;
+        transforms.getModelViewMatrices()[16 + 14] = -distance;
+        levelOfDetail.select(scene, transforms);
+        return transforms.getVisibleMeshes()[0];
+    }
+}
@@ -0,0 +1,89 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderQueueTest {
+    @Test
+    public void keyFieldsRoundTripAndAreMasked() {
+        final long key = RenderQueue.key(3, 200, 17, 40000);
+        assertEquals(3, RenderQueue.layerOf(key));
+        assertEquals(200, RenderQueue.programOf(key));
+        assertEquals(17, RenderQueue.meshOf(key));
+        assertEquals(40000, RenderQueue.depthOf(key));
+
+        final long masked = RenderQueue.key(RenderQueue.MAX_LAYER + 2, 0, 0, 0);
+        assertEquals(1, RenderQueue.layerOf(masked));
+        assertEquals(0, RenderQueue.programOf(masked));
+    }
+
+    @Test
+    public void sameStateIgnoresDepth() {
+        assertTrue(RenderQueue.sameState(RenderQueue.key(1, 2, 3, 0), RenderQueue.key(1, 2, 3, 999)));
+        assertFalse(RenderQueue.sameState(RenderQueue.key(1, 2, 3, 0), RenderQueue.key(1, 2, 4, 0)));
+    }
+
+    @Test
+    public void depthBucketClampsToThePlanes() {
+        assertEquals(0, RenderQueue.depthBucket(0.5f, 1.0f, 11.0f));
+        assertEquals(0, RenderQueue.depthBucket(Float.NaN, 1.0f, 11.0f));
+        assertEquals(RenderQueue.MAX_DEPTH / 2, RenderQueue.depthBucket(6.0f, 1.0f, 11.0f));
+        assertEquals(RenderQueue.MAX_DEPTH, RenderQueue.depthBucket(20.0f, 1.0f, 11.0f));
+    }
+
+    @Test
+    public void sortsLikeAStableUnsignedSort() {
+        final Random random = new Random(23);
+        final RenderQueue queue = new RenderQueue(1);   // grows as it goes
+        final int n = 1000;
+        final Long[][] expected = new Long[n][];
+        for (int i = 0; i < n; i++) {
+            // few distinct fields, so there are plenty of equal keys; layers
+            // above 7 make the keys negative as signed numbers
+            final long key = RenderQueue.key(random.nextInt(16), random.nextInt(4), random.nextInt(4),
+                    random.nextInt(8));
+            queue.add(key, i);
+            expected[i] = new Long[] { key, (long) i };
+        }
+        Arrays.sort(expected, new Comparator<Long[]>() {
+            @Override
+            public int compare(Long[] a, Long[] b) {
+                // flipping the sign bit orders signed longs as unsigned; Arrays.sort is stable
+                final long x = a[0] ^ Long.MIN_VALUE;
+                final long y = b[0] ^ Long.MIN_VALUE;
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+
+        queue.sort();
+        assertEquals(n, queue.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i][0].longValue(), queue.getKey(i));
+            assertEquals(expected[i][1].intValue(), queue.getItem(i));
+        }
+    }
+
+    @Test
+    public void clearStartsAnEmptyFrame() {
+        final RenderQueue queue = new RenderQueue(4);
+        queue.add(RenderQueue.key(0, 0, 0, 2), 7);
+        queue.add(RenderQueue.key(0, 0, 0, 1), 8);
+        queue.sort();
+        assertEquals(8, queue.getItem(0));
+
+        queue.clear();
+        assertEquals(0, queue.size());
+        queue.add(RenderQueue.key(0, 1, 0, 0), 1);
+        queue.add(RenderQueue.key(0, 0, 0, 0), 2);
+        queue.sort();
+        assertEquals(2, queue.getItem(0));
+        assertEquals(1, queue.getItem(1));
+    }
+}
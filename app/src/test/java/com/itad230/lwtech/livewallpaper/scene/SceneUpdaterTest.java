@@ -0,0 +1,118 @@
+package com.itad230.lwtech.livewallpaper.scene;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import util.WorkerPool;
+import util.math.Mat4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SceneUpdaterTest {
+    private static final double[] TIMES = { 0.0, 0.5, 1.25, 7.0 };
+
+    @Test
+    public void parallelSceneUpdateMatchesTheSerialOne() {
+        final Scene serial = buildScene();
+        final Scene parallel = buildScene();
+        final WorkerPool pool = new WorkerPool(4);
+        try {
+            for (double time : TIMES) {
+                serial.update(time);
+                parallel.update(time, pool);
+                final int floats = serial.getCount() * 16;
+                assertArrayEquals(Arrays.copyOf(serial.getWorldMatrices(), floats),
+                        Arrays.copyOf(parallel.getWorldMatrices(), floats), 0.0f);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void threadCountDoesNotChangeTheResult() {
+        final SceneUpdater single = new SceneUpdater(buildScene(), 1, false);
+        final SceneUpdater multi = new SceneUpdater(buildScene(), 4, false);
+        try {
+            assertEquals(4, multi.getThreadCount());
+            for (double time : TIMES) {
+                assertSameTransforms(advance(single, time), advance(multi, time));
+            }
+        } finally {
+            single.shutdown();
+            multi.shutdown();
+        }
+    }
+
+    @Test
+    public void pipelinedUpdateRunsAFrameBehind() throws InterruptedException {
+        final SceneUpdater direct = new SceneUpdater(buildScene(), 1, false);
+        final SceneUpdater pipelined = new SceneUpdater(buildScene(), 2, true);
+        try {
+            // the first frame is computed on the spot, and requested again
+            assertEquals(0.0, advance(pipelined, 0.0).getTime(), 0.0);
+            for (int i = 1; i < TIMES.length; i++) {
+                Thread.sleep(200);      // plenty for the update thread to finish
+                final FrameTransforms late = advance(pipelined, TIMES[i]);
+                assertEquals(TIMES[i - 1], late.getTime(), 0.0);
+                assertSameTransforms(advance(direct, TIMES[i - 1]), late);
+            }
+            assertEquals(0, pipelined.getReusedFrameCount());
+        } finally {
+            direct.shutdown();
+            pipelined.shutdown();
+        }
+    }
+
+    // 1900 objects in a hierarchy three deep, spread around the camera so
+    // that some of them are culled.
+    private static Scene buildScene() {
+        final Scene scene = new Scene(16);
+        int mesh = 0;
+        for (int root = 0; root < 100; root++) {
+            final int r = scene.addObject(Scene.NO_PARENT, Scene.NO_MESH,
+                    (root % 10 - 4.5f) * 6.0f, (root / 10 - 4.5f) * 6.0f, -30.0f, 0.0f, 1.0f, 0.0f, 10.0f + root);
+            for (int child = 0; child < 3; child++) {
+                final int c = scene.addObject(r, mesh++ % 4, child - 1.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f,
+                        child * 45.0f);
+                scene.setBoundingRadius(c, 0.5f);
+                for (int leaf = 0; leaf < 5; leaf++) {
+                    final int l = scene.addObject(c, mesh++ % 4, 0.0f, 0.3f * leaf, 0.0f, 0.0f, 0.0f, 1.0f,
+                            90.0f);
+                    scene.setBoundingRadius(l, 0.1f);
+                    scene.setStartAngle(l, leaf * 30.0f);
+                }
+            }
+        }
+        assertEquals(1900, scene.getCount());
+        return scene;
+    }
+
+    private static FrameTransforms advance(SceneUpdater updater, double time) {
+        final float[] view = new float[16];
+        final float[] projection = new float[16];
+        Mat4.setLookAt(view, 0, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 1.0f, 0.0f);
+        Mat4.setFrustum(projection, 0, -0.5f, 0.5f, -0.5f, 0.5f, 1.0f, 50.0f);
+        return updater.advance(time, view, projection);
+    }
+
+    private static void assertSameTransforms(FrameTransforms expected, FrameTransforms actual) {
+        final int floats = expected.getCount() * 16;
+        assertEquals(expected.getCount(), actual.getCount());
+        assertArrayEquals(Arrays.copyOf(expected.getModelMatrices(), floats),
+                Arrays.copyOf(actual.getModelMatrices(), floats), 0.0f);
+        assertArrayEquals(Arrays.copyOf(expected.getMvpMatrices(), floats),
+                Arrays.copyOf(actual.getMvpMatrices(), floats), 0.0f);
+
+        assertEquals(expected.getVisibleCount(), actual.getVisibleCount());
+        assertTrue("nothing culled", expected.getCulledCount() > 0);
+        final int[] expectedIds = Arrays.copyOf(expected.getVisibleIds(), expected.getVisibleCount());
+        final int[] actualIds = Arrays.copyOf(actual.getVisibleIds(), actual.getVisibleCount());
+        Arrays.sort(expectedIds);
+        Arrays.sort(actualIds);
+        assertArrayEquals(expectedIds, actualIds);
+    }
+}
@@ -0,0 +1,97 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncAssetLoaderTest {
+    private final List<String> disposed = new ArrayList<String>();
+    private final AsyncAssetLoader.Disposer<String> disposer = new AsyncAssetLoader.Disposer<String>() {
+        @Override
+        public void dispose(String asset) {
+            synchronized (disposed) {
+                disposed.add(asset);
+            }
+        }
+    };
+
+    @Test
+    public void handsOverLoadedAssets() throws InterruptedException {
+        final AsyncAssetLoader<String> loader = new AsyncAssetLoader<String>();
+        loader.submit(constant("a"));
+        assertEquals("a", pollWithin(loader, 5000));
+        assertNull(loader.poll());
+    }
+
+    @Test
+    public void cancelDisposesOfWaitingAssets() {
+        final AsyncAssetLoader<String> loader = new AsyncAssetLoader<String>();
+        loader.offer("a");
+        loader.offer("b");
+        loader.cancel(disposer);
+        assertNull(loader.poll());
+        assertEquals(2, disposed.size());
+    }
+
+    @Test
+    public void assetFinishingAfterCancelIsDisposed() throws InterruptedException {
+        final AsyncAssetLoader<String> loader = new AsyncAssetLoader<String>();
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CountDownLatch loaded = new CountDownLatch(1);
+        loader.submit(new AsyncAssetLoader.Loader<String>() {
+            @Override
+            public String load() {
+                try {
+                    cancelled.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return "late";
+            }
+        });
+        loader.submit(new AsyncAssetLoader.Loader<String>() {
+            @Override
+            public String load() {
+                loaded.countDown();
+                return "later";
+            }
+        });
+        loader.cancel(disposer);
+        cancelled.countDown();
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+        while (loader.isLoading()) {
+            Thread.sleep(1);
+        }
+
+        assertNull(loader.poll());
+        synchronized (disposed) {
+            assertEquals(2, disposed.size());
+            assertEquals("late", disposed.get(0));
+        }
+    }
+
+    private static AsyncAssetLoader.Loader<String> constant(final String value) {
+        return new AsyncAssetLoader.Loader<String>() {
+            @Override
+            public String load() {
+                return value;
+            }
+        };
+    }
+
+    private static String pollWithin(AsyncAssetLoader<String> loader, long millis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + millis;
+        String asset;
+        while ((asset = loader.poll()) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return asset;
+    }
+}
@@ -0,0 +1,89 @@
+package util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ResourceCacheTest {
+    // 100 chars, so 200 bytes each
+    private static final String TEXT = new String(new char[100]).replace('\0', 'x');
+
+    private int loads;
+
+    @Test
+    public void loadsOnceAndSharesTheValue() {
+        final ResourceCache cache = new ResourceCache(1024);
+        final String first = cache.acquire("a", copyOf(TEXT));
+        final String second = cache.acquire("a", copyOf(TEXT));
+        assertSame(first, second);
+        assertEquals(1, loads);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(200, cache.getCachedBytes());
+    }
+
+    @Test
+    public void aLoadRaceCountsOneMissEachAndTheFirstStoredWins() {
+        final ResourceCache cache = new ResourceCache(1024);
+        final String[] inner = new String[1];
+        // another holder loads and stores the key while this load is running
+        final String outer = cache.acquire("a", new ResourceCache.Loader<String>() {
+            @Override
+            public String load() {
+                inner[0] = cache.acquire("a", copyOf(TEXT));
+                return new String(TEXT);
+            }
+        });
+        assertSame(inner[0], outer);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+
+        // both references count: one release doesn't make it unused
+        cache.release("a");
+        cache.acquire("a", copyOf(TEXT));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void releasedValuesStayWithinTheBudget() {
+        final ResourceCache cache = new ResourceCache(400);
+        final String a = cache.acquire("a", copyOf(TEXT));
+        cache.acquire("b", copyOf(TEXT));
+        cache.acquire("c", copyOf(TEXT));
+        assertEquals(600, cache.getCachedBytes());
+
+        cache.release("a");
+        cache.release("b");
+        assertEquals(600, cache.getCachedBytes());
+        // the least recently released goes over to weak references
+        cache.release("c");
+        assertEquals(400, cache.getCachedBytes());
+
+        // still reachable from here, so it is picked up again without a load
+        assertSame(a, cache.acquire("a", copyOf(TEXT)));
+        assertEquals(3, loads);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void releasingAnUnknownKeyDoesNothing() {
+        final ResourceCache cache = new ResourceCache(1024);
+        cache.acquire("a", copyOf(TEXT));
+        cache.release("b");
+        cache.release("a");
+        cache.release("a");
+        assertEquals(200, cache.getCachedBytes());
+    }
+
+    // A loader that makes a new copy of the text every time it runs.
+    private ResourceCache.Loader<String> copyOf(final String text) {
+        return new ResourceCache.Loader<String>() {
+            @Override
+            public String load() {
+                loads++;
+                return new String(text);
+            }
+        };
+    }
+}
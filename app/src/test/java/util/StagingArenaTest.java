@@ -0,0 +1,104 @@
+package util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+
+public class StagingArenaTest {
+    private static final int CAPACITY = 4096;
+
+    @Test
+    public void slicesAreAlignedLittleEndianAndApart() {
+        final StagingArena arena = new StagingArena(CAPACITY);
+        final ByteBuffer[] slices = new ByteBuffer[10];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = arena.allocate(i * 7 + 1);
+            assertEquals(i * 7 + 1, slices[i].capacity());
+            assertEquals(ByteOrder.LITTLE_ENDIAN, slices[i].order());
+            for (int b = 0; b < slices[i].capacity(); b++) {
+                slices[i].put(b, (byte) i);
+            }
+        }
+        // writing one slice didn't touch another
+        for (int i = 0; i < slices.length; i++) {
+            for (int b = 0; b < slices[i].capacity(); b++) {
+                assertEquals(i, slices[i].get(b));
+            }
+        }
+        assertEquals(0, arena.getLiveBytes() % StagingArena.ALIGNMENT);
+        assertEquals(0, arena.getOverflowCount());
+    }
+
+    @Test
+    public void freedSlicesMergeBackIntoOneRange() {
+        final StagingArena arena = new StagingArena(CAPACITY);
+        final ByteBuffer[] slices = new ByteBuffer[16];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = arena.allocate(CAPACITY / slices.length);
+        }
+        assertEquals(CAPACITY, arena.getLiveBytes());
+
+        // every other one, then the rest backwards, so each merge case comes up
+        for (int i = 0; i < slices.length; i += 2) {
+            arena.free(slices[i]);
+        }
+        for (int i = slices.length - 1; i > 0; i -= 2) {
+            arena.free(slices[i]);
+        }
+        assertEquals(0, arena.getLiveBytes());
+        assertEquals(CAPACITY, arena.getPeakBytes());
+
+        // only fits if the free ranges were merged
+        arena.allocate(CAPACITY);
+        assertEquals(0, arena.getOverflowCount());
+    }
+
+    @Test
+    public void takesTheFirstRangeItFits() {
+        final StagingArena arena = new StagingArena(CAPACITY);
+        final ByteBuffer first = arena.allocate(64);
+        final ByteBuffer second = arena.allocate(64);
+        arena.allocate(64);
+        arena.free(first);
+        arena.free(second);
+
+        final ByteBuffer reused = arena.allocate(128);
+        reused.put(0, (byte) 42);
+        assertEquals(42, first.get(0));
+    }
+
+    @Test
+    public void overflowsIntoABufferOfItsOwn() {
+        final StagingArena arena = new StagingArena(CAPACITY);
+        final ByteBuffer held = arena.allocate(CAPACITY - 64);
+        final ByteBuffer big = arena.allocate(128);
+        assertEquals(1, arena.getOverflowCount());
+        assertEquals(128, big.capacity());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, big.order());
+
+        // freeing the overflow, or a slice twice, changes nothing
+        final int live = arena.getLiveBytes();
+        arena.free(big);
+        assertEquals(live, arena.getLiveBytes());
+        arena.free(held);
+        arena.free(held);
+        assertEquals(0, arena.getLiveBytes());
+    }
+
+    @Test
+    public void tracksManySlicesAtOnce() {
+        final StagingArena arena = new StagingArena(CAPACITY);
+        final ByteBuffer[] slices = new ByteBuffer[100];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = arena.allocate(1);
+        }
+        assertEquals(100 * StagingArena.ALIGNMENT, arena.getLiveBytes());
+        for (ByteBuffer slice : slices) {
+            arena.free(slice);
+        }
+        assertEquals(0, arena.getLiveBytes());
+    }
+}
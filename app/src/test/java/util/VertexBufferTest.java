@@ -0,0 +1,81 @@
+package util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import util.gl.RecordingGLBackend;
+import util.mesh.Mesh;
+import util.mesh.MeshFormat;
+import util.mesh.MeshGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VertexBufferTest {
+    private RecordingGLBackend gl;
+    private int builds;
+    private final VertexBuffer.MeshSource cube = new VertexBuffer.MeshSource() {
+        @Override
+        public Mesh build() {
+            builds++;
+            return MeshGenerator.subdividedCube(1.0f, 1);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGLBackend();
+        builds = 0;
+    }
+
+    @Test
+    public void sourceIsNotBuiltUntilTheFirstBind() {
+        final VertexBuffer buffer = new VertexBuffer(gl, cube);
+        assertEquals(0, builds);
+        assertEquals(0, buffer.getElementCount());
+
+        buffer.bind();
+        assertEquals(1, builds);
+        final Mesh expected = MeshGenerator.subdividedCube(1.0f, 1);
+        assertEquals(expected.getVertexCount(), buffer.getVertexCount());
+        assertEquals(expected.getElementCount(), buffer.getElementCount());
+        assertTrue(buffer.isIndexed());
+        // float positions, colors and normals
+        assertEquals(40, buffer.getStride());
+        expected.release();
+
+        buffer.bind();
+        assertEquals(1, builds);
+    }
+
+    @Test
+    public void sourceIsBuiltAgainAfterAContextLoss() {
+        final VertexBuffer buffer = new VertexBuffer(gl, cube);
+        buffer.bind();
+        buffer.onContextLost();
+        assertFalse(buffer.isCreated());
+        buffer.bind();
+        assertTrue(buffer.isCreated());
+        assertEquals(2, builds);
+    }
+
+    @Test
+    public void stagingCopiesGoBackToTheArena() {
+        final int live = StagingArena.shared().getLiveBytes();
+        final VertexBuffer buffer = new VertexBuffer(gl, cube);
+        buffer.bind();
+        assertEquals(live, StagingArena.shared().getLiveBytes());
+    }
+
+    @Test
+    public void countsEveryGlCallItMakes() {
+        final VertexBuffer buffer = new VertexBuffer(gl, cube);
+        buffer.bind();
+        buffer.setVertexAttribPointer(MeshFormat.SEMANTIC_POSITION, 0);
+        buffer.setVertexAttribPointer(MeshFormat.SEMANTIC_NORMAL, -1);
+        buffer.bind();
+        buffer.setVertexAttribPointer(MeshFormat.SEMANTIC_COLOR, 1);
+        assertEquals(gl.getCallCount(), buffer.getGlCallCount());
+    }
+}
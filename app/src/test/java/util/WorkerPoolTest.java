@@ -0,0 +1,95 @@
+package util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class WorkerPoolTest {
+    private WorkerPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void runsEveryIndexExactlyOnce() {
+        pool = new WorkerPool(4);
+        for (int count : new int[] { 1, 7, 100, 1000, 4099 }) {
+            final AtomicIntegerArray runs = new AtomicIntegerArray(count);
+            pool.forEachRange(count, 1, new WorkerPool.RangeTask() {
+                @Override
+                public void run(int start, int end) {
+                    for (int i = start; i < end; i++) {
+                        runs.incrementAndGet(i);
+                    }
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                assertEquals("index " + i + " of " + count, 1, runs.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void smallRangesRunOnTheCaller() {
+        pool = new WorkerPool(4);
+        final Thread caller = Thread.currentThread();
+        final Thread[] ranOn = new Thread[1];
+        pool.forEachRange(100, 256, new WorkerPool.RangeTask() {
+            @Override
+            public void run(int start, int end) {
+                assertEquals(0, start);
+                assertEquals(100, end);
+                ranOn[0] = Thread.currentThread();
+            }
+        });
+        assertSame(caller, ranOn[0]);
+    }
+
+    @Test
+    public void rethrowsAFailedChunkAndCarriesOn() {
+        pool = new WorkerPool(4);
+        final AtomicIntegerArray runs = new AtomicIntegerArray(1000);
+        final WorkerPool.RangeTask task = new WorkerPool.RangeTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    runs.incrementAndGet(i);
+                    if (i == 500) {
+                        throw new IllegalStateException("index 500");
+                    }
+                }
+            }
+        };
+        try {
+            pool.forEachRange(1000, 1, task);
+            fail("the chunk's failure wasn't rethrown");
+        } catch (RuntimeException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+        // the other chunks still ran
+        assertEquals(1, runs.get(0));
+        assertEquals(1, runs.get(999));
+
+        final AtomicIntegerArray again = new AtomicIntegerArray(1000);
+        pool.forEachRange(1000, 1, new WorkerPool.RangeTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    again.incrementAndGet(i);
+                }
+            }
+        });
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(1, again.get(i));
+        }
+    }
+}
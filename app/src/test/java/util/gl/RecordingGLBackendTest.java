@@ -0,0 +1,173 @@
+package util.gl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingGLBackendTest {
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_STATIC_DRAW = 0x88E4;
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int GL_VERTEX_SHADER = 0x8B31;
+    private static final int GL_FRAGMENT_SHADER = 0x8B30;
+    private static final int GL_COLOR_BUFFER_BIT = 0x4000;
+
+    private static final String VERTEX_SHADER =
+            "uniform vec4 u_Color;\nuniform mat4 u_Matrix;\nattribute vec4 a_Position;\n"
+                    + "void main() { gl_Position = u_Matrix * a_Position; }\n";
+    private static final String FRAGMENT_SHADER = "void main() { gl_FragColor = vec4(1.0); }\n";
+
+    private RecordingGLBackend gl;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGLBackend();
+    }
+
+    @Test
+    public void countsCallsByOpcode() {
+        gl.glClear(GL_COLOR_BUFFER_BIT);
+        gl.glDrawArrays(GL_TRIANGLES, 0, 3);
+        gl.glDrawElements(GL_TRIANGLES, 6, 0x1403, 0);
+        gl.glDrawArrays(GL_TRIANGLES, 3, 3);
+        assertEquals(4, gl.getCallCount());
+        assertEquals(2, gl.getCallCount(RecordingGLBackend.OP_DRAW_ARRAYS));
+        assertEquals(3, gl.getDrawCallCount());
+
+        gl.resetCounts();
+        assertEquals(0, gl.getCallCount());
+        assertEquals(0, gl.getDrawCallCount());
+        // the recording is kept
+        assertEquals(2 + 4 + 5 + 4, gl.getRecordedWords());
+    }
+
+    @Test
+    public void replayMapsNamesOntoTheTargets() {
+        final int[] buffers = new int[2];
+        gl.glGenBuffers(2, buffers, 0);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, buffers[1]);
+        gl.glBufferData(GL_ARRAY_BUFFER, 48, null, GL_STATIC_DRAW);
+        final int program = linkProgram(gl);
+        gl.glUseProgram(program);
+        final int matrix = gl.glGetUniformLocation(program, "u_Matrix");
+        final float[] values = new float[32];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 0.5f;
+        }
+        gl.glUniformMatrix4fv(matrix, 2, false, values, 0);
+        gl.glDrawArrays(GL_TRIANGLES, 0, 3);
+
+        // a target that has already handed out names of its own
+        final CapturingBackend target = new CapturingBackend();
+        target.glGenBuffers(2, new int[2], 0);
+        target.glCreateProgram();
+        target.resetCounts();
+        gl.replay(target);
+
+        assertEquals(2, target.getCallCount(RecordingGLBackend.OP_GEN_BUFFERS));
+        assertEquals(1, target.getCallCount(RecordingGLBackend.OP_LINK_PROGRAM));
+        assertEquals(1, target.getDrawCallCount());
+        // the target's second new buffer and its new program, not the recorded names
+        assertEquals(buffers[1] + 3, target.boundBuffer);
+        assertEquals(program + 3, target.usedProgram);
+        assertEquals(1, target.matrixLocation);
+        assertArrayEquals(values, target.matrixValues, 0.0f);
+    }
+
+    @Test
+    public void fullRingDropsTheOldestWholeRecords() {
+        final RecordingGLBackend small = new RecordingGLBackend(1024);
+        for (int i = 0; i < 1000; i++) {
+            small.glDrawArrays(GL_TRIANGLES, i, 3);
+        }
+        assertEquals(1000, small.getCallCount());
+        // whole 4 word records only
+        assertEquals(1024, small.getRecordedWords());
+
+        final CapturingBackend target = new CapturingBackend();
+        small.replay(target);
+        assertEquals(256, target.getDrawCallCount());
+        assertEquals(744, target.firstDrawn);
+        assertEquals(999, target.lastDrawn);
+    }
+
+    @Test
+    public void callTooBigForTheRingIsCountedButNotRecorded() {
+        final RecordingGLBackend small = new RecordingGLBackend(1024);
+        small.glClear(GL_COLOR_BUFFER_BIT);
+        small.glUniformMatrix4fv(0, 64, false, new float[64 * 16], 0);
+        assertEquals(2, small.getCallCount());
+        assertEquals(0, small.getRecordedWords());
+
+        small.glDrawArrays(GL_TRIANGLES, 0, 3);
+        final CapturingBackend target = new CapturingBackend();
+        small.replay(target);
+        assertEquals(1, target.getCallCount());
+        assertEquals(1, target.getDrawCallCount());
+    }
+
+    @Test
+    public void simulatedProgramsExposeTheirDeclarations() {
+        final int program = linkProgram(gl);
+        assertEquals(0, gl.glGetUniformLocation(program, "u_Color"));
+        assertEquals(1, gl.glGetUniformLocation(program, "u_Matrix"));
+        assertEquals(-1, gl.glGetUniformLocation(program, "u_Missing"));
+        assertTrue(gl.glGetAttribLocation(program, "a_Position") >= 0);
+    }
+
+    private static int linkProgram(GLBackend gl) {
+        final int vertex = gl.glCreateShader(GL_VERTEX_SHADER);
+        gl.glShaderSource(vertex, VERTEX_SHADER);
+        gl.glCompileShader(vertex);
+        final int fragment = gl.glCreateShader(GL_FRAGMENT_SHADER);
+        gl.glShaderSource(fragment, FRAGMENT_SHADER);
+        gl.glCompileShader(fragment);
+        final int program = gl.glCreateProgram();
+        gl.glAttachShader(program, vertex);
+        gl.glAttachShader(program, fragment);
+        gl.glLinkProgram(program);
+        return program;
+    }
+
+    // Keeps the arguments of the calls the tests look at.
+    private static class CapturingBackend extends RecordingGLBackend {
+        int boundBuffer;
+        int usedProgram;
+        int matrixLocation = -1;
+        float[] matrixValues;
+        int firstDrawn = -1;
+        int lastDrawn = -1;
+
+        @Override
+        public void glBindBuffer(int target, int buffer) {
+            boundBuffer = buffer;
+            super.glBindBuffer(target, buffer);
+        }
+
+        @Override
+        public void glUseProgram(int program) {
+            usedProgram = program;
+            super.glUseProgram(program);
+        }
+
+        @Override
+        public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+            matrixLocation = location;
+            matrixValues = new float[count * 16];
+            System.arraycopy(value, offset, matrixValues, 0, count * 16);
+            super.glUniformMatrix4fv(location, count, transpose, value, offset);
+        }
+
+        @Override
+        public void glDrawArrays(int mode, int first, int count) {
+            if (firstDrawn < 0) {
+                firstDrawn = first;
+            }
+            lastDrawn = first;
+            super.glDrawArrays(mode, first, count);
+        }
+    }
+}
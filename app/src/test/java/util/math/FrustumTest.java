@@ -0,0 +1,44 @@
+package util.math;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrustumTest {
+    private final Frustum frustum = new Frustum();
+
+    @Before
+    public void setUp() {
+        // 90 degrees across, near 1 and far 10, from an eye at (0, 0, 5) looking down -z
+        final float[] projection = new float[16];
+        final float[] view = new float[16];
+        final float[] viewProjection = new float[16];
+        Mat4.setFrustum(projection, 0, -1.0f, 1.0f, -1.0f, 1.0f, 1.0f, 10.0f);
+        Mat4.setLookAt(view, 0, 0.0f, 0.0f, 5.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        Mat4.multiply(viewProjection, 0, projection, 0, view, 0);
+        frustum.set(viewProjection, 0);
+    }
+
+    @Test
+    public void classifiesSpheresAgainstEveryPlane() {
+        assertEquals(Frustum.INSIDE, frustum.classifySphere(0.0f, 0.0f, 0.0f, 1.0f));
+        // near plane at z = 4, far plane at z = -5
+        assertEquals(Frustum.OUTSIDE, frustum.classifySphere(0.0f, 0.0f, 6.0f, 1.0f));
+        assertEquals(Frustum.INTERSECTING, frustum.classifySphere(0.0f, 0.0f, 4.0f, 0.5f));
+        assertEquals(Frustum.OUTSIDE, frustum.classifySphere(0.0f, 0.0f, -6.0f, 0.5f));
+        assertEquals(Frustum.INTERSECTING, frustum.classifySphere(0.0f, 0.0f, -5.0f, 0.5f));
+        // 5 in front of the eye the sides are 5 away from the axis
+        assertEquals(Frustum.OUTSIDE, frustum.classifySphere(6.0f, 0.0f, 0.0f, 0.5f));
+        assertEquals(Frustum.INTERSECTING, frustum.classifySphere(0.0f, 5.0f, 0.0f, 0.5f));
+        assertEquals(Frustum.OUTSIDE, frustum.classifySphere(0.0f, -6.0f, 0.0f, 0.5f));
+    }
+
+    @Test
+    public void classifiesBoxes() {
+        assertEquals(Frustum.INSIDE, frustum.classifyBox(-1.0f, -1.0f, -1.0f, 1.0f, 1.0f, 1.0f));
+        assertEquals(Frustum.INTERSECTING, frustum.classifyBox(-1.0f, -1.0f, -1.0f, 8.0f, 1.0f, 1.0f));
+        assertEquals(Frustum.OUTSIDE, frustum.classifyBox(7.0f, -1.0f, -1.0f, 8.0f, 1.0f, 1.0f));
+        assertEquals(Frustum.OUTSIDE, frustum.classifyBox(-1.0f, -1.0f, 5.0f, 1.0f, 1.0f, 7.0f));
+    }
+}
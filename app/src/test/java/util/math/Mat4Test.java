@@ -0,0 +1,174 @@
+package util.math;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Mat4Test {
+    private static final float EPSILON = 1e-5f;
+
+    private final Random random = new Random(7);
+
+    @Test
+    public void multiplyMatchesTheTextbookProduct() {
+        final float[] a = randomMatrix();
+        final float[] b = randomMatrix();
+        final float[] r = new float[16];
+        Mat4.multiply(r, 0, a, 0, b, 0);
+        assertArrayEquals(reference(a, b), r, EPSILON);
+    }
+
+    @Test
+    public void multiplyMayWriteOverEitherOperand() {
+        final float[] a = randomMatrix();
+        final float[] b = randomMatrix();
+        final float[] expected = reference(a, b);
+
+        final float[] left = a.clone();
+        Mat4.multiply(left, 0, left, 0, b, 0);
+        assertArrayEquals(expected, left, EPSILON);
+
+        final float[] right = b.clone();
+        Mat4.multiply(right, 0, a, 0, right, 0);
+        assertArrayEquals(expected, right, EPSILON);
+    }
+
+    @Test
+    public void affineProductsMatchTheGeneralOne() {
+        final float[] a = randomAffine();
+        final float[] b = randomAffine();
+        final float[] projection = new float[16];
+        Mat4.setFrustum(projection, 0, -0.6f, 0.6f, -1.0f, 1.0f, 1.0f, 10.0f);
+        final float[] r = new float[16];
+
+        Mat4.multiplyAffine(r, 0, a, 0, b, 0);
+        assertArrayEquals(reference(a, b), r, EPSILON);
+
+        Mat4.multiplyByAffine(r, 0, projection, 0, b, 0);
+        assertArrayEquals(reference(projection, b), r, EPSILON);
+    }
+
+    @Test
+    public void batchesMatchOneAtATime() {
+        final float[] view = randomAffine();
+        final float[] worlds = new float[3 * 16];
+        for (int i = 0; i < 3; i++) {
+            System.arraycopy(randomAffine(), 0, worlds, i * 16, 16);
+        }
+        final int[] order = { 2, 0 };
+        final float[] batch = new float[2 * 16];
+        Mat4.multiplyAffineBatch(batch, 0, view, 0, worlds, order, 0, 2);
+
+        final float[] single = new float[16];
+        for (int i = 0; i < order.length; i++) {
+            Mat4.multiplyAffine(single, 0, view, 0, worlds, order[i] * 16);
+            for (int k = 0; k < 16; k++) {
+                assertEquals(single[k], batch[i * 16 + k], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void rotateAppliesTheRotationAfterTheMatrix() {
+        final float[] m = randomAffine();
+        final float[] rotation = new float[16];
+        // a rotation about an unnormalized axis is about the normalized one
+        Mat4.setTranslateRotate(rotation, 0, 0.0f, 0.0f, 0.0f, 30.0f, 0.6f, 0.0f, 0.8f);
+        final float[] expected = reference(m, rotation);
+
+        Mat4.rotate(m, 0, 30.0f, 3.0f, 0.0f, 4.0f);
+        assertArrayEquals(expected, m, EPSILON);
+    }
+
+    @Test
+    public void translateAppliesTheTranslationAfterTheMatrix() {
+        final float[] m = randomAffine();
+        final float[] translation = new float[16];
+        Mat4.setIdentity(translation, 0);
+        translation[12] = 1.0f;
+        translation[13] = -2.0f;
+        translation[14] = 3.0f;
+        final float[] expected = reference(m, translation);
+
+        Mat4.translate(m, 0, 1.0f, -2.0f, 3.0f);
+        assertArrayEquals(expected, m, EPSILON);
+    }
+
+    @Test
+    public void translateRotateTurnsAPointThenMovesIt() {
+        final float[] m = new float[16];
+        Mat4.setTranslateRotate(m, 0, 1.0f, 2.0f, 3.0f, 90.0f, 0.0f, 0.0f, 1.0f);
+        final float[] p = new float[3];
+        Mat4.transformPoint(p, 0, m, 0, 1.0f, 0.0f, 0.0f);
+        assertArrayEquals(new float[] { 1.0f, 3.0f, 3.0f }, p, EPSILON);
+    }
+
+    @Test
+    public void quaternionAndAxisAngleGiveTheSameMatrix() {
+        final float[] q = new float[4];
+        Quat.setAxisAngle(q, 0, 75.0f, 0.0f, 0.6f, 0.8f);
+        final float[] fromQuat = new float[16];
+        Mat4.setTranslateRotate(fromQuat, 0, 4.0f, 5.0f, 6.0f, q, 0);
+        final float[] fromAngle = new float[16];
+        Mat4.setTranslateRotate(fromAngle, 0, 4.0f, 5.0f, 6.0f, 75.0f, 0.0f, 0.6f, 0.8f);
+        assertArrayEquals(fromAngle, fromQuat, EPSILON);
+    }
+
+    @Test
+    public void frustumMapsTheNearAndFarPlanesToTheClipRange() {
+        final float[] m = new float[16];
+        Mat4.setFrustum(m, 0, -1.0f, 1.0f, -1.0f, 1.0f, 1.0f, 10.0f);
+        assertEquals(-1.0f, clipDepth(m, -1.0f), EPSILON);
+        assertEquals(1.0f, clipDepth(m, -10.0f), EPSILON);
+    }
+
+    @Test
+    public void lookAtPutsTheEyeAtTheOriginLookingDownMinusZ() {
+        final float[] m = new float[16];
+        Mat4.setLookAt(m, 0, 1.0f, 2.0f, 3.0f, 1.0f, 2.0f, -5.0f, 0.0f, 1.0f, 0.0f);
+        final float[] p = new float[3];
+        Mat4.transformPoint(p, 0, m, 0, 1.0f, 2.0f, 3.0f);
+        assertArrayEquals(new float[] { 0.0f, 0.0f, 0.0f }, p, EPSILON);
+        Mat4.transformPoint(p, 0, m, 0, 1.0f, 2.0f, -1.0f);
+        assertArrayEquals(new float[] { 0.0f, 0.0f, -4.0f }, p, EPSILON);
+    }
+
+    // z / w in clip space of a point on the view axis at view space depth z
+    private static float clipDepth(float[] m, float z) {
+        final float[] clip = new float[4];
+        Mat4.multiplyVec4(clip, 0, m, 0, new float[] { 0.0f, 0.0f, z, 1.0f }, 0);
+        return clip[2] / clip[3];
+    }
+
+    private float[] randomMatrix() {
+        final float[] m = new float[16];
+        for (int i = 0; i < 16; i++) {
+            m[i] = random.nextFloat() * 2.0f - 1.0f;
+        }
+        return m;
+    }
+
+    private float[] randomAffine() {
+        final float[] m = new float[16];
+        Mat4.setTranslateRotate(m, 0, random.nextFloat(), random.nextFloat(), random.nextFloat(),
+                random.nextFloat() * 360.0f, 0.0f, 0.6f, 0.8f);
+        return m;
+    }
+
+    private static float[] reference(float[] a, float[] b) {
+        final float[] r = new float[16];
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0.0f;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[k * 4 + row] * b[column * 4 + k];
+                }
+                r[column * 4 + row] = sum;
+            }
+        }
+        return r;
+    }
+}
@@ -0,0 +1,66 @@
+package util.math;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class QuatTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void rotatesAVectorLikeTheMatrix() {
+        final float[] q = new float[4];
+        Quat.setAxisAngle(q, 0, 90.0f, 0.0f, 0.0f, 1.0f);
+        final float[] r = new float[3];
+        Quat.rotateVec3(r, 0, q, 0, new float[] { 1.0f, 0.0f, 0.0f }, 0);
+        assertArrayEquals(new float[] { 0.0f, 1.0f, 0.0f }, r, EPSILON);
+    }
+
+    @Test
+    public void productRotatesByTheRightHandSideFirst() {
+        final float[] aboutZ = new float[4];
+        final float[] aboutX = new float[4];
+        Quat.setAxisAngle(aboutZ, 0, 90.0f, 0.0f, 0.0f, 1.0f);
+        Quat.setAxisAngle(aboutX, 0, 90.0f, 1.0f, 0.0f, 0.0f);
+        final float[] q = new float[4];
+        Quat.multiply(q, 0, aboutX, 0, aboutZ, 0);
+
+        // x turns to y about z, then y turns to z about x
+        final float[] r = new float[3];
+        Quat.rotateVec3(r, 0, q, 0, new float[] { 1.0f, 0.0f, 0.0f }, 0);
+        assertArrayEquals(new float[] { 0.0f, 0.0f, 1.0f }, r, EPSILON);
+    }
+
+    @Test
+    public void nlerpTakesTheShorterArc() {
+        final float[] a = new float[4];
+        final float[] b = new float[4];
+        Quat.setAxisAngle(a, 0, 10.0f, 0.0f, 1.0f, 0.0f);
+        Quat.setAxisAngle(b, 0, 30.0f, 0.0f, 1.0f, 0.0f);
+        // the same rotation as b, from the other side of the sphere
+        final float[] negatedB = { -b[0], -b[1], -b[2], -b[3] };
+
+        final float[] r = new float[4];
+        Quat.nlerp(r, 0, a, 0, negatedB, 0, 0.5f);
+        final float[] expected = new float[4];
+        Quat.setAxisAngle(expected, 0, 20.0f, 0.0f, 1.0f, 0.0f);
+        assertArrayEquals(expected, r, EPSILON);
+    }
+
+    @Test
+    public void nlerpEndsAtTheEndpointsAndStaysUnitLength() {
+        final float[] a = new float[4];
+        final float[] b = new float[4];
+        Quat.setIdentity(a, 0);
+        Quat.setAxisAngle(b, 0, 120.0f, 0.6f, 0.8f, 0.0f);
+        final float[] r = new float[4];
+
+        Quat.nlerp(r, 0, a, 0, b, 0, 0.0f);
+        assertArrayEquals(a, r, EPSILON);
+        Quat.nlerp(r, 0, a, 0, b, 0, 1.0f);
+        assertArrayEquals(b, r, EPSILON);
+        Quat.nlerp(r, 0, a, 0, b, 0, 0.3f);
+        assertEquals(1.0f, r[0] * r[0] + r[1] * r[1] + r[2] * r[2] + r[3] * r[3], EPSILON);
+    }
+}
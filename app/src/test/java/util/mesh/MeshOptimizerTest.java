@@ -0,0 +1,142 @@
+package util.mesh;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeshOptimizerTest {
+    private static final int GRID = 16;
+    private static final float EPSILON = 1e-6f;
+
+    @Test
+    public void weldsAShuffledTriangleListIntoAGrid() {
+        final Mesh soup = shuffledGrid();
+        final Mesh optimized = MeshOptimizer.optimize(soup);
+
+        assertEquals((GRID + 1) * (GRID + 1), optimized.getVertexCount());
+        assertEquals(soup.getVertexCount(), optimized.getIndexCount());
+        assertEquals(triangles(soup), triangles(optimized));
+    }
+
+    @Test
+    public void cutsCacheMissesOnAShuffledGrid() {
+        final Mesh soup = shuffledGrid();
+        final Mesh optimized = MeshOptimizer.optimize(soup);
+
+        // unindexed: every corner of every triangle is transformed
+        assertEquals(3.0f, MeshOptimizer.averageCacheMissRatio(soup, MeshOptimizer.REPORT_CACHE_SIZE), EPSILON);
+        // a grid can't do better than 0.5; Forsyth's order gets well under 1
+        final float after = MeshOptimizer.averageCacheMissRatio(optimized, MeshOptimizer.REPORT_CACHE_SIZE);
+        assertTrue("ACMR " + after, after >= 0.5f && after < 0.8f);
+    }
+
+    @Test
+    public void beatsTheGeneratedOrder() {
+        final float[] white = { 1.0f, 1.0f, 1.0f, 1.0f };
+        final Mesh torus = MeshGenerator.torus(1.0f, 0.3f, 0, white);
+        final Mesh sphere = MeshGenerator.sphere(1.0f, 0, white);
+
+        // row by row, a 48 vertex row doesn't fit a 16 entry cache
+        assertTrue(MeshOptimizer.averageCacheMissRatio(torus, MeshOptimizer.REPORT_CACHE_SIZE) > 1.0f);
+        assertTrue(MeshOptimizer.averageCacheMissRatio(MeshOptimizer.optimize(torus),
+                MeshOptimizer.REPORT_CACHE_SIZE) < 0.75f);
+
+        // the sphere's poles are one vertex each once welded
+        final Mesh optimizedSphere = MeshOptimizer.optimize(sphere);
+        assertTrue(optimizedSphere.getVertexCount() < sphere.getVertexCount());
+        assertTrue(MeshOptimizer.averageCacheMissRatio(optimizedSphere, MeshOptimizer.REPORT_CACHE_SIZE) < 0.75f);
+        torus.release();
+        sphere.release();
+    }
+
+    @Test
+    public void cacheMissRatioOfAFanIsCountedByHand() {
+        // two triangles sharing an edge: 4 vertexes for 2 triangles
+        final Mesh quad = indexed(new float[] { 0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 1, 0 },
+                new int[] { 0, 1, 2, 0, 2, 3 });
+        assertEquals(2.0f, MeshOptimizer.averageCacheMissRatio(quad, 16), EPSILON);
+        // with room for two, only the second triangle's 2 is still cached
+        assertEquals(2.5f, MeshOptimizer.averageCacheMissRatio(quad, 2), EPSILON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWhatIsNotATriangleList() {
+        MeshOptimizer.optimize(unindexed(new float[] { 0, 0, 0, 1, 0, 0 }));
+    }
+
+    // Every triangle of a GRID x GRID grid, unindexed, in a random order.
+    private static Mesh shuffledGrid() {
+        final List<float[]> triangles = new ArrayList<float[]>();
+        for (int row = 0; row < GRID; row++) {
+            for (int column = 0; column < GRID; column++) {
+                final float x = column;
+                final float y = row;
+                triangles.add(new float[] { x, y, 0, x + 1, y, 0, x + 1, y + 1, 0 });
+                triangles.add(new float[] { x, y, 0, x + 1, y + 1, 0, x, y + 1, 0 });
+            }
+        }
+        Collections.shuffle(triangles, new Random(17));
+        final float[] positions = new float[triangles.size() * 9];
+        for (int i = 0; i < triangles.size(); i++) {
+            System.arraycopy(triangles.get(i), 0, positions, i * 9, 9);
+        }
+        return unindexed(positions);
+    }
+
+    private static Mesh unindexed(float[] positions) {
+        return new Mesh(positions.length / 3, positionAttribute(), payload(positions, 0));
+    }
+
+    private static Mesh indexed(float[] positions, int[] indices) {
+        final ByteBuffer payload = payload(positions, indices.length * 2);
+        for (int i = 0; i < indices.length; i++) {
+            payload.putShort(positions.length * 4 + i * 2, (short) indices[i]);
+        }
+        return new Mesh(positions.length / 3, positionAttribute(), payload, positions.length * 4, indices.length);
+    }
+
+    private static VertexAttribute[] positionAttribute() {
+        return new VertexAttribute[] {
+                new VertexAttribute(MeshFormat.SEMANTIC_POSITION, 3, MeshFormat.GL_FLOAT, false, 0, 12) };
+    }
+
+    private static ByteBuffer payload(float[] positions, int extraBytes) {
+        final ByteBuffer payload = ByteBuffer.allocate(positions.length * 4 + extraBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < positions.length; i++) {
+            payload.putFloat(i * 4, positions[i]);
+        }
+        return payload;
+    }
+
+    // The mesh's triangles as sorted strings of corner positions, each
+    // started at its smallest corner so that the winding is kept.
+    private static List<String> triangles(Mesh mesh) {
+        final ByteBuffer payload = mesh.getPayload();
+        final List<String> triangles = new ArrayList<String>();
+        for (int t = 0; t < mesh.getElementCount(); t += 3) {
+            final String[] corners = new String[3];
+            for (int c = 0; c < 3; c++) {
+                final int p = mesh.getVertexIndex(t + c) * 12;
+                corners[c] = payload.getFloat(p) + "," + payload.getFloat(p + 4) + "," + payload.getFloat(p + 8);
+            }
+            int first = 0;
+            for (int c = 1; c < 3; c++) {
+                if (corners[c].compareTo(corners[first]) < 0) {
+                    first = c;
+                }
+            }
+            triangles.add(corners[first] + " " + corners[(first + 1) % 3] + " " + corners[(first + 2) % 3]);
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+}
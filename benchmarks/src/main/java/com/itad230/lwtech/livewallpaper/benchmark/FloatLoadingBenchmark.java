@@ -0,0 +1,58 @@
+package com.itad230.lwtech.livewallpaper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import util.FloatResourceReader;
+
+/**
+ * Parsing of float text files like the ones the cube used to be built
+ * from, with the current parser and the original Scanner reader. Streams
+ * are over in-memory bytes so only parsing is measured, not I/O.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FloatLoadingBenchmark {
+    @Param({"36", "1024", "32768", "1048576"})
+    public int vertexCount;
+
+    private byte[] floatFile;
+
+    @Setup
+    public void setup() throws IOException {
+        floatFile = SyntheticData.floatText(vertexCount, 3, 1);
+    }
+
+    @Benchmark
+    public float[] readFloatFile() throws IOException {
+        return FloatResourceReader.readFloatFile(new ByteArrayInputStream(floatFile));
+    }
+
+    @Benchmark
+    public FloatBuffer readFloatBuffer() throws IOException {
+        return FloatResourceReader.readFloatBuffer(new ByteArrayInputStream(floatFile));
+    }
+
+    @Benchmark
+    public float[] readFloatFileLegacy() {
+        return LegacyFloatResourceReader.readFloatFile(new ByteArrayInputStream(floatFile));
+    }
+}
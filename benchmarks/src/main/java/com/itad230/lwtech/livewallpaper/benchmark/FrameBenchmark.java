@@ -0,0 +1,117 @@
+package com.itad230.lwtech.livewallpaper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import com.itad230.lwtech.livewallpaper.scene.Scene;
+
+import util.math.Mat4;
+
+/**
+ * The CPU side of a frame: the matrix work LiveWallpaperRenderer does in
+ * drawFrame, drawCube/drawCubesBatched and drawLight, without the GL calls.
+ * The scene is the wallpaper's (spinning cubes and an orbiting light)
+ * with the cube count scaled up; every frame advances time so every
+ * transform is recomputed, as it is on the device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameBenchmark {
+    private static final int BATCH_SIZE = 32;
+    private static final float DEGREES_PER_SECOND = 36.0f;
+
+    @Param({"5", "100", "1000", "10000"})
+    public int cubeCount;
+
+    private final float[] viewMatrix = new float[16];
+    private final float[] projectionMatrix = new float[16];
+    private final float[] mvpMatrix = new float[16];
+    private final float[] batchMatrices = new float[BATCH_SIZE * 16];
+    private final float[] lightPosInModelSpace = {0.0f, 0.0f, 0.0f, 1.0f};
+    private final float[] lightPosInWorldSpace = new float[4];
+    private final float[] lightPosInEyeSpace = new float[4];
+
+    private Scene scene;
+    private int lightId;
+    private long now;
+
+    @Setup
+    public void setup() {
+        scene = new Scene(cubeCount + 2);
+        final int side = (int) Math.ceil(Math.sqrt(cubeCount));
+        for (int i = 0; i < cubeCount; i++) {
+            scene.addObject(Scene.NO_PARENT, 0,
+                    (i % side - side / 2) * 4.0f, (i / side - side / 2) * 4.0f, -7.0f,
+                    i % 3 == 0 ? 1.0f : 0.0f, 1.0f, i % 2, DEGREES_PER_SECOND);
+        }
+        final int lightPivotId = scene.addObject(Scene.NO_PARENT, Scene.NO_MESH,
+                0.0f, 0.0f, -7.0f, 0.0f, 1.0f, 0.0f, DEGREES_PER_SECOND);
+        lightId = scene.addObject(lightPivotId, Scene.NO_MESH,
+                0.0f, 0.0f, 2.0f, 0.0f, 1.0f, 0.0f, 0.0f);
+
+        Mat4.setFrustum(projectionMatrix, 0, -0.5625f, 0.5625f, -1.0f, 1.0f, 1.0f, 10.0f);
+    }
+
+    @Benchmark
+    public float[] frame() {
+        final float[] worldMatrices = update();
+        final int[] drawOrder = scene.getDrawOrder();
+        final int drawCount = scene.getDrawCount();
+        for (int i = 0; i < drawCount; i++) {
+            // drawCube
+            Mat4.multiplyAffine(mvpMatrix, 0, viewMatrix, 0, worldMatrices, drawOrder[i] * 16);
+            Mat4.multiplyByAffine(mvpMatrix, 0, projectionMatrix, 0, mvpMatrix, 0);
+        }
+        drawLight(worldMatrices);
+        return mvpMatrix;
+    }
+
+    @Benchmark
+    public float[] frameBatched() {
+        final float[] worldMatrices = update();
+        final int[] drawOrder = scene.getDrawOrder();
+        final int drawCount = scene.getDrawCount();
+        for (int start = 0; start < drawCount; start += BATCH_SIZE) {
+            final int count = Math.min(BATCH_SIZE, drawCount - start);
+            Mat4.multiplyAffineBatch(batchMatrices, 0, viewMatrix, 0, worldMatrices, drawOrder, start, count);
+        }
+        drawLight(worldMatrices);
+        return batchMatrices;
+    }
+
+    // scene update, view and light position, as at the top of drawFrame
+    private float[] update() {
+        now += 16;
+        final float angleInDegrees = (360.0f / 10000.0f) * (int) (now % 10000L);
+
+        scene.update(now / 1000.0);
+        final float[] worldMatrices = scene.getWorldMatrices();
+
+        Mat4.setLookAt(viewMatrix, 0, 0.0f, 0.0f, -0.5f, 0.0f, 0.0f, -5.0f, 0.0f, 1.0f, 0.0f);
+        Mat4.rotate(viewMatrix, 0, angleInDegrees, 0.0f, 0.0f, 1.0f);
+
+        Mat4.multiplyVec4(lightPosInWorldSpace, 0, worldMatrices, lightId * 16, lightPosInModelSpace, 0);
+        Mat4.multiplyVec4(lightPosInEyeSpace, 0, viewMatrix, 0, lightPosInWorldSpace, 0);
+        return worldMatrices;
+    }
+
+    private void drawLight(float[] worldMatrices) {
+        Mat4.multiplyAffine(mvpMatrix, 0, viewMatrix, 0, worldMatrices, lightId * 16);
+        Mat4.multiplyByAffine(mvpMatrix, 0, projectionMatrix, 0, mvpMatrix, 0);
+    }
+}
@@ -0,0 +1,44 @@
+package com.itad230.lwtech.livewallpaper.benchmark;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Scanner;
+
+/**
+ * The original Scanner based FloatResourceReader, reading from a stream
+ * instead of a resource. Kept only as a baseline for FloatLoadingBenchmark.
+ */
+final class LegacyFloatResourceReader {
+    private LegacyFloatResourceReader() {
+    }
+
+    static float[] readFloatFile(InputStream inputStream) {
+        ArrayList<Float> list = new ArrayList<Float>();
+
+        Scanner scan = new Scanner(new InputStreamReader(inputStream));
+        scan.useLocale(Locale.US);
+        scan.useDelimiter(",| |\t|\n");
+
+        while (scan.hasNext()) {
+            if (scan.hasNextFloat()) {
+                list.add(scan.nextFloat());
+            } else {
+                String str = scan.next();
+                if (str.contains("\n")) {
+                    scan.nextLine();
+                }
+                if (str.contains("//")) {
+                    scan.nextLine();
+                }
+            }
+        }
+
+        float[] values = new float[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            values[i] = list.get(i);
+        }
+        return values;
+    }
+}
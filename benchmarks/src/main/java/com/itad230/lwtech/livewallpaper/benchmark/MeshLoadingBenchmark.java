@@ -0,0 +1,72 @@
+package com.itad230.lwtech.livewallpaper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import util.VertexBuffer;
+import util.gl.RecordingGLBackend;
+import util.mesh.Mesh;
+import util.mesh.MeshFormat;
+import util.mesh.MeshResourceReader;
+
+/**
+ * The direct buffer work done when the renderer is constructed and its
+ * surface created: getting the .lwmesh file into a Mesh (in place from a
+ * mapped file, or bulk-read from a stream) and building the interleaved
+ * buffer handed to glBufferData.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MeshLoadingBenchmark {
+    @Param({"36", "1024", "32768", "1048576"})
+    public int vertexCount;
+
+    private byte[] meshFile;
+    private ByteBuffer mappedFile;
+    private Mesh mesh;
+    private RecordingGLBackend gl;
+
+    @Setup
+    public void setup() throws IOException {
+        meshFile = SyntheticData.meshFile(vertexCount);
+        mappedFile = SyntheticData.direct(meshFile);
+        mesh = MeshFormat.read(mappedFile.duplicate());
+        gl = new RecordingGLBackend();
+    }
+
+    @Benchmark
+    public Mesh readMapped() {
+        return MeshFormat.read(mappedFile.duplicate());
+    }
+
+    @Benchmark
+    public Mesh readStream() throws IOException {
+        return MeshResourceReader.readMesh(new ByteArrayInputStream(meshFile));
+    }
+
+    @Benchmark
+    public VertexBuffer interleave() {
+        gl.clearRecording();
+        VertexBuffer buffer = new VertexBuffer(gl, mesh);
+        buffer.upload();
+        return buffer;
+    }
+}
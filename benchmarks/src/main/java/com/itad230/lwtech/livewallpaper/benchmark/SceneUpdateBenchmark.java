@@ -0,0 +1,79 @@
+package com.itad230.lwtech.livewallpaper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import com.itad230.lwtech.livewallpaper.scene.FrameTransforms;
+import com.itad230.lwtech.livewallpaper.scene.Scene;
+import com.itad230.lwtech.livewallpaper.scene.SceneUpdater;
+
+import util.math.Mat4;
+
+/**
+ * How the scene update scales with threads: SceneUpdater working out the
+ * model, model/view and MVP matrices of every object, split over 1 to 4
+ * threads. Half the cubes orbit a parent cube, so the world matrices take
+ * two levels. Not pipelined, so each call is one whole update.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SceneUpdateBenchmark {
+    private static final float DEGREES_PER_SECOND = 36.0f;
+
+    @Param({"1000", "10000"})
+    public int cubeCount;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private final float[] viewMatrix = new float[16];
+    private final float[] projectionMatrix = new float[16];
+
+    private SceneUpdater updater;
+    private long now;
+
+    @Setup
+    public void setup() {
+        final Scene scene = new Scene(cubeCount);
+        final int side = (int) Math.ceil(Math.sqrt(cubeCount));
+        for (int i = 0; i < cubeCount; i += 2) {
+            final int parent = scene.addObject(Scene.NO_PARENT, 0,
+                    (i % side - side / 2) * 4.0f, (i / side - side / 2) * 4.0f, -7.0f,
+                    i % 3 == 0 ? 1.0f : 0.0f, 1.0f, i % 2, DEGREES_PER_SECOND);
+            if (i + 1 < cubeCount) {
+                scene.addObject(parent, 0, 0.0f, 0.0f, 2.0f, 0.0f, 1.0f, 0.0f, -DEGREES_PER_SECOND);
+            }
+        }
+        updater = new SceneUpdater(scene, threads, false);
+
+        Mat4.setLookAt(viewMatrix, 0, 0.0f, 0.0f, -0.5f, 0.0f, 0.0f, -5.0f, 0.0f, 1.0f, 0.0f);
+        Mat4.setFrustum(projectionMatrix, 0, -0.5625f, 0.5625f, -1.0f, 1.0f, 1.0f, 10.0f);
+    }
+
+    @TearDown
+    public void tearDown() {
+        updater.shutdown();
+    }
+
+    @Benchmark
+    public FrameTransforms update() {
+        now += 16;
+        return updater.advance(now / 1000.0, viewMatrix, projectionMatrix);
+    }
+}
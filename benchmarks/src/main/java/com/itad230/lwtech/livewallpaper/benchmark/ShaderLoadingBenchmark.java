@@ -0,0 +1,74 @@
+package com.itad230.lwtech.livewallpaper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import util.TextResourceReader;
+
+/**
+ * Reading the shader sources the renderer compiles in onSurfaceCreated,
+ * from the real files in res/raw.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShaderLoadingBenchmark {
+    private static final String[] SHADERS = {
+            "vshader_cube.glsl",
+            "fshader_cube.glsl",
+            "vshader_pointlightsrc.glsl",
+            "fshader_pointlightsrc.glsl",
+            "vshader_upscale.glsl",
+            "fshader_upscale.glsl",
+    };
+
+    private byte[][] shaderFiles;
+
+    @Setup
+    public void setup() throws IOException {
+        shaderFiles = new byte[SHADERS.length][];
+        for (int i = 0; i < SHADERS.length; i++) {
+            shaderFiles[i] = readAll(getClass().getResourceAsStream("/" + SHADERS[i]));
+        }
+    }
+
+    @Benchmark
+    public int readShaderSources() throws IOException {
+        int length = 0;
+        for (byte[] shaderFile : shaderFiles) {
+            length += TextResourceReader.readTextFile(new ByteArrayInputStream(shaderFile)).length();
+        }
+        return length;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = inputStream.read(chunk)) > 0) {
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
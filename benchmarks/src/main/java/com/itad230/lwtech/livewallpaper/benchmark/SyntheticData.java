@@ -0,0 +1,73 @@
+package com.itad230.lwtech.livewallpaper.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+import util.mesh.Mesh;
+import util.mesh.MeshConverter;
+import util.mesh.MeshFormat;
+
+/**
+ * Generated inputs shaped like the wallpaper's own data (the cube is 36
+ * vertexes) but of any size, so the benchmarks can be scaled up to meshes
+ * much bigger than anything in res/raw. Fixed seeds keep runs comparable.
+ */
+final class SyntheticData {
+    private SyntheticData() {
+    }
+
+    /** floats for vertexCount vertexes of the given width */
+    static float[] floats(int vertexCount, int components, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[vertexCount * components];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat() * 2.0f - 1.0f;
+        }
+        return values;
+    }
+
+    /** A text file in the format of res/raw/*.lwtech: a comment per face, one vertex per line. */
+    static byte[] floatText(int vertexCount, int components, long seed) {
+        final float[] values = floats(vertexCount, components, seed);
+        StringBuilder text = new StringBuilder(vertexCount * components * 12);
+        for (int v = 0; v < vertexCount; v++) {
+            if (v % 6 == 0) {
+                text.append("// Face ").append(v / 6).append('\n');
+            }
+            for (int c = 0; c < components; c++) {
+                text.append(String.format(Locale.US, "%.6f", values[v * components + c])).append(", ");
+            }
+            text.append('\n');
+        }
+        return text.toString().getBytes();
+    }
+
+    /** A position/color/normal mesh like cube.lwmesh. */
+    static Mesh mesh(int vertexCount) {
+        return MeshConverter.planarMesh(
+                new int[] {MeshFormat.SEMANTIC_POSITION, MeshFormat.SEMANTIC_COLOR, MeshFormat.SEMANTIC_NORMAL},
+                new int[] {3, 4, 3},
+                new float[][] {
+                        floats(vertexCount, 3, 1),
+                        floats(vertexCount, 4, 2),
+                        floats(vertexCount, 3, 3)});
+    }
+
+    /** The .lwmesh file for mesh(vertexCount). */
+    static byte[] meshFile(int vertexCount) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MeshFormat.write(mesh(vertexCount), out);
+        return out.toByteArray();
+    }
+
+    /** bytes in a direct buffer, as they are when a resource is memory mapped */
+    static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+}